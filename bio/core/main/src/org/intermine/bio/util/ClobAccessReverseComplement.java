@@ -12,7 +12,7 @@ package org.intermine.bio.util;
 
 import static org.intermine.objectstore.query.Clob.CLOB_PAGE_SIZE;
 
-import java.io.PrintStream;
+import java.io.IOException;
 
 import org.intermine.objectstore.query.ClobAccess;
 
@@ -31,17 +31,12 @@ public class ClobAccessReverseComplement extends ClobAccess
      * @param ca a ClobAccess object
      */
     public ClobAccessReverseComplement(ClobAccess ca) {
+        super(ca);
         if (ca instanceof ClobAccessReverseComplement) {
             throw new IllegalArgumentException("Cannot reversecomplement a Clob that is already "
                     + "reversecomplemented");
         }
         originalClobAccess = ca;
-        os = ca.getOs();
-        results = ca.getResultsWithoutInit();
-        clob = ca.getClob();
-        offset = ca.getOffset();
-        length = ca.getLengthWithoutInit();
-        subSequence = ca.getSubSequence();
     }
 
     /**
@@ -127,52 +122,33 @@ public class ClobAccessReverseComplement extends ClobAccess
     }
 
     /**
-     * {@inheritDoc}
-     */
-    @Override
-    public String toString() {
-        init();
-        StringBuilder retval = new StringBuilder();
-        int lowestPage = offset / CLOB_PAGE_SIZE;
-        int highestPage = (offset + length - 1) / CLOB_PAGE_SIZE;
-        for (int page = highestPage; page >= lowestPage; page--) {
-            String pageText = (String) results.get(page);
-            if (page == highestPage) {
-                pageText = pageText.substring(0, offset + length - page * CLOB_PAGE_SIZE);
-            }
-            if (page == lowestPage) {
-                pageText = pageText.substring(offset - page * CLOB_PAGE_SIZE, pageText.length());
-            }
-            for (int cNo = pageText.length() - 1; cNo >= 0; cNo--) {
-                char origC = pageText.charAt(cNo);
-                retval.append(translate(origC));
-            }
-        }
-        return retval.toString();
-    }
-
-    /**
-     * {@inheritDoc}
+     * Appends the reverse complement of the sequence, reading the pages from the highest to the
+     * lowest in runs of at most STREAM_BATCH pages.
+     *
+     * @param out the Appendable to append to
+     * @throws IOException if the Appendable throws one
      */
     @Override
-    public void drainToPrintStream(PrintStream out) {
+    protected void appendTo(Appendable out) throws IOException {
         init();
-        int lowestPage = offset / CLOB_PAGE_SIZE;
-        int highestPage = (offset + length - 1) / CLOB_PAGE_SIZE;
-        for (int page = highestPage; page >= lowestPage; page--) {
-            StringBuilder retval = new StringBuilder();
-            String pageText = (String) results.get(page);
-            if (page == highestPage) {
-                pageText = pageText.substring(0, offset + length - page * CLOB_PAGE_SIZE);
-            }
-            if (page == lowestPage) {
-                pageText = pageText.substring(offset - page * CLOB_PAGE_SIZE, pageText.length());
-            }
-            for (int cNo = pageText.length() - 1; cNo >= 0; cNo--) {
-                char origC = pageText.charAt(cNo);
-                retval.append(translate(origC));
+        if (length > 0) {
+            int lowestPage = offset / CLOB_PAGE_SIZE;
+            int highestPage = (offset + length - 1) / CLOB_PAGE_SIZE;
+            for (int last = highestPage + 1; last > lowestPage; last -= STREAM_BATCH) {
+                int first = Math.max(last - STREAM_BATCH, lowestPage);
+                String[] pages = getPages(first, last);
+                for (int page = last - 1; page >= first; page--) {
+                    String pageText = pages[page - first];
+                    int start = (page == lowestPage ? offset - page * CLOB_PAGE_SIZE : 0);
+                    int end = (page == highestPage ? offset + length - page * CLOB_PAGE_SIZE
+                            : pageText.length());
+                    StringBuilder retval = new StringBuilder(end - start);
+                    for (int cNo = end - 1; cNo >= start; cNo--) {
+                        retval.append(translate(pageText.charAt(cNo)));
+                    }
+                    out.append(retval);
+                }
             }
-            out.print(retval.toString());
         }
     }
 
@@ -14,6 +14,7 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
@@ -30,6 +31,7 @@ import org.intermine.sql.Database;
 import org.intermine.task.CreateIndexesTask;
 import org.intermine.task.DynamicAttributeTask;
 import org.intermine.task.PrecomputeTask;
+import org.intermine.task.SetTablesLoggedTask;
 import org.intermine.util.PropertiesUtil;
 import org.intermine.web.autocompletion.AutoCompleter;
 import org.intermine.web.task.CreateSearchIndexTask;
@@ -149,6 +151,14 @@ public class PostProcessOperationsTask extends DynamicAttributeTask
                 cit.setAttributeIndexes(true);
                 cit.setObjectStore(getObjectStoreWriter().getObjectStore());
                 cit.execute();
+            } else if ("set-tables-logged".equals(operation)) {
+                ObjectStore os = getObjectStoreWriter().getObjectStore();
+                if (!(os instanceof ObjectStoreInterMineImpl)) {
+                    throw new RuntimeException("cannot set tables logged - must be an "
+                                               + "instance of ObjectStoreInterMineImpl");
+                }
+                SetTablesLoggedTask.setTablesLogged(((ObjectStoreInterMineImpl) os)
+                        .getDatabase(), true);
             } else if ("summarise-objectstore".equals(operation)) {
                 System.out .println("summarising objectstore ...");
                 ObjectStore os = getObjectStoreWriter().getObjectStore();
@@ -165,8 +175,19 @@ public class PostProcessOperationsTask extends DynamicAttributeTask
                 }
                 Properties config = new Properties();
                 config.load(configStream);
-                ObjectStoreSummary oss = new ObjectStoreSummary(os, config);
                 Database db = ((ObjectStoreInterMineImpl) os).getDatabase();
+                ObjectStoreSummary previous = null;
+                if ("true".equals(config.getProperty("summary.incremental"))) {
+                    // only summarise the classes that have changed since the stored summary
+                    String previousString = MetadataManager.retrieve(db,
+                            MetadataManager.OS_SUMMARY);
+                    if (previousString != null) {
+                        Properties previousProperties = new Properties();
+                        previousProperties.load(new StringReader(previousString));
+                        previous = new ObjectStoreSummary(previousProperties);
+                    }
+                }
+                ObjectStoreSummary oss = new ObjectStoreSummary(os, config, previous);
                 MetadataManager.store(db, MetadataManager.OS_SUMMARY,
                                       PropertiesUtil.serialize(oss.toProperties()));
             } else if ("precompute-queries".equals(operation)) {
@@ -126,6 +126,7 @@ public class BEDHttpExporter extends HttpExporterBase implements TableHttpExport
             } finally {
                 if (iter != null) {
                     iter.releaseGoFaster();
+                    iter.close();
                 }
             }
         } catch (Exception e) {
@@ -142,6 +142,7 @@ public class GFF3HttpExporter extends HttpExporterBase implements TableHttpExpor
             } finally {
                 if (iter != null) {
                     iter.releaseGoFaster();
+                    iter.close();
                 }
             }
         } catch (Exception e) {
@@ -139,6 +139,7 @@ public class SequenceHttpExporter extends HttpExporterBase implements TableHttpE
         } finally {
             if (iter != null) {
                 iter.releaseGoFaster();
+                iter.close();
             }
         }
 
@@ -23,6 +23,7 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Executors;
 
 import javax.servlet.http.HttpServletRequest;
 
@@ -113,7 +114,9 @@ public class GenomicRegionSearchQueryRunner implements Runnable
         request.getSession().setAttribute("spanConstraintMap", spanConstraintMap);
         request.setAttribute("spanQueryTotalCount", grsc.getGenomicRegionList().size());
 
-        (new Thread(this)).start();
+        // Run the queries in the background on the ObjectStore's query thread pool
+        SessionMethods.getInterMineAPI(request.getSession()).getObjectStore()
+            .submit(Executors.callable(this));
     }
 
     @Override
@@ -27,6 +27,7 @@ import org.intermine.model.InterMineObject;
 import org.intermine.model.bio.Gene;
 import org.intermine.model.bio.Organism;
 import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.proxy.ProxyCollection;
 import org.intermine.metadata.ConstraintOp;
 import org.intermine.objectstore.query.ConstraintSet;
 import org.intermine.objectstore.query.ContainsConstraint;
@@ -56,6 +57,7 @@ public final class GeneModelCache
     protected static final Logger LOG = Logger.getLogger(GeneModelCache.class);
     private static Map<String, GeneModelSettings> organismSettings =
         new HashMap<String, GeneModelSettings>();
+    private static final String[] TRANSCRIPT_PARTS = {"exons", "introns", "CDSs", "UTRs"};
 
     private GeneModelCache() {
     }
@@ -109,8 +111,12 @@ public final class GeneModelCache
             geneModels = new ArrayList<GeneModel>();
 
             try {
-                Collection<InterMineObject> transcripts =
-                    (Collection<InterMineObject>) gene.getFieldValue("transcripts");
+                List<InterMineObject> transcripts = new ArrayList<InterMineObject>(
+                        (Collection<InterMineObject>) gene.getFieldValue("transcripts"));
+                // load the parts of all the transcripts together rather than one by one
+                for (String part : TRANSCRIPT_PARTS) {
+                    ProxyCollection.prefetch(transcripts, part);
+                }
                 for (InterMineObject transcript : transcripts) {
                     geneModels.add(new GeneModel(model, gene, transcript));
                 }
@@ -194,6 +194,8 @@ class ResultManipulater extends HttpExporterBase
             }
         } catch (Exception ex) {
             throw new ExportException("Export failed", ex);
+        } finally {
+            resultIt.close();
         }
 
         return orgNameMap;
@@ -23,11 +23,8 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
 import org.apache.commons.collections.keyvalue.MultiKey;
@@ -173,23 +170,6 @@ public class Engine extends CommandRunner
         return subsegments;
     }
 
-    private static final class PathQueryCounter implements Callable<Integer>
-    {
-        final PathQuery pq;
-        final ObjectStore os;
-
-        PathQueryCounter(PathQuery pq, ObjectStore os) {
-            this.pq = pq.clone();
-            this.os = os;
-        }
-
-        @Override
-        public Integer call() throws Exception {
-            Query q = pathQueryToOSQ(pq);
-            return os.count(q, ObjectStore.SEQUENCE_IGNORE);
-        }
-    }
-
     private static Map<MultiKey, Integer> maxima = new ConcurrentHashMap<MultiKey, Integer>();
 
     /**
@@ -272,16 +252,12 @@ public class Engine extends CommandRunner
     }
 
     private List<Future<Integer>> countInParallel(List<PathQuery> segmentQueries) {
-        if (segmentQueries.isEmpty()) {
-            return Collections.emptyList();
-        }
-        ExecutorService executor = Executors.newFixedThreadPool(segmentQueries.size());
+        // The counts run on the ObjectStore's query thread pool, which bounds how many run at once
+        ObjectStore os = getAPI().getObjectStore();
         List<Future<Integer>> pending = new ArrayList<Future<Integer>>();
         for (PathQuery pq: segmentQueries) {
-            Callable<Integer> counter = new PathQueryCounter(pq, getAPI().getObjectStore());
-            pending.add(executor.submit(counter));
+            pending.add(os.countAsync(pathQueryToOSQ(pq.clone()), ObjectStore.SEQUENCE_IGNORE));
         }
-        executor.shutdown();
         return pending;
     }
 
@@ -99,6 +99,27 @@ public class PathQueryExecutor extends QueryExecutor
     }
 
 
+    /**
+     * Executes object store query and returns results as iterator over rows, streaming the rows
+     * from the database through a single cursor where the ObjectStore supports it. This is the
+     * cheapest way to read a large result set from start to finish exactly once, as for a whole
+     * table export. A caller that stops reading before the end must call close() on the returned
+     * iterator, in order to release the database connection.
+     *
+     * @param pathQuery path query to be executed
+     * @return results
+     * @throws ObjectStoreException if something goes wrong with the database
+     */
+    public ExportResultsIterator executeStreaming(PathQuery pathQuery)
+        throws ObjectStoreException {
+        Map<String, QuerySelectable> pathToQueryNode = new HashMap<String, QuerySelectable>();
+        Map<String, BagQueryResult> returnBagQueryResults = new HashMap<String, BagQueryResult>();
+
+        Query q = makeQuery(pathQuery, returnBagQueryResults, pathToQueryNode);
+        Results results = os.execute(q, batchSize, true, true, false);
+        return new ExportResultsIterator(pathQuery, q, results, pathToQueryNode, true);
+    }
+
     /**
      * Executes object store query and returns results as iterator over rows.
      * Every row is a list of result elements.
@@ -130,6 +151,30 @@ public class PathQueryExecutor extends QueryExecutor
         return new ResultIterator(pathQuery, q, results, pathToQueryNode, start, limit);
     }
 
+    /**
+     * Executes object store query and returns the rows in the given range, streaming them from
+     * the database through a single cursor where the ObjectStore supports it (see
+     * executeStreaming(PathQuery)). The rows before start are still read and thrown away, so this
+     * is intended for large ranges near the beginning of the results. The cursor is closed once
+     * the last row of the range has been read, but a caller that stops reading before then must
+     * call close() on the returned iterator.
+     *
+     * @param pathQuery path query to be executed
+     * @param start index of first result which will be retrieved
+     * @param limit maximum number of results
+     * @return results
+     * @throws ObjectStoreException if fail to execute query
+     */
+    public ExportResultsIterator executeStreaming(PathQuery pathQuery, final int start,
+            final int limit) throws ObjectStoreException {
+        Map<String, QuerySelectable> pathToQueryNode = new HashMap<String, QuerySelectable>();
+        Map<String, BagQueryResult> returnBagQueryResults = new HashMap<String, BagQueryResult>();
+
+        Query q = makeQuery(pathQuery, returnBagQueryResults, pathToQueryNode);
+        Results results = os.execute(q, batchSize, true, true, false);
+        return new ResultIterator(pathQuery, q, results, pathToQueryNode, start, limit, true);
+    }
+
     private Query makeQuery(PathQuery pathQuery, Map<String, BagQueryResult> pathToBagQueryResult,
             Map<String, QuerySelectable> pathToQueryNode) throws ObjectStoreException {
 
@@ -258,7 +303,27 @@ class ResultIterator extends ExportResultsIterator
     public ResultIterator(PathQuery pathQuery, Query q, Results results,
             Map<String, QuerySelectable> pathToQueryNode, int start, int limit)
         throws ObjectStoreException {
-        super(pathQuery, q, results, pathToQueryNode);
+        this(pathQuery, q, results, pathToQueryNode, start, limit, false);
+    }
+
+    /**
+     * Constructor for ExportResultsIterator, which may stream the results through a database
+     * cursor. If so, then the cursor is closed once the last row in the range has been read.
+     *
+     * @param pathQuery a PathQuery to run.
+     * @param q The object-store query this path-query corresponds to.
+     * @param results the results object created when executing the query
+     * @param pathToQueryNode a map from path in pathQuery to QuerySelectable in the generated
+     * ObjectStore query
+     * @param start the first row of results to be returned
+     * @param limit the number of result rows to return
+     * @param streaming true to stream the results through a database cursor
+     * @throws ObjectStoreException if something goes wrong executing the query
+     */
+    public ResultIterator(PathQuery pathQuery, Query q, Results results,
+            Map<String, QuerySelectable> pathToQueryNode, int start, int limit,
+            boolean streaming) throws ObjectStoreException {
+        super(pathQuery, q, results, pathToQueryNode, streaming);
         this.limit = limit;
         this.start = start;
     }
@@ -278,6 +343,7 @@ class ResultIterator extends ExportResultsIterator
         }
 
         if (counter >= (limit + start)) {
+            close();
             return false;
         } else {
             return super.hasNext();
@@ -27,7 +27,7 @@ import org.intermine.objectstore.query.QuerySelectable;
 import org.intermine.objectstore.query.Results;
 import org.intermine.pathquery.Constraints;
 import org.intermine.pathquery.PathQuery;
-import org.intermine.util.CacheMap;
+import org.intermine.util.TinyLfuCacheMap;
 
 /**
  * Common superclass of query executors that holds cache of pathToQueryNode maps per query. This
@@ -206,7 +206,8 @@ public abstract class QueryExecutor
         return os.count(q, ObjectStore.SEQUENCE_IGNORE);
     }
 
-    private static final Map<String, Integer> COUNT_CACHE = new CacheMap<String, Integer>();
+    private static final Map<String, Integer> COUNT_CACHE = new TinyLfuCacheMap<String, Integer>(
+            "Unique column value count cache", 10000);
     /**
      * Get the the total number of unique column values for a given path in the
      * context of a given query.
@@ -224,9 +225,10 @@ public abstract class QueryExecutor
     public int uniqueColumnValues(PathQuery pq, String path) throws ObjectStoreException {
         Query q = makeSummaryQuery(pq, path, true);
         String cacheKey = q.toString() + "summary-path: " + path;
-        if (COUNT_CACHE.containsKey(cacheKey)) {
+        Integer cached = COUNT_CACHE.get(cacheKey);
+        if (cached != null) {
             LOG.debug("Count cache hit");
-            return COUNT_CACHE.get(cacheKey);
+            return cached.intValue();
         } else {
             LOG.debug("Count cache miss");
             Results res = os.execute(q, summaryBatchSize, true, true, true);
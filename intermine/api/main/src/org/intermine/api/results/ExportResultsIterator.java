@@ -27,6 +27,7 @@ import org.intermine.objectstore.query.QueryCollectionPathExpression;
 import org.intermine.objectstore.query.QueryObjectPathExpression;
 import org.intermine.objectstore.query.QuerySelectable;
 import org.intermine.objectstore.query.Results;
+import org.intermine.objectstore.query.ResultsCursor;
 import org.intermine.pathquery.Path;
 import org.intermine.pathquery.PathException;
 import org.intermine.pathquery.PathQuery;
@@ -42,6 +43,8 @@ public class ExportResultsIterator implements Iterator<List<ResultElement>>
     private static final Logger LOG = Logger.getLogger(ExportResultsIterator.class);
 
     private Iterator<List> osIter;
+    private ResultsCursor cursor = null;
+    private boolean streaming = false;
     protected Iterator<List<ResultElement>> subIter;
     // This object contains a description of the collections in the input.
     private List columns;
@@ -65,10 +68,31 @@ public class ExportResultsIterator implements Iterator<List<ResultElement>>
      */
     public ExportResultsIterator(PathQuery pathQuery, Query q, Results results,
             Map<String, QuerySelectable> pathToQueryNode) throws ObjectStoreException {
+        this(pathQuery, q, results, pathToQueryNode, false);
+    }
+
+    /**
+     * Constructor for ExportResultsIterator. This creates a new instance from the given
+     * ObjectStore, PathQuery, and other necessary objects. If streaming is true, then the rows
+     * are read through a single database cursor (see Results.streamingIterator()), which is much
+     * faster for exporting large results in one go. In this case, a caller that stops before the
+     * end of the results must call close().
+     *
+     * @param pathQuery a PathQuery to run
+     * @param q original query
+     * @param results the results object created when executing the query
+     * @param pathToQueryNode a map from path in pathQuery to QuerySelectable in the generated
+     * ObjectStore query
+     * @param streaming true to stream the results through a database cursor
+     * @throws ObjectStoreException if something goes wrong executing the query
+     */
+    public ExportResultsIterator(PathQuery pathQuery, Query q, Results results,
+            Map<String, QuerySelectable> pathToQueryNode, boolean streaming)
+        throws ObjectStoreException {
         this.results = results;
         this.originatingQuery = pathQuery;
         this.query = q;
-        init(pathQuery, pathToQueryNode);
+        init(pathQuery, pathToQueryNode, streaming);
     }
 
     /**
@@ -85,8 +109,15 @@ public class ExportResultsIterator implements Iterator<List<ResultElement>>
         return Collections.unmodifiableList(paths);
     }
 
-    private void init(PathQuery pq, Map<String, QuerySelectable> pathToQueryNode) {
-        osIter = ((List) results).iterator();
+    private void init(PathQuery pq, Map<String, QuerySelectable> pathToQueryNode,
+            boolean streaming) {
+        this.streaming = streaming;
+        if (streaming) {
+            cursor = results.streamingIterator(results.getBatchSize());
+            osIter = (Iterator) cursor;
+        } else {
+            osIter = ((List) results).iterator();
+        }
 
         List<List<ResultElement>> empty = Collections.emptyList();
         subIter = empty.iterator();
@@ -136,13 +167,25 @@ public class ExportResultsIterator implements Iterator<List<ResultElement>>
     }
 
     /**
-     * Switches on the goFaster mode in the objectstore for this query.
+     * Releases any database resources held by this iterator. This is only necessary if the
+     * iterator is streaming and has not been read to the end.
+     */
+    public void close() {
+        if (cursor != null) {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Switches on the goFaster mode in the objectstore for this query. This does nothing if the
+     * iterator is streaming, as the query is then only run once, and precomputing it would just
+     * read all the results twice.
      *
      * @throws RuntimeException if something goes wrong
      */
     public void goFaster()  {
         try {
-            if ((!results.isSingleBatch()) && (!isGoingFaster)) {
+            if ((!streaming) && (!results.isSingleBatch()) && (!isGoingFaster)) {
                 ((ObjectStoreInterMineImpl) results.getObjectStore()).goFaster(results.getQuery());
                 isGoingFaster = true;
             }
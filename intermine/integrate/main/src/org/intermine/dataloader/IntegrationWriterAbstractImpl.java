@@ -17,6 +17,8 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 import org.apache.log4j.Logger;
 import org.intermine.metadata.FieldDescriptor;
@@ -35,6 +37,7 @@ import org.intermine.objectstore.query.ObjectStoreBag;
 import org.intermine.objectstore.query.Query;
 import org.intermine.objectstore.query.QueryClass;
 import org.intermine.objectstore.query.Results;
+import org.intermine.objectstore.query.ResultsCursor;
 import org.intermine.objectstore.query.ResultsInfo;
 import org.intermine.objectstore.query.ResultsRow;
 import org.intermine.objectstore.query.SingletonResults;
@@ -668,6 +671,36 @@ public abstract class IntegrationWriterAbstractImpl implements IntegrationWriter
         return osw.execute(q, start, limit, optimise, explain, sequence);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public ResultsCursor executeCursor(Query q, int fetchSize, boolean optimise,
+            Map<Object, Integer> sequence) throws ObjectStoreException {
+        return osw.executeCursor(q, fetchSize, optimise, sequence);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Future<List<ResultsRow<Object>>> executeAsync(Query q, int start, int limit,
+            boolean optimise, boolean explain, Map<Object, Integer> sequence) {
+        return osw.executeAsync(q, start, limit, optimise, explain, sequence);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Future<Integer> countAsync(Query q, Map<Object, Integer> sequence) {
+        return osw.countAsync(q, sequence);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public <V> Future<V> submit(Callable<V> task) {
+        return osw.submit(task);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -10,7 +10,6 @@ package org.intermine.dataloader;
  *
  */
 
-import java.util.Collection;
 import java.util.Properties;
 
 import org.apache.log4j.Logger;
@@ -23,6 +22,7 @@ import org.intermine.objectstore.ObjectStoreException;
 import org.intermine.objectstore.fastcollections.ObjectStoreFastCollectionsForTranslatorImpl;
 import org.intermine.objectstore.query.Query;
 import org.intermine.objectstore.query.QueryClass;
+import org.intermine.objectstore.query.ResultsCursor;
 import org.intermine.objectstore.query.SingletonResults;
 import org.intermine.util.IntPresentSet;
 import org.intermine.util.PropertiesUtil;
@@ -76,6 +76,7 @@ public class ObjectStoreDataLoader extends DataLoader
             Class<? extends FastPathObject> queryClass) throws ObjectStoreException {
         int errorCount = 0;
         ObjectStore origOs = os;
+        ResultsCursor cursor = null;
         try {
             if (os instanceof ObjectStoreFastCollectionsForTranslatorImpl) {
                 ((ObjectStoreFastCollectionsForTranslatorImpl) os).setSource(source);
@@ -128,11 +129,15 @@ public class ObjectStoreDataLoader extends DataLoader
             long timeSpentLoop = 0;
             getIntegrationWriter().beginTransaction();
             SingletonResults res = os.executeSingleton(q, ITEM_READ_BATCH_SIZE, false, false, true);
+            // Stream the source through a single cursor if the ObjectStore can do so, rather than
+            // re-running the query with an ever-increasing OFFSET for every batch. The translating
+            // and fast-collections stores pass the cursor of the store they wrap through, and
+            // convert ITEM_READ_BATCH_SIZE rows at a time.
+            cursor = res.streamingIterator(ITEM_READ_BATCH_SIZE);
             long time4 = System.currentTimeMillis();
             long time1, time2, time3;
-            @SuppressWarnings({ "unchecked", "rawtypes" })
-            Collection<FastPathObject> tmpRes = (Collection) res;
-            for (FastPathObject obj : tmpRes) {
+            while (cursor.hasNext()) {
+                FastPathObject obj = (FastPathObject) cursor.next();
                 time1 = System.currentTimeMillis();
                 timeSpentLoop += time1 - time4;
                 time2 = System.currentTimeMillis();
@@ -220,6 +225,10 @@ public class ObjectStoreDataLoader extends DataLoader
                 }
             }
             throw e;
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
         }
         LOG.warn("errorCount: " + errorCount);
         if (errorCount > 0) {
@@ -32,11 +32,13 @@ import org.intermine.objectstore.ObjectStoreFactory;
 import org.intermine.objectstore.ObjectStorePassthruImpl;
 import org.intermine.objectstore.proxy.ProxyReference;
 import org.intermine.objectstore.query.BagConstraint;
+import org.intermine.objectstore.query.BatchConvertingResultsCursor;
 import org.intermine.objectstore.query.Query;
 import org.intermine.objectstore.query.QueryClass;
 import org.intermine.objectstore.query.QueryField;
 import org.intermine.objectstore.query.QuerySelectable;
 import org.intermine.objectstore.query.Results;
+import org.intermine.objectstore.query.ResultsCursor;
 import org.intermine.objectstore.query.ResultsRow;
 import org.intermine.objectstore.query.SingletonResults;
 import org.intermine.objectstore.translating.ObjectStoreTranslatingImpl;
@@ -189,9 +191,49 @@ public class ObjectStoreFastCollectionsForTranslatorImpl extends ObjectStorePass
     @Override
     public List<ResultsRow<Object>> execute(Query q, int start, int limit, boolean optimise,
             boolean explain, Map<Object, Integer> sequence) throws ObjectStoreException {
+        List<ResultsRow<Object>> retval = os.execute(q, start, limit, optimise, explain,
+                sequence);
+        return fetchCollections(q, retval, limit, optimise, explain);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The query is streamed from the underlying ObjectStore if it supports it, and the
+     * collections and references are fetched for fetchSize rows at a time. As the streamed query
+     * itself is not explained, neither are the queries for the collections.
+     */
+    @Override
+    public ResultsCursor executeCursor(final Query q, final int fetchSize,
+            final boolean optimise, Map<Object, Integer> sequence) throws ObjectStoreException {
+        ResultsCursor cursor = os.executeCursor(q, fetchSize, optimise, sequence);
+        if (cursor == null) {
+            return null;
+        }
+        return new BatchConvertingResultsCursor(cursor, fetchSize) {
+            @Override
+            protected List<ResultsRow<Object>> convertBatch(List<ResultsRow<Object>> rows)
+                throws ObjectStoreException {
+                return fetchCollections(q, rows, fetchSize, optimise, false);
+            }
+        };
+    }
+
+    /**
+     * Fetches the objects in the collections and references of the objects in a batch of rows
+     * fetched from the underlying ObjectStore, and populates them.
+     *
+     * @param q the Query that the rows are from
+     * @param retval the rows
+     * @param limit the number of objects to fetch in each query
+     * @param optimise whether to optimise the queries for the objects
+     * @param explain whether to explain the queries for the objects
+     * @return retval
+     * @throws ObjectStoreException if an error occurs
+     */
+    private List<ResultsRow<Object>> fetchCollections(Query q, List<ResultsRow<Object>> retval,
+            int limit, boolean optimise, boolean explain) throws ObjectStoreException {
         try {
-            List<ResultsRow<Object>> retval = os.execute(q, start, limit, optimise, explain,
-                    sequence);
             synchronized (doneAlready) {
                 if (retval.size() > 1) {
                     // The ItemToObjectTranslator creates collections by creating a query with a
@@ -122,7 +122,7 @@ public class JavaModelOutput
                 }
             }
             sb.append("import org.intermine.objectstore.ObjectStore;" + ENDL);
-            sb.append("import org.intermine.objectstore.intermine.NotXmlParser;" + ENDL);
+            sb.append("import org.intermine.objectstore.intermine.NotXmlReader;" + ENDL);
             sb.append("import org.intermine.objectstore.intermine.NotXmlRenderer;" + ENDL);
             if (hasCollections) {
                 sb.append("import org.intermine.objectstore.proxy.ProxyCollection;" + ENDL);
@@ -649,7 +649,11 @@ public class JavaModelOutput
         sb.append(INDENT)
             .append("public void setoBJECT(String notXml, ObjectStore os) {\n")
             .append(INDENT + INDENT)
-            .append("setoBJECT(NotXmlParser.SPLITTER.split(notXml), os);\n")
+            .append("NotXmlReader reader = new NotXmlReader(notXml);\n")
+            .append(INDENT + INDENT)
+            .append("reader.nextField();\n")
+            .append(INDENT + INDENT)
+            .append("setoBJECT(reader, os);\n")
             .append(INDENT)
             .append("}\n")
             .append(INDENT)
@@ -779,11 +783,138 @@ public class JavaModelOutput
                             + ".class);\n");
             }
         }
+        sb.append(INDENT)
+            .append("}\n")
+            .append(generateSetObjectFromReader(cld));
+        return sb.toString();
+    }
+
+    /**
+     * Generates the setoBJECT method that reads fields directly from a NotXmlReader, without
+     * splitting the NotXml into an array first.
+     *
+     * @param cld a ClassDescriptor
+     * @return a String containing the method
+     */
+    protected String generateSetObjectFromReader(ClassDescriptor cld) {
+        StringBuffer sb = new StringBuffer();
+        sb.append(INDENT)
+            .append("public void setoBJECT(final NotXmlReader notXml, final ObjectStore os) {\n")
+            .append(INDENT + INDENT)
+            .append("if (!" + cld.getName() + (cld.isInterface() ? "Shadow" : "")
+                    + ".class.equals(getClass())) {\n")
+            .append(INDENT + INDENT + INDENT)
+            .append("throw new IllegalStateException(\"Class \" + getClass().getName() + \""
+                    + " does not match code (" + cld.getName() + ")\");\n")
+            .append(INDENT + INDENT)
+            .append("}\n")
+            .append(INDENT + INDENT)
+            .append("while (notXml.hasField()) {\n")
+            .append(INDENT + INDENT + INDENT)
+            .append("int startI = notXml.getPosition();\n");
+        for (FieldDescriptor field : cld.getAllFieldDescriptors()) {
+            String fieldName = field.getName();
+            if ("notXml".equals(fieldName)) {
+                fieldName = "this.notXml";
+            } else if ("os".equals(fieldName)) {
+                fieldName = "this.os";
+            }
+            if (field instanceof AttributeDescriptor) {
+                AttributeDescriptor attribute = (AttributeDescriptor) field;
+                sb.append(INDENT + INDENT + INDENT)
+                    .append("if (notXml.isAttribute(\"" + field.getName() + "\")) {\n")
+                    .append(INDENT + INDENT + INDENT + INDENT)
+                    .append(fieldName + " = " + generateReadValue(attribute.getType()) + ";\n")
+                    .append(INDENT + INDENT + INDENT)
+                    .append("}\n");
+            } else if (field.isReference()) {
+                ReferenceDescriptor reference = (ReferenceDescriptor) field;
+                sb.append(INDENT + INDENT + INDENT)
+                    .append("if (notXml.isReference(\"" + field.getName() + "\")) {\n")
+                    .append(INDENT + INDENT + INDENT + INDENT)
+                    .append(fieldName + " = new ProxyReference(os, Integer.valueOf(notXml"
+                            + ".readInt()), " + reference.getReferencedClassName() + ".class);\n")
+                    .append(INDENT + INDENT + INDENT)
+                    .append("}\n");
+            }
+        }
+        sb.append(INDENT + INDENT + INDENT)
+            .append("if (startI == notXml.getPosition()) {\n")
+            .append(INDENT + INDENT + INDENT + INDENT)
+            .append("throw new IllegalArgumentException(\"Unknown field \" + notXml.getFieldName()"
+                    + ");\n")
+            .append(INDENT + INDENT + INDENT)
+            .append("}\n")
+            .append(INDENT + INDENT)
+            .append("}\n");
+        for (FieldDescriptor field : cld.getAllFieldDescriptors()) {
+            String fieldName = field.getName();
+            if ("notXml".equals(fieldName)) {
+                fieldName = "this.notXml";
+            } else if ("os".equals(fieldName)) {
+                fieldName = "this.os";
+            }
+            if (field instanceof CollectionDescriptor) {
+                CollectionDescriptor coll = (CollectionDescriptor) field;
+                sb.append(INDENT + INDENT)
+                    .append(fieldName + " = new ProxyCollection<" + coll.getReferencedClassName()
+                            + ">(os, this, \"" + fieldName + "\", " + coll.getReferencedClassName()
+                            + ".class);\n");
+            }
+        }
         sb.append(INDENT)
             .append("}\n");
         return sb.toString();
     }
 
+    /**
+     * Generates an expression that reads a value of the given type from a NotXmlReader called
+     * notXml. Integer types are decoded in place, and everything else is read as a String.
+     *
+     * @param type the type of the attribute
+     * @return a String containing a Java expression
+     */
+    protected String generateReadValue(String type) {
+        if ("boolean".equals(type)) {
+            return "notXml.readBoolean()";
+        } else if ("short".equals(type)) {
+            return "notXml.readShort()";
+        } else if ("int".equals(type)) {
+            return "notXml.readInt()";
+        } else if ("long".equals(type)) {
+            return "notXml.readLong()";
+        } else if ("float".equals(type)) {
+            return "Float.parseFloat(notXml.readString())";
+        } else if ("double".equals(type)) {
+            return "Double.parseDouble(notXml.readString())";
+        } else if ("java.lang.Boolean".equals(type)) {
+            return "Boolean.valueOf(notXml.readBoolean())";
+        } else if ("java.lang.Short".equals(type)) {
+            return "Short.valueOf(notXml.readShort())";
+        } else if ("java.lang.Integer".equals(type)) {
+            return "Integer.valueOf(notXml.readInt())";
+        } else if ("java.lang.Long".equals(type)) {
+            return "Long.valueOf(notXml.readLong())";
+        } else if ("java.lang.Float".equals(type)) {
+            return "Float.valueOf(notXml.readString())";
+        } else if ("java.lang.Double".equals(type)) {
+            return "Double.valueOf(notXml.readString())";
+        } else if ("java.util.Date".equals(type)) {
+            return "new java.util.Date(notXml.readLong())";
+        } else if ("java.math.BigDecimal".equals(type)) {
+            return "new java.math.BigDecimal(notXml.readString())";
+        } else if ("org.intermine.objectstore.query.ClobAccess".equals(type)) {
+            return "org.intermine.objectstore.query.ClobAccess.decodeDbDescription(os, notXml"
+                + ".readString())";
+        } else if ("java.util.UUID".equals(type)) {
+            return "java.util.UUID.fromString(notXml.readString())";
+        } else if ("java.lang.String".equals(type)) {
+            return "notXml.readString()";
+        } else {
+            throw new IllegalArgumentException("Unknown type " + type);
+        }
+    }
+
     /**
      * Generates the getFieldValue method.
      *
@@ -11,6 +11,7 @@ package org.intermine.model;
  */
 
 import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.intermine.NotXmlReader;
 
 /**
  * A root interface for all objects that can be stored in a InterMine database.
@@ -58,6 +59,15 @@ public interface InterMineObject extends InterMineFastPathObject
      */
     void setoBJECT(String[] notXml, ObjectStore os);
 
+    /**
+     * Sets the values of the fields to the values read from the given NotXmlReader, which must be
+     * positioned on the first field.
+     *
+     * @param notXml a NotXmlReader reading NotXml for this class
+     * @param os an ObjectStore from which to create proxies
+     */
+    void setoBJECT(NotXmlReader notXml, ObjectStore os);
+
     /**
      * Returns the element type of a collection by name.
      *
@@ -109,6 +109,12 @@ public final class MetadataManager
      */
     public static final String NO_NOTXML = "noNotXml";
 
+    /**
+     * The name of the key used to store the format of the OBJECT column, which is either
+     * "notxml" or "compact".
+     */
+    public static final String OBJECT_FORMAT = "objectFormat";
+
     /**
      * The name of the key used to store the modMine MetaData cache
      */
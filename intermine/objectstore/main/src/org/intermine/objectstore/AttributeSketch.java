@@ -0,0 +1,209 @@
+package org.intermine.objectstore;
+
+/*
+ * Copyright (C) 2002-2016 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.intermine.metadata.ClassDescriptor;
+import org.intermine.metadata.ConstraintOp;
+import org.intermine.objectstore.query.BagConstraint;
+import org.intermine.objectstore.query.ObjectStoreBag;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.QueryClass;
+import org.intermine.objectstore.query.QueryField;
+import org.intermine.objectstore.query.QueryFunction;
+import org.intermine.objectstore.query.Results;
+import org.intermine.objectstore.query.ResultsRow;
+import org.intermine.objectstore.query.SingletonResults;
+import org.intermine.util.EquiDepthHistogram;
+import org.intermine.util.HyperLogLog;
+
+/**
+ * A summary of the values of an attribute of a class, made of a HyperLogLog sketch of its
+ * distinct values, an equi-depth histogram of its values, and the number of nulls. It answers
+ * approximate distinct counts and value distributions without querying the database, and sketches
+ * of different sets of objects can be merged.
+ *
+ * @author agent
+ */
+public class AttributeSketch
+{
+    private static final int BATCH_SIZE = 10000;
+
+    private final HyperLogLog distinct;
+    private final EquiDepthHistogram histogram;
+    private final long nullCount;
+
+    /**
+     * Constructs an AttributeSketch from its parts.
+     *
+     * @param distinct a sketch of the distinct non-null values
+     * @param histogram a histogram of the non-null values
+     * @param nullCount the number of nulls
+     */
+    public AttributeSketch(HyperLogLog distinct, EquiDepthHistogram histogram, long nullCount) {
+        this.distinct = distinct;
+        this.histogram = histogram;
+        this.nullCount = nullCount;
+    }
+
+    /**
+     * Returns the estimated number of distinct non-null values.
+     *
+     * @return a long
+     */
+    public long getDistinctCount() {
+        return distinct.cardinality();
+    }
+
+    /**
+     * Returns the sketch of the distinct values.
+     *
+     * @return a HyperLogLog
+     */
+    public HyperLogLog getHyperLogLog() {
+        return distinct;
+    }
+
+    /**
+     * Returns the histogram of the non-null values.
+     *
+     * @return an EquiDepthHistogram
+     */
+    public EquiDepthHistogram getHistogram() {
+        return histogram;
+    }
+
+    /**
+     * Returns the number of nulls.
+     *
+     * @return a long
+     */
+    public long getNullCount() {
+        return nullCount;
+    }
+
+    /**
+     * Returns a sketch of the union of the objects summarised by this sketch and another.
+     *
+     * @param other a sketch of the same attribute of other objects
+     * @param bucketCount the number of histogram buckets to aim for
+     * @return a new AttributeSketch
+     */
+    public AttributeSketch merge(AttributeSketch other, int bucketCount) {
+        HyperLogLog mergedDistinct = HyperLogLog.valueOf(distinct.toString());
+        mergedDistinct.merge(other.distinct);
+        return new AttributeSketch(mergedDistinct, histogram.merge(other.histogram, bucketCount),
+                nullCount + other.nullCount);
+    }
+
+    /**
+     * Returns the sketch as a List of Strings, which can be read back with valueOf.
+     *
+     * @return a List of Strings
+     */
+    public List<String> toStrings() {
+        List<String> retval = new ArrayList<String>();
+        retval.add(distinct.toString());
+        retval.add(Long.toString(nullCount));
+        retval.addAll(histogram.toStrings());
+        return retval;
+    }
+
+    /**
+     * Reads a sketch written by toStrings.
+     *
+     * @param strings the List of Strings
+     * @return an AttributeSketch
+     * @throws IllegalArgumentException if the Strings are not a sketch
+     */
+    public static AttributeSketch valueOf(List<String> strings) {
+        if (strings.size() < 3) {
+            throw new IllegalArgumentException("Not an attribute sketch: " + strings);
+        }
+        return new AttributeSketch(HyperLogLog.valueOf(strings.get(0)),
+                EquiDepthHistogram.valueOf(strings.subList(2, strings.size())),
+                Long.parseLong(strings.get(1)));
+    }
+
+    /**
+     * Makes a sketch of an attribute of the objects of a class, optionally only those in a bag,
+     * with one query that counts the objects with each value in order.
+     *
+     * @param os the ObjectStore
+     * @param cld the class
+     * @param fieldName the name of the attribute
+     * @param bag a bag of objects to summarise, or null to summarise all the objects of the class
+     * @param bucketCount the number of histogram buckets to aim for
+     * @return an AttributeSketch
+     * @throws ObjectStoreException if an error occurs accessing the data
+     */
+    public static AttributeSketch compute(ObjectStore os, ClassDescriptor cld, String fieldName,
+            ObjectStoreBag bag, int bucketCount) throws ObjectStoreException {
+        QueryClass qc = new QueryClass(cld.getType());
+        QueryField qf = new QueryField(qc, fieldName);
+        Query countQuery = new Query();
+        countQuery.addFrom(qc);
+        countQuery.addToSelect(new QueryFunction());
+        Query q = new Query();
+        q.addFrom(qc);
+        q.addToSelect(qf);
+        q.addToSelect(new QueryFunction());
+        q.addToGroupBy(qf);
+        q.addToOrderBy(qf);
+        if (bag != null) {
+            q.setConstraint(new BagConstraint(new QueryField(qc, "id"), ConstraintOp.IN, bag));
+            countQuery.setConstraint(new BagConstraint(new QueryField(qc, "id"), ConstraintOp.IN,
+                        bag));
+        }
+        SingletonResults countResults = os.executeSingleton(countQuery, 1, false, false, false);
+        long total = ((Number) countResults.get(0)).longValue();
+
+        Class<?> type = qf.getType();
+        boolean numeric = (Number.class.isAssignableFrom(type) || Date.class.equals(type)
+                || (type.isPrimitive() && !boolean.class.equals(type)));
+        HyperLogLog distinct = new HyperLogLog();
+        EquiDepthHistogram.Builder builder = new EquiDepthHistogram.Builder(numeric, total,
+                bucketCount);
+        // The database orders strings by its collation, but the histogram compares them with
+        // String.compareTo, so non-numeric values are sorted again here before building it.
+        Map<String, Long> strings = (numeric ? null : new TreeMap<String, Long>());
+        long nullCount = 0;
+        Results results = os.execute(q, BATCH_SIZE, true, false, false);
+        for (Object resRow : results) {
+            ResultsRow<?> row = (ResultsRow<?>) resRow;
+            Object value = row.get(0);
+            long rows = ((Number) row.get(1)).longValue();
+            if (value == null) {
+                nullCount += rows;
+            } else {
+                String string = (value instanceof Date ? Long.toString(((Date) value).getTime())
+                        : value.toString());
+                distinct.offer(string);
+                if (numeric) {
+                    builder.add(string, rows);
+                } else {
+                    strings.put(string, rows);
+                }
+            }
+        }
+        if (!numeric) {
+            for (Map.Entry<String, Long> entry : strings.entrySet()) {
+                builder.add(entry.getKey(), entry.getValue().longValue());
+            }
+        }
+        return new AttributeSketch(distinct, builder.build(), nullCount);
+    }
+}
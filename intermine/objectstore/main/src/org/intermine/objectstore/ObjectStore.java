@@ -15,6 +15,8 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 import org.intermine.metadata.Model;
 import org.intermine.model.InterMineObject;
@@ -22,6 +24,7 @@ import org.intermine.objectstore.query.Clob;
 import org.intermine.objectstore.query.ObjectStoreBag;
 import org.intermine.objectstore.query.Query;
 import org.intermine.objectstore.query.Results;
+import org.intermine.objectstore.query.ResultsCursor;
 import org.intermine.objectstore.query.ResultsInfo;
 import org.intermine.objectstore.query.ResultsRow;
 import org.intermine.objectstore.query.SingletonResults;
@@ -110,6 +113,25 @@ public interface ObjectStore
     List<ResultsRow<Object>> execute(Query q, int start, int limit, boolean optimise,
             boolean explain, Map<Object, Integer> sequence) throws ObjectStoreException;
 
+    /**
+     * Execute a Query on this ObjectStore, streaming every row of the results through a single
+     * database cursor instead of running a separate query for each batch. This is intended for
+     * callers that read the whole of a large result set exactly once, in order, such as exports
+     * and data loading. Rows are read from the database fetchSize at a time, so memory use is
+     * bounded by the fetch size rather than the size of the results.
+     *
+     * @param q the Query to execute
+     * @param fetchSize the number of rows to read from the database in one go
+     * @param optimise true if it is expected that optimising the query will improve performance
+     * @param sequence an object representing the state of the database corresponding to when the
+     * action that resulted in this execute was started
+     * @return a ResultsCursor over ResultsRows, or null if this ObjectStore cannot stream the
+     * query, in which case the caller should fall back to a Results object
+     * @throws ObjectStoreException if an error occurs while starting the query
+     */
+    ResultsCursor executeCursor(Query q, int fetchSize, boolean optimise,
+            Map<Object, Integer> sequence) throws ObjectStoreException;
+
     /**
      * Get an object from the ObjectStore by giving an ID.
      *
@@ -220,6 +242,46 @@ public interface ObjectStore
      */
     int count(Query q, Map<Object, Integer> sequence) throws ObjectStoreException;
 
+    /**
+     * Execute a Query on this ObjectStore in the background, asking for a certain range of rows
+     * to be returned. The query is run on a thread pool shared by all users of this ObjectStore,
+     * which bounds the number of queries that run at once, and cancelling the returned Future
+     * cancels the query in the database.
+     *
+     * @param q the Query to execute
+     * @param start the start row
+     * @param limit the maximum number of rows to return
+     * @param optimise true if it is expected that optimising the query will improve performance
+     * @param explain true if the ObjectStore should enforce maximum query running time constraints
+     * @param sequence an object representing the state of the database corresponding to when the
+     * action that resulted in this execute was started
+     * @return a Future for the List of ResultRows
+     */
+    Future<List<ResultsRow<Object>>> executeAsync(Query q, int start, int limit,
+            boolean optimise, boolean explain, Map<Object, Integer> sequence);
+
+    /**
+     * Counts the number of rows the query will produce in the background, in the same way as
+     * executeAsync.
+     *
+     * @param q InterMine Query on which to count rows
+     * @param sequence an object representing the state of the database corresponding to when the
+     * action that resulted in this count was started
+     * @return a Future for the number of rows that will be produced by query
+     */
+    Future<Integer> countAsync(Query q, Map<Object, Integer> sequence);
+
+    /**
+     * Runs a task that uses this ObjectStore on the thread pool used by executeAsync and
+     * countAsync, so that it shares the same bound on the number of queries that run at once.
+     * Cancelling the returned Future cancels any query the task is running in the database.
+     *
+     * @param task the task to run
+     * @param <V> the type of the result of the task
+     * @return a Future for the result of the task
+     */
+    <V> Future<V> submit(Callable<V> task);
+
     /**
      * Return the metadata associated with this ObjectStore
      *
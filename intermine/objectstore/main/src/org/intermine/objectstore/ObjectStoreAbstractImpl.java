@@ -16,12 +16,21 @@ import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Random;
 import java.util.Set;
 import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.log4j.Logger;
 import org.intermine.metadata.MetaDataException;
@@ -29,13 +38,16 @@ import org.intermine.metadata.Model;
 import org.intermine.model.InterMineObject;
 import org.intermine.objectstore.query.Clob;
 import org.intermine.objectstore.query.ObjectStoreBag;
+import org.intermine.objectstore.query.PrefetchManager;
 import org.intermine.objectstore.query.Query;
 import org.intermine.objectstore.query.QueryCreator;
 import org.intermine.objectstore.query.Results;
+import org.intermine.objectstore.query.ResultsCursor;
 import org.intermine.objectstore.query.ResultsRow;
 import org.intermine.objectstore.query.SingletonResults;
-import org.intermine.util.CacheMap;
+import org.intermine.sql.QueryMetrics;
 import org.intermine.util.PropertiesUtil;
+import org.intermine.util.TinyLfuCacheMap;
 
 /**
  * Abstract implementation of the ObjectStore interface. Used to provide uniformity
@@ -49,6 +61,19 @@ public abstract class ObjectStoreAbstractImpl implements ObjectStore
     private static final Logger LOG = Logger.getLogger(ObjectStoreAbstractImpl.class);
 
     protected static Random rand = new Random();
+    /**
+     * The default maximum number of objects in the getObjectById cache, which can be changed
+     * with the os.query.object-cache-size property.
+     */
+    public static final int DEFAULT_OBJECT_CACHE_SIZE = 100000;
+    /**
+     * The default number of threads that run asynchronous queries, which can be changed with the
+     * os.query.async-threads property.
+     */
+    public static final int DEFAULT_ASYNC_THREADS = 4;
+    /** The default maximum number of ids fetched by one query in getObjectsByIds */
+    public static final int DEFAULT_GET_OBJECTS_CHUNK_SIZE = 10000;
+    private static final ThreadLocal<Boolean> IN_ASYNC_TASK = new ThreadLocal<Boolean>();
 
     protected Model model;
     protected int maxOffset = Integer.MAX_VALUE;
@@ -56,7 +81,10 @@ public abstract class ObjectStoreAbstractImpl implements ObjectStore
     protected long maxTime = Long.MAX_VALUE;
     // Optimiser will use a default query parse time if none is provided from properties
     protected Long maxQueryParseTime = null;
-    protected CacheMap<Integer, InterMineObject> cache;
+    protected TinyLfuCacheMap<Integer, InterMineObject> cache;
+    protected int asyncThreads = 0;
+    protected int getObjectsChunkSize = DEFAULT_GET_OBJECTS_CHUNK_SIZE;
+    private ThreadPoolExecutor asyncExecutor = null;
 
     protected int getObjectOps = 0;
     protected int getObjectHits = 0;
@@ -97,10 +125,28 @@ public abstract class ObjectStoreAbstractImpl implements ObjectStore
             maxQueryParseTime = Long.parseLong((String) props.get("max-query-parse-time"));
         }
 
+        if (props.get("async-threads") != null) {
+            asyncThreads = Integer.parseInt((String) props.get("async-threads"));
+        }
+
+        if (props.get("prefetch-threads") != null) {
+            PrefetchManager.setThreads(Integer.parseInt((String) props.get("prefetch-threads")));
+        }
+
+        if (props.get("prefetch-max-depth") != null) {
+            PrefetchManager.setMaxDepth(Integer.parseInt((String) props.get("prefetch-max-depth")));
+        }
+
+        int objectCacheSize = DEFAULT_OBJECT_CACHE_SIZE;
+        if (props.get("object-cache-size") != null) {
+            objectCacheSize = Integer.parseInt((String) props.get("object-cache-size"));
+        }
+
         LOG.info("Creating new " + getClass().getName() + " with sequence = " + sequenceNumber
                 + ", model = \"" + model.getName() + "\"");
-        cache = new CacheMap<Integer, InterMineObject>(getClass().getName() + " with sequence = "
-                + sequenceNumber + ", model = \"" + model.getName() + "\" getObjectById cache");
+        cache = new TinyLfuCacheMap<Integer, InterMineObject>(getClass().getName()
+                + " with sequence = " + sequenceNumber + ", model = \"" + model.getName()
+                + "\" getObjectById cache", objectCacheSize);
     }
 
     /**
@@ -170,6 +216,16 @@ public abstract class ObjectStoreAbstractImpl implements ObjectStore
         return retval;
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * This implementation cannot stream results, so it always returns null.
+     */
+    public ResultsCursor executeCursor(Query q, int fetchSize, boolean optimise,
+            Map<Object, Integer> sequence) throws ObjectStoreException {
+        return null;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -190,33 +246,18 @@ public abstract class ObjectStoreAbstractImpl implements ObjectStore
         getObjectOps++;
         if (getObjectOps % 10000 == 0) {
             LOG.info("getObjectById called " + getObjectOps + " times. Cache hits: "
-                    + getObjectHits + ". Prefetches: " + getObjectPrefetches);
-        }
-        boolean contains = true;
-        InterMineObject cached = null;
-        synchronized (cache) {
-            cached = cache.get(id);
-            if (cached == null) {
-                contains = cache.containsKey(id);
-            }
+                    + getObjectHits + ". Prefetches: " + getObjectPrefetches + ". "
+                    + cache.getStatistics());
         }
-        if (contains) {
+        InterMineObject cached = cache.get(id);
+        if ((cached != null) || cache.containsKey(id)) {
             getObjectHits++;
             return cached;
         }
         InterMineObject fromDb = internalGetObjectById(id, clazz);
-        synchronized (cache) {
-            cached = cache.get(id);
-            if (cached == null) {
-                contains = cache.containsKey(id);
-            }
-            if (contains) {
-                fromDb = cached;
-            } else {
-                cacheObjectById(id, fromDb);
-            }
-        }
-        return fromDb;
+        // If another thread fetched the object in the meantime, use its copy
+        cached = cache.putIfAbsent(id, fromDb);
+        return cached == null ? fromDb : cached;
     }
 
     /**
@@ -249,14 +290,185 @@ public abstract class ObjectStoreAbstractImpl implements ObjectStore
 
     /**
      * {@inheritDoc}
+     *
+     * Objects already in the getObjectById cache are returned from there, and the rest are
+     * fetched with calls to internalGetObjectsByIds() of at most getObjectsChunkSize ids each,
+     * and added to the cache, so that later calls to getObjectById() (for instance from
+     * ProxyReferences) do not touch the database. The objects are returned in the order of the
+     * ids given, without duplicates. Ids that do not exist in the database are skipped, and are
+     * not cached, so that a later getObjectById() looks for them again.
      */
-    @SuppressWarnings({ "cast", "unchecked", "rawtypes" })
     public List<InterMineObject> getObjectsByIds(Collection<Integer> ids)
         throws ObjectStoreException {
-        Results results = executeSingleton(QueryCreator.createQueryForIds(ids,
-                        InterMineObject.class), 1000, false, false, false);
+        Map<Integer, InterMineObject> found = new LinkedHashMap<Integer, InterMineObject>();
+        List<Integer> idsToFetch = new ArrayList<Integer>();
+        for (Integer id : ids) {
+            if (!found.containsKey(id)) {
+                getObjectOps++;
+                InterMineObject cached = cache.get(id);
+                if ((cached != null) || cache.containsKey(id)) {
+                    getObjectHits++;
+                } else {
+                    idsToFetch.add(id);
+                }
+                found.put(id, cached);
+            }
+        }
+        for (int i = 0; i < idsToFetch.size(); i += getObjectsChunkSize) {
+            List<Integer> chunk = idsToFetch.subList(i, Math.min(i + getObjectsChunkSize,
+                        idsToFetch.size()));
+            Map<Integer, InterMineObject> fromDb = internalGetObjectsByIds(chunk);
+            for (Integer id : chunk) {
+                InterMineObject o = fromDb.get(id);
+                if (o != null) {
+                    // If another thread fetched the object in the meantime, use its copy
+                    InterMineObject cached = cache.putIfAbsent(id, o);
+                    found.put(id, cached == null ? o : cached);
+                }
+            }
+        }
+        List<InterMineObject> retval = new ArrayList<InterMineObject>();
+        for (InterMineObject o : found.values()) {
+            if (o != null) {
+                retval.add(o);
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * Sets the maximum number of ids fetched by one query in getObjectsByIds. Larger groups of
+     * ids are fetched in several queries.
+     *
+     * @param getObjectsChunkSize the number of ids
+     */
+    public void setGetObjectsChunkSize(int getObjectsChunkSize) {
+        this.getObjectsChunkSize = getObjectsChunkSize;
+    }
+
+    /**
+     * Internal service method for getObjectsByIds, which fetches a group of objects that are not
+     * in the cache from the database.
+     *
+     * @param ids the ids of the objects to fetch
+     * @return a Map from id to object, which has no entries for ids that are not present
+     * @throws ObjectStoreException if an error occurs during the running of the Query
+     */
+    protected Map<Integer, InterMineObject> internalGetObjectsByIds(Collection<Integer> ids)
+        throws ObjectStoreException {
+        Map<Integer, InterMineObject> retval = new HashMap<Integer, InterMineObject>();
+        List<ResultsRow<Object>> rows = execute(QueryCreator.createQueryForIds(ids,
+                    InterMineObject.class), 0, ids.size() + 1, false, false, SEQUENCE_IGNORE);
+        for (ResultsRow<Object> row : rows) {
+            InterMineObject o = (InterMineObject) row.get(0);
+            retval.put(o.getId(), o);
+        }
+        return retval;
+    }
 
-        return (List<InterMineObject>) ((List) results);
+    /**
+     * {@inheritDoc}
+     */
+    public Future<List<ResultsRow<Object>>> executeAsync(final Query q, final int start,
+            final int limit, final boolean optimise, final boolean explain,
+            final Map<Object, Integer> sequence) {
+        return submit(new Callable<List<ResultsRow<Object>>>() {
+            public List<ResultsRow<Object>> call() throws ObjectStoreException {
+                return execute(q, start, limit, optimise, explain, sequence);
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Future<Integer> countAsync(final Query q, final Map<Object, Integer> sequence) {
+        return submit(new Callable<Integer>() {
+            public Integer call() throws ObjectStoreException {
+                return new Integer(count(q, sequence));
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * A task submitted from inside another task is run straight away in the calling thread,
+     * because waiting for it to be queued behind a full pool could deadlock. The task runs with
+     * the query metrics caller type of the submitting thread.
+     */
+    public <V> Future<V> submit(Callable<V> task) {
+        FutureTask<V> future = createTask(QueryMetrics.withCallerType(task));
+        if (Boolean.TRUE.equals(IN_ASYNC_TASK.get())) {
+            future.run();
+        } else {
+            getAsyncExecutor().execute(future);
+        }
+        return future;
+    }
+
+    /**
+     * Wraps a task in a FutureTask to be run by the asynchronous query pool. Subclasses may
+     * override this to make cancelling the task cancel the query in the database.
+     *
+     * @param task the task
+     * @param <V> the type of the result of the task
+     * @return a FutureTask
+     */
+    protected <V> FutureTask<V> createTask(Callable<V> task) {
+        return new FutureTask<V>(task);
+    }
+
+    /**
+     * Returns the number of threads that run asynchronous queries for this ObjectStore.
+     *
+     * @return the value of the os.query.async-threads property, or DEFAULT_ASYNC_THREADS
+     */
+    protected int getAsyncThreadCount() {
+        return asyncThreads > 0 ? asyncThreads : DEFAULT_ASYNC_THREADS;
+    }
+
+    /**
+     * Returns the pool of threads that run asynchronous queries, creating it if necessary. The
+     * threads are daemon threads, and they die off when the pool is idle.
+     *
+     * @return an ExecutorService
+     */
+    protected synchronized ExecutorService getAsyncExecutor() {
+        if (asyncExecutor == null) {
+            final String name = "ObjectStore query thread for " + getClass().getSimpleName()
+                + " ";
+            int threads = getAsyncThreadCount();
+            asyncExecutor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        private int threadNo = 1;
+
+                        public synchronized Thread newThread(final Runnable r) {
+                            Thread thread = new Thread(new Runnable() {
+                                public void run() {
+                                    IN_ASYNC_TASK.set(Boolean.TRUE);
+                                    r.run();
+                                }
+                            }, name + (threadNo++));
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            asyncExecutor.allowCoreThreadTimeOut(true);
+            LOG.info("Created a pool of " + threads + " threads for asynchronous queries on "
+                    + this);
+        }
+        return asyncExecutor;
+    }
+
+    /**
+     * Stops the pool of threads that run asynchronous queries, cancelling any queued tasks.
+     */
+    protected synchronized void shutdownAsyncExecutor() {
+        if (asyncExecutor != null) {
+            asyncExecutor.shutdownNow();
+            asyncExecutor = null;
+        }
     }
 
     /**
@@ -297,18 +509,14 @@ public abstract class ObjectStoreAbstractImpl implements ObjectStore
      * {@inheritDoc}
      */
     public void invalidateObjectById(Integer id) {
-        synchronized (cache) {
-            cache.remove(id);
-        }
+        cache.remove(id);
     }
 
     /**
      * {@inheritDoc}
      */
     public Object cacheObjectById(Integer id, InterMineObject obj) {
-        synchronized (cache) {
-            cache.put(id, obj);
-        }
+        cache.put(id, obj);
         return obj;
     }
 
@@ -316,18 +524,14 @@ public abstract class ObjectStoreAbstractImpl implements ObjectStore
      * {@inheritDoc}
      */
     public void flushObjectById() {
-        synchronized (cache) {
-            cache.clear();
-        }
+        cache.clear();
     }
 
     /**
      * {@inheritDoc}
      */
     public InterMineObject pilferObjectById(Integer id) {
-        synchronized (cache) {
-            return cache.get(id);
-        }
+        return cache.get(id);
     }
 
     /**
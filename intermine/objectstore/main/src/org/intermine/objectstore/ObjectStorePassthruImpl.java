@@ -14,6 +14,8 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 import org.intermine.metadata.Model;
 import org.intermine.model.InterMineObject;
@@ -21,6 +23,7 @@ import org.intermine.objectstore.query.Clob;
 import org.intermine.objectstore.query.ObjectStoreBag;
 import org.intermine.objectstore.query.Query;
 import org.intermine.objectstore.query.Results;
+import org.intermine.objectstore.query.ResultsCursor;
 import org.intermine.objectstore.query.ResultsInfo;
 import org.intermine.objectstore.query.ResultsRow;
 import org.intermine.objectstore.query.SingletonResults;
@@ -89,6 +92,17 @@ public class ObjectStorePassthruImpl implements ObjectStore
         return os.execute(q, start, limit, optimise, explain, sequence);
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * Subclasses usually alter the queries or results passing through them, so this
+     * implementation does not stream, and returns null.
+     */
+    public ResultsCursor executeCursor(Query q, int fetchSize, boolean optimise,
+            Map<Object, Integer> sequence) throws ObjectStoreException {
+        return null;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -161,6 +175,40 @@ public class ObjectStorePassthruImpl implements ObjectStore
         return os.count(q, sequence);
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * The query goes through this ObjectStore, but runs on the thread pool of the underlying
+     * ObjectStore.
+     */
+    public Future<List<ResultsRow<Object>>> executeAsync(final Query q, final int start,
+            final int limit, final boolean optimise, final boolean explain,
+            final Map<Object, Integer> sequence) {
+        return submit(new Callable<List<ResultsRow<Object>>>() {
+            public List<ResultsRow<Object>> call() throws ObjectStoreException {
+                return execute(q, start, limit, optimise, explain, sequence);
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Future<Integer> countAsync(final Query q, final Map<Object, Integer> sequence) {
+        return submit(new Callable<Integer>() {
+            public Integer call() throws ObjectStoreException {
+                return new Integer(count(q, sequence));
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public <V> Future<V> submit(Callable<V> task) {
+        return os.submit(task);
+    }
+
     /**
      * {@inheritDoc}
      */
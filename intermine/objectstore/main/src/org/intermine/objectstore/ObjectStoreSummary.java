@@ -22,6 +22,12 @@ import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import org.apache.log4j.Logger;
 import org.intermine.metadata.AttributeDescriptor;
@@ -33,8 +39,11 @@ import org.intermine.metadata.ReferenceDescriptor;
 import org.intermine.metadata.StringUtil;
 import org.intermine.model.FastPathObject;
 import org.intermine.model.InterMineObject;
+import org.intermine.objectstore.intermine.ObjectStoreInterMineImpl;
+import org.intermine.objectstore.query.ClobAccess;
 import org.intermine.objectstore.query.ConstraintSet;
 import org.intermine.objectstore.query.ContainsConstraint;
+import org.intermine.objectstore.query.ObjectStoreBag;
 import org.intermine.objectstore.query.Query;
 import org.intermine.objectstore.query.QueryClass;
 import org.intermine.objectstore.query.QueryCollectionReference;
@@ -45,6 +54,7 @@ import org.intermine.objectstore.query.QueryValue;
 import org.intermine.objectstore.query.Results;
 import org.intermine.objectstore.query.ResultsRow;
 import org.intermine.objectstore.query.SubqueryExistsConstraint;
+import org.intermine.util.EquiDepthHistogram;
 
 /**
  * A summary of the data in an ObjectStore
@@ -63,16 +73,25 @@ public class ObjectStoreSummary
     protected final Map<String, Set<String>> emptyAttributesMap =
         new HashMap<String, Set<String>>();
     private final Map<String, Set<String>> nonEmptyFieldsMap = new HashMap<String, Set<String>>();
+    private final Map<String, String> classStatesMap = new HashMap<String, String>();
+    private final Map<String, AttributeSketch> sketchesMap =
+        new HashMap<String, AttributeSketch>();
     // This should be overwritten by MAX_FIELD_VALUES from properties
     protected int maxValues = DEFAULT_MAX_VALUES;
+    protected int histogramBuckets = EquiDepthHistogram.DEFAULT_BUCKETS;
 
     static final String NULL_FIELDS_SUFFIX = ".nullFields";
     static final String CLASS_COUNTS_SUFFIX = ".classCount";
     static final String FIELDS_SUFFIX = ".fieldValues";
     static final String EMPTY_ATTRIBUTES_SUFFIX = ".emptyAttributes";
+    static final String CLASS_STATE_SUFFIX = ".classState";
+    static final String SKETCH_SUFFIX = ".sketch";
     static final String NULL_MARKER = "___NULL___";
     static final String FIELD_DELIM = "$_^";
     static final String MAX_FIELD_VALUES = "max.field.values";
+    static final String SUMMARY_THREADS = "summary.threads";
+    static final String SUMMARY_SKETCHES = "summary.sketches";
+    static final String HISTOGRAM_BUCKETS = "summary.histogram.buckets";
 
     /**
      * The default number of values to make available for UI dropdowns - attributes with more values
@@ -80,6 +99,11 @@ public class ObjectStoreSummary
      */
     public static final int DEFAULT_MAX_VALUES = 200;
 
+    /**
+     * The default number of queries to run at once while summarising.
+     */
+    public static final int DEFAULT_THREADS = 4;
+
     /**
      * Construct a summary from by running queries in the ObjectStore.
      *
@@ -90,6 +114,27 @@ public class ObjectStoreSummary
      */
     public ObjectStoreSummary(ObjectStore os, Properties configuration)
         throws ClassNotFoundException, ObjectStoreException {
+        this(os, configuration, null);
+    }
+
+    /**
+     * Construct a summary by running queries in the ObjectStore, reusing the results of a previous
+     * summary for the classes that have not changed since it was made. Changes are only detected
+     * in an ObjectStoreInterMineImpl, and the previous summary must have been made with the same
+     * configuration, otherwise everything is summarised again.
+     * <p>
+     * The queries for the classes at each level of the class hierarchy are run at once, on up to
+     * SUMMARY_THREADS connections from the ObjectStore. The levels are worked through in the order
+     * that lets the results for one class save queries for its superclasses or subclasses.
+     *
+     * @param os the objectstore
+     * @param configuration the configuration for summarization
+     * @param previous a previous summary of the same objectstore, or null to summarise everything
+     * @throws ClassNotFoundException if a class cannot be found
+     * @throws ObjectStoreException if an error occurs accessing the data
+     */
+    public ObjectStoreSummary(ObjectStore os, Properties configuration,
+            ObjectStoreSummary previous) throws ClassNotFoundException, ObjectStoreException {
 
         // 1. get counts of each class
         // 2. count unique values for each field of each class
@@ -97,56 +142,172 @@ public class ObjectStoreSummary
         // 3. for fields with fewer unique values than cutoff, create dropdowns
         // 4. Always empty refs/cols per class
         // 5. Always empty attributes per class
+        // 6. if configured, sketches of the fields with too many values for dropdowns
 
         Model model = os.getModel();
 
-        // classCounts - number of objects of each type in the database
-        LOG.info("Collecting class counts...");
-        for (ClassDescriptor cld : model.getTopDownLevelTraversal()) {
-            nonEmptyFieldsMap.put(cld.getName(), new HashSet<String>());
-            countAndStore(os, model, cld);
-        }
-
-        // fieldValues - find all attributes with few unique values for populating dropdowns,
-        // also look for any attributes that are empty.
-        LOG.info("Summarising field values...");
         String maxValuesString = (String) configuration.get(MAX_FIELD_VALUES);
         maxValues =
             (maxValuesString == null ? DEFAULT_MAX_VALUES : Integer.parseInt(maxValuesString));
+        String threadsString = (String) configuration.get(SUMMARY_THREADS);
+        int threads = (threadsString == null ? DEFAULT_THREADS : Integer.parseInt(threadsString));
+        boolean sketches = "true".equals(configuration.get(SUMMARY_SKETCHES));
+        String bucketsString = (String) configuration.get(HISTOGRAM_BUCKETS);
+        if (bucketsString != null) {
+            histogramBuckets = Integer.parseInt(bucketsString);
+        }
 
-        // always empty references and collections
-        LOG.info("Looking for empty collections and references...");
-        Set<String> ignoreFields = getIgnoreFields((String) configuration.get("ignore.counts"));
-        if (ignoreFields.size() > 0) {
-            LOG.warn("Not counting ignored fields: " + ignoreFields);
+        Set<String> unchanged = new HashSet<String>();
+        if (os instanceof ObjectStoreInterMineImpl) {
+            classStatesMap.putAll(((ObjectStoreInterMineImpl) os).getClassStates());
+            if ((previous != null) && (previous.maxValues == maxValues)) {
+                for (Map.Entry<String, String> entry : classStatesMap.entrySet()) {
+                    if (entry.getValue().equals(previous.classStatesMap.get(entry.getKey()))
+                            && previous.classCountsMap.containsKey(entry.getKey())) {
+                        unchanged.add(entry.getKey());
+                    }
+                }
+                LOG.info("Reusing the previous summary for " + unchanged.size() + " of "
+                        + classStatesMap.size() + " classes");
+            }
         }
 
-        Set<String> doneFields = new HashSet<String>();
-        for (ClassDescriptor cld : model.getBottomUpLevelTraversal()) {
+        ExecutorService executor = null;
+        if (threads > 1) {
+            executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                private int threadNo = 0;
 
-            int classCount = classCountsMap.get(cld.getName()).intValue();
-            if (classCount == 0) {
-                continue;
+                public synchronized Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r);
+                    thread.setDaemon(true);
+                    thread.setName("ObjectStoreSummary ServiceThread " + (threadNo++));
+                    return thread;
+                }
+            });
+        }
+        try {
+            // classCounts - number of objects of each type in the database
+            LOG.info("Collecting class counts...");
+            countClasses(os, model, previous, unchanged, executor);
+
+            // fieldValues - find all attributes with few unique values for populating dropdowns,
+            // also look for any attributes that are empty.
+            LOG.info("Summarising field values...");
+            Set<String> ignoreFields = getIgnoreFields((String) configuration.get("ignore.counts"));
+            if (ignoreFields.size() > 0) {
+                LOG.warn("Not counting ignored fields: " + ignoreFields);
             }
+            summariseAttributes(os, model, ignoreFields, previous, unchanged, executor);
 
-            for (AttributeDescriptor att : cld.getAllAttributeDescriptors()) {
-                String fieldName = att.getName();
-                if ("id".equals(fieldName)) {
+            // sketches - approximate distinct counts and histograms of the other attributes
+            if (sketches) {
+                LOG.info("Sketching field values...");
+                sketchAttributes(os, model, ignoreFields, previous, unchanged, executor);
+            }
+
+            // always empty references and collections
+            LOG.info("Looking for empty collections and references...");
+            findEmptyReferences(os, model, ignoreFields, previous, unchanged, executor);
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Counts the objects of each class, a level of the class hierarchy at a time from the top
+     * down, as the subclasses of an empty class must all be empty.
+     */
+    private void countClasses(final ObjectStore os, Model model, ObjectStoreSummary previous,
+            Set<String> unchanged, ExecutorService executor) throws ObjectStoreException {
+        for (List<ClassDescriptor> level : getLevels(model, true)) {
+            List<ClassDescriptor> counted = new ArrayList<ClassDescriptor>();
+            List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+            for (final ClassDescriptor cld : level) {
+                nonEmptyFieldsMap.put(cld.getName(), new HashSet<String>());
+                if (classCountsMap.containsKey(cld.getName())) {
                     continue;
                 }
+                counted.add(cld);
+                if (unchanged.contains(cld.getName())) {
+                    tasks.add(result(previous.classCountsMap.get(cld.getName())));
+                } else {
+                    tasks.add(new Callable<Integer>() {
+                        public Integer call() throws ObjectStoreException {
+                            return new Integer(countClass(os, cld.getType()));
+                        }
+                    });
+                }
+            }
+            List<Integer> counts = runAll(tasks, executor);
+            for (int i = 0; i < counted.size(); i++) {
+                ClassDescriptor cld = counted.get(i);
+                Integer classCount = counts.get(i);
+                LOG.info("Adding class count: " + cld.getUnqualifiedName() + " = " + classCount);
+                classCountsMap.put(cld.getName(), classCount);
+
+                // if this class is empty all subclasses MUST be empty as well
+                if (classCount.intValue() == 0) {
+                    for (ClassDescriptor subCld : model.getAllSubs(cld)) {
+                        if (!classCountsMap.containsKey(subCld.getName())) {
+                            classCountsMap.put(subCld.getName(), classCount);
+                        }
+                    }
+                }
+            }
+        }
+    }
 
-                String clsFieldName = cld.getName() + "." + fieldName;
-                if (doneFields.contains(clsFieldName) || ignoreFields.contains(clsFieldName)) {
+    /**
+     * Finds the values of the attributes with few values, a level of the class hierarchy at a time
+     * from the bottom up, as the superclasses of a class with too many values for an attribute
+     * must have too many values as well.
+     */
+    private void summariseAttributes(final ObjectStore os, Model model, Set<String> ignoreFields,
+            ObjectStoreSummary previous, Set<String> unchanged, ExecutorService executor)
+        throws ObjectStoreException {
+        Set<String> doneFields = new HashSet<String>();
+        for (List<ClassDescriptor> level : getLevels(model, false)) {
+            List<ClassDescriptor> summarised = new ArrayList<ClassDescriptor>();
+            List<String> fieldNames = new ArrayList<String>();
+            List<Callable<List<Object>>> tasks = new ArrayList<Callable<List<Object>>>();
+            for (final ClassDescriptor cld : level) {
+                int classCount = classCountsMap.get(cld.getName()).intValue();
+                if (classCount == 0) {
                     continue;
                 }
 
-                Results results = getFieldSummary(cld, fieldName, os);
-                if (results.size() <= maxValues) {
-                    List<Object> fieldValues = new ArrayList<Object>();
-                    for (Object resRow: results) {
-                        Object fieldValue = ((ResultsRow<?>) resRow).get(0);
-                        fieldValues.add(fieldValue == null ? null : fieldValue.toString());
+                for (AttributeDescriptor att : cld.getAllAttributeDescriptors()) {
+                    final String fieldName = att.getName();
+                    if ("id".equals(fieldName)) {
+                        continue;
                     }
+
+                    String clsFieldName = cld.getName() + "." + fieldName;
+                    if (doneFields.contains(clsFieldName) || ignoreFields.contains(clsFieldName)) {
+                        continue;
+                    }
+
+                    summarised.add(cld);
+                    fieldNames.add(fieldName);
+                    if (unchanged.contains(cld.getName())) {
+                        tasks.add(result(previous.fieldValuesMap.get(clsFieldName)));
+                    } else {
+                        tasks.add(new Callable<List<Object>>() {
+                            public List<Object> call() {
+                                return getFieldValues(cld, fieldName, os);
+                            }
+                        });
+                    }
+                }
+            }
+            List<List<Object>> allFieldValues = runAll(tasks, executor);
+            for (int i = 0; i < summarised.size(); i++) {
+                ClassDescriptor cld = summarised.get(i);
+                String fieldName = fieldNames.get(i);
+                List<Object> fieldValues = allFieldValues.get(i);
+                if (fieldValues != null) {
                     if (fieldValues.size() == 1 && fieldValues.get(0) == null) {
                         Set<String> emptyAttributes = emptyAttributesMap.get(cld.getName());
                         if (emptyAttributes == null) {
@@ -155,19 +316,7 @@ public class ObjectStoreSummary
                         }
                         emptyAttributes.add(fieldName);
                     }
-                    Collections.sort(fieldValues, new Comparator<Object>() {
-                        @Override
-                        public int compare(Object arg0, Object arg1) {
-                            if (arg0 == null) {
-                                return arg1 == null ? 0 : 1;
-                            }
-                            if (arg1 == null) {
-                                return arg0 == null ? 0 : -1;
-                            }
-                            return arg0.toString().compareTo(arg1.toString());
-                        }
-                    });
-                    fieldValuesMap.put(clsFieldName, fieldValues);
+                    fieldValuesMap.put(cld.getName() + "." + fieldName, fieldValues);
                     LOG.info("Adding " + fieldValues.size() + " values for "
                             + cld.getUnqualifiedName() + "." + fieldName);
 
@@ -191,37 +340,163 @@ public class ObjectStoreSummary
                 }
             }
         }
+    }
 
+    /**
+     * Makes sketches of the attributes with too many values for dropdowns, a level of the class
+     * hierarchy at a time from the bottom up. Where the objects of a class are exactly those of
+     * one of its subclasses, or of subclasses that cannot share objects, the sketches of the
+     * subclasses are reused or merged instead of querying the class.
+     */
+    private void sketchAttributes(final ObjectStore os, Model model, Set<String> ignoreFields,
+            ObjectStoreSummary previous, Set<String> unchanged, ExecutorService executor)
+        throws ObjectStoreException {
+        boolean reuse = (previous != null) && (previous.histogramBuckets == histogramBuckets);
+        for (List<ClassDescriptor> level : getLevels(model, false)) {
+            List<String> sketched = new ArrayList<String>();
+            List<Callable<AttributeSketch>> tasks = new ArrayList<Callable<AttributeSketch>>();
+            for (final ClassDescriptor cld : level) {
+                if (classCountsMap.get(cld.getName()).intValue() == 0) {
+                    continue;
+                }
+                for (AttributeDescriptor att : cld.getAllAttributeDescriptors()) {
+                    final String fieldName = att.getName();
+                    String clsFieldName = cld.getName() + "." + fieldName;
+                    if ("id".equals(fieldName) || ignoreFields.contains(clsFieldName)
+                            || fieldValuesMap.containsKey(clsFieldName)
+                            || ClobAccess.class.getName().equals(att.getType())) {
+                        continue;
+                    }
+                    AttributeSketch sketch = null;
+                    if (reuse && unchanged.contains(cld.getName())) {
+                        sketch = previous.sketchesMap.get(clsFieldName);
+                    }
+                    if (sketch == null) {
+                        sketch = sketchFromSubclasses(model, cld, fieldName);
+                    }
+                    sketched.add(clsFieldName);
+                    if (sketch != null) {
+                        tasks.add(result(sketch));
+                    } else {
+                        tasks.add(new Callable<AttributeSketch>() {
+                            public AttributeSketch call() throws ObjectStoreException {
+                                return AttributeSketch.compute(os, cld, fieldName, null,
+                                        histogramBuckets);
+                            }
+                        });
+                    }
+                }
+            }
+            List<AttributeSketch> sketches = runAll(tasks, executor);
+            for (int i = 0; i < sketched.size(); i++) {
+                AttributeSketch sketch = sketches.get(i);
+                LOG.info("Adding sketch of " + sketched.get(i) + ": about "
+                        + sketch.getDistinctCount() + " values");
+                sketchesMap.put(sketched.get(i), sketch);
+            }
+        }
+    }
 
-
-        // This is faster as a bottom up traversal, though this may save fewer queres the saved
-        // queries would take longer. If a ref/col is not empty it must not be empty in all parents.
-        Set<String> notEmptyFields = new HashSet<String>();
-        for (ClassDescriptor cld: model.getBottomUpLevelTraversal()) {
-            int classCount = classCountsMap.get(cld.getName()).intValue();
-            if (classCount == 0) {
+    /**
+     * Returns a sketch of an attribute of a class made from the sketches of its subclasses, or
+     * null if the objects of the class are not known to be exactly those of subclasses that have
+     * sketches. Objects can only be in two subclasses if the model has a class that extends both.
+     */
+    private AttributeSketch sketchFromSubclasses(Model model, ClassDescriptor cld,
+            String fieldName) {
+        int classCount = classCountsMap.get(cld.getName()).intValue();
+        List<AttributeSketch> parts = new ArrayList<AttributeSketch>();
+        Set<ClassDescriptor> seen = new HashSet<ClassDescriptor>();
+        long total = 0;
+        for (ClassDescriptor subCld : cld.getSubDescriptors()) {
+            int subCount = classCountsMap.get(subCld.getName()).intValue();
+            if (subCount == 0) {
                 continue;
             }
-
-            Set<ReferenceDescriptor> refsAndCols = new HashSet<ReferenceDescriptor>();
-            refsAndCols.addAll(cld.getAllReferenceDescriptors());
-            refsAndCols.addAll(cld.getAllCollectionDescriptors());
-            for (ReferenceDescriptor ref : refsAndCols) {
-                String fieldName = ref.getName();
-                String clsFieldName = cld.getName() + "." + fieldName;
-
-                if (ignoreFields.contains(fieldName)) {
-                    continue;
+            AttributeSketch subSketch = sketchesMap.get(subCld.getName() + "." + fieldName);
+            if (subSketch == null) {
+                return null;
+            }
+            if (subCount == classCount) {
+                return subSketch;
+            }
+            Set<ClassDescriptor> subClds = new HashSet<ClassDescriptor>(model.getAllSubs(subCld));
+            subClds.add(subCld);
+            for (ClassDescriptor other : subClds) {
+                if (!seen.add(other)) {
+                    return null;
                 }
+            }
+            parts.add(subSketch);
+            total += subCount;
+        }
+        if (parts.isEmpty() || (total != classCount)) {
+            return null;
+        }
+        AttributeSketch retval = parts.get(0);
+        for (int i = 1; i < parts.size(); i++) {
+            retval = retval.merge(parts.get(i), histogramBuckets);
+        }
+        return retval;
+    }
 
-                if (notEmptyFields.contains(clsFieldName)) {
-                    LOG.info("Skipping " + clsFieldName + " - already know it's not empty");
+    /**
+     * Finds the references and collections that are always empty, a level of the class hierarchy
+     * at a time from the bottom up. This may save fewer queries than a top down traversal, but the
+     * saved queries would take longer. If a ref/col is not empty it must not be empty in all
+     * parents.
+     */
+    private void findEmptyReferences(final ObjectStore os, Model model, Set<String> ignoreFields,
+            ObjectStoreSummary previous, Set<String> unchanged, ExecutorService executor)
+        throws ObjectStoreException {
+        Set<String> notEmptyFields = new HashSet<String>();
+        for (List<ClassDescriptor> level : getLevels(model, false)) {
+            List<ClassDescriptor> checked = new ArrayList<ClassDescriptor>();
+            List<String> fieldNames = new ArrayList<String>();
+            List<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>();
+            for (final ClassDescriptor cld : level) {
+                int classCount = classCountsMap.get(cld.getName()).intValue();
+                if (classCount == 0) {
                     continue;
                 }
 
-                boolean refIsEmpty = isReferenceEmpty(cld, ref, os);
-                if (refIsEmpty) {
-                    addToEmptyFields(cld.getName(), ref.getName());
+                Set<ReferenceDescriptor> refsAndCols = new HashSet<ReferenceDescriptor>();
+                refsAndCols.addAll(cld.getAllReferenceDescriptors());
+                refsAndCols.addAll(cld.getAllCollectionDescriptors());
+                for (final ReferenceDescriptor ref : refsAndCols) {
+                    String fieldName = ref.getName();
+                    String clsFieldName = cld.getName() + "." + fieldName;
+
+                    if (ignoreFields.contains(fieldName)) {
+                        continue;
+                    }
+
+                    if (notEmptyFields.contains(clsFieldName)) {
+                        LOG.info("Skipping " + clsFieldName + " - already know it's not empty");
+                        continue;
+                    }
+
+                    checked.add(cld);
+                    fieldNames.add(fieldName);
+                    if (unchanged.contains(cld.getName())) {
+                        Set<String> emptyFields = previous.emptyFieldsMap.get(cld.getName());
+                        tasks.add(result(Boolean.valueOf((emptyFields != null)
+                                        && emptyFields.contains(fieldName))));
+                    } else {
+                        tasks.add(new Callable<Boolean>() {
+                            public Boolean call() {
+                                return Boolean.valueOf(isReferenceEmpty(cld, ref, os));
+                            }
+                        });
+                    }
+                }
+            }
+            List<Boolean> empties = runAll(tasks, executor);
+            for (int i = 0; i < checked.size(); i++) {
+                ClassDescriptor cld = checked.get(i);
+                String fieldName = fieldNames.get(i);
+                if (empties.get(i).booleanValue()) {
+                    addToEmptyFields(cld.getName(), fieldName);
                     LOG.info("Adding empty field " + cld.getUnqualifiedName() + "." + fieldName);
                 } else {
                     // this isn't empty, so CAN'T be empty for any super classes
@@ -248,25 +523,85 @@ public class ObjectStoreSummary
         }
     }
 
+    /**
+     * Splits the classes of a model into levels, so that every class is in a later level than all
+     * of its superclasses if topDown is true, or all of its subclasses if it is false.
+     *
+     * @param model the Model
+     * @param topDown the direction to work through the class hierarchy
+     * @return a List of levels, each of which is a List of ClassDescriptors
+     */
+    protected static List<List<ClassDescriptor>> getLevels(Model model, boolean topDown) {
+        Map<ClassDescriptor, Integer> depths = new HashMap<ClassDescriptor, Integer>();
+        List<List<ClassDescriptor>> retval = new ArrayList<List<ClassDescriptor>>();
+        for (ClassDescriptor cld : model.getTopDownLevelTraversal()) {
+            int depth = getDepth(cld, topDown, depths);
+            while (retval.size() <= depth) {
+                retval.add(new ArrayList<ClassDescriptor>());
+            }
+            retval.get(depth).add(cld);
+        }
+        return retval;
+    }
+
+    private static int getDepth(ClassDescriptor cld, boolean topDown,
+            Map<ClassDescriptor, Integer> depths) {
+        Integer depth = depths.get(cld);
+        if (depth == null) {
+            int retval = 0;
+            Set<ClassDescriptor> before = (topDown ? cld.getSuperDescriptors()
+                    : cld.getSubDescriptors());
+            for (ClassDescriptor other : before) {
+                retval = Math.max(retval, getDepth(other, topDown, depths) + 1);
+            }
+            depth = new Integer(retval);
+            depths.put(cld, depth);
+        }
+        return depth.intValue();
+    }
 
-    private void countAndStore(ObjectStore os, Model model, ClassDescriptor cld)
+    /**
+     * Runs some tasks, on the executor if there is one, and returns their results in order.
+     */
+    private static <T> List<T> runAll(List<Callable<T>> tasks, ExecutorService executor)
         throws ObjectStoreException {
-        if (!classCountsMap.containsKey(cld.getName())) {
-            int classCount = countClass(os, cld.getType());
-            LOG.info("Adding class count: " + cld.getUnqualifiedName() + " = " + classCount);
-            classCountsMap.put(cld.getName(), new Integer(classCount));
-
-            // if this class is empty all subclasses MUST be empty as well
-            if (classCount == 0) {
-                for (ClassDescriptor subCld : model.getAllSubs(cld)) {
-                    if (!classCountsMap.containsKey(subCld.getName())) {
-                        classCountsMap.put(subCld.getName(), new Integer(classCount));
-                    }
+        List<T> retval = new ArrayList<T>();
+        try {
+            if (executor == null) {
+                for (Callable<T> task : tasks) {
+                    retval.add(task.call());
+                }
+            } else {
+                for (Future<T> future : executor.invokeAll(tasks)) {
+                    retval.add(future.get());
                 }
             }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ObjectStoreException) {
+                throw (ObjectStoreException) e.getCause();
+            } else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new ObjectStoreException("Error summarising objectstore", e.getCause());
+        } catch (InterruptedException e) {
+            throw new ObjectStoreException("Interrupted while summarising objectstore", e);
+        } catch (ObjectStoreException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ObjectStoreException("Error summarising objectstore", e);
         }
+        return retval;
     }
 
+    private static <T> Callable<T> result(final T value) {
+        return new Callable<T>() {
+            public T call() {
+                return value;
+            }
+        };
+    }
 
     /**
      * Construct a summary from a properties object.
@@ -298,8 +633,18 @@ public class ObjectStoreSummary
                 String className = key.substring(0, key.lastIndexOf("."));
                 List<String> attributeNames = Arrays.asList(StringUtil.split(value, FIELD_DELIM));
                 emptyAttributesMap.put(className, new TreeSet<String>(attributeNames));
+            } else if (key.endsWith(CLASS_STATE_SUFFIX)) {
+                String className = key.substring(0, key.lastIndexOf("."));
+                classStatesMap.put(className, value);
+            } else if (key.endsWith(SKETCH_SUFFIX)) {
+                String classAndFieldName = key.substring(0, key.lastIndexOf("."));
+                String raw = (String) entry.getValue();
+                sketchesMap.put(classAndFieldName,
+                        AttributeSketch.valueOf(Arrays.asList(StringUtil.split(raw, FIELD_DELIM))));
             } else if (key.equals(MAX_FIELD_VALUES)) {
                 this.maxValues = Integer.parseInt(value);
+            } else if (key.equals(HISTOGRAM_BUCKETS)) {
+                this.histogramBuckets = Integer.parseInt(value);
             }
         }
     }
@@ -338,6 +683,68 @@ public class ObjectStoreSummary
         return fieldValuesMap.get(className + "." + fieldName);
     }
 
+    /**
+     * Get the sketch of a field in a given class, which holds an approximate distinct count and a
+     * histogram of its values. Sketches are only made for fields with too many values to list,
+     * and only if summary.sketches is set.
+     *
+     * @param className the class to search for
+     * @param fieldName the field name to search for
+     * @return the sketch, or null if there is none
+     */
+    public AttributeSketch getAttributeSketch(String className, String fieldName) {
+        return sketchesMap.get(className + "." + fieldName);
+    }
+
+    /**
+     * Get a sketch of a field of the objects of a given class in a bag. This runs a query, as the
+     * contents of bags are not summarised.
+     *
+     * @param os the ObjectStore that holds the bag
+     * @param className the class to search for
+     * @param fieldName the field name to search for
+     * @param bag the bag
+     * @return the sketch
+     * @throws ObjectStoreException if an error occurs accessing the data
+     */
+    public AttributeSketch getAttributeSketch(ObjectStore os, String className, String fieldName,
+            ObjectStoreBag bag) throws ObjectStoreException {
+        ClassDescriptor cld = os.getModel().getClassDescriptorByName(className);
+        if (cld == null) {
+            throw new IllegalArgumentException("Class " + className + " is not in the model");
+        }
+        return AttributeSketch.compute(os, cld, fieldName, bag, histogramBuckets);
+    }
+
+    /**
+     * Get the number of distinct non-null values of a field in a given class, exactly if the
+     * values are listed, or approximately from its sketch.
+     *
+     * @param className the class to search for
+     * @param fieldName the field name to search for
+     * @return the number of distinct values, or -1 if it isn't available
+     */
+    public long getDistinctCount(String className, String fieldName) {
+        List<Object> fieldValues = getFieldValues(className, fieldName);
+        if (fieldValues != null) {
+            return fieldValues.contains(null) ? fieldValues.size() - 1 : fieldValues.size();
+        }
+        AttributeSketch sketch = getAttributeSketch(className, fieldName);
+        return (sketch == null ? -1 : sketch.getDistinctCount());
+    }
+
+    /**
+     * Get the histogram of the values of a field in a given class, if it has been sketched.
+     *
+     * @param className the class to search for
+     * @param fieldName the field name to search for
+     * @return the histogram, or null if the field has not been sketched
+     */
+    public EquiDepthHistogram getHistogram(String className, String fieldName) {
+        AttributeSketch sketch = getAttributeSketch(className, fieldName);
+        return (sketch == null ? null : sketch.getHistogram());
+    }
+
     /**
      * Get a list of the reference and collection names that, for a given class, are always
      * null or empty.
@@ -390,11 +797,15 @@ public class ObjectStoreSummary
     public Properties toProperties() {
         Properties properties = new Properties();
         properties.put(MAX_FIELD_VALUES, "" + maxValues);
+        properties.put(HISTOGRAM_BUCKETS, "" + histogramBuckets);
         for (Map.Entry<String, Integer> entry: classCountsMap.entrySet()) {
             String key = entry.getKey();
             Integer value = entry.getValue();
             properties.put(key + CLASS_COUNTS_SUFFIX, value.toString());
         }
+        for (Map.Entry<String, String> entry: classStatesMap.entrySet()) {
+            properties.put(entry.getKey() + CLASS_STATE_SUFFIX, entry.getValue());
+        }
         for (Map.Entry<String, List<Object>> entry: fieldValuesMap.entrySet()) {
             String key = entry.getKey();
             List<Object> value = entry.getValue();
@@ -412,6 +823,10 @@ public class ObjectStoreSummary
             }
             properties.put(key + FIELDS_SUFFIX, sb.toString());
         }
+        for (Map.Entry<String, AttributeSketch> entry: sketchesMap.entrySet()) {
+            properties.put(entry.getKey() + SKETCH_SUFFIX,
+                    StringUtil.join(entry.getValue().toStrings(), FIELD_DELIM));
+        }
         // emptyFieldsMap contains empty references and collections
         writeEmptyMapToProperties(properties, NULL_FIELDS_SUFFIX, emptyFieldsMap);
 
@@ -446,14 +861,42 @@ public class ObjectStoreSummary
         }
     }
 
-    private Results getFieldSummary(ClassDescriptor cld, String fieldName, ObjectStore os) {
+    /**
+     * Returns the sorted distinct values of an attribute of a class, as Strings.
+     *
+     * @param cld the class of objects to be examined
+     * @param fieldName the name of the attribute
+     * @param os the objectstore
+     * @return a List of values, or null if there are more than maxValues values
+     */
+    private List<Object> getFieldValues(ClassDescriptor cld, String fieldName, ObjectStore os) {
         Query q = new Query();
         q.setDistinct(true);
         QueryClass qc = new QueryClass(cld.getType());
         q.addToSelect(new QueryField(qc, fieldName));
         q.addFrom(qc);
         Results results = os.execute(q);
-        return results;
+        if (results.size() > maxValues) {
+            return null;
+        }
+        List<Object> fieldValues = new ArrayList<Object>();
+        for (Object resRow: results) {
+            Object fieldValue = ((ResultsRow<?>) resRow).get(0);
+            fieldValues.add(fieldValue == null ? null : fieldValue.toString());
+        }
+        Collections.sort(fieldValues, new Comparator<Object>() {
+            @Override
+            public int compare(Object arg0, Object arg1) {
+                if (arg0 == null) {
+                    return arg1 == null ? 0 : 1;
+                }
+                if (arg1 == null) {
+                    return arg0 == null ? 0 : -1;
+                }
+                return arg0.toString().compareTo(arg1.toString());
+            }
+        });
+        return fieldValues;
     }
 
     /**
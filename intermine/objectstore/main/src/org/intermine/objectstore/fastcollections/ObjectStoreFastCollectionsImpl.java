@@ -10,7 +10,6 @@ package org.intermine.objectstore.fastcollections;
  *
  */
 
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -29,8 +28,10 @@ import org.intermine.objectstore.ObjectStore;
 import org.intermine.objectstore.ObjectStoreException;
 import org.intermine.objectstore.ObjectStoreFactory;
 import org.intermine.objectstore.ObjectStorePassthruImpl;
+import org.intermine.objectstore.proxy.CollectionPrefetcher;
 import org.intermine.objectstore.proxy.ProxyCollection;
-import org.intermine.objectstore.query.BagConstraint;
+import org.intermine.objectstore.query.BatchConvertingResultsCursor;
+import org.intermine.objectstore.query.ColumnarResults;
 import org.intermine.objectstore.query.ConstraintSet;
 import org.intermine.objectstore.query.ContainsConstraint;
 import org.intermine.objectstore.query.Query;
@@ -41,6 +42,7 @@ import org.intermine.objectstore.query.QueryForeignKey;
 import org.intermine.objectstore.query.QuerySelectable;
 import org.intermine.objectstore.query.QueryValue;
 import org.intermine.objectstore.query.Results;
+import org.intermine.objectstore.query.ResultsCursor;
 import org.intermine.objectstore.query.ResultsRow;
 import org.intermine.objectstore.query.SimpleConstraint;
 import org.intermine.objectstore.query.SingletonResults;
@@ -189,18 +191,68 @@ public class ObjectStoreFastCollectionsImpl extends ObjectStorePassthruImpl
     @Override
     public List<ResultsRow<Object>> execute(Query q, int start, int limit, boolean optimise,
             boolean explain, Map<Object, Integer> sequence) throws ObjectStoreException {
+        long time1 = System.currentTimeMillis();
+        List<ResultsRow<Object>> results = os.execute(q, start, limit, optimise, explain,
+                sequence);
+        timeSpentExecute += System.currentTimeMillis() - time1;
+        if (results instanceof ColumnarResults) {
+            // Only values are selected, so there are no collections to fetch
+            return results;
+        }
+        return fetchCollections(q, results, limit, optimise, explain, sequence);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The query is streamed from the underlying ObjectStore if it supports it, and the
+     * collections are materialised for fetchSize rows at a time. As the streamed query itself is
+     * not explained, neither are the queries for the collections.
+     */
+    @Override
+    public ResultsCursor executeCursor(final Query q, final int fetchSize,
+            final boolean optimise, final Map<Object, Integer> sequence)
+        throws ObjectStoreException {
+        long time1 = System.currentTimeMillis();
+        ResultsCursor cursor = os.executeCursor(q, fetchSize, optimise, sequence);
+        timeSpentExecute += System.currentTimeMillis() - time1;
+        if (cursor == null) {
+            return null;
+        }
+        return new BatchConvertingResultsCursor(cursor, fetchSize) {
+            @Override
+            protected List<ResultsRow<Object>> convertBatch(List<ResultsRow<Object>> rows)
+                throws ObjectStoreException {
+                return fetchCollections(q, rows, fetchSize, optimise, false, sequence);
+            }
+        };
+    }
+
+    /**
+     * Materialises the collections of the objects in a batch of rows fetched from the
+     * underlying ObjectStore.
+     *
+     * @param q the Query that the rows are from
+     * @param results the rows
+     * @param limit the batch size that the rows were fetched with
+     * @param optimise whether to optimise the queries for the collections
+     * @param explain whether to explain the queries for the collections
+     * @param sequence an object representing the state of the database
+     * @return a List of the rows, which holds on to the materialised collections
+     * @throws ObjectStoreException if an error occurs
+     */
+    private List<ResultsRow<Object>> fetchCollections(Query q, List<ResultsRow<Object>> results,
+            int limit, boolean optimise, boolean explain, Map<Object, Integer> sequence)
+        throws ObjectStoreException {
         try {
-            long time1 = System.currentTimeMillis();
-            List<ResultsRow<Object>> results = os.execute(q, start, limit, optimise, explain,
-                    sequence);
             CacheHoldingArrayList<ResultsRow<Object>> retval;
             if (results instanceof CacheHoldingArrayList<?>) {
                 retval = (CacheHoldingArrayList<ResultsRow<Object>>) results;
             } else {
                 retval = new CacheHoldingArrayList<ResultsRow<Object>>(results);
             }
+            long time1;
             long time2 = System.currentTimeMillis();
-            timeSpentExecute += time2 - time1;
             if (retval.size() > 1) {
                 QuerySelectable node = q.getSelect().get(0);
                 if (node instanceof QueryClass) {
@@ -310,46 +362,21 @@ public class ObjectStoreFastCollectionsImpl extends ObjectStorePassthruImpl
                                 l.setBatchSize(limit * 20);
                                 time1 = System.currentTimeMillis();
                                 timeSpentQuery += time1 - time2;
-                                insertResults(collections, l);
+                                CollectionPrefetcher.insertResults(collections, l);
                                 time2 = System.currentTimeMillis();
                                 timeSpentSubExecute += time2 - time1;
                             } else {
-                                List<Integer> bagList = new ArrayList<Integer>(bag);
-                                for (int i = 0; i < bagList.size(); i += 1000) {
-                                    Query subQ = new Query();
-                                    subQ.setDistinct(false);
-                                    QueryClass qc1 = new QueryClass(clazz);
-                                    QueryClass qc2 = new QueryClass(coll
-                                            .getReferencedClassDescriptor().getType());
-                                    subQ.addFrom(qc1);
-                                    subQ.addFrom(qc2);
-                                    subQ.addToSelect(new QueryField(qc1, "id"));
-                                    subQ.addToSelect(qc2);
-                                    ConstraintSet cs = new ConstraintSet(ConstraintOp.AND);
-                                    subQ.setConstraint(cs);
-                                    QueryCollectionReference qcr = new QueryCollectionReference(qc1,
-                                            fieldName);
-                                    cs.addConstraint(new ContainsConstraint(qcr,
-                                                ConstraintOp.CONTAINS, qc2));
-                                    cs.addConstraint(new BagConstraint(new QueryField(qc1, "id"),
-                                                ConstraintOp.IN,
-                                                bagList.subList(i, (i + 1000 < bagList.size()
-                                                        ? i + 1000 : bagList.size()))));
-                                    Results l = new Results(subQ, os, sequence);
-                                    // TODO: This bypasses the objectstore results cache.
-                                    if (!optimise) {
-                                        l.setNoOptimise();
-                                    }
-                                    if (!explain) {
-                                        l.setNoExplain();
-                                    }
-                                    l.setBatchSize(limit * 20);
-                                    time1 = System.currentTimeMillis();
-                                    timeSpentQuery += time1 - time2;
-                                    insertResults(collections, l);
-                                    time2 = System.currentTimeMillis();
-                                    timeSpentSubExecute += time2 - time1;
-                                }
+                                CollectionPrefetcher prefetcher = new CollectionPrefetcher(os);
+                                prefetcher.setSequence(sequence);
+                                prefetcher.setOptimise(optimise);
+                                prefetcher.setExplain(explain);
+                                prefetcher.setBatchSize(limit * 20);
+                                prefetcher.setChunkSize(1000);
+                                time1 = System.currentTimeMillis();
+                                timeSpentQuery += time1 - time2;
+                                prefetcher.fetch(coll, collections);
+                                time2 = System.currentTimeMillis();
+                                timeSpentSubExecute += time2 - time1;
                             }
                             for (Map.Entry<Integer, Collection<Object>> entry : collections
                                     .entrySet()) {
@@ -379,19 +406,6 @@ public class ObjectStoreFastCollectionsImpl extends ObjectStorePassthruImpl
         }
     }
 
-    private void insertResults(Map<Integer, Collection<Object>> collections, Results l)
-        throws IllegalAccessException {
-        @SuppressWarnings({ "unchecked", "rawtypes" })
-        Collection<ResultsRow<Object>> res = (Collection) l;
-        for (ResultsRow<Object> row : res) {
-            Collection<Object> fromCollection = collections.get(row.get(0));
-            if (fromCollection != null) {
-                Object toObj = row.get(1);
-                fromCollection.add(toObj);
-            }
-        }
-    }
-
     /**
      * {@inheritDoc}
      */
@@ -0,0 +1,510 @@
+package org.intermine.objectstore.intermine;
+
+/*
+ * Copyright (C) 2002-2016 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import net.sf.cglib.proxy.Factory;
+
+import org.intermine.metadata.ClassDescriptor;
+import org.intermine.metadata.Model;
+import org.intermine.metadata.TypeUtil;
+import org.intermine.metadata.Util;
+import org.intermine.model.FastPathObject;
+import org.intermine.model.InterMineObject;
+import org.intermine.objectstore.proxy.ProxyCollection;
+import org.intermine.objectstore.proxy.ProxyReference;
+import org.intermine.objectstore.query.ClobAccess;
+import org.intermine.util.DynamicBean;
+import org.intermine.util.DynamicUtil;
+
+/**
+ * Renders objects into, and parses objects from, the compact format for the OBJECT field of
+ * database tables. This is an alternative to NotXml that is selected for a database by the
+ * objectFormat metadata entry (see MetadataManager.OBJECT_FORMAT).
+ * <p>
+ * The compact format is a binary encoding carried in printable ASCII characters, because the
+ * OBJECT column is a text column, which cannot hold arbitrary bytes. Numbers are written as
+ * variable-length integers of five bits per character, least significant group first, where
+ * the characters ' ' to '?' are continuation groups and the characters '@' to '_' are final
+ * groups. Signed numbers are zigzag-encoded first. The format consists of:
+ * <ul>
+ * <li>the marker character '#', which can never start a NotXml String</li>
+ * <li>the format version number</li>
+ * <li>the class id, which is one more than the index of the class in the sorted list of class
+ * names in the Model, or zero followed by a String of space-separated class names for a class
+ * that is not a single class in the Model</li>
+ * <li>for each field that is not null, in order of field index, the field index followed by the
+ * value</li>
+ * </ul>
+ * The field index is the index of the field in the sorted list of attributes and references of
+ * the class. Integer, long, short, Date and reference values are written as zigzag numbers,
+ * booleans as the numbers 0 and 1, and floating point numbers as their bit patterns reversed, so
+ * that the trailing zero bits of round numbers are omitted. Strings, including Clob descriptions
+ * and values of other types, are written as their length followed by their characters, so no
+ * escaping is needed and values can be extracted without scanning for a delimiter.
+ * <p>
+ * Class ids and field indexes are derived from the Model, so a database in this format must be
+ * read with the Model that it was written with, which is already the case for the table layout.
+ *
+ * @author agent
+ */
+public final class CompactObjectFormat
+{
+    private CompactObjectFormat() {
+    }
+
+    /**
+     * The character that starts every String in the compact format.
+     */
+    public static final char MARKER = '#';
+    /**
+     * The version of the compact format written by this class.
+     */
+    public static final int VERSION = 1;
+
+    private static final char CONTINUATION = ' ';
+    private static final char FINAL = '@';
+    private static final int GROUP_BITS = 5;
+    private static final long GROUP_MASK = (1L << GROUP_BITS) - 1;
+
+    private static final byte STRING = 0;
+    private static final byte INTEGER = 1;
+    private static final byte SHORT = 2;
+    private static final byte LONG = 3;
+    private static final byte BOOLEAN = 4;
+    private static final byte FLOAT = 5;
+    private static final byte DOUBLE = 6;
+    private static final byte DATE = 7;
+    private static final byte CLOB = 8;
+    private static final byte OTHER = 9;
+    private static final byte REFERENCE = 10;
+
+    private static final Map<Model, ModelFormat> MODEL_FORMATS
+        = new IdentityHashMap<Model, ModelFormat>();
+    private static volatile ModelFormat lastModelFormat = null;
+
+    /**
+     * Returns true if the given String from an OBJECT field is in the compact format, rather
+     * than NotXml.
+     *
+     * @param data the contents of an OBJECT field
+     * @return a boolean
+     */
+    public static boolean isCompact(String data) {
+        return (data.length() > 0) && (data.charAt(0) == MARKER);
+    }
+
+    /**
+     * Render the given object in the compact format.
+     *
+     * @param obj the object to render
+     * @param model the Model of the database
+     * @return a String
+     */
+    public static String render(Object obj, Model model) {
+        ClassFormat format = getModelFormat(model).getClassFormat(obj.getClass());
+        StringBuilder sb = new StringBuilder();
+        sb.append(MARKER);
+        writeNumber(sb, VERSION);
+        writeNumber(sb, format.classId);
+        if (format.classId == 0) {
+            writeString(sb, format.classNames);
+        }
+        try {
+            for (int slot = 0; slot < format.fieldNames.length; slot++) {
+                Object value = TypeUtil.getFieldProxy(obj, format.fieldNames[slot]);
+                if (value != null) {
+                    writeNumber(sb, slot);
+                    switch (format.kinds[slot]) {
+                        case STRING:
+                            writeString(sb, (String) value);
+                            break;
+                        case INTEGER:
+                        case SHORT:
+                        case LONG:
+                            writeNumber(sb, zigzag(((Number) value).longValue()));
+                            break;
+                        case BOOLEAN:
+                            writeNumber(sb, ((Boolean) value).booleanValue() ? 1 : 0);
+                            break;
+                        case FLOAT:
+                            writeNumber(sb, Integer.reverse(Float.floatToIntBits(((Float) value)
+                                            .floatValue())) & 0xFFFFFFFFL);
+                            break;
+                        case DOUBLE:
+                            writeNumber(sb, Long.reverse(Double.doubleToLongBits(((Double) value)
+                                            .doubleValue())));
+                            break;
+                        case DATE:
+                            writeNumber(sb, zigzag(((Date) value).getTime()));
+                            break;
+                        case CLOB:
+                            writeString(sb, ((ClobAccess) value).getDbDescription());
+                            break;
+                        case REFERENCE:
+                            writeNumber(sb, zigzag(((InterMineObject) value).getId().intValue()));
+                            break;
+                        default:
+                            writeString(sb, value.toString());
+                            break;
+                    }
+                }
+            }
+        } catch (IllegalAccessException e) {
+            IllegalArgumentException e2 = new IllegalArgumentException();
+            e2.initCause(e);
+            throw e2;
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Parse the given String in the compact format into an Object.
+     *
+     * @param data the String in the compact format
+     * @param model the Model of the database
+     * @param os the ObjectStore from which to create lazy objects
+     * @return an InterMineObject
+     * @throws ClassNotFoundException if a class cannot be found
+     */
+    public static InterMineObject parse(String data, Model model,
+            ObjectStoreInterMineImpl os) throws ClassNotFoundException {
+        if (!isCompact(data)) {
+            throw new IllegalArgumentException("Not in the compact object format: " + data);
+        }
+        Decoder in = new Decoder(data);
+        in.pos = 1;
+        long version = in.readNumber();
+        if (version > VERSION) {
+            throw new IllegalArgumentException("Compact object format version " + version
+                    + " is too new for this code, latest supported version: " + VERSION);
+        }
+        ModelFormat modelFormat = getModelFormat(model);
+        int classId = (int) in.readNumber();
+        ClassFormat format;
+        if (classId == 0) {
+            format = modelFormat.getClassFormat(NotXmlParser.getClass(in.readString()));
+        } else {
+            format = modelFormat.getClassFormat(classId);
+        }
+        InterMineObject retval = (InterMineObject) DynamicUtil.createObject(format.clazz);
+        Map<String, Object> valueMap = null;
+        Class<? extends InterMineObject> proxyType = null;
+        if (retval instanceof Factory) {
+            valueMap = ((DynamicBean) ((Factory) retval).getCallback(0)).getMap();
+            if ((os != null) && os.getSchema().isFetchFromInterMineObject()) {
+                proxyType = InterMineObject.class;
+            }
+        }
+        while (in.pos < in.length) {
+            int slot = (int) in.readNumber();
+            if (slot >= format.fieldNames.length) {
+                throw new IllegalArgumentException("Field index " + slot + " out of range for "
+                        + format.clazz + " in compact object: " + data);
+            }
+            Object value;
+            switch (format.kinds[slot]) {
+                case STRING:
+                    value = in.readString();
+                    break;
+                case INTEGER:
+                    value = Integer.valueOf((int) unzigzag(in.readNumber()));
+                    break;
+                case SHORT:
+                    value = Short.valueOf((short) unzigzag(in.readNumber()));
+                    break;
+                case LONG:
+                    value = Long.valueOf(unzigzag(in.readNumber()));
+                    break;
+                case BOOLEAN:
+                    value = Boolean.valueOf(in.readNumber() != 0);
+                    break;
+                case FLOAT:
+                    value = Float.valueOf(Float.intBitsToFloat(Integer.reverse((int) in
+                                    .readNumber())));
+                    break;
+                case DOUBLE:
+                    value = Double.valueOf(Double.longBitsToDouble(Long.reverse(in
+                                    .readNumber())));
+                    break;
+                case DATE:
+                    value = new Date(unzigzag(in.readNumber()));
+                    break;
+                case CLOB:
+                    value = ClobAccess.decodeDbDescription(os, in.readString());
+                    break;
+                case REFERENCE:
+                    value = new ProxyReference(os, Integer.valueOf((int) unzigzag(in
+                                    .readNumber())), proxyType == null ? format.referenceTypes[slot]
+                                : proxyType);
+                    break;
+                default:
+                    value = TypeUtil.stringToObject(format.types[slot], in.readString());
+                    break;
+            }
+            if (valueMap != null) {
+                valueMap.put(format.fieldNames[slot], value);
+            } else {
+                retval.setFieldValue(format.fieldNames[slot], value);
+            }
+        }
+        for (Map.Entry<String, Class<?>> collEntry : model.getCollectionsForClass(format.clazz)
+                .entrySet()) {
+            Collection<Object> lazyColl = new ProxyCollection<Object>(os, retval,
+                    collEntry.getKey(), collEntry.getValue());
+            if (valueMap != null) {
+                valueMap.put(collEntry.getKey(), lazyColl);
+            } else {
+                retval.setFieldValue(collEntry.getKey(), lazyColl);
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * Returns the ModelFormat for the given Model, creating it if necessary.
+     *
+     * @param model a Model
+     * @return a ModelFormat
+     */
+    private static ModelFormat getModelFormat(Model model) {
+        ModelFormat retval = lastModelFormat;
+        if ((retval == null) || (retval.model != model)) {
+            synchronized (MODEL_FORMATS) {
+                retval = MODEL_FORMATS.get(model);
+                if (retval == null) {
+                    retval = new ModelFormat(model);
+                    MODEL_FORMATS.put(model, retval);
+                }
+            }
+            lastModelFormat = retval;
+        }
+        return retval;
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Appends an unsigned variable-length number.
+     *
+     * @param sb the StringBuilder to append to
+     * @param value the number, treated as unsigned
+     */
+    private static void writeNumber(StringBuilder sb, long value) {
+        long remaining = value;
+        while ((remaining & ~GROUP_MASK) != 0) {
+            sb.append((char) (CONTINUATION + (remaining & GROUP_MASK)));
+            remaining >>>= GROUP_BITS;
+        }
+        sb.append((char) (FINAL + remaining));
+    }
+
+    /**
+     * Appends a length-prefixed String.
+     *
+     * @param sb the StringBuilder to append to
+     * @param value the String
+     */
+    private static void writeString(StringBuilder sb, String value) {
+        writeNumber(sb, value.length());
+        sb.append(value);
+    }
+
+    /**
+     * A position in a String in the compact format.
+     */
+    private static final class Decoder
+    {
+        private final String data;
+        private final int length;
+        private int pos = 0;
+
+        Decoder(String data) {
+            this.data = data;
+            this.length = data.length();
+        }
+
+        long readNumber() {
+            long retval = 0;
+            int shift = 0;
+            while (pos < length) {
+                char c = data.charAt(pos++);
+                if ((c >= FINAL) && (c <= FINAL + GROUP_MASK)) {
+                    return retval | (((long) (c - FINAL)) << shift);
+                } else if ((c >= CONTINUATION) && (c < FINAL) && (shift < 64)) {
+                    retval |= ((long) (c - CONTINUATION)) << shift;
+                    shift += GROUP_BITS;
+                } else {
+                    break;
+                }
+            }
+            throw new IllegalArgumentException("Invalid number at position " + (pos - 1)
+                    + " in compact object: " + data);
+        }
+
+        String readString() {
+            long stringLength = readNumber();
+            if (stringLength > length - pos) {
+                throw new IllegalArgumentException("String at position " + pos + " overruns"
+                        + " compact object: " + data);
+            }
+            int start = pos;
+            pos += (int) stringLength;
+            return data.substring(start, pos);
+        }
+    }
+
+    /**
+     * The class ids and field indexes for a Model.
+     */
+    private static final class ModelFormat
+    {
+        private final Model model;
+        private final String[] classNames;
+        private final Map<String, Integer> classIds = new HashMap<String, Integer>();
+        private final ClassFormat[] classFormatsById;
+        private final ConcurrentMap<Class<?>, ClassFormat> classFormats
+            = new ConcurrentHashMap<Class<?>, ClassFormat>();
+
+        ModelFormat(Model model) {
+            this.model = model;
+            Set<String> names = new TreeSet<String>();
+            for (ClassDescriptor cld : model.getClassDescriptors()) {
+                names.add(cld.getName());
+            }
+            classNames = names.toArray(new String[names.size()]);
+            for (int i = 0; i < classNames.length; i++) {
+                classIds.put(classNames[i], new Integer(i + 1));
+            }
+            classFormatsById = new ClassFormat[classNames.length + 1];
+        }
+
+        ClassFormat getClassFormat(int classId) throws ClassNotFoundException {
+            if ((classId < 1) || (classId >= classFormatsById.length)) {
+                throw new IllegalArgumentException("Class id " + classId + " out of range for"
+                        + " model " + model.getName());
+            }
+            ClassFormat retval = classFormatsById[classId];
+            if (retval == null) {
+                retval = getClassFormat(NotXmlParser.getClass(classNames[classId - 1]));
+                // Entries are immutable, so a racy write to the array is harmless
+                classFormatsById[classId] = retval;
+            }
+            return retval;
+        }
+
+        ClassFormat getClassFormat(Class<?> clazz) {
+            ClassFormat retval = classFormats.get(clazz);
+            if (retval == null) {
+                StringBuilder names = new StringBuilder();
+                for (Class<?> c : Util.decomposeClass(clazz)) {
+                    if (names.length() > 0) {
+                        names.append(" ");
+                    }
+                    names.append(c.getName());
+                }
+                Integer classId = classIds.get(names.toString());
+                retval = new ClassFormat(clazz.asSubclass(FastPathObject.class), names.toString(),
+                        classId == null ? 0 : classId.intValue());
+                classFormats.putIfAbsent(clazz, retval);
+            }
+            return retval;
+        }
+    }
+
+    /**
+     * The field indexes and types for a class.
+     */
+    private static final class ClassFormat
+    {
+        private final Class<? extends FastPathObject> clazz;
+        private final String classNames;
+        private final int classId;
+        private final String[] fieldNames;
+        private final Class<?>[] types;
+        private final byte[] kinds;
+        private final Class<? extends InterMineObject>[] referenceTypes;
+
+        @SuppressWarnings("unchecked")
+        ClassFormat(Class<? extends FastPathObject> clazz, String classNames, int classId) {
+            this.clazz = clazz;
+            this.classNames = classNames;
+            this.classId = classId;
+            List<TypeUtil.FieldInfo> fields = new ArrayList<TypeUtil.FieldInfo>();
+            // getFieldInfos returns the fields sorted by name
+            for (TypeUtil.FieldInfo info : TypeUtil.getFieldInfos(clazz).values()) {
+                if (!Collection.class.isAssignableFrom(info.getType())) {
+                    fields.add(info);
+                }
+            }
+            fieldNames = new String[fields.size()];
+            types = new Class<?>[fields.size()];
+            kinds = new byte[fields.size()];
+            @SuppressWarnings({ "unchecked", "rawtypes" })
+            Class<? extends InterMineObject>[] newReferenceTypes = new Class[fields.size()];
+            referenceTypes = newReferenceTypes;
+            for (int i = 0; i < fields.size(); i++) {
+                TypeUtil.FieldInfo info = fields.get(i);
+                fieldNames[i] = info.getName();
+                types[i] = info.getType();
+                kinds[i] = getKind(info.getType());
+                if (kinds[i] == REFERENCE) {
+                    referenceTypes[i] = InterMineObject.class.isAssignableFrom(info.getType())
+                        ? (Class<? extends InterMineObject>) info.getType()
+                        : InterMineObject.class;
+                }
+            }
+        }
+
+        private static byte getKind(Class<?> type) {
+            if (String.class.equals(type)) {
+                return STRING;
+            } else if (Integer.class.equals(type) || Integer.TYPE.equals(type)) {
+                return INTEGER;
+            } else if (Short.class.equals(type) || Short.TYPE.equals(type)) {
+                return SHORT;
+            } else if (Long.class.equals(type) || Long.TYPE.equals(type)) {
+                return LONG;
+            } else if (Boolean.class.equals(type) || Boolean.TYPE.equals(type)) {
+                return BOOLEAN;
+            } else if (Float.class.equals(type) || Float.TYPE.equals(type)) {
+                return FLOAT;
+            } else if (Double.class.equals(type) || Double.TYPE.equals(type)) {
+                return DOUBLE;
+            } else if (Date.class.equals(type)) {
+                return DATE;
+            } else if (ClobAccess.class.equals(type)) {
+                return CLOB;
+            } else if (FastPathObject.class.isAssignableFrom(type)) {
+                return REFERENCE;
+            }
+            // BigDecimal and anything else that TypeUtil.stringToObject() understands
+            return OTHER;
+        }
+    }
+}
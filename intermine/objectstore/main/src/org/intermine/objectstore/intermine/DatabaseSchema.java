@@ -38,6 +38,15 @@ public class DatabaseSchema
 {
     private static final Logger LOG = Logger.getLogger(DatabaseSchema.class);
 
+    /**
+     * The name of the format of the OBJECT column produced by NotXmlRenderer.
+     */
+    public static final String OBJECT_FORMAT_NOTXML = "notxml";
+    /**
+     * The name of the format of the OBJECT column produced by CompactObjectFormat.
+     */
+    public static final String OBJECT_FORMAT_COMPACT = "compact";
+
     private Model model;
     private List<ClassDescriptor> truncated;
     private boolean noNotXml;
@@ -47,6 +56,7 @@ public class DatabaseSchema
     private int version;
     protected boolean hasBioSeg;
     protected boolean useRangeTypes;
+    private boolean compactObjects;
 
     private Set<ClassDescriptor> truncatedSet;
     private Map<ClassDescriptor, Fields> tableMasterToFieldDescriptors
@@ -69,6 +79,28 @@ public class DatabaseSchema
      */
     public DatabaseSchema(Model model, List<ClassDescriptor> truncated, boolean noNotXml,
             Set<String> missingTables, int version, boolean hasBioSeg, boolean useRangeTypes) {
+        this(model, truncated, noNotXml, missingTables, version, hasBioSeg, useRangeTypes, false);
+    }
+
+    /**
+     * Returns an instance of DatabaseSchema, for the given Model and and List of truncated classes.
+     *
+     * @param model a Model
+     * @param truncated a List of ClassDescriptors representing the truncated classes, in order of
+     * decreasing priority.
+     * @param noNotXml true if NotXML data should be omitted from every table except InterMineObject
+     * @param missingTables a Set of lowercase table names which are missing
+     * @param version the version number in the database
+     * @param hasBioSeg true if the database has the bioseg type installed
+     * @param useRangeTypes true if we can use Postgres built-in range types
+     * @param compactObjects true if the OBJECT column should be written in the compact format
+     * rather than NotXml
+     * @throws IllegalArgumentException if the truncated class list does not make sense
+     */
+    public DatabaseSchema(Model model, List<ClassDescriptor> truncated, boolean noNotXml,
+            Set<String> missingTables, int version, boolean hasBioSeg, boolean useRangeTypes,
+            boolean compactObjects) {
+        this.compactObjects = compactObjects;
         this.model = model;
         this.truncated = truncated;
         this.missingTables = missingTables;
@@ -176,6 +208,34 @@ public class DatabaseSchema
         return version;
     }
 
+    /**
+     * Returns true if the OBJECT column should be written in the compact format rather than
+     * NotXml. Both formats are always accepted when reading.
+     *
+     * @return a boolean
+     */
+    public boolean isCompactObjectFormat() {
+        return compactObjects;
+    }
+
+    /**
+     * Returns true if the given name of an OBJECT column format is the compact format, and false
+     * if it is NotXml or null.
+     *
+     * @param objectFormat the name of the format, from the objectFormat property or metadata
+     * @return a boolean
+     * @throws IllegalArgumentException if the name is not recognised
+     */
+    public static boolean isCompactObjectFormat(String objectFormat) {
+        if ((objectFormat == null) || OBJECT_FORMAT_NOTXML.equals(objectFormat)) {
+            return false;
+        } else if (OBJECT_FORMAT_COMPACT.equals(objectFormat)) {
+            return true;
+        }
+        throw new IllegalArgumentException("Invalid value for objectFormat: " + objectFormat
+                + " (should be " + OBJECT_FORMAT_NOTXML + " or " + OBJECT_FORMAT_COMPACT + ")");
+    }
+
     /**
      * Returns the Set of table names which are tables missing from the database.
      *
@@ -11,11 +11,11 @@ package org.intermine.objectstore.intermine;
  */
 
 import java.util.Collection;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.regex.Pattern;
 
 import net.sf.cglib.proxy.Factory;
@@ -58,15 +58,19 @@ public final class NotXmlParser
     public static final Pattern SPLITTER = Pattern.compile(DELIM, Pattern.LITERAL);
     private static final Pattern SPACE_SPLITTER = Pattern.compile(" ", Pattern.LITERAL);
     private static int opCount = 0;
-    private static long splitTime = 0;
     private static long classTime = 0;
     private static long createTime = 0;
     private static long parseTime = 0;
-    private static Map<String, Class<? extends FastPathObject>> classCache
-        = Collections.synchronizedMap(new HashMap<String, Class<? extends FastPathObject>>());
+    private static ConcurrentMap<String, Class<? extends FastPathObject>> classCache
+        = new ConcurrentHashMap<String, Class<? extends FastPathObject>>();
+    // A hash table in front of the classCache, indexed by the hash code of the class names, which
+    // can be checked without copying the class names out of the NotXml
+    private static final int CLASS_TABLE_SIZE = 1024;
+    private static final ClassCacheEntry[] CLASS_TABLE = new ClassCacheEntry[CLASS_TABLE_SIZE];
 
     /**
-     * Parse the given NotXml String into an Object.
+     * Parse the given NotXml String into an Object. Strings in the compact format are passed on to
+     * the CompactObjectFormat, so that a database may contain a mixture of the two formats.
      *
      * @param xml the NotXml String
      * @param os the ObjectStore from which to create lazy objects
@@ -81,34 +85,32 @@ public final class NotXmlParser
             LOG.warn("Parsing " + xml, e);
         }
         long time1 = System.currentTimeMillis();
-        String[] a = SPLITTER.split(xml);
-        long time2 = System.currentTimeMillis();
-        splitTime += time2 - time1;
+        if (CompactObjectFormat.isCompact(xml)) {
+            InterMineObject retval = CompactObjectFormat.parse(xml, os.getModel(), os);
+            logTimes("Compact", time1);
+            return retval;
+        }
+        NotXmlReader reader = new NotXmlReader(xml);
 
         InterMineObject retval;
 
-        Class<? extends FastPathObject> clazz = classCache.get(a[1]);
-        if (clazz == null) {
-            Set<Class<?>> classes = new HashSet<Class<?>>();
-            if (!"".equals(a[1])) {
-                String[] b = SPACE_SPLITTER.split(a[1]);
-                for (int i = 0; i < b.length; i++) {
-                    classes.add(Class.forName(b[i]));
-                }
-            }
-            time1 = System.currentTimeMillis();
-            classTime += time1 - time2;
-
-            retval = (InterMineObject) DynamicUtil.createObject(classes);
-            clazz = retval.getClass();
-            classCache.put(a[1], clazz);
+        Class<? extends FastPathObject> clazz = null;
+        int slot = reader.classNamesHashCode() & (CLASS_TABLE_SIZE - 1);
+        ClassCacheEntry entry = CLASS_TABLE[slot];
+        if ((entry != null) && reader.classNamesEqual(entry.getClassNames())) {
+            clazz = entry.getClazz();
         } else {
-            time1 = System.currentTimeMillis();
-            classTime += time1 - time2;
-            retval = (InterMineObject) DynamicUtil.createObject(clazz);
+            String classNames = reader.getClassNames();
+            clazz = getClass(classNames);
+            // Entries are immutable, so a racy write to the table is harmless
+            CLASS_TABLE[slot] = new ClassCacheEntry(classNames, clazz);
         }
-        time2 = System.currentTimeMillis();
-        createTime += time2 - time1;
+        long time2 = System.currentTimeMillis();
+        classTime += time2 - time1;
+        retval = (InterMineObject) DynamicUtil.createObject(clazz);
+        time1 = System.currentTimeMillis();
+        createTime += time1 - time2;
+        reader.nextField();
 
         if (retval instanceof Factory) {
             DynamicBean bean = (DynamicBean) ((Factory) retval).getCallback(0);
@@ -117,30 +119,20 @@ public final class NotXmlParser
                 .getFieldDescriptorsForClass(retval.getClass());
             Map<String, TypeUtil.FieldInfo> fieldInfos = TypeUtil.getFieldInfos(clazz);
             boolean fetchFromInterMineObject = os.getSchema().isFetchFromInterMineObject();
-            for (int i = 2; i < a.length; i += 2) {
-                if (a[i].startsWith("a")) {
-                    String fieldName = a[i].substring(1).intern();
+            while (reader.hasField()) {
+                char fieldType = reader.getFieldType();
+                if (fieldType == 'a') {
+                    String fieldName = reader.getFieldName().intern();
                     Class<?> fieldClass = fieldInfos.get(fieldName).getType();
-                    String firstString = (i + 1 == a.length ? "" : a[i + 1]);
-                    StringBuffer string = null;
-                    while ((i + 2 < a.length) && (a[i + 2].startsWith(ENCODED_DELIM))) {
-                        i++;
-                        if (string == null) {
-                            string = new StringBuffer(firstString);
-                        }
-                        string.append(DELIM).append(a[i + 1].substring(1));
-                    }
+                    String string = reader.readString();
                     if (ClobAccess.class.equals(fieldClass)) {
-                        valueMap.put(fieldName, ClobAccess.decodeDbDescription(os, string == null
-                                ? firstString : string.toString()));
+                        valueMap.put(fieldName, ClobAccess.decodeDbDescription(os, string));
                     } else {
-                        valueMap.put(fieldName,
-                                TypeUtil.stringToObject(fieldClass, (string == null ? firstString
-                                        : string.toString())));
+                        valueMap.put(fieldName, TypeUtil.stringToObject(fieldClass, string));
                     }
-                } else if (a[i].startsWith("r")) {
-                    String fieldName = a[i].substring(1).intern();
-                    Integer id = Integer.valueOf(a[i + 1]);
+                } else if (fieldType == 'r') {
+                    String fieldName = reader.getFieldName().intern();
+                    Integer id = Integer.valueOf(reader.readInt());
                     if (fetchFromInterMineObject) {
                         valueMap.put(fieldName, new ProxyReference(os, id,
                                     InterMineObject.class));
@@ -156,6 +148,8 @@ public final class NotXmlParser
                                                                    .getType();
                         valueMap.put(fieldName, new ProxyReference(os, id, tmpType));
                     }
+                } else {
+                    reader.nextField();
                 }
             }
 
@@ -165,27 +159,12 @@ public final class NotXmlParser
                         collEntry.getKey(), collEntry.getValue());
                 valueMap.put(collEntry.getKey(), lazyColl);
             }
-            time1 = System.currentTimeMillis();
-            parseTime += time1 - time2;
-            opCount++;
-            if (opCount >= 100000) {
-                LOG.info("(Fast Factory) Split: " + splitTime + " ms, Class: " + classTime
-                        + " ms, Create: " + createTime + " ms, Parse: " + parseTime + " ms");
-                opCount = 0;
-            }
+            logTimes("Fast Factory", time1);
             return retval;
         } else {
             try {
-                retval.setoBJECT(a, os);
-    //                LOG.error("Used fast xml parser for class " + classes);
-                time1 = System.currentTimeMillis();
-                parseTime += time1 - time2;
-                opCount++;
-                if (opCount >= 100000) {
-                    LOG.info("(Fast Class) Split: " + splitTime + " ms, Class: " + classTime
-                            + " ms, Create: " + createTime + " ms, Parse: " + parseTime + " ms");
-                    opCount = 0;
-                }
+                retval.setoBJECT(reader, os);
+                logTimes("Fast Class", time1);
                 return retval;
             } catch (IllegalStateException e) {
                 // It's alright - fall back to old slow method.
@@ -195,32 +174,22 @@ public final class NotXmlParser
                 Map<String, FieldDescriptor> fields = os.getModel()
                     .getFieldDescriptorsForClass(retval.getClass());
                 Map<String, TypeUtil.FieldInfo> fieldInfos = TypeUtil.getFieldInfos(clazz);
-                for (int i = 2; i < a.length; i += 2) {
-                    if (a[i].startsWith("a")) {
-                        String fieldName = a[i].substring(1);
+                while (reader.hasField()) {
+                    char fieldType = reader.getFieldType();
+                    if (fieldType == 'a') {
+                        String fieldName = reader.getFieldName();
                         Class<?> fieldClass = fieldInfos.get(fieldName).getType();
-                        String firstString = (i + 1 == a.length ? "" : a[i + 1]);
-                        StringBuffer string = null;
-                        if (firstString.length() * 10 < xml.length() * 9) {
-                            string = new StringBuffer(firstString);
-                        }
-                        while ((i + 2 < a.length) && (a[i + 2].startsWith(ENCODED_DELIM))) {
-                            i++;
-                            if (string == null) {
-                                string = new StringBuffer(firstString);
-                            }
-                            string.append(DELIM).append(a[i + 1].substring(1));
-                        }
+                        String string = reader.readString();
                         if (ClobAccess.class.equals(fieldClass)) {
                             retval.setFieldValue(fieldName, ClobAccess.decodeDbDescription(os,
-                                    string == null ? firstString : string.toString()));
+                                    string));
                         } else {
                             retval.setFieldValue(fieldName, TypeUtil.stringToObject(fieldClass,
-                                    (string == null ? firstString : string.toString())));
+                                    string));
                         }
-                    } else if (a[i].startsWith("r")) {
-                        String fieldName = a[i].substring(1);
-                        Integer id = Integer.valueOf(a[i + 1]);
+                    } else if (fieldType == 'r') {
+                        String fieldName = reader.getFieldName();
+                        Integer id = Integer.valueOf(reader.readInt());
                         ReferenceDescriptor ref = (ReferenceDescriptor) fields.get(fieldName);
                         if (ref == null) {
                             throw new RuntimeException("failed to get field " + fieldName
@@ -231,6 +200,8 @@ public final class NotXmlParser
                             (Class<? extends InterMineObject>) ref.getReferencedClassDescriptor()
                                                                    .getType();
                         retval.setFieldValue(fieldName, new ProxyReference(os, id, tmpType));
+                    } else {
+                        reader.nextField();
                     }
                 }
 
@@ -243,16 +214,69 @@ public final class NotXmlParser
                         retval.setFieldValue(coll.getName(), lazyColl);
                     }
                 }
-                time1 = System.currentTimeMillis();
-                parseTime += time1 - time2;
-                opCount++;
-                if (opCount >= 100000) {
-                    LOG.info("(Fallback) Split: " + splitTime + " ms, Class: " + classTime
-                            + " ms, Create: " + createTime + " ms, Parse: " + parseTime + " ms");
-                    opCount = 0;
-                }
+                logTimes("Fallback", time1);
                 return retval;
             }
         }
     }
+
+    /**
+     * Returns the class of object to create for the given space-separated list of class names.
+     *
+     * @param classNames the class names
+     * @return a Class
+     * @throws ClassNotFoundException if a class cannot be found
+     */
+    static Class<? extends FastPathObject> getClass(String classNames)
+        throws ClassNotFoundException {
+        Class<? extends FastPathObject> clazz = classCache.get(classNames);
+        if (clazz == null) {
+            Set<Class<?>> classes = new HashSet<Class<?>>();
+            if (!"".equals(classNames)) {
+                String[] b = SPACE_SPLITTER.split(classNames);
+                for (int i = 0; i < b.length; i++) {
+                    classes.add(Class.forName(b[i]));
+                }
+            }
+            clazz = DynamicUtil.createObject(classes).getClass();
+            classCache.putIfAbsent(classNames, clazz);
+        }
+        return clazz;
+    }
+
+    /**
+     * Adds the time spent parsing an object to the statistics, and logs them every 100000
+     * objects.
+     *
+     * @param kind the parsing method that was used
+     * @param start the time at which parsing the fields started
+     */
+    private static void logTimes(String kind, long start) {
+        parseTime += System.currentTimeMillis() - start;
+        opCount++;
+        if (opCount >= 100000) {
+            LOG.info("(" + kind + ") Class: " + classTime + " ms, Create: " + createTime
+                    + " ms, Parse: " + parseTime + " ms");
+            opCount = 0;
+        }
+    }
+
+    private static class ClassCacheEntry
+    {
+        private final String classNames;
+        private final Class<? extends FastPathObject> clazz;
+
+        public ClassCacheEntry(String classNames, Class<? extends FastPathObject> clazz) {
+            this.classNames = classNames;
+            this.clazz = clazz;
+        }
+
+        public String getClassNames() {
+            return classNames;
+        }
+
+        public Class<? extends FastPathObject> getClazz() {
+            return clazz;
+        }
+    }
 }
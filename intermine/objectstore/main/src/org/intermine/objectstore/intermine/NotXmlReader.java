@@ -0,0 +1,366 @@
+package org.intermine.objectstore.intermine;
+
+/*
+ * Copyright (C) 2002-2016 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import static org.intermine.objectstore.intermine.NotXmlParser.DELIM;
+import static org.intermine.objectstore.intermine.NotXmlParser.ENCODED_DELIM;
+
+/**
+ * A single-pass reader over a NotXml String. Rather than splitting the String into an array of
+ * sections, the reader scans the characters in place, so that field names can be matched and
+ * numeric values decoded without creating any intermediate Strings. Only String values (and
+ * values of types that have no in-place decoder) are copied out of the NotXml.
+ * <p>
+ * A NotXml String consists of sections separated by the delimiter. The first section is empty,
+ * the second is the space-separated list of class names, and the rest are pairs of a field
+ * token (the letter 'a' for an attribute or 'r' for a reference, followed by the field name) and
+ * a value. A delimiter inside a String value is encoded as the delimiter followed by the letter
+ * 'd'.
+ * <p>
+ * The reader starts positioned on the class names. Call nextField() to move to the first field,
+ * and then use one of the read methods to decode the value of each field, which also moves the
+ * reader on to the next field.
+ *
+ * @author agent
+ */
+public final class NotXmlReader
+{
+    private static final int DELIM_LENGTH = DELIM.length();
+    private static final char ENCODED_DELIM_CHAR = ENCODED_DELIM.charAt(0);
+
+    private final String notXml;
+    private final int length;
+    private final int classNamesEnd;
+    // The start and end of the current field token, or -1 if there is no current field
+    private int fieldStart;
+    private int fieldEnd;
+
+    /**
+     * Creates a new reader for the given NotXml String, positioned on the class names.
+     *
+     * @param notXml the NotXml String
+     */
+    public NotXmlReader(String notXml) {
+        if (!notXml.startsWith(DELIM)) {
+            throw new IllegalArgumentException("Not a NotXml String: " + notXml);
+        }
+        this.notXml = notXml;
+        this.length = notXml.length();
+        this.classNamesEnd = sectionEnd(DELIM_LENGTH);
+        this.fieldStart = -1;
+        this.fieldEnd = classNamesEnd;
+    }
+
+    /**
+     * Returns the NotXml String that this reader is reading.
+     *
+     * @return a String
+     */
+    public String getNotXml() {
+        return notXml;
+    }
+
+    /**
+     * Returns the space-separated list of class names at the start of the NotXml.
+     *
+     * @return a String
+     */
+    public String getClassNames() {
+        return notXml.substring(DELIM_LENGTH, classNamesEnd);
+    }
+
+    /**
+     * Returns whether the class names at the start of the NotXml are equal to the given String,
+     * without copying them out of the NotXml.
+     *
+     * @param classNames a space-separated list of class names
+     * @return true if they are equal
+     */
+    public boolean classNamesEqual(String classNames) {
+        return (classNamesEnd - DELIM_LENGTH == classNames.length())
+            && notXml.regionMatches(DELIM_LENGTH, classNames, 0, classNames.length());
+    }
+
+    /**
+     * Returns the hash code of the class names at the start of the NotXml, which is the same as
+     * getClassNames().hashCode(), without copying them out of the NotXml.
+     *
+     * @return an int
+     */
+    public int classNamesHashCode() {
+        int retval = 0;
+        for (int i = DELIM_LENGTH; i < classNamesEnd; i++) {
+            retval = 31 * retval + notXml.charAt(i);
+        }
+        return retval;
+    }
+
+    /**
+     * Moves the reader on to the next field, skipping the value of the current field if it has
+     * not been read.
+     *
+     * @return true if there is another field, false if the end of the NotXml has been reached
+     */
+    public boolean nextField() {
+        return advance(fieldStart == -1 ? fieldEnd : skipValue());
+    }
+
+    /**
+     * Moves the reader on to the field after the given delimiter position.
+     *
+     * @param pos the index of a delimiter, or the end of the NotXml
+     * @return true if there is another field
+     */
+    private boolean advance(int pos) {
+        if (pos >= length) {
+            fieldStart = -1;
+            fieldEnd = length;
+            return false;
+        }
+        fieldStart = pos + DELIM_LENGTH;
+        fieldEnd = sectionEnd(fieldStart);
+        return true;
+    }
+
+    /**
+     * Returns whether the reader is positioned on a field.
+     *
+     * @return true if there is a current field
+     */
+    public boolean hasField() {
+        return fieldStart != -1;
+    }
+
+    /**
+     * Returns a number that changes every time the reader moves to another field. This allows a
+     * caller to detect that none of its read methods consumed the current field.
+     *
+     * @return an int
+     */
+    public int getPosition() {
+        return fieldStart;
+    }
+
+    /**
+     * Returns whether the current field is the attribute with the given name.
+     *
+     * @param fieldName the name of the attribute
+     * @return true if the current field is that attribute
+     */
+    public boolean isAttribute(String fieldName) {
+        return isField('a', fieldName);
+    }
+
+    /**
+     * Returns whether the current field is the reference with the given name.
+     *
+     * @param fieldName the name of the reference
+     * @return true if the current field is that reference
+     */
+    public boolean isReference(String fieldName) {
+        return isField('r', fieldName);
+    }
+
+    private boolean isField(char type, String fieldName) {
+        return (fieldStart != -1) && (fieldEnd - fieldStart == fieldName.length() + 1)
+            && (notXml.charAt(fieldStart) == type)
+            && notXml.regionMatches(fieldStart + 1, fieldName, 0, fieldName.length());
+    }
+
+    /**
+     * Returns the type of the current field, which is 'a' for an attribute and 'r' for a
+     * reference.
+     *
+     * @return a char
+     */
+    public char getFieldType() {
+        if ((fieldStart == -1) || (fieldStart == fieldEnd)) {
+            throw new IllegalStateException("No current field in NotXml: " + notXml);
+        }
+        return notXml.charAt(fieldStart);
+    }
+
+    /**
+     * Returns the name of the current field. This creates a new String, so it is intended for
+     * error messages and the slower parsing paths.
+     *
+     * @return the field name
+     */
+    public String getFieldName() {
+        if ((fieldStart == -1) || (fieldStart == fieldEnd)) {
+            throw new IllegalStateException("No current field in NotXml: " + notXml);
+        }
+        return notXml.substring(fieldStart + 1, fieldEnd);
+    }
+
+    /**
+     * Reads the value of the current field as a String, decoding any encoded delimiters, and
+     * moves on to the next field.
+     *
+     * @return the value
+     */
+    public String readString() {
+        int start = valueStart();
+        int end = sectionEnd(start);
+        String retval;
+        if (isContinuation(end)) {
+            StringBuilder string = new StringBuilder();
+            string.append(notXml, start, end);
+            while (isContinuation(end)) {
+                start = end + DELIM_LENGTH + 1;
+                end = sectionEnd(start);
+                string.append(DELIM).append(notXml, start, end);
+            }
+            retval = string.toString();
+        } else {
+            retval = notXml.substring(start, end);
+        }
+        advance(end);
+        return retval;
+    }
+
+    /**
+     * Reads the value of the current field as an int, and moves on to the next field.
+     *
+     * @return the value
+     * @throws NumberFormatException if the value is not a valid int
+     */
+    public int readInt() {
+        long value = readLong();
+        if ((value < Integer.MIN_VALUE) || (value > Integer.MAX_VALUE)) {
+            throw new NumberFormatException("Value out of range for int: " + value);
+        }
+        return (int) value;
+    }
+
+    /**
+     * Reads the value of the current field as a short, and moves on to the next field.
+     *
+     * @return the value
+     * @throws NumberFormatException if the value is not a valid short
+     */
+    public short readShort() {
+        long value = readLong();
+        if ((value < Short.MIN_VALUE) || (value > Short.MAX_VALUE)) {
+            throw new NumberFormatException("Value out of range for short: " + value);
+        }
+        return (short) value;
+    }
+
+    /**
+     * Reads the value of the current field as a long, and moves on to the next field.
+     *
+     * @return the value
+     * @throws NumberFormatException if the value is not a valid long
+     */
+    public long readLong() {
+        int start = valueStart();
+        int end = sectionEnd(start);
+        int pos = start;
+        boolean negative = false;
+        if ((pos < end) && ((notXml.charAt(pos) == '-') || (notXml.charAt(pos) == '+'))) {
+            negative = notXml.charAt(pos) == '-';
+            pos++;
+        }
+        if (pos == end) {
+            throw new NumberFormatException("For input string: \""
+                    + notXml.substring(start, end) + "\"");
+        }
+        // Accumulate negatively, so that Long.MIN_VALUE can be represented
+        long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        long multLimit = limit / 10;
+        long retval = 0;
+        while (pos < end) {
+            int digit = Character.digit(notXml.charAt(pos), 10);
+            if ((digit < 0) || (retval < multLimit)) {
+                throw new NumberFormatException("For input string: \""
+                        + notXml.substring(start, end) + "\"");
+            }
+            retval *= 10;
+            if (retval < limit + digit) {
+                throw new NumberFormatException("For input string: \""
+                        + notXml.substring(start, end) + "\"");
+            }
+            retval -= digit;
+            pos++;
+        }
+        advance(end);
+        return negative ? retval : -retval;
+    }
+
+    /**
+     * Reads the value of the current field as a boolean, in the same way as
+     * Boolean.parseBoolean(), and moves on to the next field.
+     *
+     * @return the value
+     */
+    public boolean readBoolean() {
+        int start = valueStart();
+        int end = sectionEnd(start);
+        boolean retval = (end - start == 4) && notXml.regionMatches(true, start, "true", 0, 4);
+        advance(end);
+        return retval;
+    }
+
+    /**
+     * Returns the index of the start of the value of the current field.
+     *
+     * @return an index into the NotXml
+     */
+    private int valueStart() {
+        if (fieldStart == -1) {
+            throw new IllegalStateException("No current field in NotXml: " + notXml);
+        }
+        // A missing value at the end of the NotXml is an empty value
+        return fieldEnd >= length ? length : fieldEnd + DELIM_LENGTH;
+    }
+
+    /**
+     * Returns the index of the end of the value of the current field, including any encoded
+     * delimiters.
+     *
+     * @return an index into the NotXml
+     */
+    private int skipValue() {
+        int end = sectionEnd(valueStart());
+        while (isContinuation(end)) {
+            end = sectionEnd(end + DELIM_LENGTH + 1);
+        }
+        return end;
+    }
+
+    /**
+     * Returns whether the section after the given delimiter position is a continuation of a
+     * String containing an encoded delimiter.
+     *
+     * @param pos the index of a delimiter, or the end of the NotXml
+     * @return true if the next section starts with the encoded delimiter marker
+     */
+    private boolean isContinuation(int pos) {
+        return (pos + DELIM_LENGTH < length)
+            && (notXml.charAt(pos + DELIM_LENGTH) == ENCODED_DELIM_CHAR);
+    }
+
+    /**
+     * Returns the index of the next delimiter at or after the given position, or the length of
+     * the NotXml if there are no more delimiters.
+     *
+     * @param pos the position to start searching from
+     * @return an index into the NotXml
+     */
+    private int sectionEnd(int pos) {
+        if (pos >= length) {
+            return length;
+        }
+        int retval = notXml.indexOf(DELIM, pos);
+        return retval == -1 ? length : retval;
+    }
+}
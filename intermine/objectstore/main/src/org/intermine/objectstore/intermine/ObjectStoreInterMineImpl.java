@@ -18,6 +18,8 @@ import java.io.IOException;
 import java.io.Writer;
 import java.lang.ref.ReferenceQueue;
 import java.lang.ref.WeakReference;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -30,18 +32,24 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
 
 import org.apache.log4j.Logger;
 import org.intermine.metadata.ClassDescriptor;
+import org.intermine.metadata.CollectionDescriptor;
 import org.intermine.metadata.ConstraintOp;
 import org.intermine.metadata.FieldDescriptor;
 import org.intermine.metadata.MetaDataException;
 import org.intermine.metadata.Model;
+import org.intermine.metadata.ReferenceDescriptor;
 import org.intermine.metadata.TypeUtil;
 import org.intermine.model.InterMineObject;
 import org.intermine.modelproduction.MetadataManager;
@@ -52,18 +60,21 @@ import org.intermine.objectstore.ObjectStoreQueryDurationException;
 import org.intermine.objectstore.ObjectStoreWriter;
 import org.intermine.objectstore.query.BagConstraint;
 import org.intermine.objectstore.query.Clob;
+import org.intermine.objectstore.query.ClobPageCache;
 import org.intermine.objectstore.query.Constraint;
 import org.intermine.objectstore.query.ConstraintHelper;
 import org.intermine.objectstore.query.ConstraintSet;
 import org.intermine.objectstore.query.ConstraintTraverseAction;
 import org.intermine.objectstore.query.ConstraintWithBag;
 import org.intermine.objectstore.query.FromElement;
+import org.intermine.objectstore.query.IteratorResultsCursor;
 import org.intermine.objectstore.query.MultipleInBagConstraint;
 import org.intermine.objectstore.query.OrderDescending;
 import org.intermine.objectstore.query.Query;
 import org.intermine.objectstore.query.QueryClass;
 import org.intermine.objectstore.query.QueryClassBag;
 import org.intermine.objectstore.query.QueryCollectionPathExpression;
+import org.intermine.objectstore.query.QueryCreator;
 import org.intermine.objectstore.query.QueryField;
 import org.intermine.objectstore.query.QueryNode;
 import org.intermine.objectstore.query.QueryObjectPathExpression;
@@ -72,13 +83,16 @@ import org.intermine.objectstore.query.QueryOrderable;
 import org.intermine.objectstore.query.QuerySelectable;
 import org.intermine.objectstore.query.Results;
 import org.intermine.objectstore.query.ResultsBatches;
+import org.intermine.objectstore.query.ResultsCursor;
 import org.intermine.objectstore.query.ResultsInfo;
 import org.intermine.objectstore.query.ResultsRow;
 import org.intermine.objectstore.query.SingletonResults;
+import org.intermine.objectstore.query.iql.IqlQuery;
 import org.intermine.sql.Database;
 import org.intermine.sql.DatabaseConnectionException;
 import org.intermine.sql.DatabaseFactory;
 import org.intermine.sql.DatabaseUtil;
+import org.intermine.sql.QueryMetrics;
 import org.intermine.sql.precompute.BestQuery;
 import org.intermine.sql.precompute.BestQueryExplainer;
 import org.intermine.sql.precompute.OptimiserCache;
@@ -93,6 +107,7 @@ import org.intermine.sql.writebatch.BatchWriterPostgresCopyImpl;
 import org.intermine.util.CacheMap;
 import org.intermine.util.ShutdownHook;
 import org.intermine.util.Shutdownable;
+import org.intermine.util.TinyLfuCacheMap;
 
 /**
  * An SQL-backed implementation of the ObjectStore interface. The schema is oriented towards data
@@ -108,6 +123,11 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
     private static final Logger SQLLOGGER = Logger.getLogger("sqllogger");
 
     protected static final int CACHE_LARGEST_OBJECT = 5000000;
+    /**
+     * The maximum number of queries to hold in each of the Results caches. The rows of the
+     * Results are held separately, in the soft batch cache of each ResultsBatches.
+     */
+    protected static final int RESULTS_CACHE_SIZE = 1000;
     protected static Map<String, ObjectStoreInterMineImpl> instances
         = new HashMap<String, ObjectStoreInterMineImpl>();
     protected Database db;
@@ -126,6 +146,9 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
     protected long statsExeTime = 0;
     protected long statsConTime = 0;
     protected QueryOptimiserContext limitedContext;
+    // contexts that explain candidates in parallel, or null to explain them one at a time
+    protected QueryOptimiserContext parallelContext = null;
+    protected QueryOptimiserContext parallelLimitedContext = null;
     protected boolean verboseQueryLog = false;
     protected boolean logBeforeExecute = false;
     protected int sequenceBase = 0;
@@ -136,6 +159,10 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
 
     // don't use a table to represent bags if the bag is smaller than this value
     protected int minBagTableSize = -1;
+    // the number of connections each writer writes its batches on at once
+    protected int batchFlushers = 1;
+    // with parameterised queries, bind bags up to this size as arrays rather than using a table
+    protected int maxBagArraySize = 0;
     protected Map<Object, String> bagConstraintTables = Collections.synchronizedMap(
             new WeakHashMap<Object, String>());
     protected Set<BagTableToRemove> bagTablesInDatabase = Collections.synchronizedSet(
@@ -147,11 +174,23 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
     protected Map<Query, Integer> goFasterCountMap = new IdentityHashMap<Query, Integer>();
     protected ReferenceQueue<String> bagTablesToRemove = new ReferenceQueue<String>();
     protected String description;
-    protected Map<String, Results> resultsCache = new CacheMap<String, Results>();
+    protected Map<String, Results> resultsCache = new TinyLfuCacheMap<String, Results>(
+            "Results cache", RESULTS_CACHE_SIZE);
     protected Map<String, SingletonResults> singletonResultsCache
-        = new CacheMap<String, SingletonResults>();
+        = new TinyLfuCacheMap<String, SingletonResults>("SingletonResults cache",
+                RESULTS_CACHE_SIZE);
     protected Map<String, Map<Integer, ResultsBatches>> batchesCache
-        = new CacheMap<String, Map<Integer, ResultsBatches>>();
+        = new TinyLfuCacheMap<String, Map<Integer, ResultsBatches>>("ResultsBatches cache",
+                RESULTS_CACHE_SIZE);
+    protected SharedResultsCache sharedResultsCache = null;
+    protected SlowQueryLog slowQueryLog = null;
+    protected boolean parameterisedQueries = false;
+    protected PreparedStatementCache preparedStatementCache = null;
+    protected Map<String, Integer> unoptimisedShapes = new TinyLfuCacheMap<String, Integer>(
+            "Unoptimised query shapes", UNOPTIMISED_SHAPES_SIZE);
+    protected Map<String, Boolean> precomputedTableHasConstants
+        = Collections.synchronizedMap(new HashMap<String, Boolean>());
+    protected static final int UNOPTIMISED_SHAPES_SIZE = 10000;
 
     private static final String[] LOG_TABLE_COLUMNS = new String[] {"timestamp", "optimise",
         "estimated", "execute", "permitted", "convert", "iql", "sql"};
@@ -337,6 +376,7 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
         String missingTablesString = props.getProperty("missingTables");
         String truncatedClassesString = props.getProperty("truncatedClasses");
         String noNotXmlString = props.getProperty("noNotXml");
+        String objectFormatString = props.getProperty("objectFormat");
 
         // Non-format properties
         String logfile = props.getProperty("logfile");
@@ -347,6 +387,19 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
         String logExplainsString = props.getProperty("logExplains");
         String logBeforeExecuteString = props.getProperty("logBeforeExecute");
         String disableResultsCacheString = props.getProperty("disableResultsCache");
+        String sharedResultsCacheSizeString = props.getProperty("sharedResultsCacheSize");
+        String sharedResultsCacheMinTimeString = props.getProperty("sharedResultsCacheMinTime");
+        String parameterisedQueriesString = props.getProperty("parameterisedQueries");
+        String preparedStatementCacheSizeString = props.getProperty("preparedStatementCacheSize");
+        String maxBagArraySizeString = props.getProperty("maxBagArraySize");
+        String optimiserParallelismString = props.getProperty("optimiserParallelism");
+        String optimiserEarlyStopMarginString = props.getProperty("optimiserEarlyStopMargin");
+        String slowQueryLogSizeString = props.getProperty("slowQueryLogSize");
+        String slowQueryThresholdString = props.getProperty("slowQueryThreshold");
+        String slowQuerySampleRateString = props.getProperty("slowQuerySampleRate");
+        String slowQueryExplainAnalyzeString = props.getProperty("slowQueryExplainAnalyze");
+        String clobPageCacheSizeString = props.getProperty("clobPageCacheSize");
+        String batchFlushersString = props.getProperty("batchFlushers");
 
         synchronized (instances) {
             ObjectStoreInterMineImpl os = instances.get(osAlias);
@@ -404,6 +457,8 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
                                 MetadataManager.MISSING_TABLES);
                         noNotXmlString = MetadataManager.retrieve(database,
                                 MetadataManager.NO_NOTXML);
+                        objectFormatString = MetadataManager.retrieve(database,
+                                MetadataManager.OBJECT_FORMAT);
                     } catch (SQLException e) {
                         throw new IllegalArgumentException("Couldn't retrieve embedded config "
                                 + "for ObjectStore " + osAlias);
@@ -435,6 +490,12 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
                     throw new ObjectStoreException("Invalid value for property noNotXml: "
                             + noNotXmlString);
                 }
+                boolean compactObjects;
+                try {
+                    compactObjects = DatabaseSchema.isCompactObjectFormat(objectFormatString);
+                } catch (IllegalArgumentException e) {
+                    throw new ObjectStoreException(e.getMessage());
+                }
                 HashSet<String> missingTables = new HashSet<String>();
                 if (missingTablesString != null) {
                     String[] tables = missingTablesString.split(",");
@@ -475,7 +536,7 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
                 }
 
                 DatabaseSchema schema = new DatabaseSchema(osModel, truncatedClasses, noNotXml,
-                        missingTables, formatVersion, hasBioSeg, useRangeTypes);
+                        missingTables, formatVersion, hasBioSeg, useRangeTypes, compactObjects);
                 os = new ObjectStoreInterMineImpl(database, schema);
                 os.description = osAlias;
 
@@ -505,6 +566,13 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
                         LOG.warn("Error setting minBagTableSize: " + e);
                     }
                 }
+                if (batchFlushersString != null) {
+                    try {
+                        os.setBatchFlushers(Integer.parseInt(batchFlushersString));
+                    } catch (NumberFormatException e) {
+                        LOG.warn("Error setting batchFlushers: " + e);
+                    }
+                }
                 if ("true".equals(logEverythingString)) {
                     os.setLogEverything(true);
                 }
@@ -520,6 +588,87 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
                 if ("true".equals(disableResultsCacheString)) {
                     os.setDisableResultsCache(true);
                 }
+                long sharedResultsCacheSize = SharedResultsCache.DEFAULT_MAXIMUM_CELLS;
+                if (sharedResultsCacheSizeString != null) {
+                    try {
+                        sharedResultsCacheSize = Long.parseLong(sharedResultsCacheSizeString);
+                    } catch (NumberFormatException e) {
+                        LOG.warn("Error setting sharedResultsCacheSize: " + e);
+                    }
+                }
+                os.setSharedResultsCacheSize(sharedResultsCacheSize);
+                if ((sharedResultsCacheMinTimeString != null)
+                        && (os.getSharedResultsCache() != null)) {
+                    try {
+                        os.getSharedResultsCache().setMinimumTime(Long.parseLong(
+                                    sharedResultsCacheMinTimeString));
+                    } catch (NumberFormatException e) {
+                        LOG.warn("Error setting sharedResultsCacheMinTime: " + e);
+                    }
+                }
+                if ("true".equals(parameterisedQueriesString)) {
+                    int preparedStatementCacheSize = PreparedStatementCache.DEFAULT_SIZE;
+                    if (preparedStatementCacheSizeString != null) {
+                        try {
+                            preparedStatementCacheSize = Integer.parseInt(
+                                    preparedStatementCacheSizeString);
+                        } catch (NumberFormatException e) {
+                            LOG.warn("Error setting preparedStatementCacheSize: " + e);
+                        }
+                    }
+                    os.setParameterisedQueries(true, preparedStatementCacheSize);
+                }
+                if (maxBagArraySizeString != null) {
+                    try {
+                        os.setMaxBagArraySize(Integer.parseInt(maxBagArraySizeString));
+                    } catch (NumberFormatException e) {
+                        LOG.warn("Error setting maxBagArraySize: " + e);
+                    }
+                }
+                if (optimiserParallelismString != null) {
+                    try {
+                        os.setOptimiserParallelism(Integer.parseInt(optimiserParallelismString),
+                                (optimiserEarlyStopMarginString == null ? 0.0
+                                 : Double.parseDouble(optimiserEarlyStopMarginString)));
+                    } catch (NumberFormatException e) {
+                        LOG.warn("Error setting optimiserParallelism: " + e);
+                    }
+                }
+                int slowQueryLogSize = SlowQueryLog.DEFAULT_PER_SHAPE;
+                if (slowQueryLogSizeString != null) {
+                    try {
+                        slowQueryLogSize = Integer.parseInt(slowQueryLogSizeString);
+                    } catch (NumberFormatException e) {
+                        LOG.warn("Error setting slowQueryLogSize: " + e);
+                    }
+                }
+                os.setSlowQueryLogSize(slowQueryLogSize);
+                SlowQueryLog slowQueryLog = os.getSlowQueryLog();
+                if (slowQueryLog != null) {
+                    try {
+                        if (slowQueryThresholdString != null) {
+                            slowQueryLog.setThreshold(Long.parseLong(slowQueryThresholdString));
+                        }
+                        if (slowQuerySampleRateString != null) {
+                            slowQueryLog.setSampleRate(Double.parseDouble(
+                                        slowQuerySampleRateString));
+                        }
+                    } catch (NumberFormatException e) {
+                        LOG.warn("Error configuring slow query log: " + e);
+                    }
+                    if ("true".equals(slowQueryExplainAnalyzeString)) {
+                        slowQueryLog.setExplainAnalyze(true, SlowQueryLog.DEFAULT_EXPLAIN_TIMEOUT);
+                    }
+                }
+                if (clobPageCacheSizeString != null) {
+                    // The cache is shared by all the objectstores in the JVM
+                    try {
+                        ClobPageCache.getInstance().setMaximumChars(Long.parseLong(
+                                    clobPageCacheSizeString));
+                    } catch (NumberFormatException e) {
+                        LOG.warn("Error setting clobPageCacheSize: " + e);
+                    }
+                }
                 instances.put(osAlias, os);
             }
             return os;
@@ -668,6 +817,93 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
         return disableResultsCache;
     }
 
+    /**
+     * Sets the maximum number of cells (rows multiplied by columns) held in the shared results
+     * cache, replacing the cache with an empty one. A size of zero switches the cache off.
+     *
+     * @param cells the maximum number of cells
+     */
+    public void setSharedResultsCacheSize(long cells) {
+        sharedResultsCache = (cells > 0 ? new SharedResultsCache(this, cells) : null);
+    }
+
+    /**
+     * Returns the shared results cache, which holds batches of rows shared by all users of this
+     * ObjectStore, or null if it is switched off.
+     *
+     * @return a SharedResultsCache
+     */
+    public SharedResultsCache getSharedResultsCache() {
+        return sharedResultsCache;
+    }
+
+    /**
+     * Sets the number of the slowest recent queries of each shape to keep in the slow query log,
+     * replacing the log with an empty one. A size of zero switches the log off.
+     *
+     * @param perShape the number of queries to keep for each shape
+     */
+    public void setSlowQueryLogSize(int perShape) {
+        if (perShape > 0) {
+            SlowQueryLog newLog = new SlowQueryLog(this);
+            newLog.setPerShape(perShape);
+            slowQueryLog = newLog;
+        } else {
+            slowQueryLog = null;
+        }
+    }
+
+    /**
+     * Returns the slow query log, which holds the details of the slowest recent queries run by
+     * this ObjectStore, or null if it is switched off.
+     *
+     * @return a SlowQueryLog
+     */
+    public SlowQueryLog getSlowQueryLog() {
+        return slowQueryLog;
+    }
+
+    /**
+     * Sets whether queries are run as parameterised SQL, with the constants in their WHERE and
+     * HAVING clauses bound to PreparedStatements that are kept for reuse on each connection.
+     * Queries made from the same template then share a server-side plan, and the optimiser
+     * remembers which query shapes it could not improve upon, rather than which literal SQL
+     * strings. A shape is only remembered while none of the precomputed tables contain constants,
+     * as a precomputed table with a constant may help some values of a shape and not others.
+     *
+     * @param parameterisedQueries true to run parameterised SQL
+     * @param cacheSize the maximum number of PreparedStatements to keep for each connection
+     */
+    public synchronized void setParameterisedQueries(boolean parameterisedQueries,
+            int cacheSize) {
+        if (preparedStatementCache != null) {
+            preparedStatementCache.clear();
+        }
+        this.parameterisedQueries = parameterisedQueries;
+        preparedStatementCache = (parameterisedQueries ? new PreparedStatementCache(cacheSize)
+                : null);
+        unoptimisedShapes.clear();
+    }
+
+    /**
+     * Returns whether queries are run as parameterised SQL.
+     *
+     * @return a boolean
+     */
+    public boolean getParameterisedQueries() {
+        return parameterisedQueries;
+    }
+
+    /**
+     * Returns the cache of PreparedStatements used for parameterised SQL, or null if queries are
+     * not parameterised.
+     *
+     * @return a PreparedStatementCache
+     */
+    public PreparedStatementCache getPreparedStatementCache() {
+        return preparedStatementCache;
+    }
+
     /**
      * Allows the log table to be flushed, guaranteeing that all log entries are committed to the
      * database.
@@ -717,6 +953,27 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
         this.minBagTableSize = minBagTableSize;
     }
 
+    /**
+     * Sets the number of connections that each new writer for this objectstore writes its batches
+     * on at once. Writers with more than one write each table on its own connection, committing
+     * them on every flush, so their writes are not part of the writer's transaction. This is
+     * only for bulk loads into a database that would be built again if the load failed.
+     *
+     * @param batchFlushers the number of connections
+     */
+    public void setBatchFlushers(int batchFlushers) {
+        this.batchFlushers = batchFlushers;
+    }
+
+    /**
+     * Returns the number of connections that each new writer writes its batches on at once.
+     *
+     * @return an int
+     */
+    public int getBatchFlushers() {
+        return batchFlushers;
+    }
+
     /**
      * Returns the cutoff value used to decide if a bag should be put in a table.
      *
@@ -726,6 +983,90 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
         return minBagTableSize;
     }
 
+    /**
+     * Sets the largest bag that is bound to a query as a single array value when queries are
+     * parameterised, instead of being put in a temporary table. This saves creating, analysing
+     * and dropping a table for every query that uses a bag, and means that queries with bags of
+     * different sizes have the same shape. Bags larger than this still use a table if they are
+     * at least the minimum bag table size. Zero switches bag arrays off.
+     *
+     * @param maxBagArraySize the number of elements
+     */
+    public void setMaxBagArraySize(int maxBagArraySize) {
+        this.maxBagArraySize = maxBagArraySize;
+    }
+
+    /**
+     * Returns the largest bag that is bound to a query as a single array value when queries are
+     * parameterised.
+     *
+     * @return an int
+     */
+    public int getMaxBagArraySize() {
+        return maxBagArraySize;
+    }
+
+    /**
+     * Sets the number of candidate queries that the optimiser explains at once, each on its own
+     * connection from the pool, and the margin by which a candidate must beat the best query so
+     * far to stop the search early. Queries run on a connection that is in a transaction are
+     * still optimised one candidate at a time, as other connections cannot see its uncommitted
+     * tables.
+     *
+     * @param parallelism the number of candidates to explain at once, or 1 to explain them one at a
+     * time
+     * @param earlyStopMargin a fraction between zero and one, or zero to never stop early
+     */
+    public synchronized void setOptimiserParallelism(int parallelism, double earlyStopMargin) {
+        if (parallelism <= 1) {
+            parallelContext = null;
+            parallelLimitedContext = null;
+            return;
+        }
+        QueryOptimiserContext context = new QueryOptimiserContext();
+        context.setParallelism(parallelism);
+        context.setEarlyStopMargin(earlyStopMargin);
+        QueryOptimiserContext limited = new QueryOptimiserContext();
+        limited.setTimeLimit(limitedContext.getTimeLimit());
+        limited.setMaxQueryParseTime(limitedContext.getMaxQueryParseTime());
+        limited.setParallelism(parallelism);
+        limited.setEarlyStopMargin(earlyStopMargin);
+        parallelContext = context;
+        parallelLimitedContext = limited;
+    }
+
+    /**
+     * Returns the number of candidate queries that the optimiser explains at once.
+     *
+     * @return an int
+     */
+    public int getOptimiserParallelism() {
+        QueryOptimiserContext context = parallelContext;
+        return (context == null ? 1 : context.getParallelism());
+    }
+
+    /**
+     * Returns the QueryOptimiserContext to optimise a query on a connection with.
+     *
+     * @param c the Connection that the query will be run on
+     * @param explain true if the query is to be explained and so should be optimised with a time
+     * limit
+     * @return a QueryOptimiserContext
+     */
+    protected QueryOptimiserContext getOptimiserContext(Connection c, boolean explain) {
+        QueryOptimiserContext parallel = (explain ? parallelLimitedContext : parallelContext);
+        if (parallel != null) {
+            try {
+                if (c.getAutoCommit()) {
+                    return parallel;
+                }
+            } catch (SQLException e) {
+                // Fall back to a single connection
+            }
+        }
+        return (explain ? limitedContext : QueryOptimiserContext.DEFAULT);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -875,6 +1216,62 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
         return batch;
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * Unless the os.query.async-threads property is set, this is the size of the connection pool,
+     * so that asynchronous queries can use every connection but no more.
+     */
+    @Override
+    protected int getAsyncThreadCount() {
+        int maxConnections = db.getMaxConnections();
+        if ((asyncThreads > 0) || (maxConnections <= 0)) {
+            return super.getAsyncThreadCount();
+        }
+        return maxConnections;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The task runs with a request ID of its own, so that cancelling the Future cancels the
+     * Statement the task is running, using cancelRequest().
+     */
+    @Override
+    protected <V> FutureTask<V> createTask(final Callable<V> task) {
+        final Object id = new Object();
+        return new FutureTask<V>(new Callable<V>() {
+            public V call() throws Exception {
+                // If the task is run in a thread that already has a request ID, such as when
+                // one task submits another, it uses that one
+                boolean register = (requestId.get() == null);
+                if (register) {
+                    registerRequestId(id);
+                }
+                try {
+                    return task.call();
+                } finally {
+                    if (register) {
+                        deregisterRequestId(id);
+                    }
+                }
+            }
+        }) {
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                boolean retval = super.cancel(mayInterruptIfRunning);
+                if (retval) {
+                    try {
+                        cancelRequest(id);
+                    } catch (ObjectStoreException e) {
+                        LOG.warn("Failed to cancel asynchronous query", e);
+                    }
+                }
+                return retval;
+            }
+        };
+    }
+
     /*
      * Now, we need some query cancellation mechanism. So, here is how it will work:
      * 1. A thread calls registerRequest(Object requestId), which creates an entry in a lookup
@@ -1016,10 +1413,36 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
                 return Collections.emptyList();
             }
         }
+        // Pages of Clobs are cached by the ClobPageCache instead
+        boolean clobQuery = (q.getSelect().size() == 1) && (q.getSelect().get(0) instanceof Clob);
+        SharedResultsCache shared = (disableResultsCache || clobQuery ? null : sharedResultsCache);
+        String queryKey = null;
+        String shape = null;
+        Map<Object, Integer> cacheSequence = null;
+        if (shared != null) {
+            queryKey = SharedResultsCache.getQueryKey(q.getIqlQuery());
+            shape = q.getIqlQuery().getShape();
+            List<ResultsRow<Object>> cached = shared.get(queryKey, shape, start, limit);
+            if (cached != null) {
+                checkSequence(sequence, q, "Execute (START " + start + " LIMIT " + limit + ") ");
+                return cached;
+            }
+            // Take the sequence before running the query, so that changes made while it runs make
+            // the cached rows stale
+            cacheSequence = (sequence.isEmpty() ? getSequence(getComponentsForQuery(q))
+                    : sequence);
+        }
         Connection c = null;
         try {
             c = getConnection();
-            return executeWithConnection(c, q, start, limit, optimise, explain, sequence);
+            long startTime = System.currentTimeMillis();
+            List<ResultsRow<Object>> retval = executeWithConnection(c, q, start, limit, optimise,
+                    explain, sequence);
+            if (shared != null) {
+                shared.offer(queryKey, shape, start, limit, cacheSequence, retval,
+                        System.currentTimeMillis() - startTime);
+            }
+            return retval;
         } catch (SQLException e) {
             throw new ObjectStoreException("Could not get connection to database", e);
         } finally {
@@ -1058,11 +1481,19 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
      * @throws ObjectStoreException in subclasses
      */
     public synchronized void close() throws ObjectStoreException {
+        shutdownAsyncExecutor();
         LOG.info("Close called on ObjectStoreInterMineImpl with sequence = " + sequenceNumber
                 + ", time spent: Bag Tables: " + statsBagTableTime + ", SQL Gen: " + statsGenTime
                 + ", SQL Optimise: " + statsOptTime + ", Estimate: "
                 + statsEstTime + ", Execute: " + statsExeTime + ", Results Convert: "
                 + statsConTime);
+        if (sharedResultsCache != null) {
+            sharedResultsCache.logShapeStatistics(20);
+        }
+        if (preparedStatementCache != null) {
+            LOG.info(preparedStatementCache.getStatistics());
+            preparedStatementCache.clear();
+        }
 
         if (logTableBatch != null) {
             try {
@@ -1131,6 +1562,31 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
         return executeWithConnection(c, q, start, limit, optimise, explain, sequence, null, null);
     }
 
+    /**
+     * Returns a key for the current set of precomputed tables, for remembering which query shapes
+     * the optimiser could not improve upon with them, or null if any of them contain a constant.
+     *
+     * @return an Integer, or null
+     * @throws SQLException if the precomputed tables cannot be read
+     */
+    protected Integer getPrecomputedTablesKey() throws SQLException {
+        int key = 0;
+        for (PrecomputedTable pt : PrecomputedTableManager.getInstance(db)
+                .getPrecomputedTables()) {
+            Boolean hasConstants = precomputedTableHasConstants.get(pt.getName());
+            if (hasConstants == null) {
+                hasConstants = Boolean.valueOf(ParameterisedSql.hasConstants(pt.getQuery()
+                            .getSQLString()));
+                precomputedTableHasConstants.put(pt.getName(), hasConstants);
+            }
+            if (hasConstants.booleanValue()) {
+                return null;
+            }
+            key += pt.getName().hashCode();
+        }
+        return new Integer(key);
+    }
+
     /**
      * Performs the actual execute, given a Connection.
      *
@@ -1156,14 +1612,24 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
         checkSequence(sequence, q, "Execute (START " + start + " LIMIT " + limit + ") ");
 
         long preBagTableTime = System.currentTimeMillis();
+        PreparedStatementCache statementCache = preparedStatementCache;
+        boolean bagArrays = (statementCache != null) && (getMaxBagArraySize() > 0);
         if (getMinBagTableSize() != -1) {
-            createTempBagTables(c, q);
+            createTempBagTables(c, q, bagArrays ? Math.max(getMinBagTableSize(),
+                        getMaxBagArraySize() + 1) : getMinBagTableSize());
             flushOldTempBagTables(c);
         }
         long preGenTime = System.currentTimeMillis();
         String sql;
+        ParameterisedSql parameterisedSql = null;
         try {
-            sql = SqlGenerator.generate(q, start, limit, schema, db, bagConstraintTables);
+            if (statementCache != null) {
+                parameterisedSql = SqlGenerator.generateParameterised(q, start, limit, schema, db,
+                        bagConstraintTables, bagArrays);
+                sql = parameterisedSql.getSql();
+            } else {
+                sql = SqlGenerator.generate(q, start, limit, schema, db, bagConstraintTables);
+            }
         } catch (CompletelyFalseException e) {
             return Collections.emptyList();
         }
@@ -1186,12 +1652,31 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
                                 + sql + ", goFasterTables = " + goFasterTables);
                     }
                 } else {
-                    bestQuery = QueryOptimiser.optimise(sql, null, db, c,
-                            (explain ? limitedContext : QueryOptimiserContext.DEFAULT));
+                    Integer precomputedTablesKey = null;
+                    if (parameterisedSql != null) {
+                        precomputedTablesKey = getPrecomputedTablesKey();
+                    }
+                    if ((parameterisedSql != null) && parameterisedSql.hasArrays()) {
+                        // The optimiser cannot parse arrays
+                        bestQuery = null;
+                    } else if ((precomputedTablesKey != null) && precomputedTablesKey.equals(
+                                unoptimisedShapes.get(parameterisedSql.getShape()))) {
+                        bestQuery = null;
+                    } else {
+                        bestQuery = QueryOptimiser.optimise(sql, null, db, c,
+                                getOptimiserContext(c, explain));
+                        if ((precomputedTablesKey != null)
+                                && sql.equals(bestQuery.getBestQueryString())) {
+                            unoptimisedShapes.put(parameterisedSql.getShape(),
+                                    precomputedTablesKey);
+                        }
+                    }
                 }
-                sql = bestQuery.getBestQueryString();
-                if (bestQuery instanceof BestQueryExplainer) {
-                    explainResult = ((BestQueryExplainer) bestQuery).getBestExplainResult();
+                if (bestQuery != null) {
+                    sql = bestQuery.getBestQueryString();
+                    if (bestQuery instanceof BestQueryExplainer) {
+                        explainResult = ((BestQueryExplainer) bestQuery).getBestExplainResult();
+                    }
                 }
             }
             long endOptimiseTime = System.currentTimeMillis();
@@ -1223,18 +1708,47 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
                         + "optimised sql: " + sql);
             }
             long preExecute = System.currentTimeMillis();
-            Statement s = c.createStatement();
-            registerStatement(s);
+            // Parameterised SQL is only used if the optimiser has left the query alone
+            PreparedStatement ps = null;
+            Statement s;
+            if ((parameterisedSql != null) && (!parameterisedSql.getParameters().isEmpty())
+                    && sql.equals(parameterisedSql.getSql())) {
+                ps = statementCache.take(c, parameterisedSql.getShape());
+                s = ps;
+            } else {
+                s = c.createStatement();
+            }
             ResultSet sqlResults;
+            List<ResultsRow<Object>> objResults;
+            ExtraQueryTime extra = new ExtraQueryTime();
+            long postExecute;
+            boolean success = false;
             try {
-                sqlResults = s.executeQuery(sql);
+                registerStatement(s);
+                try {
+                    if (ps == null) {
+                        sqlResults = s.executeQuery(sql);
+                    } else {
+                        parameterisedSql.bind(ps);
+                        sqlResults = ps.executeQuery();
+                    }
+                } finally {
+                    deregisterStatement(s);
+                }
+                postExecute = System.currentTimeMillis();
+                objResults = ResultsConverter.convert(sqlResults, q, this, c, sequence, optimise,
+                        extra, goFasterTables, goFasterCache);
+                success = true;
             } finally {
-                deregisterStatement(s);
+                if (ps != null) {
+                    if (success) {
+                        ps.clearParameters();
+                        statementCache.release(c, parameterisedSql.getShape(), ps);
+                    } else {
+                        ps.close();
+                    }
+                }
             }
-            long postExecute = System.currentTimeMillis();
-            ExtraQueryTime extra = new ExtraQueryTime();
-            List<ResultsRow<Object>>  objResults = ResultsConverter.convert(sqlResults, q, this, c,
-                    sequence, optimise, extra, goFasterTables, goFasterCache);
             long postConvert = System.currentTimeMillis();
             long permittedTime = (objResults.size() * 2) + start + (150 * q.getFrom().size())
                     + (sql.length() / 20) - (q.getFrom().size() == 0 ? 0 : 100);
@@ -1282,6 +1796,27 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
             statsExeTime += exeTime;
             long conTime = postConvert - postExecute - extra.getQueryTime();
             statsConTime += conTime;
+            QueryMetrics.record(QueryMetrics.Phase.BAG_TABLES, bagTableTime);
+            QueryMetrics.record(QueryMetrics.Phase.GENERATE, genTime);
+            QueryMetrics.record(QueryMetrics.Phase.OPTIMISE, optTime);
+            QueryMetrics.record(QueryMetrics.Phase.ESTIMATE, estTime);
+            QueryMetrics.record(QueryMetrics.Phase.EXECUTE, exeTime);
+            QueryMetrics.record(QueryMetrics.Phase.CONVERT, conTime);
+            QueryMetrics.record(QueryMetrics.Phase.EXTRA_QUERIES, extra.getQueryTime());
+            QueryMetrics.recordShape(q.getIqlQuery().getShape(), postConvert - preBagTableTime);
+            SlowQueryLog slowLog = slowQueryLog;
+            if ((slowLog != null) && slowLog.isSampled(postConvert - preBagTableTime)) {
+                Map<String, Long> timings = new LinkedHashMap<String, Long>();
+                timings.put("bagTables", new Long(bagTableTime));
+                timings.put("generate", new Long(genTime));
+                timings.put("optimise", new Long(optTime));
+                timings.put("estimate", new Long(estTime));
+                timings.put("execute", new Long(exeTime));
+                timings.put("convert", new Long(conTime));
+                timings.put("extraQueries", new Long(extra.getQueryTime()));
+                logSlowQuery(slowLog, q, start, limit, generatedSql, sql, ps != null, timings,
+                        objResults.size());
+            }
             if (getVerboseQueryLog()) {
                 SQLLOGGER.info("(VERBOSE) iql: " + q.getIqlQuery().toStringTruncateParameters(20)
                         + "\n"
@@ -1305,7 +1840,10 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
                 }
             }
             Object firstOrderByObject = q.getEffectiveOrderBy().iterator().next();
-            if ((firstOrderByObject instanceof QueryOrderable)
+            // Record the whole ORDER BY tuple at this batch boundary if possible, otherwise fall
+            // back to recording the value of the first ORDER BY column
+            if ((!SqlGenerator.registerKeyset(q, start, schema, objResults))
+                    && (firstOrderByObject instanceof QueryOrderable)
                     && (!(firstOrderByObject instanceof QueryObjectReference))) {
                 QueryOrderable firstOrderBy = (QueryOrderable) firstOrderByObject;
                 if (firstOrderBy instanceof OrderDescending) {
@@ -1339,6 +1877,99 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
         }
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * The query is run once without LIMIT or OFFSET, inside a transaction on a dedicated
+     * Connection, with the JDBC fetch size set so that PostgreSQL returns rows from a server-side
+     * cursor. Temporary bag tables are created and committed before the transaction is started,
+     * so that they outlive the cursor.
+     */
+    @Override
+    public ResultsCursor executeCursor(Query q, int fetchSize, boolean optimise,
+            Map<Object, Integer> sequence) throws ObjectStoreException {
+        if (fetchSize <= 0) {
+            throw new IllegalArgumentException("Fetch size must be greater than zero - was "
+                    + fetchSize);
+        }
+        checkSequence(sequence, q, "Streaming execute ");
+        Connection c = null;
+        String sql = null;
+        boolean success = false;
+        try {
+            c = getConnection();
+            if (getMinBagTableSize() != -1) {
+                createTempBagTables(c, q);
+                flushOldTempBagTables(c);
+            }
+            try {
+                sql = SqlGenerator.generate(q, 0, Integer.MAX_VALUE, schema, db,
+                        bagConstraintTables);
+            } catch (CompletelyFalseException e) {
+                success = true;
+                releaseConnection(c);
+                List<Object> empty = Collections.emptyList();
+                return new IteratorResultsCursor(empty.iterator());
+            }
+            Set<PrecomputedTable> goFasterTables = null;
+            OptimiserCache goFasterCache = null;
+            if (optimise && everOptimise()) {
+                goFasterTables = goFasterMap.get(q);
+                goFasterCache = goFasterCacheMap.get(q);
+                BestQuery bestQuery;
+                if (goFasterTables != null) {
+                    bestQuery = QueryOptimiser.optimiseWith(sql, null, db, c,
+                            QueryOptimiserContext.DEFAULT, goFasterTables, goFasterCache);
+                } else {
+                    bestQuery = QueryOptimiser.optimise(sql, null, db, c,
+                            getOptimiserContext(c, false));
+                }
+                sql = bestQuery.getBestQueryString();
+            }
+            if (getLogBeforeExecute()) {
+                SQLLOGGER.info("(BEFORE STREAMING EXECUTE) iql: " + q + "\n"
+                        + "optimised sql: " + sql);
+            }
+            c.setAutoCommit(false);
+            long preExecute = System.currentTimeMillis();
+            Statement s = c.createStatement();
+            s.setFetchSize(fetchSize);
+            registerStatement(s);
+            ResultSet sqlResults;
+            try {
+                sqlResults = s.executeQuery(sql);
+            } finally {
+                deregisterStatement(s);
+            }
+            long exeTime = System.currentTimeMillis() - preExecute;
+            statsExeTime += exeTime;
+            QueryMetrics.record(QueryMetrics.Phase.EXECUTE, exeTime);
+            LOG.info("Started streaming query with fetch size " + fetchSize + " (execute: "
+                    + exeTime + " ms): " + sql);
+            success = true;
+            return new StreamingResultsCursor(this, c, s, sqlResults, q, fetchSize, optimise,
+                    sequence, goFasterTables, goFasterCache);
+        } catch (SQLException e) {
+            throw new ObjectStoreException("Problem running SQL statement \"" + sql
+                    + "\" while streaming query \"" + q + "\"", e);
+        } finally {
+            if (!success) {
+                if (c != null) {
+                    try {
+                        if (!c.getAutoCommit()) {
+                            c.rollback();
+                            c.setAutoCommit(true);
+                        }
+                    } catch (SQLException e) {
+                        LOG.warn("Error restoring autocommit after failing to stream query " + q,
+                                e);
+                    }
+                }
+                releaseConnection(c);
+            }
+        }
+    }
+
     /**
      * Generate sql from a Query
      *
@@ -1358,6 +1989,58 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
         }
     }
 
+    /**
+     * Adds a query to the slow query log, with the sizes of its bags and only the first few
+     * elements of each bag in its IQL. The query is only explained by the log if its SQL can be
+     * run again later, on another connection. It cannot if it uses bound parameters, and it is
+     * not explained if it uses bag tables, because a bag table is dropped once its constraint is
+     * no longer reachable, which may be before the explain runs, and the bag tables of a writer
+     * are not visible to other connections until its transaction is committed.
+     *
+     * @param slowLog the SlowQueryLog
+     * @param q the Query
+     * @param start the start row number
+     * @param limit the maximum number of rows
+     * @param generatedSql the SQL generated from the Query
+     * @param sql the SQL that was run
+     * @param bound true if the SQL was run with bound parameters
+     * @param timings the time in milliseconds spent in each phase
+     * @param rows the number of rows fetched
+     */
+    protected void logSlowQuery(SlowQueryLog slowLog, Query q, int start, int limit,
+            String generatedSql, String sql, boolean bound, Map<String, Long> timings, int rows) {
+        final List<Object> bags = new ArrayList<Object>();
+        final List<Integer> bagSizes = new ArrayList<Integer>();
+        ConstraintHelper.traverseConstraints(q.getConstraint(), new ConstraintTraverseAction() {
+            public void apply(Constraint constraint) {
+                if (constraint instanceof ConstraintWithBag) {
+                    Collection<?> bag = ((ConstraintWithBag) constraint).getBag();
+                    if (bag != null) {
+                        bags.add(constraint);
+                        bagSizes.add(new Integer(bag.size()));
+                    }
+                }
+            }
+        });
+        for (FromElement fe : q.getFrom()) {
+            if ((fe instanceof QueryClassBag) && (((QueryClassBag) fe).getIds() != null)) {
+                bags.add(fe);
+                bagSizes.add(new Integer(((QueryClassBag) fe).getIds().size()));
+            }
+        }
+        boolean explainable = !bound;
+        for (Object bag : bags) {
+            String tableName = bagConstraintTables.get(bag);
+            if ((tableName != null) && sql.contains(tableName)) {
+                explainable = false;
+            }
+        }
+        IqlQuery iql = q.getIqlQuery();
+        slowLog.add(new SlowQueryLog.Entry(iql.getShape(),
+                    iql.toStringTruncateParameters(SlowQueryLog.BAG_ELEMENTS), generatedSql, sql,
+                    bagSizes, timings, start, limit, rows), explainable ? sql : null);
+    }
+
     /**
      * Create temporary tables for the bag in the BagConstraints of the given Query, then call
      * SqlGenerator.generate().  Entries are placed in the bagConstraintTables Map, which is a
@@ -1398,6 +2081,20 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
      */
     protected void createTempBagTables(Connection c, Query q)
         throws ObjectStoreException {
+        createTempBagTables(c, q, getMinBagTableSize());
+    }
+
+    /**
+     * Create temporary tables for the bags in a Query, as above, but only for the BagConstraints
+     * with bags of at least the given size.
+     *
+     * @param c a Connection to use
+     * @param q the Query
+     * @param minSize the smallest bag in a BagConstraint to create a table for
+     * @throws ObjectStoreException if there is a error in the ObjectStore
+     */
+    protected void createTempBagTables(Connection c, Query q, int minSize)
+        throws ObjectStoreException {
 
         final List<ConstraintWithBag> bagConstraints = new ArrayList<ConstraintWithBag>();
 
@@ -1428,7 +2125,7 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
                 if (!bagConstraintTables.containsKey(bagConstraint)) {
                     Collection<?> bag = bagConstraint.getBag();
 
-                    if (bag.size() >= getMinBagTableSize()) {
+                    if (bag.size() >= minSize) {
                         if (queryString == null) {
                             queryString = q.getIqlQuery().getQueryString();
                         }
@@ -1702,8 +2399,23 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
      * @param tablesAltered a Set of table names that may have been altered
      */
     public void databaseAltered(Set<Object> tablesAltered) {
+        databaseAltered(tablesAltered, Collections.<PrecomputedTable>emptySet());
+    }
+
+    /**
+     * Internal method called by the ObjectStoreWriter, to notify the ObjectStore that some of the
+     * data in the database has changed, and that some of the precomputed tables affected have
+     * already been brought up to date.
+     *
+     * @param tablesAltered a Set of table names that may have been altered
+     * @param maintained a Set of PrecomputedTables that do not need to be dropped
+     */
+    public void databaseAltered(Set<Object> tablesAltered, Set<PrecomputedTable> maintained) {
         if (tablesAltered.size() > 0) {
             changeSequence(tablesAltered);
+            if (sharedResultsCache != null) {
+                sharedResultsCache.invalidate(tablesAltered);
+            }
             Set<String> tableNames = new HashSet<String>();
             for (Object o : tablesAltered) {
                 if (o instanceof String) {
@@ -1719,7 +2431,7 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
             }
             try {
                 PrecomputedTableManager ptm = PrecomputedTableManager.getInstance(db);
-                ptm.dropAffected(tableNames);
+                ptm.dropAffected(tableNames, maintained);
             } catch (DatabaseConnectionException e) {
                 throw new Error("Failed to get database connection when initiating "
                         + "PrecomputedTableManager", e);
@@ -1765,6 +2477,51 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
         }
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * This method is overridden in order to fetch all the objects on one Connection without the
+     * optimiser or the EXPLAIN call. Large groups of ids are put in a temporary bag table by
+     * executeWithConnection.
+     */
+    @Override
+    protected Map<Integer, InterMineObject> internalGetObjectsByIds(Collection<Integer> ids)
+        throws ObjectStoreException {
+        if (schema.isFlatMode(InterMineObject.class)) {
+            return super.internalGetObjectsByIds(ids);
+        }
+        Connection c = null;
+        try {
+            c = getConnection();
+            return internalGetObjectsByIdsWithConnection(c, ids);
+        } catch (SQLException e) {
+            throw new ObjectStoreException("Could not get connection to database", e);
+        } finally {
+            releaseConnection(c);
+        }
+    }
+
+    /**
+     * Gets a group of objects by id given a Connection.
+     *
+     * @param c the Connection
+     * @param ids the ids of the objects
+     * @return a Map from id to object
+     * @throws ObjectStoreException if an error occurs
+     */
+    protected Map<Integer, InterMineObject> internalGetObjectsByIdsWithConnection(Connection c,
+            Collection<Integer> ids) throws ObjectStoreException {
+        Map<Integer, InterMineObject> retval = new HashMap<Integer, InterMineObject>();
+        List<ResultsRow<Object>> rows = executeWithConnection(c,
+                QueryCreator.createQueryForIds(ids, InterMineObject.class), 0, Integer.MAX_VALUE,
+                false, false, SEQUENCE_IGNORE);
+        for (ResultsRow<Object> row : rows) {
+            InterMineObject o = (InterMineObject) row.get(0);
+            retval.put(o.getId(), o);
+        }
+        return retval;
+    }
+
     /**
      * Gets an object by id given a Connection.
      *
@@ -2370,6 +3127,78 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
         }
     }
 
+    /**
+     * Returns a token for each class in the model, which changes whenever any of the tables that
+     * hold the objects of the class, or that queries on its references and collections join to,
+     * is written to. This lets a summary of the data find out which classes have changed since it
+     * was made. The tokens are built from the write counters that the database keeps for each
+     * table, so no tokens are returned if the database is not keeping them.
+     *
+     * @return a Map from class name to token, which is empty if the database does not count writes
+     * @throws ObjectStoreException if an error occurs reading the counters
+     */
+    public Map<String, String> getClassStates() throws ObjectStoreException {
+        Map<String, String> tableStates = new HashMap<String, String>();
+        Connection c = null;
+        try {
+            c = getConnection();
+            Statement s = c.createStatement();
+            ResultSet r = s.executeQuery("SHOW track_counts");
+            if (!(r.next() && "on".equals(r.getString(1)))) {
+                LOG.warn("Database is not counting writes to tables - cannot tell which classes"
+                        + " have changed");
+                return Collections.emptyMap();
+            }
+            // The relfilenode changes when a table is truncated or rebuilt
+            r = s.executeQuery("SELECT c.relname, c.relfilenode, s.n_tup_ins, s.n_tup_upd,"
+                    + " s.n_tup_del FROM pg_stat_user_tables AS s, pg_class AS c"
+                    + " WHERE s.relid = c.oid AND s.schemaname = current_schema()");
+            while (r.next()) {
+                tableStates.put(r.getString(1).toLowerCase(), r.getLong(2) + ":" + r.getLong(3)
+                        + ":" + r.getLong(4) + ":" + r.getLong(5));
+            }
+        } catch (SQLException e) {
+            throw new ObjectStoreException("Error reading table write counters", e);
+        } finally {
+            releaseConnection(c);
+        }
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        Map<String, String> retval = new HashMap<String, String>();
+        for (ClassDescriptor cld : model.getClassDescriptors()) {
+            Set<String> tables = new TreeSet<String>();
+            tables.add(getTableName(cld));
+            for (ReferenceDescriptor ref : cld.getAllReferenceDescriptors()) {
+                tables.add(getTableName(ref.getReferencedClassDescriptor()));
+            }
+            for (CollectionDescriptor col : cld.getAllCollectionDescriptors()) {
+                tables.add(getTableName(col.getReferencedClassDescriptor()));
+                if (col.relationType() == FieldDescriptor.M_N_RELATION) {
+                    tables.add(DatabaseUtil.getIndirectionTableName(col).toLowerCase());
+                }
+            }
+            StringBuilder state = new StringBuilder();
+            for (String table : tables) {
+                state.append(table).append("=").append(tableStates.get(table)).append(";");
+            }
+            byte[] digest = md.digest(state.toString().getBytes());
+            StringBuilder token = new StringBuilder();
+            for (byte b : digest) {
+                token.append(Integer.toHexString((b & 255) | 256).substring(1));
+            }
+            retval.put(cld.getName(), token.toString());
+        }
+        return retval;
+    }
+
+    private String getTableName(ClassDescriptor cld) {
+        return DatabaseUtil.getTableName(getSchema().getTableMaster(cld)).toLowerCase();
+    }
+
     /**
      * {@inheritDoc}
      */
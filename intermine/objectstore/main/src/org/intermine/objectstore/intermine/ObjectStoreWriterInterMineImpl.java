@@ -18,6 +18,7 @@ import java.io.Writer;
 import java.lang.ref.WeakReference;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.Savepoint;
 import java.sql.Statement;
 import java.util.Collection;
 import java.util.Collections;
@@ -54,14 +55,17 @@ import org.intermine.objectstore.query.Query;
 import org.intermine.objectstore.query.QueryClass;
 import org.intermine.objectstore.query.QuerySelectable;
 import org.intermine.objectstore.query.Results;
+import org.intermine.objectstore.query.ResultsCursor;
 import org.intermine.objectstore.query.ResultsRow;
 import org.intermine.objectstore.query.SingletonResults;
 import org.intermine.sql.DatabaseUtil;
 import org.intermine.sql.precompute.BestQuery;
 import org.intermine.sql.precompute.OptimiserCache;
 import org.intermine.sql.precompute.PrecomputedTable;
+import org.intermine.sql.precompute.PrecomputedTableManager;
 import org.intermine.sql.precompute.QueryOptimiser;
 import org.intermine.sql.precompute.QueryOptimiserContext;
+import org.intermine.sql.precompute.WriteDelta;
 import org.intermine.sql.writebatch.Batch;
 import org.intermine.sql.writebatch.BatchWriter;
 import org.intermine.sql.writebatch.BatchWriterPostgresCopyImpl;
@@ -94,6 +98,7 @@ public class ObjectStoreWriterInterMineImpl extends ObjectStoreInterMineImpl
     protected Map<String, Set<CollectionDescriptor>> tableToCollections;
     protected String connectionTakenBy = null;
     protected Set<Object> tablesAltered = new HashSet<Object>();
+    protected WriteDelta delta = new WriteDelta();
 
     private Long cumulativeWait = new Long(0);    // just for diagnostic, can be removed
     private Integer getConnectionCalls = 0;       // as above
@@ -146,6 +151,13 @@ public class ObjectStoreWriterInterMineImpl extends ObjectStoreInterMineImpl
         createSituation = (index < 0 ? createSituation : createSituation.substring(0, index));
         recentSequences = Collections.synchronizedMap(new WeakHashMap<Integer, Boolean>());
         batch = new Batch(new BatchWriterPostgresCopyImpl());
+        if (this.os.getBatchFlushers() > 1) {
+            try {
+                batch.setParallelFlushers(db, checkParallelFlushers(this.os.getBatchFlushers()));
+            } catch (SQLException se) {
+                LOG.warn("Could not get connections to write batches on - writing on one", se);
+            }
+        }
         tableToInfo = new HashMap<String, TableInfo>();
         tableToColNameArray = new HashMap<String, String[]>();
         tableToCollections = new HashMap<String, Set<CollectionDescriptor>>();
@@ -364,6 +376,78 @@ public class ObjectStoreWriterInterMineImpl extends ObjectStoreInterMineImpl
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setBatchFlushers(int batchFlushers) {
+        try {
+            setParallelFlushers(batchFlushers);
+        } catch (ObjectStoreException e) {
+            throw new RuntimeException("Could not change the batch connections", e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getBatchFlushers() {
+        return batch.getParallelFlusherCount();
+    }
+
+    /**
+     * Changes the number of connections that this ObjectStoreWriter writes its batches on at once.
+     * With more than one, the tables are written at the same time on connections of their own,
+     * which are committed on every flush, so the writes are not part of the transaction and are
+     * not rolled back by abortTransaction.
+     *
+     * @param count the number of connections
+     * @throws ObjectStoreException if something goes wrong
+     */
+    public void setParallelFlushers(int count) throws ObjectStoreException {
+        Connection c = null;
+        try {
+            c = getConnection(); // Must get connection - it is our concurrency control.
+            batch.setParallelFlushers(db, checkParallelFlushers(count));
+        } catch (SQLException e) {
+            throw new ObjectStoreException("Could not change the batch connections", e);
+        } finally {
+            releaseConnection(c);
+        }
+    }
+
+    /**
+     * Checks a number of batch connections against the size of the connection pool. Each writer
+     * holds its own connection as well as its batch connections, so the number is reduced if the
+     * pool could not supply them all, and a warning is logged if the writers of the objectstore
+     * between them could use up the pool.
+     *
+     * @param count the number of batch connections asked for
+     * @return the number of batch connections to take
+     */
+    private int checkParallelFlushers(int count) {
+        int maxConnections = db.getMaxConnections();
+        if ((count <= 1) || (maxConnections < 0)) {
+            return count;
+        }
+        if (count + 1 > maxConnections) {
+            LOG.warn("Writer " + description + " asked to write batches on " + count
+                    + " connections, but the pool of " + db.getURL() + " only holds "
+                    + maxConnections + " - writing on " + Math.max(maxConnections - 1, 1));
+            return Math.max(maxConnections - 1, 1);
+        }
+        int writerCount = os.writers.size();
+        if (writerCount * (count + 1) > maxConnections) {
+            LOG.warn("Writer " + description + " is writing batches on " + count
+                    + " connections, so the " + writerCount + " writers of this objectstore may"
+                    + " need " + (writerCount * (count + 1)) + " connections, but the pool of "
+                    + db.getURL() + " only holds " + maxConnections + ". Reduce batchFlushers or"
+                    + " raise maxConnections if loading stalls waiting for a connection.");
+        }
+        return count;
+    }
+
     /**
      * Set the cutoff value used to decide if a bag should be put in a table.
      *
@@ -525,6 +609,7 @@ public class ObjectStoreWriterInterMineImpl extends ObjectStoreInterMineImpl
         est.printStackTrace(pw);
         pw.close();
         closeSituation = message.toString();
+        shutdownAsyncExecutor();
         int index = closeSituation.indexOf("at junit.framework.TestCase.runBare");
         closeSituation = (index < 0 ? closeSituation : closeSituation.substring(0, index));
         if (connInUse) {
@@ -613,6 +698,7 @@ public class ObjectStoreWriterInterMineImpl extends ObjectStoreInterMineImpl
                     if (!schema.getMissingTables().contains(tableName.toLowerCase())) {
                         batch.deleteRow(c, tableName, "id", ((InterMineObject) o).getId());
                         tablesAltered.add(tableName);
+                        delta.addKey(tableName, "id", ((InterMineObject) o).getId());
                     }
                 }
             }
@@ -676,7 +762,10 @@ public class ObjectStoreWriterInterMineImpl extends ObjectStoreInterMineImpl
                             value = objectClass;
                         } else if ("OBJECT".equals(tableInfo.colNames[colNo])) {
                             if (xml == null) {
-                                if (o instanceof InterMineObject) {
+                                if (schema.isCompactObjectFormat()) {
+                                    xml = new StringConstructor().append(CompactObjectFormat
+                                            .render(o, schema.getModel()));
+                                } else if (o instanceof InterMineObject) {
                                     xml = ((InterMineObject) o).getoBJECT();
                                 } else {
                                     xml = NotXmlRenderer.render(o);
@@ -740,6 +829,11 @@ public class ObjectStoreWriterInterMineImpl extends ObjectStoreInterMineImpl
                                 ? ((InterMineObject) o).getId() : null), tableInfo.colNames,
                             values);
                     tablesAltered.add(tableInfo.tableName);
+                    if (o instanceof InterMineObject) {
+                        delta.addKey(tableInfo.tableName, "id", ((InterMineObject) o).getId());
+                    } else {
+                        delta.addUnbounded(tableInfo.tableName);
+                    }
                 }
 
                 writeCollections(c, o, collections);
@@ -828,6 +922,8 @@ public class ObjectStoreWriterInterMineImpl extends ObjectStoreInterMineImpl
                                      (swap ? inCollection.getId()
                                       : ((InterMineObject) o).getId()).intValue());
                         tablesAltered.add(indirectTableName);
+                        delta.addKey(indirectTableName, indirColNames[0], (swap
+                                    ? ((InterMineObject) o).getId() : inCollection.getId()));
                     }
                 }
             }
@@ -894,6 +990,7 @@ public class ObjectStoreWriterInterMineImpl extends ObjectStoreInterMineImpl
                 batch.addRow(c, indirectTableName, indirColNames[0], indirColNames[1],
                              (swap ? hasId : hadId).intValue(), (swap ? hadId : hasId).intValue());
                 tablesAltered.add(indirectTableName);
+                delta.addKey(indirectTableName, indirColNames[0], (swap ? hasId : hadId));
             } else {
                 throw new ObjectStoreException("Field " + clazz.getName() + "." + fieldName
                         + " is not a many-to-many collection.");
@@ -1393,6 +1490,7 @@ public class ObjectStoreWriterInterMineImpl extends ObjectStoreInterMineImpl
                 if (!schema.getMissingTables().contains(tableName.toLowerCase())) {
                     batch.deleteRow(c, tableName, "id", o.getId());
                     tablesAltered.add(tableName);
+                    delta.addKey(tableName, "id", o.getId());
                 }
             }
             invalidateObjectById(o.getId());
@@ -1457,6 +1555,7 @@ public class ObjectStoreWriterInterMineImpl extends ObjectStoreInterMineImpl
             }
             con.createStatement().execute(sql.toString());
             tablesAltered.add(tableName);
+            delta.addUnbounded(tableName);
         } catch (SQLException e) {
             throw new ObjectStoreException("Error while deleting", e);
         } finally {
@@ -1564,15 +1663,49 @@ public class ObjectStoreWriterInterMineImpl extends ObjectStoreInterMineImpl
             if (c.getAutoCommit()) {
                 throw new ObjectStoreException("commitTransaction called, but not in transaction");
             }
+            Set<PrecomputedTable> maintained = maintainPrecomputedTables(c);
             c.commit();
             c.setAutoCommit(true);
-            os.databaseAltered(tablesAltered);
+            os.databaseAltered(tablesAltered, maintained);
             tablesAltered.clear();
+            delta.clear();
         } catch (SQLException e) {
             throw new ObjectStoreException("Error committing transaction", e);
         }
     }
 
+    /**
+     * Brings the precomputed tables affected by the current transaction up to date, inside the
+     * transaction. If that fails, the transaction is rolled back to before the attempt, and the
+     * affected precomputed tables are dropped after the commit instead.
+     *
+     * @param c the Connection, in a transaction, with the batch flushed
+     * @return the Set of PrecomputedTables that were brought up to date
+     * @throws SQLException if the transaction cannot be rolled back to before the attempt
+     */
+    protected Set<PrecomputedTable> maintainPrecomputedTables(Connection c) throws SQLException {
+        Set<String> tableNames = new HashSet<String>();
+        for (Object o : tablesAltered) {
+            if (o instanceof String) {
+                tableNames.add((String) o);
+            }
+        }
+        if (tableNames.isEmpty()) {
+            return Collections.emptySet();
+        }
+        Savepoint savepoint = c.setSavepoint();
+        try {
+            PrecomputedTableManager ptm = PrecomputedTableManager.getInstance(os.getDatabase());
+            Set<PrecomputedTable> retval = ptm.maintain(c, tableNames, delta);
+            c.releaseSavepoint(savepoint);
+            return retval;
+        } catch (SQLException e) {
+            LOG.warn("Failed to maintain precomputed tables - they will be dropped instead", e);
+            c.rollback(savepoint);
+            return Collections.emptySet();
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -1605,6 +1738,7 @@ public class ObjectStoreWriterInterMineImpl extends ObjectStoreInterMineImpl
             c.setAutoCommit(true);
             os.flushObjectById();
             tablesAltered.clear();
+            delta.clear();
         } catch (SQLException e) {
             throw new ObjectStoreException("Error aborting transaction", e);
         }
@@ -1638,6 +1772,7 @@ public class ObjectStoreWriterInterMineImpl extends ObjectStoreInterMineImpl
             batch.batchCommit(c);
             os.databaseAltered(tablesAltered);
             tablesAltered.clear();
+            delta.clear();
         } catch (SQLException e) {
             throw new ObjectStoreException("Error batch-committing transaction", e);
         }
@@ -1696,6 +1831,19 @@ public class ObjectStoreWriterInterMineImpl extends ObjectStoreInterMineImpl
         }
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * A writer has only one Connection, which may be in the middle of a transaction, so it cannot
+     * hold a cursor open on it. This method therefore returns null, and callers fall back to
+     * batched execution.
+     */
+    @Override
+    public ResultsCursor executeCursor(Query q, int fetchSize, boolean optimise,
+            Map<Object, Integer> sequence) throws ObjectStoreException {
+        return null;
+    }
+
     /**
      * {@inheritDoc}
      *
@@ -1751,6 +1899,40 @@ public class ObjectStoreWriterInterMineImpl extends ObjectStoreInterMineImpl
         }
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * This method is overridden in order to flush batches properly before the read.
+     */
+    @Override
+    protected Map<Integer, InterMineObject> internalGetObjectsByIds(Collection<Integer> ids)
+        throws ObjectStoreException {
+        if (schema.isFlatMode(InterMineObject.class)) {
+            return super.internalGetObjectsByIds(ids);
+        }
+        Connection c = null;
+        try {
+            c = getConnection();
+            String readTable = SqlGenerator.tableNameForId(InterMineObject.class, getSchema());
+            batch.flush(c, Collections.singleton(readTable));
+            return internalGetObjectsByIdsWithConnection(c, ids);
+        } catch (SQLException e) {
+            throw new ObjectStoreException("Could not get connection to database", e);
+        } finally {
+            releaseConnection(c);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * This writer has only one Connection, so asynchronous queries are run one at a time.
+     */
+    @Override
+    protected int getAsyncThreadCount() {
+        return 1;
+    }
+
     /**
      * Called by the StatsShutdownHook on shutdown
      */
@@ -0,0 +1,320 @@
+package org.intermine.objectstore.intermine;
+
+/*
+ * Copyright (C) 2002-2016 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.intermine.model.InterMineObject;
+import org.intermine.sql.DatabaseUtil;
+
+/**
+ * An SQL query split into a shape, which is the SQL with the constant values replaced by
+ * question marks, and the list of values to bind to them. Queries made from the same template
+ * with different values have the same shape, so the shape can be prepared once on a connection
+ * and executed many times, and can be used as a cache key.
+ * <p>
+ * The SqlGenerator writes a marker for each bound value into the SQL it generates, and this class
+ * resolves the markers in the order that they appear in the finished SQL, which is not
+ * necessarily the order in which they were generated. The equivalent SQL with the values written
+ * inline is also produced, for the optimiser, for EXPLAIN and for logging.
+ *
+ * @author agent
+ */
+public class ParameterisedSql
+{
+    private static final char MARKER = '?';
+    private static final Pattern CONSTANT = Pattern.compile(
+            "'(?:[^']|'')*'|(?<![\\w.\"])-?\\d+(?:\\.\\d+)?\\b");
+    private static final Map<Class<?>, String> ARRAY_TYPES = new HashMap<Class<?>, String>();
+
+    static {
+        ARRAY_TYPES.put(Integer.class, "int4");
+        ARRAY_TYPES.put(Long.class, "int8");
+        ARRAY_TYPES.put(Short.class, "int2");
+        ARRAY_TYPES.put(Float.class, "float4");
+        ARRAY_TYPES.put(Double.class, "float8");
+        ARRAY_TYPES.put(BigDecimal.class, "numeric");
+        ARRAY_TYPES.put(Boolean.class, "bool");
+        ARRAY_TYPES.put(String.class, "text");
+        ARRAY_TYPES.put(Date.class, "int8");
+        ARRAY_TYPES.put(Class.class, "text");
+    }
+
+    private final String shape;
+    private final String sql;
+    private final List<Object> parameters;
+    private final boolean arrays;
+
+    /**
+     * Creates a new ParameterisedSql from SQL containing markers written by the SqlGenerator.
+     *
+     * @param markedSql the SQL with a marker for each bound value
+     * @param values the bound values, indexed by the numbers in the markers
+     */
+    public ParameterisedSql(String markedSql, List<Object> values) {
+        if (values.isEmpty()) {
+            shape = markedSql;
+            sql = markedSql;
+            parameters = Collections.emptyList();
+            arrays = false;
+            return;
+        }
+        StringBuffer shapeBuffer = new StringBuffer();
+        StringBuffer sqlBuffer = new StringBuffer();
+        List<Object> params = new ArrayList<Object>();
+        boolean hasArrays = false;
+        int length = markedSql.length();
+        int pos = 0;
+        while (pos < length) {
+            char c = markedSql.charAt(pos);
+            int end = pos + 1;
+            if ((c == '\'') || (c == '"')) {
+                // Skip over a literal or quoted identifier, which may contain a question mark
+                boolean backslashes = (c == '\'') && (pos > 0)
+                    && (Character.toUpperCase(markedSql.charAt(pos - 1)) == 'E');
+                while (end < length) {
+                    char e = markedSql.charAt(end);
+                    end++;
+                    if (backslashes && (e == '\\')) {
+                        end++;
+                    } else if (e == c) {
+                        if ((end < length) && (markedSql.charAt(end) == c)) {
+                            end++;
+                        } else {
+                            break;
+                        }
+                    }
+                }
+            } else if (c == MARKER) {
+                int close = markedSql.indexOf(MARKER, end);
+                if (close == -1) {
+                    throw new IllegalArgumentException("Unterminated parameter marker in SQL: "
+                            + markedSql);
+                }
+                Object value = values.get(Integer.parseInt(markedSql.substring(end, close)));
+                params.add(value);
+                shapeBuffer.append('?');
+                if (value instanceof ArrayValue) {
+                    hasArrays = true;
+                    sqlBuffer.append(value.toString());
+                } else {
+                    sqlBuffer.append(DatabaseUtil.objectToString(value));
+                }
+                pos = close + 1;
+                continue;
+            }
+            end = Math.min(end, length);
+            shapeBuffer.append(markedSql, pos, end);
+            sqlBuffer.append(markedSql, pos, end);
+            pos = end;
+        }
+        shape = shapeBuffer.toString();
+        sql = sqlBuffer.toString();
+        parameters = Collections.unmodifiableList(params);
+        arrays = hasArrays;
+    }
+
+    /**
+     * Returns the SQL with a question mark in place of each bound value.
+     *
+     * @return a String suitable for preparing
+     */
+    public String getShape() {
+        return shape;
+    }
+
+    /**
+     * Returns the equivalent SQL with the values written inline.
+     *
+     * @return a String suitable for passing to an SQL server
+     */
+    public String getSql() {
+        return sql;
+    }
+
+    /**
+     * Returns the values to bind, in the order of the question marks in the shape.
+     *
+     * @return a List of values
+     */
+    public List<Object> getParameters() {
+        return parameters;
+    }
+
+    /**
+     * Returns whether any of the values to bind are arrays. The optimiser cannot read the inline
+     * form of an array.
+     *
+     * @return a boolean
+     */
+    public boolean hasArrays() {
+        return arrays;
+    }
+
+    /**
+     * Binds the values to a PreparedStatement of the shape.
+     *
+     * @param ps the PreparedStatement
+     * @throws SQLException if a value cannot be bound
+     */
+    public void bind(PreparedStatement ps) throws SQLException {
+        for (int i = 0; i < parameters.size(); i++) {
+            Object value = parameters.get(i);
+            if (value instanceof ArrayValue) {
+                ArrayValue array = (ArrayValue) value;
+                ps.setArray(i + 1, ps.getConnection().createArrayOf(array.getTypeName(),
+                            array.getElements()));
+            } else {
+                ps.setObject(i + 1, value);
+            }
+        }
+    }
+
+    /**
+     * Returns a marker for the SqlGenerator to write into SQL in place of a bound value.
+     *
+     * @param index the index of the value in the list of values
+     * @return a String
+     */
+    public static String getMarker(int index) {
+        return MARKER + Integer.toString(index) + MARKER;
+    }
+
+    /**
+     * Converts a constant from a Query into the value to bind to a PreparedStatement, using the
+     * same representation that the SqlGenerator uses when it writes the constant inline.
+     *
+     * @param value a constant
+     * @return the value to bind, or null if the constant must be written inline
+     */
+    public static Object toBindValue(Object value) {
+        if ((value instanceof String) || (value instanceof Integer) || (value instanceof Long)
+                || (value instanceof Short) || (value instanceof Float)
+                || (value instanceof Double) || (value instanceof BigDecimal)
+                || (value instanceof Boolean)) {
+            return value;
+        } else if (value instanceof Date) {
+            return new Long(((Date) value).getTime());
+        } else if (value instanceof Class<?>) {
+            return ((Class<?>) value).getName();
+        }
+        return null;
+    }
+
+    /**
+     * Converts the contents of a bag into an array value to bind to a PreparedStatement.
+     *
+     * @param type the type of the elements of the bag, which are InterMineObject ids if the type
+     * is an InterMineObject class
+     * @param bag the contents of the bag, with no nulls
+     * @return an ArrayValue, or null if the elements cannot be bound as an array
+     */
+    public static ArrayValue toArrayValue(Class<?> type, Collection<?> bag) {
+        String typeName = ARRAY_TYPES.get(InterMineObject.class.isAssignableFrom(type)
+                ? Integer.class : type);
+        if (typeName == null) {
+            return null;
+        }
+        Object[] elements = new Object[bag.size()];
+        int i = 0;
+        for (Object element : bag) {
+            elements[i] = toBindValue(element);
+            if (elements[i] == null) {
+                return null;
+            }
+            i++;
+        }
+        return new ArrayValue(typeName, elements);
+    }
+
+    /**
+     * Returns whether some SQL contains any string or numeric constants.
+     *
+     * @param sql the SQL
+     * @return true if there is a constant
+     */
+    public static boolean hasConstants(String sql) {
+        return CONSTANT.matcher(sql).find();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return shape + " " + parameters;
+    }
+
+    /**
+     * An array of values, bound as a single parameter.
+     */
+    public static class ArrayValue
+    {
+        private final String typeName;
+        private final Object[] elements;
+
+        /**
+         * Creates a new ArrayValue.
+         *
+         * @param typeName the database name of the type of the elements
+         * @param elements the elements, already converted with toBindValue
+         */
+        public ArrayValue(String typeName, Object[] elements) {
+            this.typeName = typeName;
+            this.elements = elements;
+        }
+
+        /**
+         * Returns the database name of the type of the elements.
+         *
+         * @return a String
+         */
+        public String getTypeName() {
+            return typeName;
+        }
+
+        /**
+         * Returns the elements.
+         *
+         * @return an array
+         */
+        public Object[] getElements() {
+            return elements;
+        }
+
+        /**
+         * Returns the array in a form suitable for SQL, without a cast to the array type.
+         *
+         * @return a String
+         */
+        @Override
+        public String toString() {
+            StringBuffer retval = new StringBuffer("ARRAY[");
+            for (int i = 0; i < elements.length; i++) {
+                if (i > 0) {
+                    retval.append(", ");
+                }
+                retval.append(DatabaseUtil.objectToString(elements[i]));
+            }
+            return retval.append("]").toString();
+        }
+    }
+}
@@ -0,0 +1,663 @@
+package org.intermine.objectstore.intermine;
+
+/*
+ * Copyright (C) 2002-2016 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.apache.log4j.Logger;
+import org.intermine.metadata.ConstraintOp;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.query.Constraint;
+import org.intermine.objectstore.query.ConstraintHelper;
+import org.intermine.objectstore.query.ConstraintSet;
+import org.intermine.objectstore.query.ContainsConstraint;
+import org.intermine.objectstore.query.FromElement;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.QueryClass;
+import org.intermine.objectstore.query.QueryCollectionReference;
+import org.intermine.objectstore.query.QueryObjectReference;
+import org.intermine.objectstore.query.QueryReference;
+import org.intermine.objectstore.query.iql.IqlQuery;
+import org.intermine.sql.query.ExplainResult;
+
+/**
+ * Suggests and creates precomputed tables, by mining the execute log or log table of an
+ * ObjectStoreInterMineImpl for slow queries.
+ * <p>
+ * Each logged query is reduced to its join shape, which is the set of classes in its FROM list
+ * that are joined to each other by CONTAINS constraints, and the joins themselves. Queries with
+ * the same join shape are grouped together, and the candidate precomputed table for a group is
+ * the query that performs just those joins. A precomputed table of n joined classes is expected
+ * to cut the time of the queries that use it to 1/n of their logged execute time, which is a
+ * rough estimate that ranks the groups by the time spent joining. The size of each candidate is
+ * estimated from EXPLAIN, and the candidates that save the most time are created within a disk
+ * budget. Once they have been in use for a while, the queries logged since can be compared with
+ * the prediction.
+ *
+ * @author agent
+ */
+public class PrecomputeAdvisor
+{
+    private static final Logger LOG = Logger.getLogger(PrecomputeAdvisor.class);
+
+    /** The category of the precomputed tables created by the advisor */
+    public static final String CATEGORY = "PrecomputeAdvisor";
+    private static final String EXECUTE = "EXECUTE";
+
+    private ObjectStoreInterMineImpl os;
+    private String packageName;
+
+    /**
+     * Constructor.
+     *
+     * @param os the ObjectStoreInterMineImpl whose queries are to be examined
+     */
+    public PrecomputeAdvisor(ObjectStoreInterMineImpl os) {
+        this(os, os.getModel().getPackageName());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param os the ObjectStoreInterMineImpl to create precomputed tables in, or null to only
+     * suggest them
+     * @param packageName the package name of the model, for parsing the logged IQL
+     */
+    public PrecomputeAdvisor(ObjectStoreInterMineImpl os, String packageName) {
+        this.os = os;
+        this.packageName = packageName;
+    }
+
+    /**
+     * Reads the entries of an execute log, as written by the ObjectStoreInterMineImpl.
+     *
+     * @param log a Reader of the log
+     * @return a List of entries
+     * @throws IOException if the log cannot be read
+     */
+    public static List<Entry> readExecuteLog(Reader log) throws IOException {
+        List<Entry> retval = new ArrayList<Entry>();
+        BufferedReader reader = new BufferedReader(log);
+        String line = reader.readLine();
+        while (line != null) {
+            String[] parts = line.split("\t", 8);
+            if ((parts.length == 8) && EXECUTE.equals(parts[0])) {
+                try {
+                    retval.add(new Entry(0, logValue(parts[1]), logValue(parts[2]),
+                                logValue(parts[3]), logValue(parts[5]), parts[6], parts[7]));
+                } catch (NumberFormatException e) {
+                    LOG.warn("Ignoring malformed execute log line: " + line);
+                }
+            }
+            line = reader.readLine();
+        }
+        return retval;
+    }
+
+    /**
+     * Reads the entries of a log table, as written by the ObjectStoreInterMineImpl.
+     *
+     * @param c a Connection to the database holding the table
+     * @param tableName the name of the log table
+     * @param since only read entries logged at or after this time, in milliseconds
+     * @param until only read entries logged before this time, in milliseconds
+     * @return a List of entries
+     * @throws SQLException if the table cannot be read
+     */
+    public static List<Entry> readLogTable(Connection c, String tableName, long since,
+            long until) throws SQLException {
+        List<Entry> retval = new ArrayList<Entry>();
+        Statement s = c.createStatement();
+        try {
+            ResultSet r = s.executeQuery("SELECT timestamp, optimise, estimated, execute,"
+                    + " convert, iql, sql FROM " + tableName + " WHERE timestamp >= " + since
+                    + " AND timestamp < " + until);
+            while (r.next()) {
+                retval.add(new Entry(r.getLong(1), r.getLong(2), r.getLong(3), r.getLong(4),
+                            r.getLong(5), r.getString(6), r.getString(7)));
+            }
+        } finally {
+            s.close();
+        }
+        return retval;
+    }
+
+    /**
+     * Groups logged queries by join shape, and returns a recommended precomputed table for each
+     * join shape, with the ones expected to save the most time first.
+     *
+     * @param entries the logged queries
+     * @return a List of Recommendations
+     */
+    public List<Recommendation> advise(List<Entry> entries) {
+        Map<String, Recommendation> shapes = new LinkedHashMap<String, Recommendation>();
+        int unparsable = 0;
+        for (Entry entry : entries) {
+            Query q = parse(entry.getIql());
+            if (q == null) {
+                unparsable++;
+                continue;
+            }
+            JoinShape shape = getJoinShape(q);
+            if (shape == null) {
+                continue;
+            }
+            Recommendation rec = shapes.get(shape.key);
+            if (rec == null) {
+                rec = new Recommendation(shape.key, shape.query, shape.classCount);
+                shapes.put(shape.key, rec);
+            }
+            rec.addBefore(entry.getExecute());
+        }
+        if (unparsable > 0) {
+            LOG.info("Ignored " + unparsable + " logged queries that could not be parsed");
+        }
+        List<Recommendation> retval = new ArrayList<Recommendation>(shapes.values());
+        Collections.sort(retval, new Comparator<Recommendation>() {
+            public int compare(Recommendation o1, Recommendation o2) {
+                long diff = o2.getPredictedSaving() - o1.getPredictedSaving();
+                return diff > 0 ? 1 : (diff < 0 ? -1 : 0);
+            }
+        });
+        return retval;
+    }
+
+    /**
+     * Chooses the recommendations to create, and estimates their sizes. Recommendations are taken
+     * in order, skipping any that do not fit in what is left of the disk budget or that are
+     * already precomputed, until the maximum number have been chosen.
+     *
+     * @param recommendations the Recommendations, best first
+     * @param maxCount the maximum number of precomputed tables to choose
+     * @param diskBudget the maximum total size of the precomputed tables in bytes
+     * @return the chosen Recommendations
+     * @throws ObjectStoreException if an error occurs
+     */
+    public List<Recommendation> choose(List<Recommendation> recommendations, int maxCount,
+            long diskBudget) throws ObjectStoreException {
+        List<Recommendation> retval = new ArrayList<Recommendation>();
+        long remaining = diskBudget;
+        for (Recommendation rec : recommendations) {
+            if ((retval.size() >= maxCount) || (rec.getPredictedSaving() <= 0)) {
+                break;
+            }
+            if (isPrecomputed(rec.getQuery())) {
+                continue;
+            }
+            rec.estimatedSize = estimateSize(rec.getQuery());
+            if (rec.estimatedSize <= remaining) {
+                remaining -= rec.estimatedSize;
+                retval.add(rec);
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * Creates the precomputed tables for some Recommendations.
+     *
+     * @param recommendations the Recommendations to create
+     * @throws ObjectStoreException if an error occurs
+     */
+    public void create(List<Recommendation> recommendations) throws ObjectStoreException {
+        for (Recommendation rec : recommendations) {
+            LOG.info("Creating precomputed table for " + rec);
+            rec.tableNames = os.precompute(rec.getQuery(), CATEGORY);
+        }
+    }
+
+    /**
+     * Returns the Recommendations whose precomputed tables have been created by the advisor, so
+     * that a later run can report on the tables that an earlier run chose and created.
+     *
+     * @param recommendations the Recommendations, as produced from the earlier log entries
+     * @return the Recommendations that are precomputed, in the same order
+     * @throws ObjectStoreException if an error occurs
+     */
+    public List<Recommendation> created(List<Recommendation> recommendations)
+        throws ObjectStoreException {
+        List<Recommendation> retval = new ArrayList<Recommendation>();
+        for (Recommendation rec : recommendations) {
+            if (isPrecomputed(rec.getQuery())) {
+                retval.add(rec);
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * Adds the queries logged since the precomputed tables were created to the Recommendations,
+     * so that the observed speed-up can be compared with the prediction.
+     *
+     * @param recommendations the Recommendations, as produced from the earlier log entries
+     * @param entries the queries logged since
+     */
+    public void observe(List<Recommendation> recommendations, List<Entry> entries) {
+        Map<String, Recommendation> byShape = new HashMap<String, Recommendation>();
+        for (Recommendation rec : recommendations) {
+            byShape.put(rec.getShape(), rec);
+        }
+        for (Entry entry : entries) {
+            Query q = parse(entry.getIql());
+            JoinShape shape = (q == null ? null : getJoinShape(q));
+            Recommendation rec = (shape == null ? null : byShape.get(shape.key));
+            if (rec != null) {
+                rec.addAfter(entry.getExecute());
+            }
+        }
+    }
+
+    /**
+     * Writes a report of some Recommendations to the log.
+     *
+     * @param recommendations the Recommendations
+     * @return the report, one line for each Recommendation
+     */
+    public static String report(List<Recommendation> recommendations) {
+        StringBuilder retval = new StringBuilder();
+        for (Recommendation rec : recommendations) {
+            retval.append(rec).append("\n");
+        }
+        LOG.info("Precompute advisor report:\n" + retval);
+        return retval.toString();
+    }
+
+    /**
+     * Returns whether a query is already precomputed. It can be overridden by subclasses.
+     *
+     * @param q the Query
+     * @return a boolean
+     * @throws ObjectStoreException if an error occurs
+     */
+    protected boolean isPrecomputed(Query q) throws ObjectStoreException {
+        return os.isPrecomputed(q, CATEGORY);
+    }
+
+    /**
+     * Estimates the size of the precomputed table for a query, from the rows and width that the
+     * database expects it to have. It can be overridden by subclasses.
+     *
+     * @param q the Query
+     * @return a size in bytes
+     * @throws ObjectStoreException if an error occurs
+     */
+    protected long estimateSize(Query q) throws ObjectStoreException {
+        Connection c = null;
+        try {
+            c = os.getConnection();
+            ExplainResult explain = ExplainResult.getInstance(os.generateSql(q), c);
+            return explain.getRows() * explain.getWidth();
+        } catch (SQLException e) {
+            throw new ObjectStoreException("Failed to estimate size of " + q, e);
+        } finally {
+            if (c != null) {
+                os.releaseConnection(c);
+            }
+        }
+    }
+
+    /**
+     * Parses a logged IQL query. Bags are replaced by empty bags, as they do not affect the join
+     * shape.
+     *
+     * @param iql the IQL, possibly followed by its parameters
+     * @return a Query, or null if it cannot be parsed
+     */
+    protected Query parse(String iql) {
+        String queryString = iql;
+        List<Object> parameters = new ArrayList<Object>();
+        int paramStart = iql.indexOf(" 1: ");
+        if (paramStart != -1) {
+            queryString = iql.substring(0, paramStart);
+        }
+        for (int i = queryString.indexOf('?'); i != -1; i = queryString.indexOf('?', i + 1)) {
+            parameters.add(Collections.emptySet());
+        }
+        try {
+            return new IqlQuery(queryString, packageName, parameters).toQuery();
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the join shape of a query, and the query that performs just those joins.
+     *
+     * @param q the Query
+     * @return a JoinShape, or null if the query does not join any classes
+     */
+    protected static JoinShape getJoinShape(Query q) {
+        Map<QueryClass, QueryClass> classes = new LinkedHashMap<QueryClass, QueryClass>();
+        List<ContainsConstraint> joins = new ArrayList<ContainsConstraint>();
+        TreeSet<String> keyParts = new TreeSet<String>();
+        for (Constraint con : ConstraintHelper.createList(q)) {
+            if (!(con instanceof ContainsConstraint)) {
+                continue;
+            }
+            ContainsConstraint cc = (ContainsConstraint) con;
+            QueryReference ref = cc.getReference();
+            QueryClass from = ref.getQueryClass();
+            QueryClass to = cc.getQueryClass();
+            if ((cc.getOp() != ConstraintOp.CONTAINS) || (from == null) || (to == null)
+                    || (!q.getFrom().contains(from)) || (!q.getFrom().contains(to))) {
+                continue;
+            }
+            for (QueryClass qc : new QueryClass[] {from, to}) {
+                if (!classes.containsKey(qc)) {
+                    classes.put(qc, new QueryClass(qc.getType()));
+                }
+            }
+            joins.add(cc);
+            keyParts.add(from.getType().getName() + "." + ref.getFieldName() + " CONTAINS "
+                    + to.getType().getName());
+        }
+        if (joins.isEmpty()) {
+            return null;
+        }
+        Query retval = new Query();
+        retval.setDistinct(false);
+        for (FromElement fe : q.getFrom()) {
+            QueryClass qc = classes.get(fe);
+            if (qc != null) {
+                retval.addFrom(qc);
+                retval.addToSelect(qc);
+            }
+        }
+        ConstraintSet cs = new ConstraintSet(ConstraintOp.AND);
+        for (ContainsConstraint cc : joins) {
+            QueryReference ref = cc.getReference();
+            QueryClass from = classes.get(ref.getQueryClass());
+            QueryReference newRef = (ref instanceof QueryObjectReference
+                    ? new QueryObjectReference(from, ref.getFieldName())
+                    : new QueryCollectionReference(from, ref.getFieldName()));
+            cs.addConstraint(new ContainsConstraint(newRef, ConstraintOp.CONTAINS,
+                        classes.get(cc.getQueryClass())));
+        }
+        retval.setConstraint(cs.getConstraints().size() == 1 ? cs.getConstraints().iterator()
+                .next() : cs);
+        return new JoinShape(keyParts.toString(), retval, classes.size());
+    }
+
+    private static long logValue(String part) {
+        return Long.parseLong(part.substring(part.indexOf(':') + 1).trim());
+    }
+
+    /**
+     * A join shape of a query.
+     */
+    protected static class JoinShape
+    {
+        protected String key;
+        protected Query query;
+        protected int classCount;
+
+        /**
+         * Constructor.
+         *
+         * @param key a String that is the same for queries of the same join shape
+         * @param query the Query that performs the joins
+         * @param classCount the number of classes joined
+         */
+        public JoinShape(String key, Query query, int classCount) {
+            this.key = key;
+            this.query = query;
+            this.classCount = classCount;
+        }
+    }
+
+    /**
+     * A query logged by the ObjectStoreInterMineImpl.
+     */
+    public static class Entry
+    {
+        private final long timestamp;
+        private final long optimise;
+        private final long estimated;
+        private final long execute;
+        private final long convert;
+        private final String iql;
+        private final String sql;
+
+        /**
+         * Constructor.
+         *
+         * @param timestamp the time the query was logged, or zero if not known
+         * @param optimise the time taken to optimise the query in milliseconds
+         * @param estimated the estimated time of the query in milliseconds
+         * @param execute the time taken to execute the query in milliseconds
+         * @param convert the time taken to convert the results in milliseconds
+         * @param iql the IQL of the query
+         * @param sql the SQL that was executed
+         */
+        public Entry(long timestamp, long optimise, long estimated, long execute, long convert,
+                String iql, String sql) {
+            this.timestamp = timestamp;
+            this.optimise = optimise;
+            this.estimated = estimated;
+            this.execute = execute;
+            this.convert = convert;
+            this.iql = iql;
+            this.sql = sql;
+        }
+
+        /**
+         * Returns the time the query was logged.
+         *
+         * @return a time in milliseconds, or zero if not known
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * Returns the time taken to optimise the query.
+         *
+         * @return a time in milliseconds
+         */
+        public long getOptimise() {
+            return optimise;
+        }
+
+        /**
+         * Returns the estimated time of the query.
+         *
+         * @return a time in milliseconds
+         */
+        public long getEstimated() {
+            return estimated;
+        }
+
+        /**
+         * Returns the time taken to execute the query.
+         *
+         * @return a time in milliseconds
+         */
+        public long getExecute() {
+            return execute;
+        }
+
+        /**
+         * Returns the time taken to convert the results.
+         *
+         * @return a time in milliseconds
+         */
+        public long getConvert() {
+            return convert;
+        }
+
+        /**
+         * Returns the IQL of the query, possibly followed by its parameters.
+         *
+         * @return a String
+         */
+        public String getIql() {
+            return iql;
+        }
+
+        /**
+         * Returns the SQL that was executed.
+         *
+         * @return a String
+         */
+        public String getSql() {
+            return sql;
+        }
+    }
+
+    /**
+     * A candidate precomputed table, with the logged queries that it would help.
+     */
+    public static class Recommendation
+    {
+        private final String shape;
+        private final Query query;
+        private final int classCount;
+        private int beforeCount = 0;
+        private long beforeTime = 0;
+        private int afterCount = 0;
+        private long afterTime = 0;
+        private long estimatedSize = -1;
+        private List<String> tableNames = null;
+
+        /**
+         * Constructor.
+         *
+         * @param shape the join shape
+         * @param query the Query to precompute
+         * @param classCount the number of classes joined by the query
+         */
+        public Recommendation(String shape, Query query, int classCount) {
+            this.shape = shape;
+            this.query = query;
+            this.classCount = classCount;
+        }
+
+        /**
+         * Returns the join shape.
+         *
+         * @return a String
+         */
+        public String getShape() {
+            return shape;
+        }
+
+        /**
+         * Returns the Query to precompute.
+         *
+         * @return a Query
+         */
+        public Query getQuery() {
+            return query;
+        }
+
+        /**
+         * Returns the number of logged queries with this join shape.
+         *
+         * @return an int
+         */
+        public int getCount() {
+            return beforeCount;
+        }
+
+        /**
+         * Returns the total execute time of the logged queries with this join shape.
+         *
+         * @return a time in milliseconds
+         */
+        public long getTotalTime() {
+            return beforeTime;
+        }
+
+        /**
+         * Returns the predicted mean execute time of the queries once the table is precomputed.
+         *
+         * @return a time in milliseconds
+         */
+        public long getPredictedMeanTime() {
+            return (beforeCount == 0 ? 0 : beforeTime / beforeCount / classCount);
+        }
+
+        /**
+         * Returns the predicted saving in execute time over all the logged queries.
+         *
+         * @return a time in milliseconds
+         */
+        public long getPredictedSaving() {
+            return beforeTime - (beforeTime / classCount);
+        }
+
+        /**
+         * Returns the mean execute time of the queries logged since the table was precomputed.
+         *
+         * @return a time in milliseconds, or -1 if none have been logged
+         */
+        public long getObservedMeanTime() {
+            return (afterCount == 0 ? -1 : afterTime / afterCount);
+        }
+
+        /**
+         * Returns the estimated size of the precomputed table.
+         *
+         * @return a size in bytes, or -1 if it has not been estimated
+         */
+        public long getEstimatedSize() {
+            return estimatedSize;
+        }
+
+        /**
+         * Returns the names of the precomputed tables created.
+         *
+         * @return a List of table names, or null if they have not been created
+         */
+        public List<String> getTableNames() {
+            return tableNames;
+        }
+
+        void addBefore(long time) {
+            beforeCount++;
+            beforeTime += time;
+        }
+
+        void addAfter(long time) {
+            afterCount++;
+            afterTime += time;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString() {
+            long meanTime = (beforeCount == 0 ? 0 : beforeTime / beforeCount);
+            long observed = getObservedMeanTime();
+            return shape + ": " + beforeCount + " queries, mean " + meanTime + " ms, predicted "
+                + getPredictedMeanTime() + " ms"
+                + (observed == -1 ? "" : ", observed " + observed + " ms over " + afterCount
+                        + " queries")
+                + (estimatedSize == -1 ? "" : ", estimated size " + estimatedSize + " bytes")
+                + (tableNames == null ? "" : ", tables " + tableNames);
+        }
+    }
+}
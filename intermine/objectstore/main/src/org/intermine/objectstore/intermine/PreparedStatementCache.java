@@ -0,0 +1,203 @@
+package org.intermine.objectstore.intermine;
+
+/*
+ * Copyright (C) 2002-2016 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A cache of PreparedStatements for each database connection, keyed by the SQL that they were
+ * prepared with. The PostgreSQL driver only switches to a server-side prepared statement, whose
+ * plan is reused, after the same PreparedStatement object has been executed several times, so
+ * keeping the statements from one execution to the next is what makes the plan reuse happen.
+ * <p>
+ * Statements are held against the physical connection underneath any connection pool proxy, as
+ * the pool closes the statements of a proxy when it is returned. A statement is taken out of the
+ * cache while it is in use, so that a nested query with the same SQL on the same connection does
+ * not close the results of the outer one, and is put back afterwards.
+ *
+ * @author agent
+ */
+public class PreparedStatementCache
+{
+    private static final Logger LOG = Logger.getLogger(PreparedStatementCache.class);
+
+    /** The default maximum number of statements to hold for each connection */
+    public static final int DEFAULT_SIZE = 100;
+    private static final int PURGE_INTERVAL = 1000;
+
+    private final int size;
+    private final Map<Connection, Map<String, PreparedStatement>> connections
+        = new IdentityHashMap<Connection, Map<String, PreparedStatement>>();
+    private final AtomicLong prepared = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+    private long takes = 0;
+
+    /**
+     * Creates a new PreparedStatementCache.
+     *
+     * @param size the maximum number of statements to hold for each connection
+     */
+    public PreparedStatementCache(int size) {
+        this.size = size;
+    }
+
+    /**
+     * Returns a PreparedStatement for some SQL on a connection, either from the cache or newly
+     * prepared. The statement should be given back with release() once its results have been
+     * read, or closed if it is no longer wanted.
+     *
+     * @param c the Connection, which may be a connection pool proxy
+     * @param sql the SQL
+     * @return a PreparedStatement
+     * @throws SQLException if the statement cannot be prepared
+     */
+    public PreparedStatement take(Connection c, String sql) throws SQLException {
+        Connection physical = getPhysicalConnection(c);
+        PreparedStatement ps = null;
+        synchronized (connections) {
+            takes++;
+            if (takes % PURGE_INTERVAL == 0) {
+                purge();
+            }
+            Map<String, PreparedStatement> statements = connections.get(physical);
+            if (statements != null) {
+                ps = statements.remove(sql);
+            }
+        }
+        if ((ps != null) && (!ps.isClosed())) {
+            reused.incrementAndGet();
+            return ps;
+        }
+        prepared.incrementAndGet();
+        return physical.prepareStatement(sql);
+    }
+
+    /**
+     * Gives a PreparedStatement back to the cache, for reuse by later queries on the same
+     * connection.
+     *
+     * @param c the Connection that the statement was taken for
+     * @param sql the SQL that the statement was prepared with
+     * @param ps the PreparedStatement
+     */
+    public void release(Connection c, String sql, PreparedStatement ps) {
+        Connection physical = getPhysicalConnection(c);
+        PreparedStatement old;
+        synchronized (connections) {
+            Map<String, PreparedStatement> statements = connections.get(physical);
+            if (statements == null) {
+                statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75F, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> e) {
+                        if (size() > size) {
+                            close(e.getValue());
+                            return true;
+                        }
+                        return false;
+                    }
+                };
+                connections.put(physical, statements);
+            }
+            old = statements.put(sql, ps);
+        }
+        if ((old != null) && (old != ps)) {
+            close(old);
+        }
+    }
+
+    /**
+     * Closes all the statements in the cache.
+     */
+    public void clear() {
+        synchronized (connections) {
+            for (Map<String, PreparedStatement> statements : connections.values()) {
+                for (PreparedStatement ps : statements.values()) {
+                    close(ps);
+                }
+            }
+            connections.clear();
+        }
+    }
+
+    /**
+     * Returns a summary of the cache statistics, for log messages.
+     *
+     * @return a String
+     */
+    public String getStatistics() {
+        int connectionCount;
+        int statementCount = 0;
+        synchronized (connections) {
+            connectionCount = connections.size();
+            for (Map<String, PreparedStatement> statements : connections.values()) {
+                statementCount += statements.size();
+            }
+        }
+        return "Prepared statement cache: " + statementCount + " statements on " + connectionCount
+            + " connections, " + prepared.get() + " prepared, " + reused.get() + " reused";
+    }
+
+    /**
+     * Removes the statements of connections that have been closed. The caller must hold the lock
+     * on the connections Map.
+     */
+    private void purge() {
+        Iterator<Map.Entry<Connection, Map<String, PreparedStatement>>> iter
+            = connections.entrySet().iterator();
+        while (iter.hasNext()) {
+            Map.Entry<Connection, Map<String, PreparedStatement>> entry = iter.next();
+            boolean closed;
+            try {
+                closed = entry.getKey().isClosed();
+            } catch (SQLException e) {
+                closed = true;
+            }
+            if (closed) {
+                iter.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns the physical connection underneath a connection pool proxy, or the connection
+     * itself if it is not a proxy or cannot be unwrapped.
+     *
+     * @param c a Connection
+     * @return a Connection
+     */
+    protected static Connection getPhysicalConnection(Connection c) {
+        try {
+            Connection retval = c.unwrap(Connection.class);
+            return (retval == null ? c : retval);
+        } catch (SQLException e) {
+            return c;
+        } catch (AbstractMethodError e) {
+            return c;
+        }
+    }
+
+    private static void close(PreparedStatement ps) {
+        try {
+            ps.close();
+        } catch (SQLException e) {
+            LOG.warn("Error closing prepared statement: " + e);
+        }
+    }
+}
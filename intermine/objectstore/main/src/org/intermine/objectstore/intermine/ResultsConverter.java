@@ -12,8 +12,11 @@ package org.intermine.objectstore.intermine;
 
 import java.sql.Connection;
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
@@ -36,7 +39,9 @@ import org.intermine.objectstore.ObjectStoreException;
 import org.intermine.objectstore.proxy.ProxyCollection;
 import org.intermine.objectstore.proxy.ProxyReference;
 import org.intermine.objectstore.query.BagConstraint;
+import org.intermine.objectstore.query.Clob;
 import org.intermine.objectstore.query.ClobAccess;
+import org.intermine.objectstore.query.ColumnarResults;
 import org.intermine.objectstore.query.PathExpressionField;
 import org.intermine.objectstore.query.Query;
 import org.intermine.objectstore.query.QueryClass;
@@ -88,6 +93,38 @@ public final class ResultsConverter
             ObjectStoreInterMineImpl os, Connection c, Map<Object, Integer> sequence,
             boolean optimise, ExtraQueryTime extra, Set<PrecomputedTable> goFasterTables,
             OptimiserCache goFasterCache) throws ObjectStoreException {
+        return convert(sqlResults, q, os, c, sequence, optimise, extra, goFasterTables,
+                goFasterCache, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Method to convert from SQL results to InterMine object-based results, reading at most
+     * maxRows rows from the ResultSet. The ResultSet is left positioned on the last row read, so
+     * that this method can be called repeatedly to convert a ResultSet that is being streamed from
+     * a database cursor a chunk at a time. If fewer than maxRows rows are returned, then the
+     * ResultSet has been exhausted.
+     *
+     * @param sqlResults the ResultSet
+     * @param q the Query
+     * @param os the ObjectStoreInterMineImpl with which to associate any new lazy objects
+     * @param c a Connection with which to make extra requests
+     * @param sequence an object representing the state of the database
+     * @param optimise whether to use optimisation on path expression queries
+     * @param extra object to record extra query execution time
+     * @param goFasterTables a Set of PrecomputedTables that may help with extra queries
+     * @param goFasterCache an OptimiserCache that may help with extra queries
+     * @param maxRows the maximum number of rows to read from the ResultSet
+     * @return a List of ResultsRow objects
+     * @throws ObjectStoreException if the ResultSet does not match the Query in any way, or if a
+     * SQL exception occurs
+     */
+    public static List<ResultsRow<Object>> convert(ResultSet sqlResults, Query q,
+            ObjectStoreInterMineImpl os, Connection c, Map<Object, Integer> sequence,
+            boolean optimise, ExtraQueryTime extra, Set<PrecomputedTable> goFasterTables,
+            OptimiserCache goFasterCache, int maxRows) throws ObjectStoreException {
+        if (isColumnar(q)) {
+            return convertColumnar(sqlResults, q, os, maxRows);
+        }
         Object currentColumn = null;
         HashSet<QuerySelectable> noObjectColumns = new HashSet<QuerySelectable>();
         HashSet<String> noObjectClassColumns = new HashSet<String>();
@@ -102,7 +139,7 @@ public final class ResultsConverter
                 aliases.put(node, DatabaseUtil.generateSqlCompatibleName(q.getAliases().get(node)));
             }
 
-            while (sqlResults.next()) {
+            while ((retval.size() < maxRows) && sqlResults.next()) {
                 ResultsRow<Object> row = new ResultsRow<Object>();
                 for (QuerySelectable node : q.getSelect()) {
                     String alias = aliases.get(node);
@@ -164,37 +201,7 @@ public final class ResultsConverter
                         needPathExpressions = true;
                     } else {
                         currentColumn = sqlResults.getObject(alias);
-                        if (currentColumn != null) {
-                            if (Date.class.equals(node.getType())) {
-                                currentColumn = new Date(((Long) currentColumn).longValue());
-                            } else if (Class.class.equals(node.getType())) {
-                                Set<Class<?>> classes = new HashSet<Class<?>>();
-                                try {
-                                    String[] b = ((String) currentColumn).split(" ");
-                                    for (int i = 0; i < b.length; i++) {
-                                        classes.add(Class.forName(b[i]));
-                                    }
-                                } catch (ClassNotFoundException e) {
-                                    SQLException e2
-                                        = new SQLException("Invalid entry in class column");
-                                    e2.initCause(e);
-                                    throw e2;
-                                }
-                                if (classes.size() == 1) {
-                                    currentColumn = classes.iterator().next();
-                                } else {
-                                    currentColumn = DynamicUtil.composeClass(classes);
-                                }
-                            } else if (Short.class.equals(node.getType())
-                                    && (currentColumn instanceof Integer)) {
-                                int i = ((Integer) currentColumn).intValue();
-                                currentColumn = new Short((short) i);
-                            } else if (ClobAccess.class.equals(node.getType())) {
-                                currentColumn = ClobAccess.decodeDbDescription(os,
-                                        (String) currentColumn);
-                            }
-                        }
-                        row.add(currentColumn);
+                        row.add(convertValue(currentColumn, node, os));
                     }
                 }
                 retval.add(row);
@@ -256,6 +263,157 @@ public final class ResultsConverter
         }
     }
 
+    /**
+     * Returns whether the results of a query can be held as a ColumnarResults object, which is
+     * the case when it selects only values and no objects or path expressions. Queries for the
+     * pages of a Clob are not, as every page is a different String.
+     *
+     * @param q the Query
+     * @return true if convert will return a ColumnarResults object
+     */
+    public static boolean isColumnar(Query q) {
+        if (q.getSelect().isEmpty()) {
+            return false;
+        }
+        for (QuerySelectable node : q.getSelect()) {
+            if ((node instanceof QueryClass) || (node instanceof QueryPathExpression)
+                    || (node instanceof Clob)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Converts the results of a query that selects only values into a ColumnarResults object,
+     * reading the values of integer, bigint, double precision and text columns from the ResultSet
+     * straight into primitive arrays and dictionaries. Values of other types, and values that are
+     * converted to a different type, such as dates and classes, are held as Objects. The rows of
+     * the result are equal to the rows that would otherwise have been produced.
+     *
+     * @param sqlResults the ResultSet
+     * @param q the Query
+     * @param os the ObjectStoreInterMineImpl used to decode Clobs
+     * @param maxRows the maximum number of rows to read from the ResultSet
+     * @return a ColumnarResults object
+     * @throws ObjectStoreException if the ResultSet does not match the Query
+     */
+    protected static ColumnarResults convertColumnar(ResultSet sqlResults, Query q,
+            ObjectStoreInterMineImpl os, int maxRows) throws ObjectStoreException {
+        Object currentColumn = null;
+        try {
+            List<QuerySelectable> select = q.getSelect();
+            int[] indexes = new int[select.size()];
+            ColumnarResults.Column[] columns = new ColumnarResults.Column[select.size()];
+            ResultSetMetaData metaData = sqlResults.getMetaData();
+            for (int i = 0; i < indexes.length; i++) {
+                QuerySelectable node = select.get(i);
+                indexes[i] = sqlResults.findColumn(DatabaseUtil.generateSqlCompatibleName(
+                            q.getAliases().get(node)));
+                int sqlType = metaData.getColumnType(indexes[i]);
+                Class<?> type = node.getType();
+                if (Date.class.equals(type) || Class.class.equals(type)
+                        || Short.class.equals(type) || ClobAccess.class.equals(type)) {
+                    columns[i] = new ColumnarResults.ObjectColumn();
+                } else if (sqlType == Types.INTEGER) {
+                    columns[i] = new ColumnarResults.IntColumn();
+                } else if (sqlType == Types.BIGINT) {
+                    columns[i] = new ColumnarResults.LongColumn();
+                } else if (sqlType == Types.DOUBLE) {
+                    columns[i] = new ColumnarResults.DoubleColumn();
+                } else if ((sqlType == Types.VARCHAR) || (sqlType == Types.LONGVARCHAR)
+                        || (sqlType == Types.CHAR)) {
+                    columns[i] = new ColumnarResults.StringColumn();
+                } else {
+                    columns[i] = new ColumnarResults.ObjectColumn();
+                }
+            }
+            int rows = 0;
+            while ((rows < maxRows) && sqlResults.next()) {
+                for (int i = 0; i < indexes.length; i++) {
+                    ColumnarResults.Column column = columns[i];
+                    if (column instanceof ColumnarResults.IntColumn) {
+                        int value = sqlResults.getInt(indexes[i]);
+                        if (sqlResults.wasNull()) {
+                            column.addNull();
+                        } else {
+                            ((ColumnarResults.IntColumn) column).add(value);
+                        }
+                    } else if (column instanceof ColumnarResults.LongColumn) {
+                        long value = sqlResults.getLong(indexes[i]);
+                        if (sqlResults.wasNull()) {
+                            column.addNull();
+                        } else {
+                            ((ColumnarResults.LongColumn) column).add(value);
+                        }
+                    } else if (column instanceof ColumnarResults.DoubleColumn) {
+                        double value = sqlResults.getDouble(indexes[i]);
+                        if (sqlResults.wasNull()) {
+                            column.addNull();
+                        } else {
+                            ((ColumnarResults.DoubleColumn) column).add(value);
+                        }
+                    } else if (column instanceof ColumnarResults.StringColumn) {
+                        ((ColumnarResults.StringColumn) column).add(sqlResults.getString(
+                                    indexes[i]));
+                    } else {
+                        currentColumn = sqlResults.getObject(indexes[i]);
+                        ((ColumnarResults.ObjectColumn) column).add(convertValue(currentColumn,
+                                    select.get(i), os));
+                    }
+                }
+                rows++;
+            }
+            return new ColumnarResults(Arrays.asList(columns));
+        } catch (SQLException e) {
+            throw new ObjectStoreException("Error converting results: " + currentColumn, e);
+        } catch (ClassCastException e) {
+            throw new ObjectStoreException("Object is of wrong type while converting results: "
+                    + currentColumn, e);
+        }
+    }
+
+    /**
+     * Converts a value read from the database into the type of the item it was selected for.
+     *
+     * @param value the value from the ResultSet
+     * @param node the QuerySelectable in the SELECT list
+     * @param os the ObjectStoreInterMineImpl used to decode Clobs
+     * @return the converted value
+     * @throws SQLException if a class column names a class that does not exist
+     */
+    private static Object convertValue(Object value, QuerySelectable node,
+            ObjectStoreInterMineImpl os) throws SQLException {
+        if (value == null) {
+            return null;
+        } else if (Date.class.equals(node.getType())) {
+            return new Date(((Long) value).longValue());
+        } else if (Class.class.equals(node.getType())) {
+            Set<Class<?>> classes = new HashSet<Class<?>>();
+            try {
+                String[] b = ((String) value).split(" ");
+                for (int i = 0; i < b.length; i++) {
+                    classes.add(Class.forName(b[i]));
+                }
+            } catch (ClassNotFoundException e) {
+                SQLException e2 = new SQLException("Invalid entry in class column");
+                e2.initCause(e);
+                throw e2;
+            }
+            if (classes.size() == 1) {
+                return classes.iterator().next();
+            } else {
+                return DynamicUtil.composeClass(classes);
+            }
+        } else if (Short.class.equals(node.getType()) && (value instanceof Integer)) {
+            int i = ((Integer) value).intValue();
+            return new Short((short) i);
+        } else if (ClobAccess.class.equals(node.getType())) {
+            return ClobAccess.decodeDbDescription(os, (String) value);
+        }
+        return value;
+    }
+
     //private static long timeSpentBuildObject = 0;
     //private static long timeSpentSql = 0;
     //private static int countBuildObject = 0;
@@ -0,0 +1,461 @@
+package org.intermine.objectstore.intermine;
+
+/*
+ * Copyright (C) 2002-2016 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.intermine.objectstore.DataChangedException;
+import org.intermine.objectstore.ObjectStoreAbstractImpl;
+import org.intermine.objectstore.query.ColumnarResults;
+import org.intermine.objectstore.query.ResultsRow;
+import org.intermine.objectstore.query.iql.IqlQuery;
+import org.intermine.util.TinyLfuCacheMap;
+
+/**
+ * A cache of batches of rows, shared between all users of an ObjectStore, keyed by the IQL of the
+ * query and the start and limit of the batch. The parameters of the query, such as the contents
+ * of bags, are represented in the key by a digest rather than in full. Unlike the Results caches,
+ * the rows are held strongly, up to a maximum number of cells (rows multiplied by columns), so
+ * identical queries from different sessions are not re-run just because the garbage collector has
+ * cleared a soft reference.
+ * <p>
+ * A cell is counted as one whatever the size of the value in it, and a cell holding an
+ * InterMineObject may hold a lot of memory, so the cache is switched off unless the
+ * sharedResultsCacheSize property of the ObjectStore is set.
+ * <p>
+ * Only batches that took longer than a minimum time to produce are admitted, so that cheap
+ * queries do not push expensive ones out. Each batch is stored with the sequence numbers of the
+ * database components it was read from, and is discarded when they no longer match, or when the
+ * ObjectStore is told that one of those components has been altered.
+ * <p>
+ * Hits, misses and admissions are counted for each query shape, which is the IQL with the
+ * constant values removed, so that queries made from the same template with different values
+ * are counted together.
+ *
+ * @author agent
+ */
+public class SharedResultsCache
+{
+    private static final Logger LOG = Logger.getLogger(SharedResultsCache.class);
+
+    /** The default maximum number of cells to hold, which switches the cache off */
+    public static final long DEFAULT_MAXIMUM_CELLS = 0;
+    /** The default minimum time in milliseconds that a batch must take to be admitted */
+    public static final long DEFAULT_MINIMUM_TIME = 50;
+    /** The maximum number of query shapes to hold statistics for */
+    protected static final int MAXIMUM_SHAPES = 1000;
+    private static final int LOG_INTERVAL = 10000;
+
+    private final ObjectStoreAbstractImpl os;
+    private final TinyLfuCacheMap<String, Batch> cache;
+    private long minimumTime = DEFAULT_MINIMUM_TIME;
+
+    private final AtomicLong lookups = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong stale = new AtomicLong();
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong invalidated = new AtomicLong();
+    private final Map<String, ShapeStatistics> shapes = Collections.synchronizedMap(
+            new LinkedHashMap<String, ShapeStatistics>(16, 0.75F, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, ShapeStatistics> eldest) {
+                    return size() > MAXIMUM_SHAPES;
+                }
+            });
+
+    /**
+     * Creates a new SharedResultsCache.
+     *
+     * @param os the ObjectStore whose sequence numbers validate the cached batches
+     * @param maximumCells the maximum number of cells to hold
+     */
+    public SharedResultsCache(ObjectStoreAbstractImpl os, long maximumCells) {
+        this.os = os;
+        cache = new TinyLfuCacheMap<String, Batch>("Shared results cache", maximumCells,
+                new TinyLfuCacheMap.Weigher<String, Batch>() {
+                    public int weigh(String key, Batch value) {
+                        return value.getWeight();
+                    }
+                });
+    }
+
+    /**
+     * Sets the minimum time that a batch must have taken to produce for it to be admitted.
+     *
+     * @param minimumTime a time in milliseconds
+     */
+    public void setMinimumTime(long minimumTime) {
+        this.minimumTime = minimumTime;
+    }
+
+    /**
+     * Returns the minimum time that a batch must have taken to produce for it to be admitted.
+     *
+     * @return a time in milliseconds
+     */
+    public long getMinimumTime() {
+        return minimumTime;
+    }
+
+    /**
+     * Returns a cached batch of rows, if there is one that is still valid.
+     *
+     * @param iql the IQL of the query
+     * @param start the start row
+     * @param limit the maximum number of rows
+     * @return a new List of the rows, or the cached ColumnarResults itself, as it cannot be
+     * modified, or null if the batch is not in the cache
+     */
+    public List<ResultsRow<Object>> get(String iql, int start, int limit) {
+        return get(iql, getShape(iql), start, limit);
+    }
+
+    /**
+     * Returns a cached batch of rows, if there is one that is still valid.
+     *
+     * @param queryKey the key of the query, from getQueryKey
+     * @param shape the shape of the query
+     * @param start the start row
+     * @param limit the maximum number of rows
+     * @return a new List of the rows, or the cached ColumnarResults itself, as it cannot be
+     * modified, or null if the batch is not in the cache
+     */
+    public List<ResultsRow<Object>> get(String queryKey, String shape, int start, int limit) {
+        long lookupNo = lookups.incrementAndGet();
+        if (lookupNo % LOG_INTERVAL == 0) {
+            LOG.info(getStatistics());
+        }
+        String key = getKey(queryKey, start, limit);
+        Batch batch = cache.get(key);
+        if (batch != null) {
+            try {
+                os.checkSequence(batch.sequence, null, null);
+            } catch (DataChangedException e) {
+                cache.remove(key);
+                stale.incrementAndGet();
+                batch = null;
+            }
+        }
+        ShapeStatistics shapeStatistics = getShapeStatistics(shape);
+        if (batch == null) {
+            shapeStatistics.misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        shapeStatistics.hits.incrementAndGet();
+        shapeStatistics.timeSaved.addAndGet(batch.time);
+        if (batch.rows instanceof ColumnarResults) {
+            return batch.rows;
+        }
+        return new ArrayList<ResultsRow<Object>>(batch.rows);
+    }
+
+    /**
+     * Offers a batch of rows to the cache, which admits it if it took long enough to produce.
+     *
+     * @param iql the IQL of the query
+     * @param start the start row
+     * @param limit the maximum number of rows
+     * @param sequence the sequence numbers of the database components that the query reads, as
+     * they were before the query was run
+     * @param rows the rows
+     * @param time the time in milliseconds that it took to produce the rows
+     */
+    public void offer(String iql, int start, int limit, Map<Object, Integer> sequence,
+            List<ResultsRow<Object>> rows, long time) {
+        offer(iql, getShape(iql), start, limit, sequence, rows, time);
+    }
+
+    /**
+     * Offers a batch of rows to the cache, which admits it if it took long enough to produce.
+     *
+     * @param queryKey the key of the query, from getQueryKey
+     * @param shape the shape of the query
+     * @param start the start row
+     * @param limit the maximum number of rows
+     * @param sequence the sequence numbers of the database components that the query reads, as
+     * they were before the query was run
+     * @param rows the rows
+     * @param time the time in milliseconds that it took to produce the rows
+     */
+    public void offer(String queryKey, String shape, int start, int limit,
+            Map<Object, Integer> sequence, List<ResultsRow<Object>> rows, long time) {
+        ShapeStatistics shapeStatistics = getShapeStatistics(shape);
+        if ((time < minimumTime) || sequence.isEmpty()) {
+            rejected.incrementAndGet();
+            shapeStatistics.rejected.incrementAndGet();
+            return;
+        }
+        admitted.incrementAndGet();
+        shapeStatistics.admitted.incrementAndGet();
+        cache.put(getKey(queryKey, start, limit), new Batch(sequence, rows, time));
+    }
+
+    /**
+     * Removes all batches that were read from any of the given database components.
+     *
+     * @param tablesAltered a Set of database components that have been altered
+     */
+    public void invalidate(Set<Object> tablesAltered) {
+        Iterator<Map.Entry<String, Batch>> iter = cache.entrySet().iterator();
+        while (iter.hasNext()) {
+            Map.Entry<String, Batch> entry = iter.next();
+            for (Object table : entry.getValue().sequence.keySet()) {
+                if (tablesAltered.contains(table)) {
+                    iter.remove();
+                    invalidated.incrementAndGet();
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes all batches from the cache.
+     */
+    public void clear() {
+        cache.clear();
+    }
+
+    /**
+     * Returns the number of batches in the cache.
+     *
+     * @return an int
+     */
+    public int size() {
+        return cache.size();
+    }
+
+    /**
+     * Returns a summary of the cache statistics, for log messages.
+     *
+     * @return a String
+     */
+    public String getStatistics() {
+        return "Shared results cache: " + cache.size() + " batches, " + cache.getWeightedSize()
+            + " of " + cache.getMaximumWeight() + " cells, " + lookups.get() + " lookups, "
+            + hits.get() + " hits, " + stale.get() + " stale, " + admitted.get() + " admitted, "
+            + rejected.get() + " rejected as cheap, " + invalidated.get() + " invalidated, "
+            + cache.getEvictionCount() + " evicted";
+    }
+
+    /**
+     * Returns a copy of the statistics for each query shape, most recently used last.
+     *
+     * @return a Map from query shape to statistics
+     */
+    public Map<String, ShapeStatistics> getShapeStatistics() {
+        synchronized (shapes) {
+            return new LinkedHashMap<String, ShapeStatistics>(shapes);
+        }
+    }
+
+    /**
+     * Writes the statistics of the query shapes with the most hits to the log.
+     *
+     * @param count the maximum number of query shapes to log
+     */
+    public void logShapeStatistics(int count) {
+        List<Map.Entry<String, ShapeStatistics>> entries
+            = new ArrayList<Map.Entry<String, ShapeStatistics>>(getShapeStatistics().entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String, ShapeStatistics>>() {
+            public int compare(Map.Entry<String, ShapeStatistics> o1,
+                    Map.Entry<String, ShapeStatistics> o2) {
+                long diff = o2.getValue().getHits() - o1.getValue().getHits();
+                return diff > 0 ? 1 : (diff < 0 ? -1 : 0);
+            }
+        });
+        LOG.info(getStatistics());
+        for (Map.Entry<String, ShapeStatistics> entry
+                : entries.subList(0, Math.min(count, entries.size()))) {
+            LOG.info(entry.getValue() + ": " + entry.getKey());
+        }
+    }
+
+    /**
+     * Returns the shape of a query, which is its IQL with the constant values replaced by
+     * question marks.
+     *
+     * @param iql the IQL of the query
+     * @return a String
+     * @see IqlQuery#getShape(String)
+     */
+    public static String getShape(String iql) {
+        return IqlQuery.getShape(iql);
+    }
+
+    /**
+     * Returns the key of a query, which is its IQL without the parameters, followed by an SHA-1
+     * digest of the parameters, so that a query with large bags does not make a large key.
+     *
+     * @param iql the IqlQuery
+     * @return a String
+     */
+    public static String getQueryKey(IqlQuery iql) {
+        List<?> parameters = iql.getParameters();
+        if ((parameters == null) || parameters.isEmpty()) {
+            return iql.getQueryString();
+        }
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        try {
+            for (Object parameter : parameters) {
+                if (parameter instanceof Collection<?>) {
+                    Collection<?> col = (Collection<?>) parameter;
+                    md.update(("[" + col.size() + "]").getBytes("UTF-8"));
+                    for (Object element : col) {
+                        md.update(String.valueOf(element).getBytes("UTF-8"));
+                        md.update((byte) 0);
+                    }
+                } else {
+                    md.update(String.valueOf(parameter).getBytes("UTF-8"));
+                }
+                md.update((byte) 1);
+            }
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+        StringBuilder retval = new StringBuilder(iql.getQueryString()).append(" #");
+        for (byte b : md.digest()) {
+            retval.append(Character.forDigit((b >> 4) & 0xF, 16))
+                .append(Character.forDigit(b & 0xF, 16));
+        }
+        return retval.toString();
+    }
+
+    private ShapeStatistics getShapeStatistics(String shape) {
+        synchronized (shapes) {
+            ShapeStatistics retval = shapes.get(shape);
+            if (retval == null) {
+                retval = new ShapeStatistics();
+                shapes.put(shape, retval);
+            }
+            return retval;
+        }
+    }
+
+    private static String getKey(String iql, int start, int limit) {
+        return start + " " + limit + " " + iql;
+    }
+
+    /**
+     * A batch of rows in the cache, with the sequence numbers it is valid for.
+     */
+    private static class Batch
+    {
+        private final Map<Object, Integer> sequence;
+        private final List<ResultsRow<Object>> rows;
+        private final long time;
+
+        Batch(Map<Object, Integer> sequence, List<ResultsRow<Object>> rows, long time) {
+            this.sequence = new HashMap<Object, Integer>(sequence);
+            this.rows = (rows instanceof ColumnarResults ? rows
+                    : new ArrayList<ResultsRow<Object>>(rows));
+            this.time = time;
+        }
+
+        int getWeight() {
+            int columns;
+            if (rows instanceof ColumnarResults) {
+                columns = Math.max(1, ((ColumnarResults) rows).getColumnCount());
+            } else {
+                columns = rows.isEmpty() ? 1 : Math.max(1, rows.get(0).size());
+            }
+            return rows.size() * columns + 1;
+        }
+    }
+
+    /**
+     * The cache statistics for one query shape.
+     */
+    public static class ShapeStatistics
+    {
+        private final AtomicLong hits = new AtomicLong();
+        private final AtomicLong misses = new AtomicLong();
+        private final AtomicLong admitted = new AtomicLong();
+        private final AtomicLong rejected = new AtomicLong();
+        private final AtomicLong timeSaved = new AtomicLong();
+
+        /**
+         * Returns the number of lookups that found a batch.
+         *
+         * @return a long
+         */
+        public long getHits() {
+            return hits.get();
+        }
+
+        /**
+         * Returns the number of lookups that did not find a batch.
+         *
+         * @return a long
+         */
+        public long getMisses() {
+            return misses.get();
+        }
+
+        /**
+         * Returns the number of batches admitted into the cache.
+         *
+         * @return a long
+         */
+        public long getAdmitted() {
+            return admitted.get();
+        }
+
+        /**
+         * Returns the number of batches not admitted because they were too cheap to produce.
+         *
+         * @return a long
+         */
+        public long getRejected() {
+            return rejected.get();
+        }
+
+        /**
+         * Returns the total time in milliseconds that the original queries took for all the
+         * hits.
+         *
+         * @return a long
+         */
+        public long getTimeSaved() {
+            return timeSaved.get();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString() {
+            return hits.get() + " hits, " + misses.get() + " misses, " + admitted.get()
+                + " admitted, " + rejected.get() + " rejected, " + timeSaved.get() + " ms saved";
+        }
+    }
+}
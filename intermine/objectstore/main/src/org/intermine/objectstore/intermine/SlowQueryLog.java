@@ -0,0 +1,455 @@
+package org.intermine.objectstore.intermine;
+
+/*
+ * Copyright (C) 2002-2016 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.intermine.objectstore.query.iql.IqlQuery;
+import org.intermine.sql.QueryMetrics;
+
+/**
+ * An in-memory record of the slowest recent queries run by an ObjectStore, for diagnosing
+ * performance problems on a production server without turning on verbose logging.
+ * <p>
+ * Queries are grouped by shape, which is their IQL with the constant values removed, and only the
+ * slowest few queries of each shape are kept, so that one slow template run many times does not
+ * push everything else out. Queries faster than a threshold are never recorded, and of the rest
+ * only a sample are considered. Entries older than a maximum age are forgotten, as are the shapes
+ * that have not had a slow query for longest once there are too many of them.
+ * <p>
+ * Optionally, each query that is kept is run again with EXPLAIN (ANALYZE, BUFFERS) on a separate
+ * connection, one at a time in a background thread, and the plan is stored with the entry. Queries
+ * that are waiting for an explain when the queue is full are not explained.
+ *
+ * @author agent
+ */
+public class SlowQueryLog
+{
+    private static final Logger LOG = Logger.getLogger(SlowQueryLog.class);
+
+    /** The default number of queries to keep for each shape */
+    public static final int DEFAULT_PER_SHAPE = 5;
+    /** The default number of shapes to keep queries for */
+    public static final int DEFAULT_MAXIMUM_SHAPES = 100;
+    /** The default time in milliseconds a query must take to be recorded */
+    public static final long DEFAULT_THRESHOLD = 1000;
+    /** The default age in milliseconds after which an entry is forgotten */
+    public static final long DEFAULT_MAXIMUM_AGE = 24L * 60 * 60 * 1000;
+    /** The default time in seconds an EXPLAIN ANALYZE may take */
+    public static final int DEFAULT_EXPLAIN_TIMEOUT = 300;
+    /** The number of elements of each bag that are kept in the IQL of an entry */
+    public static final int BAG_ELEMENTS = 20;
+    private static final int EXPLAIN_QUEUE_SIZE = 16;
+
+    private final ObjectStoreInterMineImpl os;
+    private int perShape = DEFAULT_PER_SHAPE;
+    private int maximumShapes = DEFAULT_MAXIMUM_SHAPES;
+    private long threshold = DEFAULT_THRESHOLD;
+    private long maximumAge = DEFAULT_MAXIMUM_AGE;
+    private double sampleRate = 1.0;
+    private boolean explainAnalyze = false;
+    private int explainTimeout = DEFAULT_EXPLAIN_TIMEOUT;
+    private ThreadPoolExecutor explainExecutor = null;
+
+    private final LinkedHashMap<String, LinkedList<Entry>> shapes
+        = new LinkedHashMap<String, LinkedList<Entry>>(16, 0.75F, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, LinkedList<Entry>> eldest) {
+                return size() > maximumShapes;
+            }
+        };
+
+    /**
+     * Constructs a SlowQueryLog.
+     *
+     * @param os the ObjectStore to take connections from for explains, or null to never explain
+     */
+    public SlowQueryLog(ObjectStoreInterMineImpl os) {
+        this.os = os;
+    }
+
+    /**
+     * Sets the number of queries to keep for each shape.
+     *
+     * @param perShape a positive number
+     */
+    public void setPerShape(int perShape) {
+        this.perShape = Math.max(1, perShape);
+    }
+
+    /**
+     * Sets the number of shapes to keep queries for.
+     *
+     * @param maximumShapes a positive number
+     */
+    public void setMaximumShapes(int maximumShapes) {
+        this.maximumShapes = Math.max(1, maximumShapes);
+    }
+
+    /**
+     * Sets the time a query must take to be recorded.
+     *
+     * @param threshold a time in milliseconds
+     */
+    public void setThreshold(long threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * Returns the time a query must take to be recorded.
+     *
+     * @return a time in milliseconds
+     */
+    public long getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Sets the age after which an entry is forgotten.
+     *
+     * @param maximumAge a time in milliseconds
+     */
+    public void setMaximumAge(long maximumAge) {
+        this.maximumAge = maximumAge;
+    }
+
+    /**
+     * Sets the proportion of queries slower than the threshold that are considered.
+     *
+     * @param sampleRate a number between 0 and 1
+     */
+    public void setSampleRate(double sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     * Sets whether queries that are kept are run again with EXPLAIN ANALYZE.
+     *
+     * @param explainAnalyze true to explain queries
+     * @param explainTimeout the time in seconds an explain may take
+     */
+    public synchronized void setExplainAnalyze(boolean explainAnalyze, int explainTimeout) {
+        this.explainAnalyze = explainAnalyze && (os != null);
+        this.explainTimeout = explainTimeout;
+        if (this.explainAnalyze && (explainExecutor == null)) {
+            explainExecutor = new ThreadPoolExecutor(1, 1, 60L, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(EXPLAIN_QUEUE_SIZE), new ThreadFactory() {
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r);
+                            thread.setDaemon(true);
+                            thread.setName("SlowQueryLog explain thread");
+                            return thread;
+                        }
+                    }, new ThreadPoolExecutor.DiscardPolicy());
+            explainExecutor.allowCoreThreadTimeOut(true);
+        }
+    }
+
+    /**
+     * Returns whether a query that took the given time should be passed to add. This is cheap,
+     * so that the details of fast queries are never gathered.
+     *
+     * @param time the total time the query took in milliseconds
+     * @return true if the query should be added
+     */
+    public boolean isSampled(long time) {
+        return (time >= threshold) && ((sampleRate >= 1.0) || (Math.random() < sampleRate));
+    }
+
+    /**
+     * Adds a query to the log, if it is one of the slowest recent queries of its shape.
+     *
+     * @param entry the Entry for the query
+     * @param explainSql the SQL to run EXPLAIN ANALYZE on, or null if it cannot be run on another
+     * connection, for instance because it uses temporary tables
+     * @return true if the entry was kept
+     */
+    public boolean add(final Entry entry, final String explainSql) {
+        synchronized (shapes) {
+            LinkedList<Entry> entries = shapes.get(entry.getShape());
+            if (entries == null) {
+                entries = new LinkedList<Entry>();
+                shapes.put(entry.getShape(), entries);
+            }
+            Iterator<Entry> iter = entries.iterator();
+            while (iter.hasNext()) {
+                if (isExpired(iter.next())) {
+                    iter.remove();
+                }
+            }
+            if (entries.size() >= perShape) {
+                Entry fastest = entries.getLast();
+                if (fastest.getTotalTime() >= entry.getTotalTime()) {
+                    return false;
+                }
+                entries.removeLast();
+            }
+            int index = 0;
+            while ((index < entries.size())
+                    && (entries.get(index).getTotalTime() >= entry.getTotalTime())) {
+                index++;
+            }
+            entries.add(index, entry);
+        }
+        ThreadPoolExecutor executor;
+        synchronized (this) {
+            executor = explainAnalyze ? explainExecutor : null;
+        }
+        if (executor != null) {
+            if (explainSql == null) {
+                entry.setExplain("Not explained, as the query uses temporary tables or bound "
+                        + "parameters");
+            } else {
+                executor.execute(new Runnable() {
+                    public void run() {
+                        entry.setExplain(explainAnalyze(explainSql));
+                    }
+                });
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns all the entries in the log, slowest first.
+     *
+     * @return a List of Entry objects
+     */
+    public List<Entry> getEntries() {
+        List<Entry> retval = new ArrayList<Entry>();
+        synchronized (shapes) {
+            for (List<Entry> entries : shapes.values()) {
+                for (Entry entry : entries) {
+                    if (!isExpired(entry)) {
+                        retval.add(entry);
+                    }
+                }
+            }
+        }
+        Collections.sort(retval, new Comparator<Entry>() {
+            public int compare(Entry o1, Entry o2) {
+                long diff = o2.getTotalTime() - o1.getTotalTime();
+                return diff > 0 ? 1 : (diff < 0 ? -1 : 0);
+            }
+        });
+        return retval;
+    }
+
+    /**
+     * Forgets all the entries in the log.
+     */
+    public void clear() {
+        synchronized (shapes) {
+            shapes.clear();
+        }
+    }
+
+    private boolean isExpired(Entry entry) {
+        return System.currentTimeMillis() - entry.getTimestamp() > maximumAge;
+    }
+
+    /**
+     * Runs EXPLAIN (ANALYZE, BUFFERS) on a query, on a new connection from the ObjectStore. The
+     * explain is run in a transaction that is rolled back afterwards.
+     *
+     * @param sql the SQL query
+     * @return the text of the plan, or a description of the error
+     */
+    protected String explainAnalyze(String sql) {
+        Connection c = null;
+        try {
+            c = os.getConnection();
+            c.setAutoCommit(false);
+            Statement s = c.createStatement();
+            try {
+                s.setQueryTimeout(explainTimeout);
+                ResultSet r = s.executeQuery("EXPLAIN (ANALYZE, BUFFERS) " + sql);
+                StringBuilder retval = new StringBuilder();
+                while (r.next()) {
+                    retval.append(r.getString(1)).append("\n");
+                }
+                return retval.toString();
+            } finally {
+                s.close();
+                c.rollback();
+                c.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            LOG.warn("Could not explain slow query " + sql, e);
+            return "Error running EXPLAIN ANALYZE: " + e.getMessage();
+        } finally {
+            if (c != null) {
+                os.releaseConnection(c);
+            }
+        }
+    }
+
+    /**
+     * The details of one slow query.
+     */
+    public static class Entry
+    {
+        private final long timestamp = System.currentTimeMillis();
+        private final String callerType = QueryMetrics.getCallerType();
+        private final String shape;
+        private final String iql;
+        private final String generatedSql;
+        private final String optimisedSql;
+        private final List<Integer> bagSizes;
+        private final Map<String, Long> timings;
+        private final int start, limit, rows;
+        private volatile String explain = null;
+
+        /**
+         * Constructs an Entry, working out the shape of the query from its IQL.
+         *
+         * @param iql the IQL of the query
+         * @param generatedSql the SQL generated from the query
+         * @param optimisedSql the SQL that was run
+         * @param bagSizes the sizes of the bags in the constraints of the query
+         * @param timings the time in milliseconds spent in each phase of running the query, in
+         * order
+         * @param start the first row fetched
+         * @param limit the maximum number of rows fetched
+         * @param rows the number of rows fetched
+         */
+        public Entry(String iql, String generatedSql, String optimisedSql, List<Integer> bagSizes,
+                Map<String, Long> timings, int start, int limit, int rows) {
+            this(IqlQuery.getShape(iql), iql, generatedSql, optimisedSql, bagSizes, timings,
+                    start, limit, rows);
+        }
+
+        /**
+         * Constructs an Entry.
+         *
+         * @param shape the shape of the query
+         * @param iql the IQL of the query, with its bags truncated
+         * @param generatedSql the SQL generated from the query
+         * @param optimisedSql the SQL that was run
+         * @param bagSizes the sizes of the bags in the constraints of the query
+         * @param timings the time in milliseconds spent in each phase of running the query, in
+         * order
+         * @param start the first row fetched
+         * @param limit the maximum number of rows fetched
+         * @param rows the number of rows fetched
+         */
+        public Entry(String shape, String iql, String generatedSql, String optimisedSql,
+                List<Integer> bagSizes, Map<String, Long> timings, int start, int limit,
+                int rows) {
+            this.shape = shape;
+            this.iql = iql;
+            this.generatedSql = generatedSql;
+            this.optimisedSql = optimisedSql;
+            this.bagSizes = bagSizes;
+            this.timings = timings;
+            this.start = start;
+            this.limit = limit;
+            this.rows = rows;
+        }
+
+        /**
+         * Returns the shape of the query.
+         *
+         * @return a String
+         */
+        public String getShape() {
+            return shape;
+        }
+
+        /**
+         * Returns the time the query was run.
+         *
+         * @return a time in milliseconds since the epoch
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * Returns the total time taken by all the phases of the query.
+         *
+         * @return a time in milliseconds
+         */
+        public long getTotalTime() {
+            long retval = 0;
+            for (Long time : timings.values()) {
+                retval += time.longValue();
+            }
+            return retval;
+        }
+
+        /**
+         * Returns the output of EXPLAIN ANALYZE for the query.
+         *
+         * @return a String, or null if the query has not been explained
+         */
+        public String getExplain() {
+            return explain;
+        }
+
+        /**
+         * Sets the output of EXPLAIN ANALYZE for the query.
+         *
+         * @param explain a String
+         */
+        public void setExplain(String explain) {
+            this.explain = explain;
+        }
+
+        /**
+         * Returns the details of the query as a Map, suitable for rendering as JSON.
+         *
+         * @return a Map
+         */
+        public Map<String, Object> toMap() {
+            Map<String, Object> retval = new LinkedHashMap<String, Object>();
+            retval.put("time", new Date(timestamp).toString());
+            retval.put("callerType", callerType);
+            retval.put("totalTime", new Long(getTotalTime()));
+            retval.put("timings", timings);
+            retval.put("start", new Integer(start));
+            retval.put("limit", new Integer(limit));
+            retval.put("rows", new Integer(rows));
+            retval.put("bagSizes", bagSizes);
+            retval.put("shape", shape);
+            retval.put("iql", iql);
+            retval.put("generatedSql", generatedSql);
+            retval.put("optimisedSql", optimisedSql);
+            retval.put("explain", explain);
+            return retval;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString() {
+            return getTotalTime() + " ms: " + iql;
+        }
+    }
+}
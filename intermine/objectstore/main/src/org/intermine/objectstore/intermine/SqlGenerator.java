@@ -19,6 +19,7 @@ import static org.intermine.objectstore.intermine.ObjectStoreInterMineImpl.CLOB_
 import static org.intermine.objectstore.intermine.ObjectStoreInterMineImpl.INT_BAG_TABLE_NAME;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
@@ -50,6 +51,7 @@ import org.intermine.metadata.FieldDescriptor;
 import org.intermine.metadata.ReferenceDescriptor;
 import org.intermine.metadata.TypeUtil;
 import org.intermine.metadata.Util;
+import org.intermine.model.FastPathObject;
 import org.intermine.model.InterMineObject;
 import org.intermine.objectstore.ObjectStoreException;
 import org.intermine.objectstore.proxy.ProxyReference;
@@ -133,6 +135,16 @@ public final class SqlGenerator
         = new WeakHashMap<DatabaseSchema, Map<Query, CacheEntry>>();
     protected static Map<DatabaseSchema, Map<Query, Set<Object>>> tablenamesCache
         = new WeakHashMap<DatabaseSchema, Map<Query, Set<Object>>>();
+    protected static Map<DatabaseSchema, Map<Query, KeysetEntry>> keysetCache
+        = new WeakHashMap<DatabaseSchema, Map<Query, KeysetEntry>>();
+
+    /** The maximum number of keyset boundaries remembered for a single Query */
+    protected static final int MAX_KEYSET_BOUNDARIES = 10000;
+
+    private static final Set<String> KEYSET_TYPES = new HashSet<String>(Arrays.asList("short",
+                "int", "long", "float", "double", "java.lang.Short", "java.lang.Integer",
+                "java.lang.Long", "java.lang.Float", "java.lang.Double", "java.lang.String",
+                "java.math.BigDecimal", "java.util.Date"));
 
     /**
      * Generates a query to retrieve a single object from the database, by id.
@@ -351,6 +363,226 @@ public final class SqlGenerator
         }
     }
 
+    /**
+     * Registers a keyset boundary for a given query, from a batch of rows that has just been
+     * fetched. The boundary records the values of the whole ORDER BY tuple (as far as it can be
+     * read from the rows, including the id tie-breaker), so that a later batch can be fetched
+     * with a WHERE component that skips straight past it instead of using a large OFFSET.
+     *
+     * @param q the Query
+     * @param start the offset of the first row of the batch
+     * @param schema the DatabaseSchema in which to look up metadata
+     * @param rows the rows of the batch, in order
+     * @return true if a boundary was registered, false if the ORDER BY of the query cannot be
+     * used for keyset pagination
+     */
+    public static boolean registerKeyset(Query q, int start, DatabaseSchema schema,
+            List<? extends List<?>> rows) {
+        if (rows.size() < 2) {
+            return false;
+        }
+        synchronized (q) {
+            Map<Query, KeysetEntry> schemaCache = getKeysetCacheForSchema(schema);
+            KeysetEntry entry = schemaCache.get(q);
+            if (entry == null) {
+                entry = new KeysetEntry(getKeysetColumns(q, schema));
+                schemaCache.put(q, entry);
+            }
+            List<KeysetColumn> columns = entry.getColumns();
+            if (columns.isEmpty()) {
+                return false;
+            }
+            // The boundary is the last row whose ORDER BY tuple differs from that of the last row
+            // of the batch, so that rows tied with the last row are not skipped.
+            int rowNo = rows.size() - 1;
+            Object[] lastValues = getKeysetValues(columns, rows.get(rowNo));
+            if (lastValues == null) {
+                return false;
+            }
+            rowNo--;
+            while (rowNo >= 0) {
+                Object[] values = getKeysetValues(columns, rows.get(rowNo));
+                if (values == null) {
+                    return false;
+                }
+                if (!Arrays.equals(values, lastValues)) {
+                    TreeMap<Integer, Object[]> boundaries = entry.getBoundaries();
+                    if (boundaries.size() >= MAX_KEYSET_BOUNDARIES) {
+                        // Thin out the boundaries rather than dropping the deep ones
+                        boolean remove = false;
+                        Iterator<Integer> iter = boundaries.keySet().iterator();
+                        while (iter.hasNext()) {
+                            iter.next();
+                            if (remove) {
+                                iter.remove();
+                            }
+                            remove = !remove;
+                        }
+                    }
+                    boundaries.put(new Integer(start + rowNo + 1), values);
+                    return true;
+                }
+                rowNo--;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Works out which columns of the ORDER BY of a query can be used for keyset pagination. This
+     * is the longest prefix of the ORDER BY list made of attributes of QueryClasses (or the ids of
+     * QueryClasses) whose values can be read from the results, and that may only contain a NULL
+     * value in the last column.
+     *
+     * @param q the Query
+     * @param schema the DatabaseSchema in which to look up metadata
+     * @return a List of KeysetColumns, which is empty if keyset pagination is not possible
+     */
+    protected static List<KeysetColumn> getKeysetColumns(Query q, DatabaseSchema schema) {
+        List<KeysetColumn> retval = new ArrayList<KeysetColumn>();
+        if (!q.getGroupBy().isEmpty()) {
+            return retval;
+        }
+        List<QuerySelectable> select = q.getSelect();
+        Set<QueryField> seen = new HashSet<QueryField>();
+        for (Object node : q.getEffectiveOrderBy()) {
+            boolean desc = false;
+            if (node instanceof OrderDescending) {
+                desc = true;
+                node = ((OrderDescending) node).getQueryOrderable();
+            }
+            if (node instanceof QueryValue) {
+                continue;
+            }
+            QueryField field;
+            if ((node instanceof QueryClass)
+                    && InterMineObject.class.isAssignableFrom(((QueryClass) node).getType())) {
+                field = new QueryField((QueryClass) node, "id");
+            } else if ((node instanceof QueryField)
+                    && (((QueryField) node).getFromElement() instanceof QueryClass)) {
+                field = (QueryField) node;
+            } else {
+                break;
+            }
+            if (seen.contains(field)) {
+                continue;
+            }
+            QueryClass qc = (QueryClass) field.getFromElement();
+            String fieldName = field.getFieldName();
+            boolean nullable = false;
+            if (!"id".equals(fieldName)) {
+                FieldDescriptor fd = schema.getModel().getFieldDescriptorsForClass(qc.getType())
+                    .get(fieldName);
+                if (!(fd instanceof AttributeDescriptor)) {
+                    break;
+                }
+                AttributeDescriptor attr = (AttributeDescriptor) fd;
+                if (!KEYSET_TYPES.contains(attr.getType())) {
+                    break;
+                }
+                if (!attr.isPrimitive()) {
+                    CheckForIsNotNullConstraint check = new CheckForIsNotNullConstraint(field);
+                    ConstraintHelper.traverseConstraints(q.getConstraint(), check);
+                    nullable = !check.exists();
+                }
+            }
+            int selectIndex = select.indexOf(node);
+            if (selectIndex == -1) {
+                selectIndex = select.indexOf(field);
+            }
+            int classIndex = select.indexOf(qc);
+            if ((selectIndex == -1) && (classIndex == -1)) {
+                break;
+            }
+            seen.add(field);
+            retval.add(new KeysetColumn(field, desc, nullable, selectIndex, classIndex));
+            if (nullable) {
+                break;
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * Reads the values of the keyset columns from a row of results.
+     *
+     * @param columns a List of KeysetColumns
+     * @param row a row of results
+     * @return an array of values, or null if any value is NULL or cannot be read
+     */
+    private static Object[] getKeysetValues(List<KeysetColumn> columns, List<?> row) {
+        Object[] retval = new Object[columns.size()];
+        for (int i = 0; i < retval.length; i++) {
+            KeysetColumn column = columns.get(i);
+            Object value;
+            if (column.getSelectIndex() != -1) {
+                value = row.get(column.getSelectIndex());
+                if (value instanceof InterMineObject) {
+                    value = ((InterMineObject) value).getId();
+                }
+            } else {
+                Object obj = row.get(column.getClassIndex());
+                if (obj == null) {
+                    return null;
+                }
+                String fieldName = column.getField().getFieldName();
+                if ("id".equals(fieldName)) {
+                    value = ((InterMineObject) obj).getId();
+                } else {
+                    try {
+                        value = ((FastPathObject) obj).getFieldValue(fieldName);
+                    } catch (IllegalAccessException e) {
+                        return null;
+                    }
+                }
+            }
+            if (value == null) {
+                return null;
+            }
+            retval[i] = value;
+        }
+        return retval;
+    }
+
+    /**
+     * Creates a constraint that selects the rows that come after a keyset boundary. For an
+     * ascending ORDER BY (a, b, id) and boundary values (x, y, z) this is equivalent to the row
+     * comparison (a, b, id) &gt; (x, y, z), but is written as
+     * 'a &gt;= x AND (a &gt; x OR (b &gt;= y AND (b &gt; y OR id &gt; z)))', which allows an
+     * index on a to be used, copes with mixed ascending and descending columns, and can be read
+     * by the QueryOptimiser.
+     *
+     * @param columns a List of KeysetColumns
+     * @param values the values of the boundary row
+     * @param index the index of the first column to consider
+     * @return a Constraint
+     */
+    protected static Constraint getKeysetConstraint(List<KeysetColumn> columns, Object[] values,
+            int index) {
+        KeysetColumn column = columns.get(index);
+        QueryValue value = new QueryValue(values[index]);
+        SimpleConstraint after = new SimpleConstraint(column.getField(), column.isDescending()
+                ? ConstraintOp.LESS_THAN : ConstraintOp.GREATER_THAN, value);
+        if (index == columns.size() - 1) {
+            if (column.isNullable() && (!column.isDescending())) {
+                // NULLs sort after everything else in ascending order
+                ConstraintSet cs = new ConstraintSet(ConstraintOp.OR);
+                cs.addConstraint(after);
+                cs.addConstraint(new SimpleConstraint(column.getField(), ConstraintOp.IS_NULL));
+                return cs;
+            }
+            return after;
+        }
+        ConstraintSet tail = new ConstraintSet(ConstraintOp.OR);
+        tail.addConstraint(after);
+        tail.addConstraint(getKeysetConstraint(columns, values, index + 1));
+        ConstraintSet retval = new ConstraintSet(ConstraintOp.AND);
+        retval.addConstraint(new SimpleConstraint(column.getField(), column.isDescending()
+                    ? ConstraintOp.LESS_THAN_EQUALS : ConstraintOp.GREATER_THAN_EQUALS, value));
+        retval.addConstraint(tail);
+        return retval;
+    }
+
     /**
      * Converts a Query object into an SQL String. To produce an SQL query that does not have
      * OFFSET and LIMIT clauses, set start to 0, and limit to Integer.MAX_VALUE.
@@ -367,6 +599,39 @@ public final class SqlGenerator
      */
     public static String generate(Query q, int start, int limit, DatabaseSchema schema, Database db,
             Map<Object, String> bagTableNames) throws ObjectStoreException {
+        return generate(q, start, limit, schema, db, bagTableNames, null);
+    }
+
+    /**
+     * Converts a Query object into parameterised SQL, where the constants in the WHERE and HAVING
+     * clauses are bound values rather than being written inline. Constants that the SqlGenerator
+     * cannot bind, and constants elsewhere in the query, are still written inline.
+     *
+     * @param q the Query to convert
+     * @param start the number of the first row for the query to return, numbered from zero
+     * @param limit the maximum number of rows for the query to return
+     * @param schema the DatabaseSchema in which to look up metadata
+     * @param db the Database that the ObjectStore uses
+     * @param bagTableNames a Map from BagConstraints to table names, where the table contains the
+     *        contents of the bag that are relevant for the BagConstraint
+     * @param bagArrays true to bind the contents of each BagConstraint that does not have a table
+     *        as a single array value, rather than writing a list of values inline
+     * @return a ParameterisedSql
+     * @throws ObjectStoreException if something goes wrong
+     */
+    public static ParameterisedSql generateParameterised(Query q, int start, int limit,
+            DatabaseSchema schema, Database db, Map<Object, String> bagTableNames,
+            boolean bagArrays) throws ObjectStoreException {
+        State context = new State();
+        context.setParameters(new ArrayList<Object>());
+        context.setBagArrays(bagArrays);
+        String markedSql = generate(q, start, limit, schema, db, bagTableNames, context);
+        return new ParameterisedSql(markedSql, context.getParameters());
+    }
+
+    private static String generate(Query q, int start, int limit, DatabaseSchema schema,
+            Database db, Map<Object, String> bagTableNames,
+            State context) throws ObjectStoreException {
         synchronized (q) {
             if ((q.getSelect().size() == 1) && (q.getSelect().get(0) instanceof Clob)) {
                 // Special case.
@@ -378,6 +643,8 @@ public final class SqlGenerator
             }
             Map<Query, CacheEntry> schemaCache = getCacheForSchema(schema);
             CacheEntry cacheEntry = schemaCache.get(q);
+            String offsetSql = null;
+            int offset = 0;
             if (cacheEntry != null) {
                 SortedMap<Integer, String> headMap = cacheEntry.getCached()
                     .headMap(new Integer(start + 1));
@@ -388,21 +655,33 @@ public final class SqlGenerator
                     // ignore
                 }
                 if (lastKey != null) {
-                    int offset = lastKey.intValue();
+                    offset = lastKey.intValue();
                     if ((offset > cacheEntry.getLastOffset())
                             || (cacheEntry.getLastOffset() > start)) {
-                        return cacheEntry.getCached().get(lastKey)
-                            + (limit == Integer.MAX_VALUE ? "" : " LIMIT " + limit)
-                            + (start == offset ? "" : " OFFSET " + (start - offset));
+                        offsetSql = cacheEntry.getCached().get(lastKey);
                     } else {
-                        return cacheEntry.getLastSQL()
-                            + (limit == Integer.MAX_VALUE ? "" : " LIMIT " + limit)
-                            + (start == cacheEntry.getLastOffset() ? ""
-                                    : " OFFSET " + (start - cacheEntry.getLastOffset()));
+                        offset = cacheEntry.getLastOffset();
+                        offsetSql = cacheEntry.getLastSQL();
                     }
                 }
             }
-            String sql = generate(q, schema, db, null, QUERY_NORMAL, bagTableNames);
+            KeysetEntry keysetEntry = getKeysetCacheForSchema(schema).get(q);
+            if (keysetEntry != null) {
+                Map.Entry<Integer, Object[]> boundary = keysetEntry.getBoundaries()
+                    .floorEntry(new Integer(start));
+                if ((boundary != null)
+                        && ((offsetSql == null) || (boundary.getKey().intValue() > offset))) {
+                    offset = boundary.getKey().intValue();
+                    offsetSql = generate(q, schema, db, getKeysetConstraint(keysetEntry
+                                .getColumns(), boundary.getValue(), 0), QUERY_NORMAL,
+                            bagTableNames, context);
+                }
+            }
+            if (offsetSql != null) {
+                return offsetSql + (limit == Integer.MAX_VALUE ? "" : " LIMIT " + limit)
+                    + (start == offset ? "" : " OFFSET " + (start - offset));
+            }
+            String sql = generate(q, schema, db, null, QUERY_NORMAL, bagTableNames, context);
             /*if (cached == null) {
                 cached = new TreeMap();
                 schemaCache.put(q, cached);
@@ -431,6 +710,23 @@ public final class SqlGenerator
         }
     }
 
+    /**
+     * Returns a keyset boundary cache specific to a particular DatabaseSchema.
+     *
+     * @param schema the DatabaseSchema
+     * @return a Map
+     */
+    private static Map<Query, KeysetEntry> getKeysetCacheForSchema(DatabaseSchema schema) {
+        synchronized (keysetCache) {
+            Map<Query, KeysetEntry> retval = keysetCache.get(schema);
+            if (retval == null) {
+                retval = Collections.synchronizedMap(new WeakHashMap<Query, KeysetEntry>());
+                keysetCache.put(schema, retval);
+            }
+            return retval;
+        }
+    }
+
     /**
      * Converts a Query object into an SQL String.
      *
@@ -447,7 +743,17 @@ public final class SqlGenerator
     public static String generate(Query q, DatabaseSchema schema, Database db,
             Constraint offsetCon, int kind,
             Map<Object, String> bagTableNames) throws ObjectStoreException {
+        return generate(q, schema, db, offsetCon, kind, bagTableNames, null);
+    }
+
+    private static String generate(Query q, DatabaseSchema schema, Database db,
+            Constraint offsetCon, int kind, Map<Object, String> bagTableNames,
+            State context) throws ObjectStoreException {
         State state = new State();
+        if (context != null) {
+            state.setParameters(context.getParameters());
+            state.setBagArrays(context.isBagArrays());
+        }
         List<QuerySelectable> selectList = q.getSelect();
         if ((selectList.size() == 1) && (selectList.get(0) instanceof ObjectStoreBag)) {
             // Special case - we are fetching the contents of an ObjectStoreBag.
@@ -911,7 +1217,8 @@ public final class SqlGenerator
                 fieldToAlias.put("class", baseAlias + ".class");
             } else if (fromElement instanceof Query) {
                 state.addToFrom("(" + generate((Query) fromElement, schema, state.getDb(), null,
-                                QUERY_SUBQUERY_FROM, bagTableNames) + ") AS "
+                                QUERY_SUBQUERY_FROM, bagTableNames, state)
+                        + ") AS "
                         + DatabaseUtil.generateSqlCompatibleName(q.getAliases().get(fromElement)));
                 state.setFieldToAlias(fromElement, new AlwaysMap<String, String>(DatabaseUtil
                             .generateSqlCompatibleName((q.getAliases().get(fromElement)))));
@@ -947,6 +1254,8 @@ public final class SqlGenerator
             if (completelyTrue(c)) {
                 return;
             }
+            boolean wasBinding = state.isBinding();
+            state.setBinding(true);
             LinkedList<Constraint> constraints = new LinkedList<Constraint>();
             boolean needWhereComma = state.getWhereBuffer().length() > 0;
             boolean needHavingComma = state.getHavingBuffer().length() > 0;
@@ -979,6 +1288,7 @@ public final class SqlGenerator
                     }
                 }
             }
+            state.setBinding(wasBinding);
         }
     }
 
@@ -1362,7 +1672,7 @@ public final class SqlGenerator
                         existing.append(" UNION ");
                     }
                     existing.append(generate(subQCQuery, schema, state.getDb(), null,
-                                QUERY_SUBQUERY_CONSTRAINT, state.getBagTableNames()));
+                                QUERY_SUBQUERY_CONSTRAINT, state.getBagTableNames(), state));
                 } else {
                     if ((disjunctive && completelyFalse(subC))
                             || ((!disjunctive) && completelyTrue(subC))) {
@@ -1434,7 +1744,7 @@ public final class SqlGenerator
         }
         buffer.append(" " + c.getOp().toString() + " ("
                 + generate(subQ, schema, state.getDb(), null, QUERY_SUBQUERY_CONSTRAINT,
-                    state.getBagTableNames()) + ")");
+                    state.getBagTableNames(), state) + ")");
     }
 
     /**
@@ -1452,7 +1762,7 @@ public final class SqlGenerator
         Query subQ = c.getQuery();
         buffer.append((c.getOp() == ConstraintOp.EXISTS ? "EXISTS(" : "(NOT EXISTS(")
                          + generate(subQ, schema, state.getDb(), null, QUERY_SUBQUERY_EXISTS,
-                                    state.getBagTableNames())
+                                    state.getBagTableNames(), state)
                          + (c.getOp() == ConstraintOp.EXISTS ? ")" : "))"));
     }
 
@@ -1831,7 +2141,15 @@ public final class SqlGenerator
                 buffer.append(c.getOp() == ConstraintOp.IN ? "false" : "true");
             } else {
                 String bagTableName = state.getBagTableNames().get(c);
-                if (filteredBag.size() < MAX_BAG_INLINE_SIZE || bagTableName == null) {
+                String bagArray = null;
+                if ((filteredBag.size() >= MAX_BAG_INLINE_SIZE) && (bagTableName == null)) {
+                    bagArray = state.addBagParameter(type, filteredBag);
+                }
+                if (bagArray != null) {
+                    buffer.append(c.getOp() == ConstraintOp.IN ? "" : "(NOT (")
+                        .append(leftHandSide + " = ANY(" + bagArray + ")")
+                        .append(c.getOp() == ConstraintOp.IN ? "" : "))");
+                } else if (filteredBag.size() < MAX_BAG_INLINE_SIZE || bagTableName == null) {
                     int needComma = 0;
                     buffer.append(c.getOp() == ConstraintOp.IN ? "" : "(NOT (");
                     boolean limitRange = false;
@@ -1944,7 +2262,24 @@ public final class SqlGenerator
             buffer.append("false");
         } else {
             String bagTableName = state.getBagTableNames().get(c);
-            if (filteredBag.size() < MAX_BAG_INLINE_SIZE || bagTableName == null) {
+            String bagArray = null;
+            if ((filteredBag.size() >= MAX_BAG_INLINE_SIZE) && (bagTableName == null)) {
+                bagArray = state.addBagParameter(type, filteredBag);
+            }
+            if (bagArray != null) {
+                buffer.append("(");
+                boolean needOrComma = false;
+                for (String lhs : leftHandSide) {
+                    if (needOrComma) {
+                        buffer.append(" OR ");
+                    }
+                    needOrComma = true;
+                    buffer.append(c.getOp() == ConstraintOp.IN ? "" : "(NOT (")
+                        .append(lhs + " = ANY(" + bagArray + ")")
+                        .append(c.getOp() == ConstraintOp.IN ? "" : "))");
+                }
+                buffer.append(")");
+            } else if (filteredBag.size() < MAX_BAG_INLINE_SIZE || bagTableName == null) {
                 buffer.append("(");
                 boolean needOrComma = false;
                 for (String lhs : leftHandSide) {
@@ -2432,8 +2767,15 @@ public final class SqlGenerator
         } else if (node instanceof QueryValue) {
             QueryValue nodeV = (QueryValue) node;
             Object value = nodeV.getValue();
-
-            objectToString(buffer, value);
+            Object bindValue = null;
+            if (state.isBinding() && (state.getParameters() != null)) {
+                bindValue = ParameterisedSql.toBindValue(value);
+            }
+            if (bindValue != null) {
+                buffer.append(state.addParameter(bindValue));
+            } else {
+                objectToString(buffer, value);
+            }
         } else if (node instanceof QueryCast) {
             buffer.append("(");
             queryEvaluableToString(buffer, ((QueryCast) node).getValue(), q, state);
@@ -2687,6 +3029,9 @@ public final class SqlGenerator
         private Map<FromElement, Map<String, String>> fromToFieldToAlias
             = new HashMap<FromElement, Map<String, String>>();
         private Database db;
+        private List<Object> parameters = null;
+        private boolean binding = false;
+        private boolean bagArrays = false;
 
         // a Map from BagConstraints to table names, where the table contains the contents of the
         // bag that are relevant for the BagConstraint
@@ -2852,6 +3197,81 @@ public final class SqlGenerator
         public Database getDb() {
             return db;
         }
+
+        /**
+         *
+         * @param parameters list to add bound values to, or null to write all values inline
+         */
+        public void setParameters(List<Object> parameters) {
+            this.parameters = parameters;
+        }
+
+        /**
+         *
+         * @return list of bound values, or null if all values are written inline
+         */
+        public List<Object> getParameters() {
+            return parameters;
+        }
+
+        /**
+         *
+         * @param binding whether constants written now should be bound values
+         */
+        public void setBinding(boolean binding) {
+            this.binding = binding;
+        }
+
+        /**
+         *
+         * @return whether constants written now should be bound values
+         */
+        public boolean isBinding() {
+            return binding;
+        }
+
+        /**
+         *
+         * @param bagArrays whether bags without a table should be bound as array values
+         */
+        public void setBagArrays(boolean bagArrays) {
+            this.bagArrays = bagArrays;
+        }
+
+        /**
+         *
+         * @return whether bags without a table should be bound as array values
+         */
+        public boolean isBagArrays() {
+            return bagArrays;
+        }
+
+        /**
+         *
+         * @param value a value to bind
+         * @return the marker to write into the SQL in place of the value
+         */
+        public String addParameter(Object value) {
+            parameters.add(value);
+            return ParameterisedSql.getMarker(parameters.size() - 1);
+        }
+
+        /**
+         *
+         * @param type the type of the elements of a bag
+         * @param bag the contents of the bag
+         * @return the SQL for an array holding the contents of the bag as a bound value, or null
+         * if the bag cannot be bound as an array here
+         */
+        public String addBagParameter(Class<?> type, Collection<?> bag) {
+            if (bagArrays && binding && (parameters != null)) {
+                ParameterisedSql.ArrayValue array = ParameterisedSql.toArrayValue(type, bag);
+                if (array != null) {
+                    return addParameter(array) + "::" + array.getTypeName() + "[]";
+                }
+            }
+            return null;
+        }
     }
 
     private static class CacheEntry
@@ -2883,6 +3303,89 @@ public final class SqlGenerator
         }
     }
 
+    /**
+     * A column of the ORDER BY of a query that is used for keyset pagination.
+     */
+    protected static class KeysetColumn
+    {
+        private QueryField field;
+        private boolean descending;
+        private boolean nullable;
+        private int selectIndex;
+        private int classIndex;
+
+        /**
+         * Constructor.
+         *
+         * @param field the QueryField that is ordered on
+         * @param descending true if the field is ordered in descending order
+         * @param nullable true if the field may contain NULL values
+         * @param selectIndex the index of the value in the SELECT list, or -1
+         * @param classIndex the index of the QueryClass of the field in the SELECT list, or -1
+         */
+        public KeysetColumn(QueryField field, boolean descending, boolean nullable,
+                int selectIndex, int classIndex) {
+            this.field = field;
+            this.descending = descending;
+            this.nullable = nullable;
+            this.selectIndex = selectIndex;
+            this.classIndex = classIndex;
+        }
+
+        /**
+         * @return the QueryField
+         */
+        public QueryField getField() {
+            return field;
+        }
+
+        /**
+         * @return true if ordered in descending order
+         */
+        public boolean isDescending() {
+            return descending;
+        }
+
+        /**
+         * @return true if the field may contain NULL values
+         */
+        public boolean isNullable() {
+            return nullable;
+        }
+
+        /**
+         * @return the index of the value in the SELECT list, or -1
+         */
+        public int getSelectIndex() {
+            return selectIndex;
+        }
+
+        /**
+         * @return the index of the QueryClass of the field in the SELECT list, or -1
+         */
+        public int getClassIndex() {
+            return classIndex;
+        }
+    }
+
+    private static class KeysetEntry
+    {
+        private List<KeysetColumn> columns;
+        private TreeMap<Integer, Object[]> boundaries = new TreeMap<Integer, Object[]>();
+
+        public KeysetEntry(List<KeysetColumn> columns) {
+            this.columns = columns;
+        }
+
+        public List<KeysetColumn> getColumns() {
+            return columns;
+        }
+
+        public TreeMap<Integer, Object[]> getBoundaries() {
+            return boundaries;
+        }
+    }
+
     private static class ClassDescriptorAndAlias
     {
         private ClassDescriptor cld;
@@ -0,0 +1,203 @@
+package org.intermine.objectstore.intermine;
+
+/*
+ * Copyright (C) 2002-2016 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.intermine.objectstore.DataChangedException;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.ResultsCursor;
+import org.intermine.objectstore.query.ResultsRow;
+import org.intermine.sql.precompute.OptimiserCache;
+import org.intermine.sql.precompute.PrecomputedTable;
+
+/**
+ * A ResultsCursor that reads rows from a server-side database cursor. The Connection is held in a
+ * transaction for the lifetime of the cursor, as PostgreSQL only honours the fetch size inside a
+ * transaction. Rows are converted by the ResultsConverter one fetch at a time, so at most
+ * fetchSize rows are held in memory.
+ *
+ * @author agent
+ */
+public class StreamingResultsCursor implements ResultsCursor
+{
+    private static final Logger LOG = Logger.getLogger(StreamingResultsCursor.class);
+
+    private ObjectStoreInterMineImpl os;
+    private Connection c;
+    private Statement s;
+    private ResultSet sqlResults;
+    private Query q;
+    private int fetchSize;
+    private boolean optimise;
+    private Map<Object, Integer> sequence;
+    private Set<PrecomputedTable> goFasterTables;
+    private OptimiserCache goFasterCache;
+
+    private Iterator<ResultsRow<Object>> buffer;
+    private boolean exhausted = false;
+    private boolean closed = false;
+    private int rowCount = 0;
+    private long convertTime = 0;
+
+    /**
+     * Constructor for a StreamingResultsCursor. This should only be called by the
+     * ObjectStoreInterMineImpl, which has already executed the query.
+     *
+     * @param os the ObjectStoreInterMineImpl that owns the Connection
+     * @param c the Connection, which must be in a transaction
+     * @param s the Statement that is executing the query
+     * @param sqlResults the ResultSet of the query
+     * @param q the Query that is being executed
+     * @param fetchSize the number of rows to convert at a time
+     * @param optimise whether to optimise extra queries issued by the ResultsConverter
+     * @param sequence an object representing the state of the database
+     * @param goFasterTables a Set of PrecomputedTables that may help with extra queries
+     * @param goFasterCache an OptimiserCache that may help with extra queries
+     */
+    protected StreamingResultsCursor(ObjectStoreInterMineImpl os, Connection c, Statement s,
+            ResultSet sqlResults, Query q, int fetchSize, boolean optimise,
+            Map<Object, Integer> sequence, Set<PrecomputedTable> goFasterTables,
+            OptimiserCache goFasterCache) {
+        this.os = os;
+        this.c = c;
+        this.s = s;
+        this.sqlResults = sqlResults;
+        this.q = q;
+        this.fetchSize = fetchSize;
+        this.optimise = optimise;
+        this.sequence = sequence;
+        this.goFasterTables = goFasterTables;
+        this.goFasterCache = goFasterCache;
+        List<ResultsRow<Object>> empty = Collections.emptyList();
+        this.buffer = empty.iterator();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean hasNext() {
+        while ((!buffer.hasNext()) && (!exhausted)) {
+            fill();
+        }
+        return buffer.hasNext();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Object next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return buffer.next();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Reads the next fetchSize rows from the database cursor and converts them.
+     */
+    private void fill() {
+        try {
+            os.checkSequence(sequence, q, "Streaming execute (row " + rowCount + ") ");
+            long start = System.currentTimeMillis();
+            List<ResultsRow<Object>> rows = ResultsConverter.convert(sqlResults, q, os, c,
+                    sequence, optimise, new ExtraQueryTime(), goFasterTables, goFasterCache,
+                    fetchSize);
+            convertTime += System.currentTimeMillis() - start;
+            rowCount += rows.size();
+            buffer = rows.iterator();
+            if (rows.size() < fetchSize) {
+                close();
+            }
+        } catch (DataChangedException e) {
+            close();
+            ConcurrentModificationException e2 = new ConcurrentModificationException("ObjectStore"
+                    + " error has occurred (in streaming iterator) - data changed");
+            e2.initCause(e);
+            throw e2;
+        } catch (ObjectStoreException e) {
+            close();
+            throw new RuntimeException("ObjectStore error has occurred (in streaming iterator)",
+                    e);
+        } catch (RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized void close() {
+        exhausted = true;
+        if (!closed) {
+            closed = true;
+            LOG.debug("Closing streaming cursor after " + rowCount + " rows (convert: "
+                    + convertTime + " ms) for query " + q);
+            try {
+                sqlResults.close();
+                s.close();
+                c.commit();
+            } catch (SQLException e) {
+                LOG.warn("Error closing streaming cursor for query " + q, e);
+            } finally {
+                try {
+                    c.setAutoCommit(true);
+                } catch (SQLException e) {
+                    LOG.warn("Error restoring autocommit after streaming query " + q, e);
+                }
+                os.releaseConnection(c);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of rows read from the database so far.
+     *
+     * @return an int
+     */
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Releases the Connection if the caller forgot to close this cursor.
+     *
+     * @throws Throwable never
+     */
+    @Override
+    protected void finalize() throws Throwable {
+        super.finalize();
+        if (!closed) {
+            LOG.warn("Garbage collecting unclosed streaming cursor for query " + q);
+            close();
+        }
+    }
+}
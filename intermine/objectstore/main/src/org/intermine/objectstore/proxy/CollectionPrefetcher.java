@@ -0,0 +1,236 @@
+package org.intermine.objectstore.proxy;
+
+/*
+ * Copyright (C) 2002-2016 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.intermine.metadata.CollectionDescriptor;
+import org.intermine.metadata.ConstraintOp;
+import org.intermine.metadata.FieldDescriptor;
+import org.intermine.model.InterMineObject;
+import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.query.BagConstraint;
+import org.intermine.objectstore.query.ConstraintSet;
+import org.intermine.objectstore.query.ContainsConstraint;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.QueryClass;
+import org.intermine.objectstore.query.QueryCollectionReference;
+import org.intermine.objectstore.query.QueryField;
+import org.intermine.objectstore.query.Results;
+import org.intermine.objectstore.query.ResultsRow;
+
+/**
+ * Loads a collection of many parent objects at once. Iterating over the ProxyCollection of each
+ * parent separately runs one query per parent, whereas this class runs one query for a whole
+ * chunk of parents, returning the id of the parent alongside each element, and then installs the
+ * elements into the ProxyCollections as materialised collections.
+ *
+ * @author agent
+ */
+public class CollectionPrefetcher
+{
+    /** The default maximum number of parents to fetch collections for in one query */
+    public static final int DEFAULT_CHUNK_SIZE = 10000;
+
+    private ObjectStore os;
+    private Map<Object, Integer> sequence = null;
+    private boolean optimise = false;
+    private boolean explain = false;
+    private int batchSize = 0;
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+
+    /**
+     * Creates a new CollectionPrefetcher.
+     *
+     * @param os the ObjectStore to run the queries on
+     */
+    public CollectionPrefetcher(ObjectStore os) {
+        this.os = os;
+    }
+
+    /**
+     * Sets the sequence to run the queries with, so that the collections are consistent with the
+     * query that produced the parents. If this is not set, the current sequence is used.
+     *
+     * @param sequence an object representing the state of the database
+     */
+    public void setSequence(Map<Object, Integer> sequence) {
+        this.sequence = sequence;
+    }
+
+    /**
+     * Sets whether the queries should be optimised. The default is false.
+     *
+     * @param optimise true to optimise the queries
+     */
+    public void setOptimise(boolean optimise) {
+        this.optimise = optimise;
+    }
+
+    /**
+     * Sets whether the queries should be explained before they are run. The default is false.
+     *
+     * @param explain true to explain the queries
+     */
+    public void setExplain(boolean explain) {
+        this.explain = explain;
+    }
+
+    /**
+     * Sets the batch size used to read the results of each query, or zero for the default.
+     *
+     * @param batchSize the batch size
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Sets the maximum number of parents to fetch collections for in one query.
+     *
+     * @param chunkSize the number of parents
+     */
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Loads a collection of all the given parent objects and installs it into their
+     * ProxyCollections. Parents that do not have the collection, and parents whose collection is
+     * already materialised, are left alone. The materialised collections are held by the
+     * ProxyCollections with a SoftReference, so the caller should hold on to the returned Map for
+     * as long as it needs the collections not to be reloaded.
+     *
+     * @param parents a Collection of parent objects
+     * @param fieldName the name of the collection
+     * @return a Map from parent id to the newly materialised collection
+     * @throws ObjectStoreException if an error occurs
+     */
+    public Map<Integer, Collection<Object>> prefetch(Collection<? extends InterMineObject> parents,
+            String fieldName) throws ObjectStoreException {
+        Map<CollectionDescriptor, Map<Integer, Collection<Object>>> toFetch
+            = new LinkedHashMap<CollectionDescriptor, Map<Integer, Collection<Object>>>();
+        Map<Integer, ProxyCollection<Object>> proxies
+            = new HashMap<Integer, ProxyCollection<Object>>();
+        for (InterMineObject parent : parents) {
+            if ((parent == null) || (parent instanceof ProxyReference)) {
+                continue;
+            }
+            FieldDescriptor field = os.getModel().getFieldDescriptorsForClass(parent.getClass())
+                .get(fieldName);
+            if (!(field instanceof CollectionDescriptor)) {
+                continue;
+            }
+            Object value;
+            try {
+                value = parent.getFieldValue(fieldName);
+            } catch (IllegalAccessException e) {
+                throw new ObjectStoreException(e);
+            }
+            if (value instanceof ProxyCollection<?>) {
+                @SuppressWarnings("unchecked") ProxyCollection<Object> pc
+                    = (ProxyCollection<Object>) value;
+                if ((pc.getMaterialisedCollection() == null)
+                        && (!proxies.containsKey(parent.getId()))) {
+                    CollectionDescriptor coll = (CollectionDescriptor) field;
+                    Map<Integer, Collection<Object>> collections = toFetch.get(coll);
+                    if (collections == null) {
+                        collections = new HashMap<Integer, Collection<Object>>();
+                        toFetch.put(coll, collections);
+                    }
+                    collections.put(parent.getId(), new HashSet<Object>());
+                    proxies.put(parent.getId(), pc);
+                }
+            }
+        }
+        Map<Integer, Collection<Object>> retval = new HashMap<Integer, Collection<Object>>();
+        for (Map.Entry<CollectionDescriptor, Map<Integer, Collection<Object>>> entry
+                : toFetch.entrySet()) {
+            fetch(entry.getKey(), entry.getValue());
+            retval.putAll(entry.getValue());
+        }
+        for (Map.Entry<Integer, Collection<Object>> entry : retval.entrySet()) {
+            proxies.get(entry.getKey()).setMaterialisedCollection(entry.getValue());
+        }
+        return retval;
+    }
+
+    /**
+     * Fills in the contents of a collection for a group of parent objects, without installing
+     * them into any ProxyCollection.
+     * <p>
+     * The Results for each chunk are constructed directly rather than with ObjectStore.execute(),
+     * because execute() always uses the current sequence, and the collections must be read with
+     * the sequence of the query that produced the parents. Nothing is lost by this, as the
+     * batches are still fetched through the ObjectStore and its caches, and a Results for a chunk
+     * of parent ids is never asked for twice.
+     *
+     * @param coll the CollectionDescriptor of the collection
+     * @param collections a Map from parent id to the empty Collection to fill in
+     * @throws ObjectStoreException if an error occurs
+     */
+    public void fetch(CollectionDescriptor coll, Map<Integer, Collection<Object>> collections)
+        throws ObjectStoreException {
+        List<Integer> bagList = new ArrayList<Integer>(collections.keySet());
+        for (int i = 0; i < bagList.size(); i += chunkSize) {
+            Query subQ = new Query();
+            subQ.setDistinct(false);
+            QueryClass qc1 = new QueryClass(coll.getClassDescriptor().getType());
+            QueryClass qc2 = new QueryClass(coll.getReferencedClassDescriptor().getType());
+            subQ.addFrom(qc1);
+            subQ.addFrom(qc2);
+            subQ.addToSelect(new QueryField(qc1, "id"));
+            subQ.addToSelect(qc2);
+            ConstraintSet cs = new ConstraintSet(ConstraintOp.AND);
+            subQ.setConstraint(cs);
+            cs.addConstraint(new ContainsConstraint(new QueryCollectionReference(qc1,
+                            coll.getName()), ConstraintOp.CONTAINS, qc2));
+            cs.addConstraint(new BagConstraint(new QueryField(qc1, "id"), ConstraintOp.IN,
+                        bagList.subList(i, Math.min(i + chunkSize, bagList.size()))));
+            Results l = new Results(subQ, os, (sequence == null
+                        ? os.getSequence(os.getComponentsForQuery(subQ)) : sequence));
+            if (!optimise) {
+                l.setNoOptimise();
+            }
+            if (!explain) {
+                l.setNoExplain();
+            }
+            if (batchSize != 0) {
+                l.setBatchSize(batchSize);
+            }
+            insertResults(collections, l);
+        }
+    }
+
+    /**
+     * Adds the elements of some results of parent id and element into the right collections.
+     *
+     * @param collections a Map from parent id to Collection
+     * @param l the Results
+     */
+    public static void insertResults(Map<Integer, Collection<Object>> collections, Results l) {
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        Collection<ResultsRow<Object>> res = (Collection) l;
+        for (ResultsRow<Object> row : res) {
+            Collection<Object> fromCollection = collections.get(row.get(0));
+            if (fromCollection != null) {
+                fromCollection.add(row.get(1));
+            }
+        }
+    }
+}
@@ -14,11 +14,14 @@ import java.lang.ref.SoftReference;
 import java.util.AbstractSet;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.log4j.Logger;
 import org.intermine.metadata.ConstraintOp;
+import org.intermine.metadata.TypeUtil;
 import org.intermine.model.InterMineObject;
 import org.intermine.objectstore.ObjectStore;
 import org.intermine.objectstore.ObjectStoreException;
@@ -226,6 +229,48 @@ public class ProxyCollection<E> extends AbstractSet<E> implements LazyCollection
         collectionRef = new SoftReference<Collection<E>>(coll);
     }
 
+    /**
+     * Loads a collection of a group of parent objects with one query for each ObjectStore, instead
+     * of one query for each parent when the collections are iterated over, using a
+     * CollectionPrefetcher. This is only a hint - errors are logged and otherwise ignored, and as
+     * the loaded collections are only softly held they may be reloaded later if memory is short.
+     *
+     * @param parents a Collection of parent objects
+     * @param fieldName the name of the collection
+     */
+    public static void prefetch(Collection<? extends InterMineObject> parents, String fieldName) {
+        Map<ObjectStore, List<InterMineObject>> parentsByObjectStore
+            = new HashMap<ObjectStore, List<InterMineObject>>();
+        for (InterMineObject parent : parents) {
+            if ((parent != null) && (TypeUtil.getFieldInfo(parent.getClass(), fieldName)
+                        != null)) {
+                try {
+                    Object value = parent.getFieldValue(fieldName);
+                    if (value instanceof ProxyCollection<?>) {
+                        ObjectStore parentOs = ((ProxyCollection<?>) value).getObjectStore();
+                        List<InterMineObject> group = parentsByObjectStore.get(parentOs);
+                        if (group == null) {
+                            group = new ArrayList<InterMineObject>();
+                            parentsByObjectStore.put(parentOs, group);
+                        }
+                        group.add(parent);
+                    }
+                } catch (IllegalAccessException e) {
+                    // Leave this collection to be fetched when it is used
+                }
+            }
+        }
+        for (Map.Entry<ObjectStore, List<InterMineObject>> entry
+                : parentsByObjectStore.entrySet()) {
+            try {
+                new CollectionPrefetcher(entry.getKey()).prefetch(entry.getValue(), fieldName);
+            } catch (ObjectStoreException e) {
+                LOG.warn("Failed to prefetch collection " + fieldName + " of "
+                        + entry.getValue().size() + " objects from " + entry.getKey(), e);
+            }
+        }
+    }
+
     private Query internalGetQuery() {
         Query q = new Query();
         QueryClass qc1 = new QueryClass(clazz);
@@ -10,11 +10,20 @@ package org.intermine.objectstore.proxy;
  *
  */
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.intermine.metadata.TypeUtil;
 import org.intermine.model.FastPathObject;
 import org.intermine.model.InterMineObject;
 import org.intermine.model.StringConstructor;
 import org.intermine.objectstore.ObjectStore;
 import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.intermine.NotXmlReader;
 import org.intermine.objectstore.translating.ObjectStoreTranslatingImpl;
 import org.intermine.objectstore.translating.Translator;
 
@@ -25,6 +34,8 @@ import org.intermine.objectstore.translating.Translator;
  */
 public class ProxyReference implements InterMineObject, Lazy
 {
+    private static final Logger LOG = Logger.getLogger(ProxyReference.class);
+
     private ObjectStore os;
     private Integer id;
     private Class<? extends InterMineObject> clazz;
@@ -68,6 +79,78 @@ public class ProxyReference implements InterMineObject, Lazy
         }
     }
 
+    /**
+     * Materialises in bulk all the ProxyReferences in a group of objects, so that a page of
+     * results can be displayed without a database round-trip for every reference. The objects
+     * may be ProxyReferences, objects whose references are to be materialised, or Lists of
+     * either (such as ResultsRows). The ids are fetched with one call to getObjectsByIds() for
+     * each ObjectStore, which puts the objects in the getObjectById cache, so later calls to
+     * getObject() on the proxies are answered from the cache. This is only a hint - errors are
+     * logged and otherwise ignored, as the proxies will still fetch their objects when used.
+     *
+     * @param objects a Collection of objects
+     */
+    public static void prefetch(Collection<?> objects) {
+        Map<ObjectStore, List<Integer>> idsByObjectStore
+            = new HashMap<ObjectStore, List<Integer>>();
+        for (Object o : objects) {
+            if (o instanceof List<?>) {
+                for (Object element : (List<?>) o) {
+                    addProxies(element, idsByObjectStore);
+                }
+            } else {
+                addProxies(o, idsByObjectStore);
+            }
+        }
+        for (Map.Entry<ObjectStore, List<Integer>> entry : idsByObjectStore.entrySet()) {
+            try {
+                entry.getKey().getObjectsByIds(entry.getValue());
+            } catch (ObjectStoreException e) {
+                LOG.warn("Failed to prefetch " + entry.getValue().size() + " objects from "
+                        + entry.getKey(), e);
+            }
+        }
+    }
+
+    /**
+     * Adds the ids of a ProxyReference, or of the ProxyReferences held in the reference fields of
+     * an object, to a Map from ObjectStore to ids.
+     *
+     * @param o a ProxyReference or another object
+     * @param idsByObjectStore the Map to add to
+     */
+    private static void addProxies(Object o, Map<ObjectStore, List<Integer>> idsByObjectStore) {
+        if (o instanceof ProxyReference) {
+            addProxy((ProxyReference) o, idsByObjectStore);
+        } else if (o instanceof FastPathObject) {
+            FastPathObject fpo = (FastPathObject) o;
+            for (TypeUtil.FieldInfo info : TypeUtil.getFieldInfos(o.getClass()).values()) {
+                if (InterMineObject.class.isAssignableFrom(info.getType())) {
+                    try {
+                        Object ref = fpo.getFieldProxy(info.getName());
+                        if (ref instanceof ProxyReference) {
+                            addProxy((ProxyReference) ref, idsByObjectStore);
+                        }
+                    } catch (IllegalAccessException e) {
+                        // Leave this reference to be fetched when it is used
+                    }
+                }
+            }
+        }
+    }
+
+    private static void addProxy(ProxyReference proxy,
+            Map<ObjectStore, List<Integer>> idsByObjectStore) {
+        if ((proxy.os != null) && (proxy.id != null)) {
+            List<Integer> ids = idsByObjectStore.get(proxy.os);
+            if (ids == null) {
+                ids = new ArrayList<Integer>();
+                idsByObjectStore.put(proxy.os, ids);
+            }
+            ids.add(proxy.id);
+        }
+    }
+
     /**
      * Gets the ID value
      *
@@ -126,6 +209,14 @@ public class ProxyReference implements InterMineObject, Lazy
         throw new UnsupportedOperationException();
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public void setoBJECT(@SuppressWarnings("unused") NotXmlReader notXml,
+            @SuppressWarnings("unused") ObjectStore os) {
+        throw new UnsupportedOperationException();
+    }
+
     /**
      * {@inheritDoc}
      */
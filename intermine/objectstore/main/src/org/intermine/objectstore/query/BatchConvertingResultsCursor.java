@@ -0,0 +1,131 @@
+package org.intermine.objectstore.query;
+
+/*
+ * Copyright (C) 2002-2016 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.intermine.objectstore.DataChangedException;
+import org.intermine.objectstore.ObjectStoreException;
+
+/**
+ * A ResultsCursor that reads rows from another ResultsCursor in batches, and passes each batch
+ * through convertBatch() before returning the rows. This allows an ObjectStore that alters the
+ * results of another ObjectStore to stream them, rather than falling back to batched queries.
+ * The List returned by convertBatch() is kept until all its rows have been returned, so it may
+ * be used to hold on to objects that must stay in a cache while the batch is being read.
+ *
+ * @author agent
+ */
+public abstract class BatchConvertingResultsCursor implements ResultsCursor
+{
+    private ResultsCursor cursor;
+    private int batchSize;
+    private List<ResultsRow<Object>> batch;
+    private Iterator<ResultsRow<Object>> buffer;
+    private boolean closed = false;
+
+    /**
+     * Constructor.
+     *
+     * @param cursor the ResultsCursor to read rows from, which must return ResultsRow objects
+     * @param batchSize the number of rows to pass to convertBatch() at a time
+     */
+    public BatchConvertingResultsCursor(ResultsCursor cursor, int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be greater than zero - was "
+                    + batchSize);
+        }
+        this.cursor = cursor;
+        this.batchSize = batchSize;
+        this.batch = Collections.emptyList();
+        this.buffer = batch.iterator();
+    }
+
+    /**
+     * Converts a batch of rows read from the underlying cursor.
+     *
+     * @param rows a List of rows from the underlying cursor, never empty
+     * @return a List of rows to be returned by this cursor
+     * @throws ObjectStoreException if an error occurs
+     */
+    protected abstract List<ResultsRow<Object>> convertBatch(List<ResultsRow<Object>> rows)
+        throws ObjectStoreException;
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean hasNext() {
+        while ((!buffer.hasNext()) && (!closed) && cursor.hasNext()) {
+            fill();
+        }
+        return buffer.hasNext();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Object next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return buffer.next();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Reads the next batchSize rows from the underlying cursor and converts them.
+     */
+    @SuppressWarnings("unchecked")
+    private void fill() {
+        List<ResultsRow<Object>> rows = new ArrayList<ResultsRow<Object>>();
+        while ((rows.size() < batchSize) && cursor.hasNext()) {
+            rows.add((ResultsRow<Object>) cursor.next());
+        }
+        try {
+            batch = convertBatch(rows);
+            buffer = batch.iterator();
+        } catch (DataChangedException e) {
+            close();
+            ConcurrentModificationException e2 = new ConcurrentModificationException("ObjectStore"
+                    + " error has occurred (in streaming iterator) - data changed");
+            e2.initCause(e);
+            throw e2;
+        } catch (ObjectStoreException e) {
+            close();
+            throw new RuntimeException("ObjectStore error has occurred (in streaming iterator)",
+                    e);
+        } catch (RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close() {
+        closed = true;
+        batch = Collections.emptyList();
+        buffer = batch.iterator();
+        cursor.close();
+    }
+}
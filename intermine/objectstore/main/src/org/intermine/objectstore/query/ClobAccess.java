@@ -12,28 +12,47 @@ package org.intermine.objectstore.query;
 
 import static org.intermine.objectstore.query.Clob.CLOB_PAGE_SIZE;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintStream;
+import java.io.Writer;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.ObjectStoreWriter;
 import org.intermine.objectstore.proxy.Lazy;
 
 /**
  * Class used to read a Clob from the ObjectStore.
+ * <p>
+ * Pages of the Clob are read through the ClobPageCache, so that subsequences of the same Clob
+ * share them, and runs of pages that are not in the cache are read from the database in a single
+ * query. Every ClobAccess object reads the Clob as it was when the object, or the object it is a
+ * subsequence of, was initialised, and throws a DataChangedException if it needs to read a page
+ * from the database after the Clob has been altered.
  *
  * @author Matthew Wakeling
  */
 public class ClobAccess implements CharSequence, Lazy
 {
+    /** The number of pages read around a single character, and to find the length of a Clob */
+    protected static final int PAGE_BATCH = 20;
+    /** The maximum number of pages read in one query while streaming the Clob */
+    protected static final int STREAM_BATCH = 100;
+
     protected ObjectStore os;
-    protected SingletonResults results;
     protected Clob clob;
     protected int offset;
     protected int length;
     protected boolean subSequence;
+    protected Map<Object, Integer> sequence;
 
     /**
      * Protected constructor for use by PendingClob only.
@@ -56,40 +75,189 @@ public class ClobAccess implements CharSequence, Lazy
     }
 
     /**
-     * Construct a ClobAccess object representing a subsequence of an existing ClobAccess object.
+     * Construct a ClobAccess object representing a subsequence of a Clob.
      *
-     * @param results the SingletonResults object backing the object
+     * @param os the ObjectStore that the Clob is stored in
      * @param clob the Clob to access
+     * @param sequence the state of the Clob that the object reads, or null to take it when the
+     * object is initialised
      * @param offset the offset
      * @param length the length
      */
-    private ClobAccess(SingletonResults results, Clob clob, int offset, int length) {
-        this.results = results;
+    private ClobAccess(ObjectStore os, Clob clob, Map<Object, Integer> sequence, int offset,
+            int length) {
+        this.os = os;
         this.clob = clob;
+        this.sequence = sequence;
         this.offset = offset;
         this.length = length;
-        os = results.getObjectStore();
         subSequence = true;
     }
 
+    /**
+     * Construct a ClobAccess object that reads the same data as an existing ClobAccess object, for
+     * use by subclass constructors.
+     *
+     * @param ca the ClobAccess object to copy
+     */
+    protected ClobAccess(ClobAccess ca) {
+        os = ca.os;
+        clob = ca.clob;
+        offset = ca.offset;
+        length = ca.length;
+        subSequence = ca.subSequence;
+        sequence = ca.sequence;
+    }
+
     /**
      * Initialises the state of this object. This is done lazily, because it requires the use of a
      * database connection to discover the length of the clob, and that cannot be done while inside
      * the ObjectStoreWriter while it has exclusive use of the connection.
      */
     protected void init() {
-        if (results == null) {
-            Query q = new Query();
-            q.addToSelect(clob);
-            results = os.executeSingleton(q, 20, false, false, true);
-            int pageCount = results.size();
-            if (pageCount == 0) {
-                length = 0;
+        if (sequence == null) {
+            sequence = os.getSequence(os.getComponentsForQuery(createQuery()));
+            if (!subSequence) {
+                length = readLength();
+            }
+        }
+    }
+
+    private Query createQuery() {
+        Query q = new Query();
+        q.addToSelect(clob);
+        return q;
+    }
+
+    /**
+     * Returns the ObjectStore that pages read by this object are cached against, or null if they
+     * must not be cached, which is the case for an ObjectStoreWriter inside a transaction. Outside
+     * a transaction, an ObjectStoreWriter reads the same data as its ObjectStore.
+     *
+     * @return an ObjectStore, or null
+     */
+    private ObjectStore getCacheObjectStore() {
+        if (sequence.get(clob) == null) {
+            return null;
+        }
+        if (os instanceof ObjectStoreWriter) {
+            ObjectStoreWriter osw = (ObjectStoreWriter) os;
+            try {
+                return osw.isInTransaction() ? null : osw.getObjectStore();
+            } catch (ObjectStoreException e) {
+                return null;
+            }
+        }
+        return os;
+    }
+
+    /**
+     * Reads the length of the Clob from the ClobPageCache or the database. The first batch of
+     * pages is read at the same time, as most Clobs fit in it.
+     *
+     * @return the length of the Clob
+     */
+    private int readLength() {
+        ObjectStore cacheOs = getCacheObjectStore();
+        ClobPageCache cache = ClobPageCache.getInstance();
+        Integer clobSequence = sequence.get(clob);
+        if (cacheOs != null) {
+            int cached = cache.getLength(cacheOs, clob, clobSequence);
+            if (cached != -1) {
+                return cached;
+            }
+        }
+        List<String> firstPages = readPages(cacheOs, 0, PAGE_BATCH);
+        int pageCount = firstPages.size();
+        String lastPage = (pageCount == 0 ? null : firstPages.get(pageCount - 1));
+        if (pageCount == PAGE_BATCH) {
+            try {
+                pageCount = os.count(createQuery(), sequence);
+            } catch (ObjectStoreException e) {
+                throw new RuntimeException("Error counting the pages of Clob " + clob.getClobId(),
+                        e);
+            }
+            if (pageCount > PAGE_BATCH) {
+                lastPage = readPages(cacheOs, pageCount - 1, pageCount).get(0);
+            }
+        }
+        int retval = (pageCount == 0 ? 0 : CLOB_PAGE_SIZE * (pageCount - 1) + lastPage.length());
+        if (cacheOs != null) {
+            cache.putLength(cacheOs, clob, clobSequence, retval);
+        }
+        return retval;
+    }
+
+    /**
+     * Reads a contiguous run of pages from the database in one query, and adds them to the
+     * ClobPageCache.
+     *
+     * @param cacheOs the ObjectStore to cache the pages against, or null to not cache them
+     * @param first the first page to read, inclusive
+     * @param last the last page to read, exclusive
+     * @return a List of the pages that exist in the range
+     */
+    private List<String> readPages(ObjectStore cacheOs, int first, int last) {
+        List<ResultsRow<Object>> rows;
+        try {
+            rows = os.execute(createQuery(), first, last - first, false, false, sequence);
+        } catch (ObjectStoreException e) {
+            throw new RuntimeException("Error reading pages " + first + " to " + last
+                    + " of Clob " + clob.getClobId(), e);
+        }
+        ClobPageCache cache = ClobPageCache.getInstance();
+        Integer clobSequence = sequence.get(clob);
+        List<String> retval = new ArrayList<String>();
+        for (ResultsRow<Object> row : rows) {
+            String text = (String) row.get(0);
+            if (cacheOs != null) {
+                cache.putPage(cacheOs, clob, first + retval.size(), clobSequence, text);
+            }
+            retval.add(text);
+        }
+        return retval;
+    }
+
+    /**
+     * Returns a run of pages of the Clob. Pages that are in the ClobPageCache are taken from
+     * there, and each contiguous run of the others is read from the database in one query.
+     *
+     * @param first the first page to return, inclusive
+     * @param last the last page to return, exclusive
+     * @return an array of the text of the pages
+     */
+    protected String[] getPages(int first, int last) {
+        init();
+        String[] retval = new String[last - first];
+        ObjectStore cacheOs = getCacheObjectStore();
+        ClobPageCache cache = ClobPageCache.getInstance();
+        Integer clobSequence = sequence.get(clob);
+        if (cacheOs != null) {
+            for (int page = first; page < last; page++) {
+                retval[page - first] = cache.getPage(cacheOs, clob, page, clobSequence);
+            }
+        }
+        int page = first;
+        while (page < last) {
+            if (retval[page - first] == null) {
+                int runEnd = page + 1;
+                while ((runEnd < last) && (retval[runEnd - first] == null)) {
+                    runEnd++;
+                }
+                List<String> read = readPages(cacheOs, page, runEnd);
+                if (read.size() != runEnd - page) {
+                    throw new IndexOutOfBoundsException("Clob " + clob.getClobId() + " has no page "
+                            + (page + read.size()));
+                }
+                for (String text : read) {
+                    retval[page - first] = text;
+                    page++;
+                }
             } else {
-                String lastPage = (String) results.get(pageCount - 1);
-                length = CLOB_PAGE_SIZE * (pageCount - 1) + lastPage.length();
+                page++;
             }
         }
+        return retval;
     }
 
     /**
@@ -111,7 +279,8 @@ public class ClobAccess implements CharSequence, Lazy
     }
 
     /**
-     * Return a character from the specified index.
+     * Return a character from the specified index. The batch of pages around the character is
+     * read at the same time, so that reading nearby characters is fast.
      *
      * @param index the position from which to return a character
      * @return a character
@@ -126,9 +295,17 @@ public class ClobAccess implements CharSequence, Lazy
         if (index >= length) {
             throw new IndexOutOfBoundsException("index is not less than length");
         }
-        int page = index / CLOB_PAGE_SIZE;
-        String pageText = (String) results.get(page);
-        return pageText.charAt(index - page * CLOB_PAGE_SIZE);
+        int position = offset + index;
+        int page = position / CLOB_PAGE_SIZE;
+        ObjectStore cacheOs = getCacheObjectStore();
+        String pageText = (cacheOs == null ? null : ClobPageCache.getInstance().getPage(cacheOs,
+                    clob, page, sequence.get(clob)));
+        if (pageText == null) {
+            int first = Math.max(page - page % PAGE_BATCH, offset / CLOB_PAGE_SIZE);
+            int last = Math.min(first + PAGE_BATCH, (offset + length - 1) / CLOB_PAGE_SIZE + 1);
+            pageText = getPages(first, last)[page - first];
+        }
+        return pageText.charAt(position - page * CLOB_PAGE_SIZE);
     }
 
     /**
@@ -167,7 +344,7 @@ public class ClobAccess implements CharSequence, Lazy
         if ((start == 0) && (end == length)) {
             return this;
         }
-        return new ClobAccess(results, clob, start + offset, end - start);
+        return new ClobAccess(os, clob, sequence, start + offset, end - start);
     }
 
     /**
@@ -188,22 +365,12 @@ public class ClobAccess implements CharSequence, Lazy
     @Override
     public String toString() {
         init();
-        StringBuilder retval = new StringBuilder();
-
-        if (length > 0) {
-            int lowestPage = offset / CLOB_PAGE_SIZE;
-            int highestPage = (offset + length - 1) / CLOB_PAGE_SIZE;
-            for (int page = lowestPage; page <= highestPage; page++) {
-                String pageText = (String) results.get(page);
-                if (page == highestPage) {
-                    pageText = pageText.substring(0, offset + length - page * CLOB_PAGE_SIZE);
-                }
-                if (page == lowestPage) {
-                    pageText = pageText.substring(offset - page
-                            * CLOB_PAGE_SIZE, pageText.length());
-                }
-                retval.append(pageText);
-            }
+        StringBuilder retval = new StringBuilder(length);
+        try {
+            appendTo(retval);
+        } catch (IOException e) {
+            // A StringBuilder does not throw IOException
+            throw new RuntimeException(e);
         }
         return retval.toString();
     }
@@ -215,18 +382,64 @@ public class ClobAccess implements CharSequence, Lazy
      * @param out a PrintStream to write the Clob value to
      */
     public void drainToPrintStream(PrintStream out) {
+        try {
+            appendTo(out);
+        } catch (IOException e) {
+            // A PrintStream does not throw IOException
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Sends the entire contents of the Clob into the given Writer, without holding more than a
+     * batch of pages in memory.
+     *
+     * @param out a Writer to write the Clob value to
+     * @throws IOException if the Writer throws one
+     */
+    public void drainToWriter(Writer out) throws IOException {
+        appendTo(out);
+    }
+
+    /**
+     * Sends the entire contents of the Clob into the given OutputStream, encoded in the given
+     * character set, without holding more than a batch of pages in memory. The OutputStream is
+     * flushed but not closed.
+     *
+     * @param out an OutputStream to write the Clob value to
+     * @param charsetName the name of the character set to encode the Clob value in
+     * @throws IOException if the OutputStream throws one, or the character set is not supported
+     */
+    public void drainToOutputStream(OutputStream out, String charsetName) throws IOException {
+        Writer writer = new OutputStreamWriter(out, charsetName);
+        appendTo(writer);
+        writer.flush();
+    }
+
+    /**
+     * Appends the contents of this object to an Appendable, reading the pages in runs of at most
+     * STREAM_BATCH pages, so that each run takes one query and only one run is in memory at once.
+     * Subclasses that alter the contents override this method.
+     *
+     * @param out the Appendable to append to
+     * @throws IOException if the Appendable throws one
+     */
+    protected void appendTo(Appendable out) throws IOException {
         init();
-        int lowestPage = offset / CLOB_PAGE_SIZE;
-        int highestPage = (offset + length - 1) / CLOB_PAGE_SIZE;
-        for (int page = lowestPage; page <= highestPage; page++) {
-            String pageText = (String) results.get(page);
-            if (page == highestPage) {
-                pageText = pageText.substring(0, offset + length - page * CLOB_PAGE_SIZE);
-            }
-            if (page == lowestPage) {
-                pageText = pageText.substring(offset - page * CLOB_PAGE_SIZE, pageText.length());
+        if (length > 0) {
+            int lowestPage = offset / CLOB_PAGE_SIZE;
+            int highestPage = (offset + length - 1) / CLOB_PAGE_SIZE;
+            for (int first = lowestPage; first <= highestPage; first += STREAM_BATCH) {
+                int last = Math.min(first + STREAM_BATCH, highestPage + 1);
+                String[] pages = getPages(first, last);
+                for (int page = first; page < last; page++) {
+                    String pageText = pages[page - first];
+                    int start = (page == lowestPage ? offset - page * CLOB_PAGE_SIZE : 0);
+                    int end = (page == highestPage ? offset + length - page * CLOB_PAGE_SIZE
+                            : pageText.length());
+                    out.append(pageText, start, end);
+                }
             }
-            out.print(pageText);
         }
     }
 
@@ -263,16 +476,6 @@ public class ClobAccess implements CharSequence, Lazy
         return length;
     }
 
-    /**
-     * Returns the (possibly uninitialised) results object used internally by this object, for use
-     * by subclass constructors.
-     *
-     * @return a SingletonResults object
-     */
-    public SingletonResults getResultsWithoutInit() {
-        return results;
-    }
-
     /**
      * Returns true if this object is a subsequence of a main Clob.
      *
@@ -298,11 +501,14 @@ public class ClobAccess implements CharSequence, Lazy
      */
     public static ClobAccess decodeDbDescription(ObjectStore os, String description) {
         String[] parts = description.split(",");
-        ClobAccess clob = new ClobAccess(os, new Clob(Integer.parseInt(parts[0])));
+        ClobAccess clob;
         if (parts.length >= 3) {
-            int offset = Integer.parseInt(parts[1]);
-            int length = Integer.parseInt(parts[2]);
-            clob = clob.subSequence(offset, offset + length);
+            // The offset and length are known, so there is no need to read the length of the
+            // whole Clob from the database
+            clob = new ClobAccess(os, new Clob(Integer.parseInt(parts[0])), null,
+                    Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+        } else {
+            clob = new ClobAccess(os, new Clob(Integer.parseInt(parts[0])));
         }
         String className = null;
         if (parts.length == 2) {
@@ -0,0 +1,188 @@
+package org.intermine.objectstore.query;
+
+/*
+ * Copyright (C) 2002-2016 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import org.intermine.objectstore.ObjectStore;
+import org.intermine.util.TinyLfuCacheMap;
+
+/**
+ * A cache of the pages of Clobs, shared by all the ClobAccess objects in this JVM, so that many
+ * subsequences of the same Clob, such as the sequences of the features on a chromosome, do not
+ * each read the same pages from the database. The lengths of Clobs are cached too. The cache holds
+ * up to a maximum number of characters.
+ * <p>
+ * Each page and length is stored with the sequence number of its Clob in the ObjectStore at the
+ * time it was read, and is ignored if the Clob has been altered since then. Pages read through an
+ * ObjectStoreWriter inside a transaction must not be cached, as they may not have been committed.
+ *
+ * @author agent
+ */
+public final class ClobPageCache
+{
+    /** The default maximum number of characters to hold */
+    public static final long DEFAULT_MAXIMUM_CHARS = 16L * 1024 * 1024;
+    private static final int LENGTH_WEIGHT = 16;
+
+    private static final ClobPageCache INSTANCE = new ClobPageCache();
+
+    private volatile TinyLfuCacheMap<Key, Entry> cache;
+
+    private ClobPageCache() {
+        setMaximumChars(DEFAULT_MAXIMUM_CHARS);
+    }
+
+    /**
+     * Returns the cache for this JVM.
+     *
+     * @return a ClobPageCache
+     */
+    public static ClobPageCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Sets the maximum number of characters held in the cache, replacing the cache with an empty
+     * one. A size of zero switches the cache off.
+     *
+     * @param maximumChars the maximum number of characters
+     */
+    public void setMaximumChars(long maximumChars) {
+        cache = new TinyLfuCacheMap<Key, Entry>("Clob page cache", maximumChars,
+                new TinyLfuCacheMap.Weigher<Key, Entry>() {
+                    public int weigh(Key key, Entry value) {
+                        return value.text == null ? LENGTH_WEIGHT : value.text.length();
+                    }
+                });
+    }
+
+    /**
+     * Returns a page of a Clob, if it is in the cache and the Clob has not been altered since.
+     *
+     * @param os the ObjectStore the Clob is read through
+     * @param clob the Clob
+     * @param page the page number
+     * @param sequence the current sequence number of the Clob in the ObjectStore
+     * @return the text of the page, or null if it is not in the cache
+     */
+    public String getPage(ObjectStore os, Clob clob, int page, Integer sequence) {
+        Entry entry = cache.get(new Key(os, clob.getClobId(), page));
+        return ((entry != null) && entry.sequence.equals(sequence)) ? entry.text : null;
+    }
+
+    /**
+     * Adds a page of a Clob to the cache.
+     *
+     * @param os the ObjectStore the Clob was read through
+     * @param clob the Clob
+     * @param page the page number
+     * @param sequence the sequence number of the Clob in the ObjectStore when it was read
+     * @param text the text of the page
+     */
+    public void putPage(ObjectStore os, Clob clob, int page, Integer sequence, String text) {
+        cache.put(new Key(os, clob.getClobId(), page), new Entry(sequence, text, 0));
+    }
+
+    /**
+     * Returns the length of a Clob, if it is in the cache and the Clob has not been altered since.
+     *
+     * @param os the ObjectStore the Clob is read through
+     * @param clob the Clob
+     * @param sequence the current sequence number of the Clob in the ObjectStore
+     * @return the length, or -1 if it is not in the cache
+     */
+    public int getLength(ObjectStore os, Clob clob, Integer sequence) {
+        Entry entry = cache.get(new Key(os, clob.getClobId(), -1));
+        return ((entry != null) && entry.sequence.equals(sequence)) ? entry.length : -1;
+    }
+
+    /**
+     * Adds the length of a Clob to the cache.
+     *
+     * @param os the ObjectStore the Clob was read through
+     * @param clob the Clob
+     * @param sequence the sequence number of the Clob in the ObjectStore when it was read
+     * @param length the length of the Clob
+     */
+    public void putLength(ObjectStore os, Clob clob, Integer sequence, int length) {
+        cache.put(new Key(os, clob.getClobId(), -1), new Entry(sequence, null, length));
+    }
+
+    /**
+     * Removes everything from the cache.
+     */
+    public void clear() {
+        cache.clear();
+    }
+
+    /**
+     * Returns the number of pages and lengths in the cache.
+     *
+     * @return an int
+     */
+    public int size() {
+        return cache.size();
+    }
+
+    /**
+     * Returns a summary of the cache statistics, for log messages.
+     *
+     * @return a String
+     */
+    public String getStatistics() {
+        TinyLfuCacheMap<Key, Entry> c = cache;
+        return "Clob page cache: " + c.size() + " entries, " + c.getWeightedSize() + " of "
+            + c.getMaximumWeight() + " characters, " + c.getEvictionCount() + " evicted";
+    }
+
+    /**
+     * The key of a page of a Clob, or of its length if the page number is -1. ObjectStores are
+     * compared by identity.
+     */
+    private static class Key
+    {
+        private final ObjectStore os;
+        private final int clobId;
+        private final int page;
+
+        Key(ObjectStore os, int clobId, int page) {
+            this.os = os;
+            this.clobId = clobId;
+            this.page = page;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o instanceof Key) {
+                Key k = (Key) o;
+                return (os == k.os) && (clobId == k.clobId) && (page == k.page);
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(os) + 1013 * clobId + 31 * page;
+        }
+    }
+
+    private static class Entry
+    {
+        private final Integer sequence;
+        private final String text;
+        private final int length;
+
+        Entry(Integer sequence, String text, int length) {
+            this.sequence = sequence;
+            this.text = text;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,415 @@
+package org.intermine.objectstore.query;
+
+/*
+ * Copyright (C) 2002-2016 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A read-only batch of rows held as columns rather than as ResultsRow objects, for queries that
+ * select only attribute values. Integers, longs and doubles are held in primitive arrays, and
+ * Strings are dictionary-encoded, so a batch of a million rows costs a few arrays rather than
+ * millions of wrapper objects.
+ * <p>
+ * This is also a List of ResultsRow objects, so that existing code can read it row by row. Each
+ * call to get builds a new ResultsRow, boxing the values of that row, so callers that read a lot of
+ * data should use getColumn instead. Changes made to the ResultsRow objects are not kept.
+ *
+ * @author agent
+ */
+public class ColumnarResults extends AbstractList<ResultsRow<Object>>
+{
+    private final Column[] columns;
+    private final int size;
+
+    /**
+     * Constructs a ColumnarResults object from filled columns, which must all be the same size.
+     *
+     * @param columns the columns, in the order of the SELECT list of the query
+     */
+    public ColumnarResults(List<Column> columns) {
+        this.columns = columns.toArray(new Column[columns.size()]);
+        this.size = (this.columns.length == 0 ? 0 : this.columns[0].size());
+        for (Column column : this.columns) {
+            if (column.size() != size) {
+                throw new IllegalArgumentException("Columns have different sizes: " + columns);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of columns.
+     *
+     * @return an int
+     */
+    public int getColumnCount() {
+        return columns.length;
+    }
+
+    /**
+     * Returns a column.
+     *
+     * @param index the index of the column in the SELECT list of the query
+     * @return a Column
+     */
+    public Column getColumn(int index) {
+        return columns[index];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns a row, boxing its values.
+     *
+     * @param row the index of the row
+     * @return a new ResultsRow
+     */
+    @Override
+    public ResultsRow<Object> get(int row) {
+        if ((row < 0) || (row >= size)) {
+            throw new IndexOutOfBoundsException("Index: " + row + ", Size: " + size);
+        }
+        ResultsRow<Object> retval = new ResultsRow<Object>();
+        for (Column column : columns) {
+            retval.add(column.getObject(row));
+        }
+        return retval;
+    }
+
+    /**
+     * A column of values. Values are appended by whatever builds the results, and are read by row
+     * index.
+     */
+    public abstract static class Column
+    {
+        protected int size = 0;
+        protected BitSet nulls = null;
+
+        /**
+         * Returns the number of values in the column.
+         *
+         * @return an int
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Returns whether a value is null.
+         *
+         * @param row the index of the row
+         * @return a boolean
+         */
+        public boolean isNull(int row) {
+            return (nulls != null) && nulls.get(row);
+        }
+
+        /**
+         * Appends a null value.
+         */
+        public void addNull() {
+            if (nulls == null) {
+                nulls = new BitSet();
+            }
+            nulls.set(size);
+            addDefault();
+        }
+
+        /**
+         * Appends the default value of the column type, for a null.
+         */
+        protected abstract void addDefault();
+
+        /**
+         * Returns a value as an Object, boxing it if it is primitive.
+         *
+         * @param row the index of the row
+         * @return an Object, or null
+         */
+        public abstract Object getObject(int row);
+
+        /**
+         * Returns whether an array of the given length must be enlarged to append a value.
+         *
+         * @param capacity the length of the array
+         * @return a boolean
+         */
+        protected boolean isFull(int capacity) {
+            return size >= capacity;
+        }
+
+        /**
+         * Returns the length to enlarge a full array to.
+         *
+         * @return an int
+         */
+        protected int newCapacity() {
+            return Math.max(16, size * 2);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString() {
+            return getClass().getSimpleName() + " of size " + size;
+        }
+    }
+
+    /**
+     * A column of int values.
+     */
+    public static class IntColumn extends Column
+    {
+        private int[] values = new int[0];
+
+        /**
+         * Appends a value.
+         *
+         * @param value the value
+         */
+        public void add(int value) {
+            if (isFull(values.length)) {
+                values = Arrays.copyOf(values, newCapacity());
+            }
+            values[size++] = value;
+        }
+
+        @Override
+        protected void addDefault() {
+            add(0);
+        }
+
+        /**
+         * Returns a value, which is zero if the value is null.
+         *
+         * @param row the index of the row
+         * @return an int
+         */
+        public int getInt(int row) {
+            return values[row];
+        }
+
+        @Override
+        public Object getObject(int row) {
+            return isNull(row) ? null : new Integer(values[row]);
+        }
+    }
+
+    /**
+     * A column of long values.
+     */
+    public static class LongColumn extends Column
+    {
+        private long[] values = new long[0];
+
+        /**
+         * Appends a value.
+         *
+         * @param value the value
+         */
+        public void add(long value) {
+            if (isFull(values.length)) {
+                values = Arrays.copyOf(values, newCapacity());
+            }
+            values[size++] = value;
+        }
+
+        @Override
+        protected void addDefault() {
+            add(0L);
+        }
+
+        /**
+         * Returns a value, which is zero if the value is null.
+         *
+         * @param row the index of the row
+         * @return a long
+         */
+        public long getLong(int row) {
+            return values[row];
+        }
+
+        @Override
+        public Object getObject(int row) {
+            return isNull(row) ? null : new Long(values[row]);
+        }
+    }
+
+    /**
+     * A column of double values.
+     */
+    public static class DoubleColumn extends Column
+    {
+        private double[] values = new double[0];
+
+        /**
+         * Appends a value.
+         *
+         * @param value the value
+         */
+        public void add(double value) {
+            if (isFull(values.length)) {
+                values = Arrays.copyOf(values, newCapacity());
+            }
+            values[size++] = value;
+        }
+
+        @Override
+        protected void addDefault() {
+            add(0.0);
+        }
+
+        /**
+         * Returns a value, which is zero if the value is null.
+         *
+         * @param row the index of the row
+         * @return a double
+         */
+        public double getDouble(int row) {
+            return values[row];
+        }
+
+        @Override
+        public Object getObject(int row) {
+            return isNull(row) ? null : new Double(values[row]);
+        }
+    }
+
+    /**
+     * A column of Strings, each of which is held once in a dictionary and referred to by its code,
+     * which is its index in the dictionary.
+     */
+    public static class StringColumn extends Column
+    {
+        private int[] codes = new int[0];
+        private final List<String> dictionary = new ArrayList<String>();
+        private final Map<String, Integer> codesByString = new HashMap<String, Integer>();
+
+        /**
+         * Appends a value.
+         *
+         * @param value the value, or null
+         */
+        public void add(String value) {
+            if (value == null) {
+                addNull();
+            } else {
+                Integer code = codesByString.get(value);
+                if (code == null) {
+                    code = new Integer(dictionary.size());
+                    dictionary.add(value);
+                    codesByString.put(value, code);
+                }
+                addCode(code.intValue());
+            }
+        }
+
+        private void addCode(int code) {
+            if (isFull(codes.length)) {
+                codes = Arrays.copyOf(codes, newCapacity());
+            }
+            codes[size++] = code;
+        }
+
+        @Override
+        protected void addDefault() {
+            addCode(-1);
+        }
+
+        @Override
+        public boolean isNull(int row) {
+            return codes[row] == -1;
+        }
+
+        /**
+         * Returns the dictionary code of a value.
+         *
+         * @param row the index of the row
+         * @return the index of the value in the dictionary, or -1 if the value is null
+         */
+        public int getCode(int row) {
+            return codes[row];
+        }
+
+        /**
+         * Returns the distinct values of the column, indexed by code.
+         *
+         * @return an unmodifiable List of Strings
+         */
+        public List<String> getDictionary() {
+            return Collections.unmodifiableList(dictionary);
+        }
+
+        /**
+         * Returns a value.
+         *
+         * @param row the index of the row
+         * @return a String, or null
+         */
+        public String getString(int row) {
+            int code = codes[row];
+            return (code == -1 ? null : dictionary.get(code));
+        }
+
+        @Override
+        public Object getObject(int row) {
+            return getString(row);
+        }
+    }
+
+    /**
+     * A column of values of any other type, held as Objects.
+     */
+    public static class ObjectColumn extends Column
+    {
+        private Object[] values = new Object[0];
+
+        /**
+         * Appends a value.
+         *
+         * @param value the value, or null
+         */
+        public void add(Object value) {
+            if (isFull(values.length)) {
+                values = Arrays.copyOf(values, newCapacity());
+            }
+            values[size++] = value;
+        }
+
+        @Override
+        protected void addDefault() {
+            add(null);
+        }
+
+        @Override
+        public boolean isNull(int row) {
+            return values[row] == null;
+        }
+
+        @Override
+        public Object getObject(int row) {
+            return values[row];
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package org.intermine.objectstore.query;
+
+/*
+ * Copyright (C) 2002-2016 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Iterator;
+
+/**
+ * A ResultsCursor that wraps an ordinary Iterator, and therefore holds no database resources of
+ * its own.
+ *
+ * @author agent
+ */
+public class IteratorResultsCursor implements ResultsCursor
+{
+    private Iterator<Object> iter;
+
+    /**
+     * Constructor.
+     *
+     * @param iter the Iterator to wrap
+     */
+    public IteratorResultsCursor(Iterator<Object> iter) {
+        this.iter = iter;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean hasNext() {
+        return iter.hasNext();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Object next() {
+        return iter.next();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close() {
+        // Nothing to release
+    }
+}
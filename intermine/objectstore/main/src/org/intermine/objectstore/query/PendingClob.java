@@ -10,6 +10,8 @@ package org.intermine.objectstore.query;
  *
  */
 
+import java.io.IOException;
+
 import org.intermine.objectstore.ObjectStore;
 
 /**
@@ -92,6 +94,14 @@ public class PendingClob extends ClobAccess
         return text;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void appendTo(Appendable out) throws IOException {
+        out.append(text);
+    }
+
     /**
      * {@inheritDoc}
      */
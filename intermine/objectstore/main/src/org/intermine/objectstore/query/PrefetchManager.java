@@ -10,16 +10,32 @@ package org.intermine.objectstore.query;
  *
  */
 
-import java.util.Collections;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.sql.QueryMetrics;
 
 /**
- * A manager for the prefetch mechanism for the Results object.
+ * A manager for the prefetch mechanism for the Results object. Prefetch requests are run by a
+ * bounded pool of daemon threads, with a bounded queue. Requests that arrive while the queue is
+ * full are dropped, as the Results will fetch the batch itself when it needs it. How far ahead
+ * each Results object prefetches is decided by the Results object, up to a global maximum depth.
+ * The ObjectStore sets the number of threads and the maximum depth from the
+ * os.query.prefetch-threads and os.query.prefetch-max-depth properties.
  *
  * @author Matthew Wakeling
  */
@@ -29,16 +45,44 @@ public final class PrefetchManager
     }
 
     private static final Logger LOG = Logger.getLogger(PrefetchManager.class);
-    /** Pending set of requests - always accessed inside a synchronise on sync. */
-    protected static Set<Request> pending = new HashSet<Request>();
-    /** Set of requests currently being serviced. This Set is not accessed inside a block
-     * synchronised on any global object, so it must be able to handle concurrent access. */
-    protected static Set<Request> serviced = Collections.synchronizedSet(new HashSet<Request>());
-    protected static int serviceThreads = 0;
-    private static Object sync = new Object();
 
+    /** The default number of threads servicing prefetch requests */
+    public static final int DEFAULT_THREADS = 8;
+    /** The default maximum number of batches that a Results object may prefetch ahead */
+    public static final int DEFAULT_MAX_DEPTH = 8;
+    /** The number of requests per thread that may be queued before new requests are dropped */
     protected static final int LOADING = 3;
 
+    /** Requests that have been queued or are being serviced, against the task servicing them. */
+    protected static ConcurrentMap<Request, RequestTask> inFlight
+        = new ConcurrentHashMap<Request, RequestTask>();
+    private static ThreadPoolExecutor executor;
+    private static int maxDepth = DEFAULT_MAX_DEPTH;
+
+    private static AtomicLong requested = new AtomicLong();
+    private static AtomicLong dropped = new AtomicLong();
+    private static AtomicLong prefetched = new AtomicLong();
+    private static AtomicLong hits = new AtomicLong();
+    private static AtomicLong lateHits = new AtomicLong();
+    private static AtomicLong takenOver = new AtomicLong();
+    private static AtomicLong cancelled = new AtomicLong();
+    private static AtomicLong wasted = new AtomicLong();
+
+    static {
+        executor = new ThreadPoolExecutor(DEFAULT_THREADS, DEFAULT_THREADS, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    private int threadNo = 0;
+
+                    public synchronized Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r);
+                        thread.setDaemon(true);
+                        thread.setName("PrefetchManager ServiceThread " + (threadNo++));
+                        return thread;
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
     /*
      * This class provides methods for cancelling requests, so here is an explanation of how this
      * magic works.
@@ -56,22 +100,22 @@ public final class PrefetchManager
      * be the same, but other times they will not.
      *
      * The PrefetchManager works with PrefetchManager.Request objects, which represent a unit of
-     * work to perform. These can be used as request ID objects to hand to the ObjectStore. So,
-     * Threads should register request ID objects with this PrefetchManager, in the same way as
-     * with the ObjectStore. When a cancel request comes in, the PrefetchManager will then be able
-     * to match that against a Request object. A request ID matches a PrefetchManager.Request
-     * object if a Thread with that request ID is currently inside the PrefetchManager.doRequest()
-     * method. There are several scenarios:
+     * work to perform, and are serviced by a RequestTask. The threads of the prefetch pool never
+     * have a request ID. A RequestTask is run by exactly one thread - either a prefetch thread,
+     * or a user thread that needs the batch before a prefetch thread has picked the task up, in
+     * which case the user thread takes the task over and runs it with its own request ID. There
+     * are several scenarios for a thread with a request ID inside doRequest():
      * 1. The thread is doing the work itself, and it is the only one that needs that data.
      *       -> dead simple, just cancel the request.
      * 2. The thread is doing the work itself, but there are other threads waiting for the same
      *    data.
-     *       -> Policy decision to be made. Probably cancel the request, and let the other threads
-     *          start again.
+     *       -> The request is cancelled, and the other threads receive the failure from the task,
+     *          and start again, fetching the batch themselves.
      * 3. The thread is waiting for another thread to finish the work, and there are no other
      *    threads waiting for the data.
-     *       -> In this case, the thread that is doing the work is guaranteed to be a prefetch
-     *          thread, so it can just be cancelled.
+     *       -> The work is left to finish and be cached, as it is not being done on behalf of the
+     *          cancelled thread, and the next action of the cancelled thread will throw an
+     *          exception.
      * 4. The thread is waiting for another thread to finish the work, but there are other threads
      *    waiting for the same data. Another thread waiting for the data will be any thread that
      *    is inside the doRequest() method with that PrefetchManager.Request object, regardless of
@@ -79,10 +123,14 @@ public final class PrefetchManager
      *      -> The thread that is doing the work may or may not be a prefetch thread. In either
      *         case, the waiting thread should be kicked out of the doRequest() method without
      *         jeopardising the thread that is performing the work.
+     *
+     * Results objects that have been told setNoPrefetch() never add requests, so cancelling their
+     * request ID never leaves the database busy with work done on their behalf.
      */
 
     /**
-     * Adds a request to the Set of pending requests, and wakes up a Thread to handle it.
+     * Adds a request to the queue of the prefetch pool, unless the batch has already been
+     * fetched or is already being fetched. If the queue is full, the request is dropped.
      *
      * @param result a ResultsBatches object that is making the request
      * @param batchNo the batch number to be fetched
@@ -92,39 +140,46 @@ public final class PrefetchManager
     public static void addRequest(ResultsBatches result, int batchNo, boolean optimise,
             boolean explain) {
         Request request = new Request(result, batchNo, optimise, explain);
-        synchronized (sync) {
-            synchronized (result) {
-                // Synchronise on BOTH locks, so we can muck about with anything.
-                if (!result.batches.containsKey(new Integer(batchNo))) {
-                    // The request has not been done.
-                    if (!serviced.contains(request)) {
-                        // And it isn't currently being serviced.
-                        //if (!pending.contains(request)) {
-                        //    LOG.debug("addRequest - adding request:                          "
-                        //            + request);
-                        //}
-                        pending.add(request);
-                        if ((pending.size() + serviced.size()) > (serviceThreads * LOADING)) {
-                            // There are too many requests for the servicing threads.
-                            Thread newThread = new ServiceThread();
-                            newThread.setDaemon(true);
-                            newThread.setName("PrefetchManager ServiceThread");
-                            newThread.start();
-                            serviceThreads++;
-                            LOG.info("addRequest - creating new ServiceThread. We now have "
-                                    + serviceThreads);
-                        } else {
-                            // There may or may not be a service thread waiting. If not, a service
-                            // thread will soon finish a request.
-                            sync.notify();
-                        }
-                    //} else {
-                        //LOG.debug("addRequest - the request is currently being serviced: "
-                        //        + request);
-                    }
-                //} else {
-                    //LOG.debug("addRequest - the request has already been done:       " + request);
-                }
+        if (result.batches.containsKey(new Integer(batchNo))) {
+            return;
+        }
+        RequestTask task = new RequestTask(request);
+        task.queued = true;
+        if (inFlight.putIfAbsent(request, task) == null) {
+            requested.incrementAndGet();
+            if (executor.getQueue().size() >= executor.getMaximumPoolSize() * LOADING) {
+                // There are too many requests for the servicing threads.
+                dropped.incrementAndGet();
+                inFlight.remove(request, task);
+                return;
+            }
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                dropped.incrementAndGet();
+                inFlight.remove(request, task);
+            }
+        }
+    }
+
+    /**
+     * Cancels the prefetch requests of a ResultsBatches object for a range of batches that have
+     * not yet been picked up by a prefetch thread, and counts any batches in the range that were
+     * prefetched but not used as wasted. This is called by a Results object when its consumer
+     * stops reading sequentially.
+     *
+     * @param result the ResultsBatches object that made the requests
+     * @param fromBatchNo the first batch number to cancel
+     * @param toBatchNo the last batch number to cancel
+     */
+    public static void cancelRequests(ResultsBatches result, int fromBatchNo, int toBatchNo) {
+        for (int batchNo = fromBatchNo; batchNo <= toBatchNo; batchNo++) {
+            RequestTask task = inFlight.get(new Request(result, batchNo, false, false));
+            if ((task != null) && task.claim(false)) {
+                task.cancel(false);
+                cancelled.incrementAndGet();
+            } else if (result.prefetched.remove(new Integer(batchNo))) {
+                wasted.incrementAndGet();
             }
         }
     }
@@ -147,8 +202,9 @@ public final class PrefetchManager
     }
 
     /**
-     * Returns the batch described by the request. If the batch is not already available, then the
-     * current thread fetches it.
+     * Returns the batch described by the request. If the batch is not already available, then
+     * either the current thread fetches it, or it waits for the prefetch thread that is fetching
+     * it.
      *
      * @param request a Request object
      * @return a List containing the contents of the batch
@@ -156,159 +212,249 @@ public final class PrefetchManager
      * @throws IndexOutOfBoundsException if the batch is off the end of the results
      */
     protected static List<Object> doRequest(Request request) throws ObjectStoreException {
-        boolean needToWait = false;
-        List<Object> retval = null;
-
-        synchronized (sync) {
-            synchronized (request.result) {
-                // Synchronise on BOTH locks, so we can muck about with anything.
-                // Note, that to avoid deadlocks, we should never lock these two in the opposite
-                // order, or call wait on either of these locks where a notify needs to obtain
-                // the other one. We shouldn't call wait in here anyway really.
-                // We need both locks, because we need to exclude the possibility that someone
-                // finishes a request between us checking to see if it is already fetched, and
-                // checking if we need to wait for someone to finish fetching it.
-                retval = request.result.batches.get(new Integer(request.batchNo));
-                if (retval != null) {
-                    // The batch has already been fetched.
-                    //LOG.debug("doRequest - the request has already been done:        " + request);
-                    return retval;
-                }
-                if (pending.contains(request)) {
-                    // The request is pending.
-                    // If it is pending, then we wish it to be serviced by US. Therefore, we
-                    // need to move it to serviced state and do it.
-                    // The request is not being serviced. We take over.
-                    serviced.add(request);
-                    pending.remove(request);
-                    //LOG.debug("doRequest - the request was pending:                  " + request);
-                } else if (serviced.contains(request)) {
-                    // The request is being serviced. We just need to wait.
-                    needToWait = true;
-                    //LOG.debug("doRequest - the request is currently being serviced:  " + request);
-                } else {
-                    // The request has never been seen before. Therefore, we should add it to the
-                    // serviced set, and handle it.
-                    serviced.add(request);
-                    //LOG.debug("doRequest - new request:                              " + request);
+        Integer batchNo = new Integer(request.batchNo);
+        List<Object> retval = request.result.batches.get(batchNo);
+        if (retval != null) {
+            if (request.result.prefetched.remove(batchNo)) {
+                hits.incrementAndGet();
+            }
+            return retval;
+        }
+        if (request.result.prefetched.remove(batchNo)) {
+            // The batch was prefetched, but the garbage collector got to it first
+            wasted.incrementAndGet();
+        }
+        RequestTask task = inFlight.get(request);
+        if ((task != null) && task.isDone()) {
+            // FutureTask wakes its waiters before done() removes it from inFlight, so a task that
+            // has already finished may still be found here. It must not be waited on again.
+            inFlight.remove(request, task);
+            task = null;
+        }
+        if (task == null) {
+            RequestTask newTask = new RequestTask(request);
+            task = inFlight.putIfAbsent(request, newTask);
+            if (task == null) {
+                task = newTask;
+            }
+        }
+        if (task.claim(false)) {
+            // Nobody is servicing the request, or it is still queued, so we service it ourselves,
+            // under our own request ID. A queued task claimed in this way does nothing when a
+            // prefetch thread reaches it.
+            if (task.queued) {
+                takenOver.incrementAndGet();
+            }
+            task.runClaimed();
+            try {
+                return task.get();
+            } catch (InterruptedException e) {
+                // Cannot happen, as the task has finished
+                throw new ObjectStoreException(e);
+            } catch (ExecutionException e) {
+                inFlight.remove(request, task);
+                Throwable cause = e.getCause();
+                if (cause instanceof ObjectStoreException) {
+                    throw (ObjectStoreException) cause;
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
                 }
+                throw new ObjectStoreException(cause);
             }
         }
-
-        // At this stage, there is a limited set of states that we can be in. Either
-        // 1. We need to wait for another thread to finish servicing the request. In this case, we
-        //     know for sure that our request was in serviced when we left the synchronised block.
-        //     However, since this is a GAP between synchronising, another thread could finish the
-        //     request before we synchronise again. Therefore, we should check after we have
-        //     synchronised again.
-        // 2. We need to do the request ourselves. In this case, we set the PrefetchManager state
-        //     so that anything else to do with this request waits for us rather than changing the
-        //     state while we were in the synchronised block.
-
-        if (needToWait) {
-            synchronized (request.result) {
-                // We are synchronised. Now, no thread can report that the request is finished until
-                // we release the lock.
-                // First, check that someone didn't finish during the GAP.
-                if (serviced.contains(request)) {
-                    // Noone finished, so we can wait for that to happen.
-                    //LOG.debug("doRequest - waiting for another thread to finish:     " + request);
-                    try {
-                        request.result.wait();
-                    } catch (InterruptedException e) {
-                        // Ignore interruption.
+        // Another thread is servicing the request, so we wait for it to finish.
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    retval = task.get();
+                    if (task.byPrefetchThread) {
+                        request.result.prefetched.remove(batchNo);
+                        lateHits.incrementAndGet();
                     }
+                    return retval;
+                } catch (InterruptedException e) {
+                    // Ignore interruption, but pass it on when we are done.
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    // The other thread failed, so try again with a new task, so that we throw the
+                    // correct exception for our own request.
+                    inFlight.remove(request, task);
+                    return doRequest(request);
+                } catch (CancellationException e) {
+                    inFlight.remove(request, task);
+                    return doRequest(request);
                 }
-                // At this point, either our wait was interrupted by notifyAll(), or someone has
-                // removed the request from serviced. Either way, we can't be absolutely sure that
-                // result.batches contains the batch we want, for several reasons. So we recurse.
-                // Reasons:
-                // 1. request.result.batches may be a WeakHashMap, in which case the batch may have
-                //     been removed from it by the garbage collector since it was added.
-                // 2. The object we are waiting for is a result. A notify that we might have
-                //     received could have been for a different request.
-                // 3. The request is a dud, so the thread that was servicing the request received
-                //     an exception. Under this circumstance, that thread should still remove the
-                //     request from the serviced set, and notify other threads waiting for the
-                //     request. This allows threads waiting to do the operation themselves, and
-                //     therefore return back the correct exception.
             }
-            retval = doRequest(request);
-        } else {
-            try {
-                //LOG.debug("doRequest - servicing request:                        " + request);
-                // Now, we can service this request in a normal manner, outside all locks.
-                retval = request.result.fetchBatchFromObjectStore(request.batchNo, request.optimise,
-                        request.explain);
-            } finally {
-                // And then report that it is finished, inside a lock, even if we did get an
-                // exception.
-                reportDone(request);
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
             }
         }
+    }
 
-        return retval;
+    /**
+     * Records that a batch that was needed had already been prefetched.
+     */
+    static void recordHit() {
+        hits.incrementAndGet();
     }
 
     /**
-     * Allows a system to report that it has finished servicing a particular request.
+     * Sets the number of threads servicing prefetch requests. The queue holds LOADING requests
+     * per thread.
      *
-     * @param request the request that has been done
+     * @param threads the number of threads
      */
-    protected static void reportDone(Request request) {
-        synchronized (request.result) {
-            //LOG.debug("reportDone - finished request:                        " + request);
-            serviced.remove(request);
-            request.result.notifyAll();
+    public static synchronized void setThreads(int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Prefetch threads must be greater than zero - tried"
+                    + " to set to " + threads);
+        }
+        if (threads > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(threads);
+            executor.setCorePoolSize(threads);
+        } else {
+            executor.setCorePoolSize(threads);
+            executor.setMaximumPoolSize(threads);
         }
     }
 
     /**
-     * Returns a request for a thread to service.
+     * Returns the maximum number of batches that a Results object may prefetch ahead of the
+     * batch that is being read.
      *
-     * @return a request to service
+     * @return the maximum prefetch depth
      */
-    protected static Request getRequest() {
-        Request retval;
-        synchronized (sync) {
-            while (pending.isEmpty()) {
-                // There are no requests to get - wait for a notify.
-                //LOG.debug("getRequest - waiting for a request");
-                try {
-                    sync.wait();
-                } catch (InterruptedException e) {
-                    // Ignore interruption.
-                }
-            }
-            // Get a request from the pending set. We know there is something in there, because we
-            // just got false from pending.isEmpty, and we have the lock on sync, and nothing
-            // touches pending unless they have that lock.
-            retval = pending.iterator().next();
-            //LOG.debug("getRequest - got request:                             " + retval);
-            // Now we have a request, we could synchronise by its result - other things look
-            // for the request in serviced - namely:
-            // 1. addRequest doesn't add a request to pending if it already in serviced. However,
-            //     that doesn't matter, because it is already synchronised on sync. Otherwise, you
-            //     might have had the situation where a request appears in both pending and serviced
-            //     sets.
-            // 2. doRequest also moves items from pending to serviced, but that doesn't matter
-            //     because it is also synchronised on sync. Otherwise you could have two threads
-            //     servicing the same request, which could possibly leave other requests not being
-            //     serviced while a service thread sleeps.
-            // 3. doRequest decides whether to wait on whether there is a request in serviced, but
-            //     this also does not matter, as it can only be broken by a thread removing a
-            //     request from serviced outside a synchronised block.
-            // 4. reportDone removes an entry from serviced, which does not matter, because it will
-            //     only break something that is broken by things being removed from serviced outside
-            //     a sync lock.
-            // Basically, we never check to see if the batch has already been fetched before
-            // checking to see if anyone is fetching it - we only put the request in serviced.
-            // Therefore, we do not need to synchronise by request.result here.
-
-            serviced.add(retval);
-            pending.remove(retval);
-        }
-        return retval;
+    public static int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Sets the maximum number of batches that a Results object may prefetch ahead of the batch
+     * that is being read.
+     *
+     * @param depth the maximum prefetch depth
+     */
+    public static void setMaxDepth(int depth) {
+        maxDepth = depth;
+    }
+
+    /**
+     * Returns the number of prefetch requests that have been queued.
+     *
+     * @return a long
+     */
+    public static long getRequestCount() {
+        return requested.get();
+    }
+
+    /**
+     * Returns the number of prefetch requests that were dropped because the queue was full.
+     *
+     * @return a long
+     */
+    public static long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Returns the number of batches fetched by prefetch threads.
+     *
+     * @return a long
+     */
+    public static long getPrefetchedCount() {
+        return prefetched.get();
+    }
+
+    /**
+     * Returns the number of times a batch that was needed had already been prefetched.
+     *
+     * @return a long
+     */
+    public static long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of times a batch that was needed was still being prefetched, so the
+     * consumer had to wait for it.
+     *
+     * @return a long
+     */
+    public static long getLateHitCount() {
+        return lateHits.get();
+    }
+
+    /**
+     * Returns the number of times a batch that was needed was still queued for prefetching, so
+     * the consumer fetched it itself.
+     *
+     * @return a long
+     */
+    public static long getTakenOverCount() {
+        return takenOver.get();
+    }
+
+    /**
+     * Returns the number of queued prefetch requests that were cancelled because the consumer
+     * stopped reading sequentially.
+     *
+     * @return a long
+     */
+    public static long getCancelledCount() {
+        return cancelled.get();
+    }
+
+    /**
+     * Returns the number of batches that were prefetched but never used, either because the
+     * consumer stopped reading sequentially, or because the garbage collector discarded them.
+     *
+     * @return a long
+     */
+    public static long getWastedCount() {
+        return wasted.get();
+    }
+
+    /**
+     * Returns the proportion of prefetched batches that were needed and ready when they were
+     * needed, or zero if nothing has been prefetched.
+     *
+     * @return a number between zero and one
+     */
+    public static double getHitRate() {
+        long done = prefetched.get();
+        return done == 0 ? 0.0 : ((double) hits.get()) / done;
+    }
+
+    /**
+     * Returns a description of the prefetch statistics, suitable for logging.
+     *
+     * @return a String
+     */
+    public static String getStatistics() {
+        return "PrefetchManager: " + requested.get() + " requests, " + dropped.get()
+            + " dropped, " + cancelled.get() + " cancelled, " + prefetched.get()
+            + " batches prefetched, " + hits.get() + " hits, " + lateHits.get() + " late hits, "
+            + takenOver.get() + " taken over, " + wasted.get() + " wasted, "
+            + executor.getActiveCount() + " active threads, " + executor.getQueue().size()
+            + " queued";
+    }
+
+    /**
+     * Resets the prefetch statistics.
+     */
+    public static void resetStatistics() {
+        requested.set(0);
+        dropped.set(0);
+        prefetched.set(0);
+        hits.set(0);
+        lateHits.set(0);
+        takenOver.set(0);
+        cancelled.set(0);
+        wasted.set(0);
     }
 
     private static class Request
@@ -341,41 +487,81 @@ public final class PrefetchManager
         }
     }
 
-    private static class ServiceThread extends Thread
+    /**
+     * A task servicing a Request, in either a prefetch thread or a user thread. Whichever thread
+     * claims the task first services the request, and other threads wait for it.
+     */
+    protected static class RequestTask extends FutureTask<List<Object>>
     {
-        @Override
-        public void run() {
-            try {
-                while (true) {
-                    Request request = PrefetchManager.getRequest();
-                    //LOG.debug("ServiceThread.run - servicing request                 " + request);
-                    try {
-                        // Now, we can service this request in a normal manner, outside all locks.
-                        @SuppressWarnings("unused")
-                        List<Object> batch = request.result.fetchBatchFromObjectStore(request
-                                .batchNo, request.optimise, request.explain);
-                    } catch (Exception e) {
-                        LOG.warn("ServiceThread.run - Received exception                " + request
-                                + " " + e);
-                        // We don't care about any exception - we NEED this thread to keep running.
-                        // Otherwise, things go pear-shaped.
-                    } finally {
-                        // And then report that it is finished, inside a lock, even if we did get an
-                        // exception.
-                        reportDone(request);
+        private final Request request;
+        private final AtomicBoolean claimed = new AtomicBoolean(false);
+        private volatile boolean byPrefetchThread = false;
+        private volatile boolean queued = false;
+
+        RequestTask(final Request request) {
+            // Prefetch threads run the task with the caller type of the thread that created it
+            super(QueryMetrics.withCallerType(new Callable<List<Object>>() {
+                public List<Object> call() throws ObjectStoreException {
+                    // The batch may have arrived from another task since this one was created
+                    List<Object> batch = request.result.batches.get(new Integer(request.batchNo));
+                    if (batch != null) {
+                        return batch;
                     }
+                    return request.result.fetchBatchFromObjectStore(request.batchNo,
+                            request.optimise, request.explain);
                 }
-            } catch (Error e) {
-                LOG.error("Failure of PrefetchManager service thread with error", e);
-                throw e;
-            } finally {
-                // Like I said, we REALLY NEED to know if something has gone wrong here, as it is a
-                // BIG BAD BUG.
-                LOG.error("ServiceThread died unexpectedly. PrefetchManager may stop working");
-                // And decrement the count of available ServiceThreads.
-                PrefetchManager.serviceThreads--;
+            }));
+            this.request = request;
+        }
+
+        /**
+         * Claims this task for the current thread.
+         *
+         * @param prefetchThread true if the current thread is a prefetch thread
+         * @return true if the current thread should service the request
+         */
+        boolean claim(boolean prefetchThread) {
+            if (claimed.compareAndSet(false, true)) {
+                byPrefetchThread = prefetchThread;
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Services the request in the current thread, which must have claimed the task.
+         */
+        void runClaimed() {
+            super.run();
+        }
+
+        @Override
+        public void run() {
+            if (claim(true)) {
+                super.run();
+            }
+        }
+
+        @Override
+        protected void set(List<Object> batch) {
+            if (byPrefetchThread) {
+                request.result.prefetched.add(new Integer(request.batchNo));
+                prefetched.incrementAndGet();
             }
+            super.set(batch);
+        }
+
+        @Override
+        protected void setException(Throwable t) {
+            if (byPrefetchThread) {
+                LOG.warn("Prefetch failed for " + request + ": " + t);
+            }
+            super.setException(t);
+        }
+
+        @Override
+        protected void done() {
+            inFlight.remove(request, this);
         }
     }
 }
-
@@ -50,10 +50,18 @@ public class Results extends AbstractList<Object> implements LazyCollection<Obje
     // Some prefetch stuff.
     protected int lastGet = -1;
     protected int sequential = 0;
+    protected int prefetchDepth = 0;
+    protected int prefetchedTo = -1;
     private static final int PREFETCH_SEQUENTIAL_THRESHOLD = 6;
-    // Basically, this keeps a tally of how many times in a row accesses have been sequential.
-    // If sequential gets above a PREFETCH_SEQUENTIAL_THRESHOLD, then we prefetch the batch after
-    // the one we are currently using.
+    // Basically, this keeps a tally of how many rows in a row have been read sequentially.
+    // If sequential gets above a quarter of a batch (and at least PREFETCH_SEQUENTIAL_THRESHOLD),
+    // then we prefetch prefetchDepth batches after the one we are currently using. The depth
+    // starts at one, and doubles (up to PrefetchManager.getMaxDepth()) every time the consumer
+    // moves into a batch that has not arrived yet, so consumers that read faster than the
+    // database can produce batches get a deeper read-ahead. Interactive paging never reads enough
+    // rows in order to switch prefetching on, and any non-sequential access switches it off
+    // again, cancelling the prefetches that have not started yet.
+    // prefetchedTo is the highest batch number that this object has asked to be prefetched.
 
     /**
      * No argument constructor for testing purposes
@@ -118,7 +126,8 @@ public class Results extends AbstractList<Object> implements LazyCollection<Obje
     }
 
     /**
-     * Tells this Results object to never do any background prefetching.
+     * Tells this Results object to never do any background prefetching. Without this, a Results
+     * object that is read sequentially prefetches batches ahead of the reader.
      * This means that Query cancellation via the ObjectStoreInterMineImpl.cancelRequest()
      * will never leave the database busy with cancelled work.
      */
@@ -192,22 +201,50 @@ public class Results extends AbstractList<Object> implements LazyCollection<Obje
         int startBatch = getBatchNoForRow(start);
         int endBatch = getBatchNoForRow(end);
 
+        boolean isSequential = (start - 1 == lastGet);
+        // Find out whether the consumer has caught up with the prefetching
+        boolean starved = false;
+        if (isSequential && (prefetchDepth > 0)) {
+            for (int i = Math.max(startBatch, getBatchNoForRow(lastGet) + 1); i <= endBatch; i++) {
+                if (!resultsBatches.isBatchInCache(i)) {
+                    starved = true;
+                }
+            }
+        }
+
         List<Object> ret = new ArrayList<Object>();
         for (int i = startBatch; i <= endBatch; i++) {
             ret.addAll(resultsBatches.getRowsFromBatch(i, start, end, optimise, explain));
         }
 
-        if (start - 1 == lastGet) {
+        if (isSequential) {
             sequential += end - start + 1;
         } else {
             sequential = 0;
+            if (prefetchDepth > 0) {
+                if (prefetchedTo > endBatch) {
+                    resultsBatches.cancelPrefetch(endBatch + 1, prefetchedTo);
+                }
+                prefetchDepth = 0;
+                prefetchedTo = -1;
+            }
         }
         if ((resultsBatches.getObjectStore() != null)
                 && prefetch
                 && resultsBatches.getObjectStore().isMultiConnection()
-                && (sequential > PREFETCH_SEQUENTIAL_THRESHOLD)
-                && (getBatchNoForRow(resultsBatches.getMaxSize()) > endBatch)) {
-            resultsBatches.prefetch(endBatch + 1, optimise, explain);
+                && (sequential > Math.max(PREFETCH_SEQUENTIAL_THRESHOLD,
+                        resultsBatches.getBatchSize() / 4))) {
+            if (prefetchDepth == 0) {
+                prefetchDepth = 1;
+            } else if (starved) {
+                prefetchDepth = Math.min(prefetchDepth * 2, PrefetchManager.getMaxDepth());
+            }
+            int lastBatch = Math.min(endBatch + prefetchDepth,
+                    getBatchNoForRow(resultsBatches.getMaxSize()));
+            for (int i = Math.max(endBatch, prefetchedTo) + 1; i <= lastBatch; i++) {
+                resultsBatches.prefetch(i, optimise, explain);
+                prefetchedTo = i;
+            }
         }
         lastGet = end;
 
@@ -355,6 +392,50 @@ public class Results extends AbstractList<Object> implements LazyCollection<Obje
         return iter;
     }
 
+    /**
+     * Returns an iterator over the whole of the results that streams rows through a single
+     * database cursor, if the ObjectStore supports it. This is much cheaper than iterator() for
+     * large result sets that are read once from start to finish, because the query is only run
+     * once, rather than once per batch with an increasing OFFSET. Rows read in this way are not
+     * stored in the batch cache. If the ObjectStore cannot stream the query, then this method
+     * falls back to the normal batched iterator.
+     *
+     * The returned cursor releases its database resources when it has been exhausted. If the
+     * caller stops iterating early, then it must call close() on the cursor.
+     *
+     * @param fetchSize the number of rows to read from the database in one go
+     * @return a ResultsCursor
+     */
+    public ResultsCursor streamingIterator(int fetchSize) {
+        ResultsCursor cursor = null;
+        try {
+            cursor = getObjectStore().executeCursor(getQuery(), fetchSize, optimise,
+                    getSequence());
+        } catch (DataChangedException e) {
+            ConcurrentModificationException e2 = new ConcurrentModificationException("ObjectStore"
+                    + " error has occurred (in streamingIterator) - data changed");
+            e2.initCause(e);
+            throw e2;
+        } catch (ObjectStoreException e) {
+            throw new RuntimeException("ObjectStore error has occurred (in streamingIterator)", e);
+        }
+        if (cursor == null) {
+            return new IteratorResultsCursor(iterator());
+        }
+        return decorateCursor(cursor);
+    }
+
+    /**
+     * Converts the rows of a cursor from the ObjectStore into the form returned by this object.
+     * For Results, the rows are already in the correct form.
+     *
+     * @param cursor a ResultsCursor from the ObjectStore, returning ResultsRow objects
+     * @return a ResultsCursor returning objects of the same form as get()
+     */
+    protected ResultsCursor decorateCursor(ResultsCursor cursor) {
+        return cursor;
+    }
+
     private class Iter implements Iterator<Object>
     {
         /**
@@ -419,6 +500,20 @@ public class Results extends AbstractList<Object> implements LazyCollection<Obje
         return resultsBatches;
     }
 
+    /**
+     * Returns a batch of the results in columnar form, so that the values of a column can be
+     * read without boxing each one. Row i of the batch is row (batchNo * getBatchSize() + i) of
+     * these results.
+     *
+     * @param batchNo the batch number (zero-indexed)
+     * @return a ColumnarResults object, or null if the batch is not held in columnar form
+     * @throws ObjectStoreException if an error occurs in the underlying ObjectStore
+     * @throws IndexOutOfBoundsException if the batch is off the end of the results
+     */
+    public ColumnarResults getColumnarBatch(int batchNo) throws ObjectStoreException {
+        return resultsBatches.getColumnarBatch(batchNo, optimise, explain);
+    }
+
     // Results equality is object equality. Hashcodes can be totally random.
     private final int hashCode = new Random().nextInt();
 
@@ -13,8 +13,10 @@ package org.intermine.objectstore.query;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.ConcurrentModificationException;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.intermine.objectstore.DataChangedException;
 import org.intermine.objectstore.ObjectStore;
@@ -47,6 +49,8 @@ public class ResultsBatches
     // A map of batch number against a List of ResultsRows
     protected Map<Integer, List<Object>> batches = Collections.synchronizedMap(
             new CacheMap<Integer, List<Object>>("Results batches"));
+    // The batch numbers of batches that were fetched by the PrefetchManager and not yet used
+    protected Set<Integer> prefetched = Collections.synchronizedSet(new HashSet<Integer>());
 
     /**
      * Construct a new ResultsBatches object. This is generally only called by the Results object.
@@ -122,6 +126,27 @@ public class ResultsBatches
         }
     }
 
+    /**
+     * Returns true if the batch with the given batch number is in memory.
+     *
+     * @param batchNo the batch number
+     * @return a boolean
+     */
+    public boolean isBatchInCache(int batchNo) {
+        return batches.containsKey(new Integer(batchNo));
+    }
+
+    /**
+     * Cancels any prefetching for a range of batches that has not started yet, because the
+     * consumer that asked for it is no longer reading sequentially.
+     *
+     * @param fromBatchNo the first batch number
+     * @param toBatchNo the last batch number
+     */
+    public void cancelPrefetch(int fromBatchNo, int toBatchNo) {
+        PrefetchManager.cancelRequests(this, fromBatchNo, toBatchNo);
+    }
+
     /**
      * Gets a range of rows from within a batch
      *
@@ -159,13 +184,34 @@ public class ResultsBatches
      */
     protected List<Object> getBatch(int batchNo, boolean optimise, boolean explain)
         throws ObjectStoreException {
-        List<Object> retval = batches.get(new Integer(batchNo));
+        Integer key = new Integer(batchNo);
+        List<Object> retval = batches.get(key);
         if (retval == null) {
             retval = PrefetchManager.doRequest(this, batchNo, optimise, explain);
+        } else if (prefetched.remove(key)) {
+            PrefetchManager.recordHit();
         }
         return retval;
     }
 
+    /**
+     * Gets a batch in columnar form, so that callers reading many values of a column need not box
+     * each one. Only queries that select no objects or path expressions are held in columnar
+     * form by ObjectStores that support it.
+     *
+     * @param batchNo the batch number to get (zero-indexed)
+     * @param optimise true if queries should be optimised
+     * @param explain true if this method should explain each query first
+     * @return a ColumnarResults object, or null if the batch is not held in columnar form
+     * @throws ObjectStoreException if an error occurs in the underlying ObjectStore
+     * @throws IndexOutOfBoundsException if the batch is off the end of the results
+     */
+    public ColumnarResults getColumnarBatch(int batchNo, boolean optimise, boolean explain)
+        throws ObjectStoreException {
+        Object batch = getBatch(batchNo, optimise, explain);
+        return (batch instanceof ColumnarResults ? (ColumnarResults) batch : null);
+    }
+
     /**
      * Gets a batch from the ObjectStore.
      *
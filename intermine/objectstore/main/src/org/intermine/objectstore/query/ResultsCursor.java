@@ -0,0 +1,30 @@
+package org.intermine.objectstore.query;
+
+/*
+ * Copyright (C) 2002-2016 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Iterator;
+
+/**
+ * An Iterator over the rows of a query that is streamed from the database, rather than fetched in
+ * separate batches. The cursor holds database resources (usually a Connection in a transaction)
+ * until it is exhausted, at which point they are released automatically. A caller that abandons
+ * a cursor before reaching the end MUST call close().
+ *
+ * @author agent
+ */
+public interface ResultsCursor extends Iterator<Object>
+{
+    /**
+     * Releases any database resources held by this cursor. Calling this method more than once, or
+     * after the cursor has been exhausted, has no effect.
+     */
+    void close();
+}
@@ -68,4 +68,40 @@ public class SingletonResults extends Results implements Set<Object>
         }
         return rows;
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected ResultsCursor decorateCursor(ResultsCursor cursor) {
+        return new SingletonCursor(cursor);
+    }
+
+    /**
+     * A ResultsCursor that unpacks the single column of each row from another cursor.
+     */
+    private static class SingletonCursor implements ResultsCursor
+    {
+        private ResultsCursor cursor;
+
+        SingletonCursor(ResultsCursor cursor) {
+            this.cursor = cursor;
+        }
+
+        public boolean hasNext() {
+            return cursor.hasNext();
+        }
+
+        public Object next() {
+            return ((List<?>) cursor.next()).get(0);
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        public void close() {
+            cursor.close();
+        }
+    }
 }
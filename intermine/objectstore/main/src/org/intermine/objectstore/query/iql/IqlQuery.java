@@ -18,6 +18,7 @@ import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.regex.Pattern;
 
 import org.intermine.metadata.ConstraintOp;
 import org.intermine.metadata.Util;
@@ -67,9 +68,14 @@ import org.intermine.objectstore.query.WidthBucketFunction;
  */
 public class IqlQuery
 {
+    private static final Pattern STRING_CONSTANT = Pattern.compile("'(?:[^']|'')*'");
+    private static final Pattern NUMBER_CONSTANT
+        = Pattern.compile("(?<![\\w.])-?\\d+(?:\\.\\d+)?\\b");
+
     private String queryString;
     private String packageName;
     private List<?> parameters;
+    private String shape = null;
 
     /**
      * No-arg constructor (for deserialization)
@@ -752,6 +758,34 @@ public class IqlQuery
      */
     public void setQueryString(String queryString) {
         this.queryString = queryString;
+        this.shape = null;
+    }
+
+    /**
+     * Returns the shape of the query, which is the query String with the constant values replaced
+     * by question marks. Parameters such as bags are already question marks in the query String,
+     * so queries that differ only in their constants and parameters have the same shape. The
+     * shape is only worked out once.
+     *
+     * @return a String
+     */
+    public String getShape() {
+        if (shape == null) {
+            shape = getShape(queryString);
+        }
+        return shape;
+    }
+
+    /**
+     * Returns the shape of some IQL, which is the IQL with the constant values replaced by
+     * question marks.
+     *
+     * @param iql the IQL
+     * @return a String
+     */
+    public static String getShape(String iql) {
+        String retval = STRING_CONSTANT.matcher(iql).replaceAll("?");
+        return NUMBER_CONSTANT.matcher(retval).replaceAll("?");
     }
 
     /**
@@ -29,7 +29,9 @@ import org.intermine.objectstore.ObjectStore;
 import org.intermine.objectstore.ObjectStoreAbstractImpl;
 import org.intermine.objectstore.ObjectStoreException;
 import org.intermine.objectstore.ObjectStoreFactory;
+import org.intermine.objectstore.query.BatchConvertingResultsCursor;
 import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.ResultsCursor;
 import org.intermine.objectstore.query.ResultsInfo;
 import org.intermine.objectstore.query.ResultsRow;
 import org.intermine.sql.DatabaseConnectionException;
@@ -153,12 +155,52 @@ public class ObjectStoreTranslatingImpl extends ObjectStoreAbstractImpl
         //LOG.error("Translated query " + q + " to " + q2);
         long time2 = System.currentTimeMillis();
         timeSpentQuery += time2 - time1;
-        List<ResultsRow<Object>> results = new ArrayList<ResultsRow<Object>>();
         List<ResultsRow<Object>> origResults = os.execute(q2, start, limit, optimise, explain,
                 sequence);
         time1 = System.currentTimeMillis();
         timeSpentExecute += time1 - time2;
 
+        return translateRows(origResults);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The translated query is streamed from the underlying ObjectStore if it supports it, and
+     * the objects are translated fetchSize rows at a time.
+     */
+    @Override
+    public ResultsCursor executeCursor(Query q, int fetchSize, boolean optimise,
+            Map<Object, Integer> sequence) throws ObjectStoreException {
+        long time1 = System.currentTimeMillis();
+        Query q2 = translateQuery(q);
+        long time2 = System.currentTimeMillis();
+        timeSpentQuery += time2 - time1;
+        ResultsCursor origCursor = os.executeCursor(q2, fetchSize, optimise, sequence);
+        timeSpentExecute += System.currentTimeMillis() - time2;
+        if (origCursor == null) {
+            return null;
+        }
+        return new BatchConvertingResultsCursor(origCursor, fetchSize) {
+            @Override
+            protected List<ResultsRow<Object>> convertBatch(List<ResultsRow<Object>> rows)
+                throws ObjectStoreException {
+                return translateRows(rows);
+            }
+        };
+    }
+
+    /**
+     * Translates the objects in some rows fetched from the underlying ObjectStore.
+     *
+     * @param origResults the rows from the underlying ObjectStore
+     * @return a new List of translated rows
+     * @throws ObjectStoreException if an object cannot be translated
+     */
+    private List<ResultsRow<Object>> translateRows(List<ResultsRow<Object>> origResults)
+        throws ObjectStoreException {
+        long time1 = System.currentTimeMillis();
+        List<ResultsRow<Object>> results = new ArrayList<ResultsRow<Object>>();
         try {
             for (ResultsRow<Object> origRow : origResults) {
                 ResultsRow<Object> row = new ResultsRow<Object>();
@@ -179,7 +221,7 @@ public class ObjectStoreTranslatingImpl extends ObjectStoreAbstractImpl
         } catch (MetaDataException e) {
             throw new ObjectStoreException(e);
         }
-        time2 = System.currentTimeMillis();
+        long time2 = System.currentTimeMillis();
         timeSpentTranslate += time2 - time1;
         queryCount++;
         if (queryCount % 10000 == 0) {
@@ -261,15 +303,13 @@ public class ObjectStoreTranslatingImpl extends ObjectStoreAbstractImpl
         //e.printStackTrace(pw);
         //pw.flush();
         //LOG.error(sw.toString());
-        synchronized (cache) {
-            Exception e = new Exception();
-            e.fillInStackTrace();
-            LOG.warn("Probable inefficiency: internalGetObjectById called "
-                    + (retval == null ? "" : "to fetch a " + Util.getFriendlyName(retval
-                            .getClass())) + " with id " + id + ", clazz " + clazz.toString()
-                    + ", cache size = " + cache.size() + " - maybe you should use"
-                    + " ObjectStoreFastCollectionsForTranslatorImpl", e);
-        }
+        Exception e = new Exception();
+        e.fillInStackTrace();
+        LOG.warn("Probable inefficiency: internalGetObjectById called "
+                + (retval == null ? "" : "to fetch a " + Util.getFriendlyName(retval
+                        .getClass())) + " with id " + id + ", clazz " + clazz.toString()
+                + ", cache size = " + cache.size() + " - maybe you should use"
+                + " ObjectStoreFastCollectionsForTranslatorImpl", e);
         internalGetObjectByIdCount++;
         if (internalGetObjectByIdCount % 1000 == 0) {
             LOG.info("internalGetObjectById run " + internalGetObjectByIdCount + " times");
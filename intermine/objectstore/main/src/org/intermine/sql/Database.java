@@ -153,6 +153,27 @@ public class Database implements Shutdownable
         return datasource;
     }
 
+    /**
+     * Returns the maximum number of connections in the connection pool of this Database.
+     *
+     * @return the maximum number of connections, or -1 if it is not known
+     */
+    public int getMaxConnections() {
+        if (datasource instanceof HikariDataSource) {
+            return ((HikariDataSource) datasource).getMaximumPoolSize();
+        }
+        String maxConnections = (settings == null ? null
+                : settings.getProperty("datasource.maxConnections"));
+        if (maxConnections != null) {
+            try {
+                return Integer.parseInt(maxConnections.trim());
+            } catch (NumberFormatException e) {
+                // Treat as unknown
+            }
+        }
+        return -1;
+    }
+
     /**
      * Gets a Connection to this Database
      *
@@ -165,6 +186,7 @@ public class Database implements Shutdownable
         if (datasource == null) {
             throw new NullPointerException("Datasource is null. Properties are: " + settings);
         }
+        long start = System.currentTimeMillis();
         try {
             retval = datasource.getConnection();
         } catch (PSQLException e) {
@@ -173,6 +195,9 @@ public class Database implements Shutdownable
         } catch (SQLException e) {
             throw new DatabaseConnectionException("Unable to open database connection (there"
                     + " may not be enough available connections): " + this, e);
+        } finally {
+            QueryMetrics.record(QueryMetrics.Phase.CONNECTION_WAIT,
+                    System.currentTimeMillis() - start);
         }
         /*
         Exception e = new Exception();
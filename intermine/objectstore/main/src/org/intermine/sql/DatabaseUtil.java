@@ -590,6 +590,44 @@ public final class DatabaseUtil
         }
     }
 
+    /**
+     * Returns the names of the unlogged tables in the database given. Unlogged tables are not
+     * written to the write-ahead log, so they are emptied after a crash and are not copied to
+     * replicas.
+     *
+     * @param con the Connection to the database
+     * @return a Set of table names
+     * @throws SQLException if an error occurs in the underlying database
+     */
+    public static Set<String> getUnloggedTables(Connection con) throws SQLException {
+        Set<String> tablenames = new HashSet<String>();
+        ResultSet res = con.createStatement().executeQuery("SELECT relname FROM pg_class"
+                + " WHERE relkind = 'r' AND relpersistence = 'u' AND pg_table_is_visible(oid)");
+        while (res.next()) {
+            tablenames.add(res.getString(1));
+        }
+        return tablenames;
+    }
+
+    /**
+     * Makes tables logged or unlogged. Making a table logged writes its whole contents to the
+     * write-ahead log, so it is much cheaper to make tables unlogged while they are empty.
+     * Requires PostgreSQL 9.5 or later.
+     *
+     * @param con the Connection to the database
+     * @param tablenames the names of the tables to alter
+     * @param logged true to make the tables logged, false to make them unlogged
+     * @throws SQLException if an error occurs in the underlying database
+     */
+    public static void setTablesLogged(Connection con, Collection<String> tablenames,
+            boolean logged) throws SQLException {
+        for (String tablename : tablenames) {
+            LOG.info("Setting table " + tablename + (logged ? " logged" : " unlogged"));
+            con.createStatement().execute("ALTER TABLE " + tablename
+                    + (logged ? " SET LOGGED" : " SET UNLOGGED"));
+        }
+    }
+
     /**
      * Remove the sequence from the database given.
      *
@@ -0,0 +1,397 @@
+package org.intermine.sql;
+
+/*
+ * Copyright (C) 2002-2016 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+import org.intermine.util.LatencyHistogram;
+
+/**
+ * Histograms of the time spent in each phase of running queries, for all the ObjectStores in this
+ * JVM, broken down by the type of caller.
+ * <p>
+ * The caller type is held per thread, so the code that accepts work from outside, such as a
+ * servlet filter, sets it for the duration of a request with setCallerType. Tasks handed to a
+ * thread pool should be wrapped with withCallerType, so that they run with the caller type of the
+ * thread that submitted them. Threads that never set it are counted as builds.
+ * <p>
+ * The total time of each query is also recorded in a histogram for its shape (see
+ * IqlQuery.getShape()), for the most recently used MAXIMUM_SHAPES shapes. The histograms are
+ * registered with the platform MBean server under the name "org.intermine:type=QueryMetrics".
+ *
+ * @author agent
+ */
+public final class QueryMetrics implements QueryMetricsMBean
+{
+    private static final Logger LOG = Logger.getLogger(QueryMetrics.class);
+
+    /** The caller type of the webapp */
+    public static final String WEBAPP = "webapp";
+    /** The caller type of the web services */
+    public static final String WEBSERVICE = "webservice";
+    /** The caller type of builds and anything else that does not set a caller type */
+    public static final String BUILD = "build";
+    /** The name the metrics are registered under with JMX */
+    public static final String OBJECT_NAME = "org.intermine:type=QueryMetrics";
+    /** The maximum number of query shapes to keep histograms for */
+    public static final int MAXIMUM_SHAPES = 500;
+
+    /**
+     * The phases of running a query that are timed.
+     */
+    public enum Phase
+    {
+        /** Waiting for a connection from the pool */
+        CONNECTION_WAIT,
+        /** Creating temporary bag tables */
+        BAG_TABLES,
+        /** Generating SQL from the Query */
+        GENERATE,
+        /** Optimising the SQL */
+        OPTIMISE,
+        /** Estimating the time the SQL will take */
+        ESTIMATE,
+        /** Executing the SQL */
+        EXECUTE,
+        /** Converting the results into objects, excluding extra queries */
+        CONVERT,
+        /** Extra queries made while converting results */
+        EXTRA_QUERIES
+    }
+
+    private static final QueryMetrics INSTANCE = new QueryMetrics();
+    private static final ThreadLocal<String> CALLER_TYPE = new ThreadLocal<String>();
+
+    static {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(INSTANCE, name);
+            }
+        } catch (JMException e) {
+            LOG.warn("Could not register query metrics with JMX", e);
+        } catch (SecurityException e) {
+            LOG.warn("Could not register query metrics with JMX", e);
+        }
+    }
+
+    private final ConcurrentMap<String, LatencyHistogram[]> histograms
+        = new ConcurrentHashMap<String, LatencyHistogram[]>();
+    private final Map<String, LatencyHistogram> shapes = Collections.synchronizedMap(
+            new LinkedHashMap<String, LatencyHistogram>(16, 0.75F, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, LatencyHistogram> eldest) {
+                    return size() > MAXIMUM_SHAPES;
+                }
+            });
+
+    private QueryMetrics() {
+        // Use getInstance()
+    }
+
+    /**
+     * Returns the metrics for this JVM.
+     *
+     * @return the QueryMetrics
+     */
+    public static QueryMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Sets the caller type of the current thread.
+     *
+     * @param callerType the caller type, or null to count the thread as a build
+     * @return the previous caller type of the thread, or null if it was not set
+     */
+    public static String setCallerType(String callerType) {
+        String retval = CALLER_TYPE.get();
+        if (callerType == null) {
+            CALLER_TYPE.remove();
+        } else {
+            CALLER_TYPE.set(callerType);
+        }
+        return retval;
+    }
+
+    /**
+     * Returns the caller type of the current thread.
+     *
+     * @return the caller type
+     */
+    public static String getCallerType() {
+        String retval = CALLER_TYPE.get();
+        return (retval == null ? BUILD : retval);
+    }
+
+    /**
+     * Wraps a task so that it runs with the caller type of the current thread, which should be
+     * the thread that submits the task to a pool. The caller type of the thread that runs the
+     * task is restored afterwards.
+     *
+     * @param task the task
+     * @param <V> the type of the result of the task
+     * @return a Callable that runs the task
+     */
+    public static <V> Callable<V> withCallerType(final Callable<V> task) {
+        final String callerType = CALLER_TYPE.get();
+        return new Callable<V>() {
+            public V call() throws Exception {
+                String previous = setCallerType(callerType);
+                try {
+                    return task.call();
+                } finally {
+                    setCallerType(previous);
+                }
+            }
+        };
+    }
+
+    /**
+     * Records the time taken by a phase, for the caller type of the current thread.
+     *
+     * @param phase the Phase
+     * @param time the time taken in milliseconds
+     */
+    public static void record(Phase phase, long time) {
+        INSTANCE.getHistograms(getCallerType(), true)[phase.ordinal()].record(time);
+    }
+
+    /**
+     * Records the total time taken by a query of a given shape.
+     *
+     * @param shape the shape of the query
+     * @param time the time taken in milliseconds
+     */
+    public static void recordShape(String shape, long time) {
+        LatencyHistogram h;
+        synchronized (INSTANCE.shapes) {
+            h = INSTANCE.shapes.get(shape);
+            if (h == null) {
+                h = new LatencyHistogram();
+                INSTANCE.shapes.put(shape, h);
+            }
+        }
+        h.record(time);
+    }
+
+    /**
+     * Returns the histogram of the total times of the queries of a shape.
+     *
+     * @param shape the shape of the query
+     * @return a LatencyHistogram, or null if nothing has been recorded for the shape recently
+     */
+    public LatencyHistogram getShapeHistogram(String shape) {
+        return shapes.get(shape);
+    }
+
+    /**
+     * Returns the histogram of a phase for a caller type.
+     *
+     * @param callerType the caller type
+     * @param phase the Phase
+     * @return a LatencyHistogram, or null if nothing has been recorded for the caller type
+     */
+    public LatencyHistogram getHistogram(String callerType, Phase phase) {
+        LatencyHistogram[] forCaller = getHistograms(callerType, false);
+        return (forCaller == null ? null : forCaller[phase.ordinal()]);
+    }
+
+    /**
+     * Returns the counts, means, percentiles and maxima of all the histograms, by caller type
+     * and then phase name.
+     *
+     * @return a Map suitable for rendering as JSON
+     */
+    public Map<String, Map<String, Map<String, Object>>> getSnapshot() {
+        Map<String, Map<String, Map<String, Object>>> retval
+            = new LinkedHashMap<String, Map<String, Map<String, Object>>>();
+        for (String callerType : getCallerTypes()) {
+            Map<String, Map<String, Object>> phases
+                = new LinkedHashMap<String, Map<String, Object>>();
+            for (Phase phase : Phase.values()) {
+                LatencyHistogram h = getHistogram(callerType, phase);
+                Map<String, Object> values = new LinkedHashMap<String, Object>();
+                values.put("count", new Long(h.getCount()));
+                values.put("mean", new Double(h.getMean()));
+                values.put("p50", new Long(h.getValueAtPercentile(50.0)));
+                values.put("p90", new Long(h.getValueAtPercentile(90.0)));
+                values.put("p95", new Long(h.getValueAtPercentile(95.0)));
+                values.put("p99", new Long(h.getValueAtPercentile(99.0)));
+                values.put("p999", new Long(h.getValueAtPercentile(99.9)));
+                values.put("max", new Long(h.getMax()));
+                phases.put(phase.name(), values);
+            }
+            retval.put(callerType, phases);
+        }
+        return retval;
+    }
+
+    /**
+     * Returns the counts, means, percentiles, maxima and totals of the query shapes that have
+     * taken the most time in total, by shape.
+     *
+     * @param count the maximum number of shapes to return
+     * @return a Map suitable for rendering as JSON, in descending order of total time
+     */
+    public Map<String, Map<String, Object>> getShapeSnapshot(int count) {
+        Map<String, Map<String, Object>> retval = new LinkedHashMap<String, Map<String, Object>>();
+        for (Map.Entry<String, LatencyHistogram> entry : getTopShapes(count)) {
+            LatencyHistogram h = entry.getValue();
+            Map<String, Object> values = new LinkedHashMap<String, Object>();
+            values.put("count", new Long(h.getCount()));
+            values.put("total", new Long(h.getTotal()));
+            values.put("mean", new Double(h.getMean()));
+            values.put("p50", new Long(h.getValueAtPercentile(50.0)));
+            values.put("p95", new Long(h.getValueAtPercentile(95.0)));
+            values.put("p99", new Long(h.getValueAtPercentile(99.0)));
+            values.put("max", new Long(h.getMax()));
+            retval.put(entry.getKey(), values);
+        }
+        return retval;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getShapeSummary(int count) {
+        StringBuilder retval = new StringBuilder();
+        for (Map.Entry<String, LatencyHistogram> entry : getTopShapes(count)) {
+            retval.append("total ").append(entry.getValue().getTotal()).append(", ")
+                .append(entry.getValue()).append(": ").append(entry.getKey()).append("\n");
+        }
+        return retval.toString();
+    }
+
+    private List<Map.Entry<String, LatencyHistogram>> getTopShapes(int count) {
+        List<Map.Entry<String, LatencyHistogram>> entries;
+        synchronized (shapes) {
+            entries = new ArrayList<Map.Entry<String, LatencyHistogram>>(
+                    new LinkedHashMap<String, LatencyHistogram>(shapes).entrySet());
+        }
+        Collections.sort(entries, new Comparator<Map.Entry<String, LatencyHistogram>>() {
+            public int compare(Map.Entry<String, LatencyHistogram> o1,
+                    Map.Entry<String, LatencyHistogram> o2) {
+                long diff = o2.getValue().getTotal() - o1.getValue().getTotal();
+                return diff > 0 ? 1 : (diff < 0 ? -1 : 0);
+            }
+        });
+        return entries.subList(0, Math.min(count, entries.size()));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String[] getCallerTypes() {
+        return new TreeSet<String>(histograms.keySet()).toArray(new String[0]);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String[] getPhases() {
+        Phase[] phases = Phase.values();
+        String[] retval = new String[phases.length];
+        for (int i = 0; i < phases.length; i++) {
+            retval[i] = phases[i].name();
+        }
+        return retval;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getSummary() {
+        StringBuilder retval = new StringBuilder();
+        for (String callerType : getCallerTypes()) {
+            for (Phase phase : Phase.values()) {
+                retval.append(callerType).append(" ").append(phase.name()).append(": ")
+                    .append(getHistogram(callerType, phase)).append("\n");
+            }
+        }
+        return retval.toString();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getCount(String callerType, String phase) {
+        LatencyHistogram h = getHistogram(callerType, Phase.valueOf(phase));
+        return (h == null ? 0L : h.getCount());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public double getMean(String callerType, String phase) {
+        LatencyHistogram h = getHistogram(callerType, Phase.valueOf(phase));
+        return (h == null ? 0.0 : h.getMean());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getPercentile(String callerType, String phase, double percentile) {
+        LatencyHistogram h = getHistogram(callerType, Phase.valueOf(phase));
+        return (h == null ? 0L : h.getValueAtPercentile(percentile));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getMax(String callerType, String phase) {
+        LatencyHistogram h = getHistogram(callerType, Phase.valueOf(phase));
+        return (h == null ? 0L : h.getMax());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void reset() {
+        for (LatencyHistogram[] forCaller : histograms.values()) {
+            for (LatencyHistogram h : forCaller) {
+                h.reset();
+            }
+        }
+        shapes.clear();
+    }
+
+    private LatencyHistogram[] getHistograms(String callerType, boolean create) {
+        LatencyHistogram[] retval = histograms.get(callerType);
+        if ((retval == null) && create) {
+            LatencyHistogram[] newHistograms = new LatencyHistogram[Phase.values().length];
+            for (int i = 0; i < newHistograms.length; i++) {
+                newHistograms[i] = new LatencyHistogram();
+            }
+            retval = histograms.putIfAbsent(callerType, newHistograms);
+            if (retval == null) {
+                retval = newHistograms;
+            }
+        }
+        return retval;
+    }
+}
@@ -0,0 +1,91 @@
+package org.intermine.sql;
+
+/*
+ * Copyright (C) 2002-2016 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+/**
+ * The JMX management interface of QueryMetrics.
+ *
+ * @author agent
+ */
+public interface QueryMetricsMBean
+{
+    /**
+     * Returns the caller types that have recorded times.
+     *
+     * @return an array of caller type names
+     */
+    String[] getCallerTypes();
+
+    /**
+     * Returns the names of the phases of a query that are timed.
+     *
+     * @return an array of phase names
+     */
+    String[] getPhases();
+
+    /**
+     * Returns a summary of all the histograms, one line for each caller type and phase.
+     *
+     * @return a String
+     */
+    String getSummary();
+
+    /**
+     * Returns the number of times recorded for a caller type and phase.
+     *
+     * @param callerType the caller type
+     * @param phase the name of the phase
+     * @return a count
+     */
+    long getCount(String callerType, String phase);
+
+    /**
+     * Returns the mean time recorded for a caller type and phase.
+     *
+     * @param callerType the caller type
+     * @param phase the name of the phase
+     * @return a time in milliseconds
+     */
+    double getMean(String callerType, String phase);
+
+    /**
+     * Returns a percentile of the times recorded for a caller type and phase.
+     *
+     * @param callerType the caller type
+     * @param phase the name of the phase
+     * @param percentile a percentage between 0 and 100
+     * @return a time in milliseconds
+     */
+    long getPercentile(String callerType, String phase, double percentile);
+
+    /**
+     * Returns the longest time recorded for a caller type and phase.
+     *
+     * @param callerType the caller type
+     * @param phase the name of the phase
+     * @return a time in milliseconds
+     */
+    long getMax(String callerType, String phase);
+
+    /**
+     * Returns a summary of the histograms of the query shapes that have taken the most time in
+     * total, one line for each shape.
+     *
+     * @param count the maximum number of shapes to summarise
+     * @return a String
+     */
+    String getShapeSummary(int count);
+
+    /**
+     * Forgets all the times recorded.
+     */
+    void reset();
+}
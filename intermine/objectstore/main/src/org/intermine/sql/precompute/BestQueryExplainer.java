@@ -108,9 +108,7 @@ public class BestQueryExplainer extends BestQuery
             }
         }
         if (doExplain) {
-            if (c.betterThan(bestCandidate)) {
-                bestCandidate = c;
-            }
+            explain(c);
         } else {
             didNotExplain(c);
             if (tableCount == candidateTables) {
@@ -234,13 +232,24 @@ public class BestQueryExplainer extends BestQuery
             }
             Candidate c = iter.next();
             iter.remove();
-            if (c.betterThan(bestCandidate)) {
-                bestCandidate = c;
-            }
+            explain(c);
         }
         return bestCandidate;
     }
 
+    /**
+     * Explains a Candidate, and makes it the best Candidate if it is better than the current one.
+     * It can be overridden by subclasses.
+     *
+     * @param c the Candidate
+     * @throws SQLException if an error occurs in the underlying database
+     */
+    protected void explain(Candidate c) throws SQLException {
+        if (c.betterThan(bestCandidate)) {
+            bestCandidate = c;
+        }
+    }
+
     /**
      * Throws an exception. This gives the subclasses a chance to intercept it.
      *
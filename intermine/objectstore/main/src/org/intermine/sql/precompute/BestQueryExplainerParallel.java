@@ -0,0 +1,295 @@
+package org.intermine.sql.precompute;
+
+/*
+ * Copyright (C) 2002-2016 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.log4j.Logger;
+import org.intermine.sql.Database;
+import org.intermine.sql.QueryMetrics;
+import org.intermine.sql.query.ExplainResult;
+
+/**
+ * A BestQueryExplainer that explains several candidate queries at once, each on its own
+ * connection from the database connection pool, instead of one after another on a single
+ * connection.
+ * <p>
+ * The first candidate, which is the original query, is still explained straight away on the
+ * connection given, so that a query that will be quick anyway is not optimised at all. Later
+ * candidates are handed to a thread pool shared by all optimisations, with at most the given
+ * number outstanding for one optimisation. The search stops when a candidate beats the best
+ * query so far by the early stop margin, as well as when the BestQueryExplainer would stop it.
+ * When the best query is asked for, the explains still running are waited for, but no longer than
+ * the time limit allows.
+ *
+ * @author agent
+ */
+public class BestQueryExplainerParallel extends BestQueryExplainer
+{
+    private static final Logger LOG = Logger.getLogger(BestQueryExplainerParallel.class);
+
+    /** The maximum number of candidates explained at once by all optimisations together */
+    public static final int MAX_THREADS = 8;
+    private static ThreadPoolExecutor executor;
+
+    static {
+        executor = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    private int threadNo = 0;
+
+                    public synchronized Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r);
+                        thread.setDaemon(true);
+                        thread.setName("BestQueryExplainerParallel ServiceThread " + (threadNo++));
+                        return thread;
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    protected Database database;
+    protected int parallelism;
+    protected double earlyStopMargin;
+    protected LinkedList<PendingExplain> pending = new LinkedList<PendingExplain>();
+    protected String stopReason = null;
+
+    /**
+     * Constructs a BestQueryExplainerParallel.
+     *
+     * @param database the Database to take connections from for the parallel explains, or null to
+     * use dummy explains for testing
+     * @param con the Connection to use for the original query
+     * @param timeLimit a time limit in milliseconds
+     * @param parallelism the maximum number of candidates to explain at once
+     * @param earlyStopMargin the fraction by which a candidate must beat the best query so far to
+     * stop the search, or zero to never stop it early
+     */
+    public BestQueryExplainerParallel(Database database, Connection con, long timeLimit,
+            int parallelism, double earlyStopMargin) {
+        this.database = database;
+        this.con = con;
+        this.timeLimit = timeLimit;
+        this.parallelism = parallelism;
+        this.earlyStopMargin = earlyStopMargin;
+    }
+
+    /**
+     * Allows a Candidate to be added to this tracker.
+     *
+     * @param c the Candidate
+     * @throws BestQueryException if the current best Candidate is the best we think we are going to
+     * get
+     * @throws SQLException if an error occurs in the underlying database
+     */
+    @Override
+    protected void add(Candidate c) throws BestQueryException, SQLException {
+        super.add(c);
+        if (stopReason != null) {
+            throwBestQueryException(stopReason);
+        }
+    }
+
+    /**
+     * Explains the first Candidate straight away, and hands the rest to the thread pool, first
+     * collecting any explains that have finished, and waiting for the oldest if there are already
+     * too many outstanding.
+     *
+     * @param c the Candidate
+     * @throws SQLException if an error occurs in the underlying database
+     */
+    @Override
+    protected void explain(Candidate c) throws SQLException {
+        if (stopReason != null) {
+            return;
+        }
+        if ((bestCandidate == null) && pending.isEmpty()) {
+            super.explain(c);
+            return;
+        }
+        collect(false);
+        while ((pending.size() >= parallelism) && (stopReason == null)) {
+            PendingExplain oldest = pending.removeFirst();
+            finish(oldest, oldest.await(getRemainingTime()));
+        }
+        if (stopReason == null) {
+            final String sql = c.getQueryString();
+            Future<ExplainResult> future = executor.submit(QueryMetrics.withCallerType(
+                        new Callable<ExplainResult>() {
+                            public ExplainResult call() throws SQLException {
+                                return getParallelExplainResult(sql);
+                            }
+                        }));
+            pending.add(new PendingExplain(c, future));
+        }
+    }
+
+    /**
+     * Gets the best Candidate found so far, after waiting for the explains that are still
+     * running, unless the time limit is reached first.
+     *
+     * @return the best Candidate
+     * @throws SQLException if an error occurs in the underlying database
+     */
+    @Override
+    protected Candidate getBest() throws SQLException {
+        super.getBest();
+        collect(true);
+        return bestCandidate;
+    }
+
+    /**
+     * Explains a query on a connection of its own from the pool. It is run in a thread of the
+     * pool, and can be overridden by subclasses.
+     *
+     * @param sql the query String
+     * @return an ExplainResult, or null if no connection was available
+     * @throws SQLException if an error occurs in the underlying database
+     */
+    protected ExplainResult getParallelExplainResult(String sql) throws SQLException {
+        if (database == null) {
+            return ExplainResult.getInstance(sql, null);
+        }
+        Connection c;
+        try {
+            c = database.getConnection();
+        } catch (SQLException e) {
+            return null;
+        }
+        try {
+            return ExplainResult.getInstance(sql, c);
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * Collects the explains that have finished, or waits for all of them. Explains that cannot be
+     * waited for because the search has stopped, or because the time limit has been reached, are
+     * cancelled.
+     *
+     * @param wait true to wait for the explains that are still running
+     * @throws SQLException if an error occurs in the underlying database
+     */
+    protected void collect(boolean wait) throws SQLException {
+        Iterator<PendingExplain> iter = pending.iterator();
+        while (iter.hasNext()) {
+            PendingExplain explain = iter.next();
+            long remaining = getRemainingTime();
+            if ((stopReason != null) || (wait && (remaining == 0)) || ((bestCandidate != null)
+                        && (bestCandidate.getExplain().getTime() < (System.currentTimeMillis()
+                                - start.getTime())))) {
+                explain.future.cancel(true);
+                iter.remove();
+            } else if (wait || explain.future.isDone()) {
+                iter.remove();
+                finish(explain, explain.await(remaining));
+            }
+        }
+    }
+
+    /**
+     * Returns the time left before the time limit is reached.
+     *
+     * @return a time in milliseconds, or -1 if there is no time limit
+     */
+    protected long getRemainingTime() {
+        if (timeLimit < 0) {
+            return -1;
+        }
+        return Math.max(0, timeLimit - (System.currentTimeMillis() - start.getTime()));
+    }
+
+    /**
+     * Records the result of an explain, making its Candidate the best if it is better, and
+     * stopping the search if it is better by the early stop margin.
+     *
+     * @param explain the PendingExplain
+     * @param result the ExplainResult, or null to explain on this thread's connection instead
+     * @throws SQLException if an error occurs in the underlying database
+     */
+    protected void finish(PendingExplain explain, ExplainResult result) throws SQLException {
+        Candidate c = explain.candidate;
+        if (result != null) {
+            c.explainResult = result;
+        } else if (explain.future.isCancelled()) {
+            return;
+        }
+        if (c.betterThan(bestCandidate)) {
+            if ((earlyStopMargin > 0.0) && (bestCandidate != null) && (c.getExplain().getTime()
+                        <= bestCandidate.getExplain().getTime() * (1.0 - earlyStopMargin))) {
+                stopReason = "Candidate beat best query by early stop margin " + earlyStopMargin
+                    + " (best = " + bestCandidate.getExplain().getTime() + "ms, candidate = "
+                    + c.getExplain().getTime() + "ms)";
+            }
+            bestCandidate = c;
+        }
+    }
+
+    /**
+     * A Candidate whose explain has been handed to the thread pool.
+     */
+    protected class PendingExplain
+    {
+        protected Candidate candidate;
+        protected Future<ExplainResult> future;
+
+        /**
+         * Constructor.
+         *
+         * @param candidate the Candidate
+         * @param future the Future of its ExplainResult
+         */
+        public PendingExplain(Candidate candidate, Future<ExplainResult> future) {
+            this.candidate = candidate;
+            this.future = future;
+        }
+
+        /**
+         * Waits for the explain to finish.
+         *
+         * @param timeout the maximum time to wait in milliseconds, or -1 to wait indefinitely
+         * @return the ExplainResult, or null if it must be explained on the calling thread
+         * @throws SQLException if the explain failed
+         */
+        public ExplainResult await(long timeout) throws SQLException {
+            try {
+                if (timeout < 0) {
+                    return future.get();
+                }
+                return future.get(timeout, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                future.cancel(true);
+                return null;
+            } catch (InterruptedException e) {
+                future.cancel(true);
+                Thread.currentThread().interrupt();
+                return null;
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof SQLException) {
+                    throw (SQLException) e.getCause();
+                }
+                LOG.warn("Error explaining candidate query " + candidate, e.getCause());
+                return null;
+            }
+        }
+    }
+}
@@ -10,16 +10,19 @@ package org.intermine.sql.precompute;
  *
  */
 
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.intermine.sql.Database;
-import org.intermine.util.CacheMap;
+import org.intermine.util.TinyLfuCacheMap;
 
 /**
  * A class that provides an implementation of a cache for String-based SQL query optimisation.
+ * <p>
+ * Lookups take no lock, so that concurrent queries do not queue up behind each other here. Each
+ * original query maps to an immutable array of cache lines, which is replaced whenever a line is
+ * added. The cache holds at most MAX_LINESETS original queries, evicting those that are used least
+ * often first.
  *
  * @author Matthew Wakeling
  */
@@ -30,9 +33,12 @@ public class OptimiserCache
     /** Number of events to happen before an expiration run. */
     public static final int EXPIRE_INTERVAL = 100;
 
+    private static final String EXPLAIN = "EXPLAIN ";
+
     // Caches need to be per-database, so we will provide a static method to retrieve a cache object
-    // given a database. We need to be careful about synchronisation in this whole class.
-    private static Map<Database, OptimiserCache> caches = new HashMap<Database, OptimiserCache>();
+    // given a database.
+    private static ConcurrentMap<Database, OptimiserCache> caches
+        = new ConcurrentHashMap<Database, OptimiserCache>();
 
     /**
      * Returns an OptimiserCache object relevant to the database given.
@@ -40,57 +46,74 @@ public class OptimiserCache
      * @param db a Database object to find a cache for
      * @return an OptimiserCache object
      */
-    public static synchronized OptimiserCache getInstance(Database db) {
-        if (!caches.containsKey(db)) {
-            caches.put(db, new OptimiserCache());
+    public static OptimiserCache getInstance(Database db) {
+        OptimiserCache retval = caches.get(db);
+        if (retval == null) {
+            OptimiserCache newCache = new OptimiserCache();
+            retval = caches.putIfAbsent(db, newCache);
+            if (retval == null) {
+                retval = newCache;
+            }
         }
-        return caches.get(db);
+        return retval;
     }
 
 
     /**
-     * A Map that holds a mapping from unoptimised query string (with LIMIT and OFFSET stripped off)
-     * to a Set of OptimiserCacheLine objects.
+     * A Map that holds a mapping from unoptimised query string (with LIMIT, OFFSET and EXPLAIN
+     * stripped off) to the cache lines for it. The arrays are never altered once they are in the
+     * Map.
      */
-    protected Map<String, Set<OptimiserCacheLine>> cacheLines;
+    protected final TinyLfuCacheMap<String, OptimiserCacheLine[]> cacheLines;
+    // Serialises writers, so that two lines added to the same lineset at once are both kept
+    private final Object writeLock = new Object();
 
     /**
      * Constructor for this object.
      */
     public OptimiserCache() {
-        cacheLines = new CacheMap<String, Set<OptimiserCacheLine>>();
+        cacheLines = new TinyLfuCacheMap<String, OptimiserCacheLine[]>("Optimiser cache",
+                MAX_LINESETS);
     }
 
     /**
      * Removes all entries from the cache.
      */
-    public synchronized void flush() {
-        cacheLines.clear();
+    public void flush() {
+        synchronized (writeLock) {
+            cacheLines.clear();
+        }
     }
 
     /**
-     * Adds a new OptimiserCacheLine object to the cache.
+     * Adds a new OptimiserCacheLine object to the cache. A line previously added for the same
+     * original query and limit is replaced.
      *
      * @param original the original SQL string (stripped of LIMIT and OFFSET)
      * @param optimised the optimised SQL string (stripped of LIMIT and OFFSET)
      * @param limit the limit that was used during the optimisation
      */
-    public synchronized void addCacheLine(String original, String optimised, int limit) {
-        if (original.toUpperCase().startsWith("EXPLAIN ")) {
-            original = original.substring(8);
-        }
-        if (optimised.toUpperCase().startsWith("EXPLAIN ")) {
-            optimised = optimised.substring(8);
-        }
-        Set<OptimiserCacheLine> lines = cacheLines.get(original);
-        if (lines == null) {
-            lines = new HashSet<OptimiserCacheLine>();
-            cacheLines.put(original, lines);
+    public void addCacheLine(String original, String optimised, int limit) {
+        String key = normalise(original);
+        OptimiserCacheLine line = new OptimiserCacheLine(normalise(optimised), limit, key);
+        synchronized (writeLock) {
+            OptimiserCacheLine[] lines = cacheLines.get(key);
+            OptimiserCacheLine[] newLines;
+            if (lines == null) {
+                newLines = new OptimiserCacheLine[] {line};
+            } else {
+                int replace = lines.length;
+                for (int i = 0; i < lines.length; i++) {
+                    if (lines[i].getLimit() == limit) {
+                        replace = i;
+                    }
+                }
+                newLines = new OptimiserCacheLine[Math.max(lines.length, replace + 1)];
+                System.arraycopy(lines, 0, newLines, 0, lines.length);
+                newLines[replace] = line;
+            }
+            cacheLines.put(key, newLines);
         }
-
-        OptimiserCacheLine line = new OptimiserCacheLine(optimised, limit, original);
-
-        lines.add(line);
     }
 
     /**
@@ -100,18 +123,11 @@ public class OptimiserCache
      * @param limit the limit required
      * @return a possible optimised SQL string (minus LIMIT and OFFSET)
      */
-    public synchronized String lookup(String original, int limit) {
-        //LOG.debug("Looking up query \"" + original + "\" with limit " + limit
-        //        + " and offset " + offset + " - ");
-        boolean originalWasExplain = false;
-        if (original.toUpperCase().startsWith("EXPLAIN ")) {
-            original = original.substring(8);
-            originalWasExplain = true;
-        }
-        Set<OptimiserCacheLine> lines = cacheLines.get(original);
+    public String lookup(String original, int limit) {
+        boolean originalWasExplain = isExplain(original);
+        OptimiserCacheLine[] lines = cacheLines.get(normalise(original));
         if (lines == null) {
             // Couldn't find anything.
-            //LOG.debug("Complete cache miss");
             return null;
         }
         double bestScore = Double.POSITIVE_INFINITY;
@@ -124,10 +140,33 @@ public class OptimiserCache
             }
         }
         if (bestScore > 1.0) {
-            //LOG.debug("Cache didn't have anything near enough");
+            // Cache didn't have anything near enough
             return null;
         }
-        //LOG.debug("Cache hit");
-        return (originalWasExplain ? "EXPLAIN " : "") + bestLine.getOptimised();
+        return (originalWasExplain ? EXPLAIN : "") + bestLine.getOptimised();
+    }
+
+    /**
+     * Returns a summary of the cache statistics, for log messages.
+     *
+     * @return a String
+     */
+    public String getStatistics() {
+        return cacheLines.getStatistics();
+    }
+
+    /**
+     * Returns the key under which a query is held in the cache, which is the query without any
+     * EXPLAIN prefix.
+     *
+     * @param sql an SQL string
+     * @return a String
+     */
+    protected static String normalise(String sql) {
+        return isExplain(sql) ? sql.substring(EXPLAIN.length()) : sql;
+    }
+
+    private static boolean isExplain(String sql) {
+        return sql.regionMatches(true, 0, EXPLAIN, 0, EXPLAIN.length());
     }
 }
@@ -20,6 +20,7 @@ import java.util.List;
 import java.util.Map;
 
 import org.apache.log4j.Logger;
+import org.intermine.sql.query.AbstractConstraint;
 import org.intermine.sql.query.AbstractTable;
 import org.intermine.sql.query.AbstractValue;
 import org.intermine.sql.query.Field;
@@ -47,6 +48,7 @@ public class PrecomputedTable implements SQLStringable, Comparable<PrecomputedTa
     protected Map<AbstractValue, SelectValue> valueMap;
     protected String orderByField;
     protected String generationSqlString;
+    protected String orderByFieldSql = null;
     protected boolean firstOrderByHasNoNulls = false;
 
     /**
@@ -225,7 +227,8 @@ public class PrecomputedTable implements SQLStringable, Comparable<PrecomputedTa
                 }
             }
             extraBuffer.append(" AS " + ORDERBY_FIELD);
-            generationSqlString = q.getSQLStringForPrecomputedTable(extraBuffer.toString());
+            orderByFieldSql = extraBuffer.toString();
+            generationSqlString = q.getSQLStringForPrecomputedTable(orderByFieldSql);
         } else {
             orderByField = null;
             generationSqlString = q.getSQLString();
@@ -286,6 +289,18 @@ public class PrecomputedTable implements SQLStringable, Comparable<PrecomputedTa
         return generationSqlString;
     }
 
+    /**
+     * Get an SQL statement that generates the rows of this PrecomputedTable that match an extra
+     * constraint, with the same columns as the table. This is only valid when the Query is not a
+     * UNION.
+     *
+     * @param restriction the extra constraint
+     * @return an SQL String
+     */
+    public String getSQLString(AbstractConstraint restriction) {
+        return q.getSQLStringForPrecomputedTable(orderByFieldSql, restriction);
+    }
+
     /**
      * Returns the name of the order by field, if it exists.
      *
@@ -18,6 +18,7 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -30,11 +31,18 @@ import java.util.TreeSet;
 import org.apache.log4j.Logger;
 import org.intermine.sql.Database;
 import org.intermine.sql.DatabaseUtil;
+import org.intermine.sql.query.AbstractConstraint;
 import org.intermine.sql.query.AbstractTable;
 import org.intermine.sql.query.AbstractValue;
+import org.intermine.sql.query.Constant;
+import org.intermine.sql.query.ConstraintSet;
+import org.intermine.sql.query.Field;
+import org.intermine.sql.query.InListConstraint;
+import org.intermine.sql.query.NotConstraint;
 import org.intermine.sql.query.OrderDescending;
 import org.intermine.sql.query.Query;
 import org.intermine.sql.query.SelectValue;
+import org.intermine.sql.query.SubQueryConstraint;
 import org.intermine.sql.query.Table;
 
 /**
@@ -198,9 +206,25 @@ public class PrecomputedTableManager
      * @throws SQLException if something goes wrong
      */
     public void dropAffected(Set<String> tablesAltered) throws SQLException {
+        dropAffected(tablesAltered, Collections.<PrecomputedTable>emptySet());
+    }
+
+    /**
+     * Deletes all precomputed tables that would be affected by changes in any table in a given list
+     * of table names, except those that have already been brought up to date.
+     *
+     * @param tablesAltered a Set of table names that may have alterations
+     * @param maintained a Set of PrecomputedTables that are up to date, as returned by maintain
+     * @throws SQLException if something goes wrong
+     */
+    public void dropAffected(Set<String> tablesAltered,
+            Set<PrecomputedTable> maintained) throws SQLException {
         Iterator<PrecomputedTable> iter = precomputedTables.iterator();
         while (iter.hasNext()) {
             PrecomputedTable pt = iter.next();
+            if (maintained.contains(pt)) {
+                continue;
+            }
             Query q = pt.getQuery();
             boolean drop = false;
             for (AbstractTable table : q.getFrom()) {
@@ -221,6 +245,155 @@ public class PrecomputedTableManager
         }
     }
 
+    /**
+     * Brings the precomputed tables affected by changes in some tables up to date, where the
+     * changes are described by a WriteDelta. The rows of each precomputed table that involve an
+     * altered row are deleted, and generated again from the altered tables. This is only possible
+     * for precomputed tables that are plain joins, with no aggregation, subqueries, UNION or LIMIT,
+     * that have a column for the key of every altered table, and only if all the altered tables
+     * they use are bounded in the WriteDelta. The others are left alone, to be dropped by
+     * dropAffected.
+     * <p>
+     * This should be called on the connection that made the changes, before the transaction is
+     * committed, so that the precomputed tables change at the same time as the data.
+     *
+     * @param con the Connection that made the changes
+     * @param tablesAltered a Set of table names that have alterations
+     * @param delta a WriteDelta describing the alterations
+     * @return the Set of PrecomputedTables that were brought up to date
+     * @throws SQLException if an error occurs in the underlying database
+     */
+    public Set<PrecomputedTable> maintain(Connection con, Set<String> tablesAltered,
+            WriteDelta delta) throws SQLException {
+        Set<PrecomputedTable> retval = new HashSet<PrecomputedTable>();
+        Statement stmt = null;
+        try {
+            for (PrecomputedTable pt : precomputedTables) {
+                boolean affected = false;
+                for (AbstractTable table : pt.getQuery().getFrom()) {
+                    if ((table instanceof Table)
+                            && tablesAltered.contains(((Table) table).getName())) {
+                        affected = true;
+                        break;
+                    }
+                }
+                if (!affected) {
+                    continue;
+                }
+                ConstraintSet ptRestriction = new ConstraintSet();
+                ConstraintSet restriction = getDeltaRestriction(pt, tablesAltered, delta,
+                        ptRestriction);
+                if (restriction == null) {
+                    continue;
+                }
+                if (stmt == null) {
+                    stmt = con.createStatement();
+                }
+                StringBuilder columns = new StringBuilder();
+                for (SelectValue value : pt.getQuery().getSelect()) {
+                    columns.append(columns.length() == 0 ? "" : ", ").append(value.getAlias());
+                }
+                if (pt.getOrderByField() != null) {
+                    columns.append(", ").append(pt.getOrderByField());
+                }
+                int deleted = stmt.executeUpdate("DELETE FROM " + pt.getName() + " WHERE "
+                        + ptRestriction.getSQLString());
+                int inserted = stmt.executeUpdate("INSERT INTO " + pt.getName() + " (" + columns
+                        + ") " + pt.getSQLString(restriction));
+                LOG.info("Maintained precomputed table " + pt.getName() + " (" + deleted
+                        + " rows deleted, " + inserted + " rows inserted)");
+                retval.add(pt);
+            }
+        } finally {
+            if (stmt != null) {
+                stmt.close();
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * Works out which rows of a precomputed table involve the rows described by a WriteDelta.
+     *
+     * @param pt the PrecomputedTable
+     * @param tablesAltered a Set of table names that have alterations
+     * @param delta a WriteDelta describing the alterations
+     * @param ptRestriction a ConstraintSet to add constraints on the columns of the precomputed
+     * table to, that match the rows involving the altered rows
+     * @return a ConstraintSet on the tables of the Query of the precomputed table, that matches the
+     * rows involving the altered rows, or null if the precomputed table cannot be maintained
+     */
+    protected static ConstraintSet getDeltaRestriction(PrecomputedTable pt,
+            Set<String> tablesAltered, WriteDelta delta, ConstraintSet ptRestriction) {
+        Query q = pt.getQuery();
+        if ((q.getUnion().size() != 1) || (!q.getGroupBy().isEmpty())
+                || (!q.getHaving().isEmpty()) || (q.getLimit() != 0) || (q.getOffset() != 0)) {
+            return null;
+        }
+        for (SelectValue value : q.getSelect()) {
+            if (value.getValue().isAggregate()) {
+                return null;
+            }
+        }
+        for (AbstractConstraint con : q.getWhere()) {
+            if (containsSubQuery(con)) {
+                return null;
+            }
+        }
+        Table ptTable = new Table(pt.getName(), pt.getName());
+        ConstraintSet retval = new ConstraintSet();
+        for (AbstractTable table : q.getFrom()) {
+            if (!(table instanceof Table)) {
+                return null;
+            }
+            String tableName = ((Table) table).getName();
+            if (!tablesAltered.contains(tableName)) {
+                continue;
+            }
+            if (!delta.isBounded(tableName)) {
+                return null;
+            }
+            String column = delta.getColumn(tableName);
+            SelectValue keyValue = null;
+            for (Map.Entry<AbstractValue, SelectValue> entry : pt.getValueMap().entrySet()) {
+                if ((entry.getKey() instanceof Field)
+                        && table.equals(((Field) entry.getKey()).getTable())
+                        && column.equalsIgnoreCase(((Field) entry.getKey()).getName())) {
+                    keyValue = entry.getValue();
+                    break;
+                }
+            }
+            if (keyValue == null) {
+                return null;
+            }
+            InListConstraint inTable = new InListConstraint(keyValue.getValue());
+            InListConstraint inPt = new InListConstraint(new Field(keyValue.getAlias(), ptTable));
+            for (Object key : delta.getKeys(tableName)) {
+                Constant constant = new Constant(DatabaseUtil.objectToString(key));
+                inTable.add(constant);
+                inPt.add(constant);
+            }
+            retval.add(inTable);
+            ptRestriction.add(inPt);
+        }
+        return retval;
+    }
+
+    private static boolean containsSubQuery(AbstractConstraint con) {
+        if (con instanceof SubQueryConstraint) {
+            return true;
+        } else if (con instanceof NotConstraint) {
+            return containsSubQuery(((NotConstraint) con).getConstraint());
+        } else if (con instanceof ConstraintSet) {
+            for (AbstractConstraint subCon : ((ConstraintSet) con).getConstraints()) {
+                if (containsSubQuery(subCon)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     /**
      * Delete a precomputed table from the underlying database.
      *
@@ -184,7 +184,8 @@ public final class QueryOptimiser
         Query optimiseQuery = originalQuery;
         callCount++;
         if (callCount % REPORT_INTERVAL == 0) {
-            LOG.info("Optimiser called " + callCount + " times");
+            LOG.info("Optimiser called " + callCount + " times - " + cache.getStatistics() + ", "
+                    + Query.getParseCacheStatistics());
         }
         long start = new Date().getTime();
         long parseTime = 0;
@@ -216,6 +217,10 @@ public final class QueryOptimiser
                 bestQuery = new BestQueryLogger(true);
             } else if (context.getMode() == QueryOptimiserContext.MODE_VERBOSE_SUMMARY) {
                 bestQuery = new BestQueryLogger(false);
+            } else if ((context.getParallelism() > 1) && (database != null)) {
+                bestQuery = new BestQueryExplainerParallel(database, explainConnection,
+                        context.getTimeLimit(), context.getParallelism(),
+                        context.getEarlyStopMargin());
             } else {
                 bestQuery = new BestQueryExplainer(explainConnection, context.getTimeLimit());
             }
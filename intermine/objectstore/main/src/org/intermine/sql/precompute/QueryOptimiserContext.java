@@ -33,6 +33,8 @@ public class QueryOptimiserContext
     // to a Query object in milliseconds. It can be overwritten by the property:
     // os.query.max-query-parse-time=200
     private long maxQueryParseTime = 100;
+    private int parallelism = 1;
+    private double earlyStopMargin = 0.0;
 
 
     /**
@@ -113,6 +115,53 @@ public class QueryOptimiserContext
         this.maxQueryParseTime = maxQueryParseTime;
     }
 
+    /**
+     * Sets the number of candidate queries that the optimiser may explain at once, each on its
+     * own connection from the database connection pool. A value of 1 explains one candidate at a
+     * time on the connection that the optimiser was given.
+     *
+     * @param parallelism the number of candidates to explain at once
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Invalid parallelism " + parallelism);
+        }
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Returns the number of candidate queries that the optimiser may explain at once.
+     *
+     * @return an int
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Sets the margin by which a candidate query must beat the best query found so far for the
+     * optimiser to stop looking for a better one. For example, a margin of 0.5 stops the search
+     * as soon as a candidate is expected to take half the time of the previous best. A value of
+     * zero disables this early stop.
+     *
+     * @param earlyStopMargin a fraction between zero and one
+     */
+    public void setEarlyStopMargin(double earlyStopMargin) {
+        if ((earlyStopMargin < 0.0) || (earlyStopMargin >= 1.0)) {
+            throw new IllegalArgumentException("Invalid early stop margin " + earlyStopMargin);
+        }
+        this.earlyStopMargin = earlyStopMargin;
+    }
+
+    /**
+     * Returns the margin by which a candidate must beat the best query so far to stop the search.
+     *
+     * @return a fraction, or zero if the search is not stopped early
+     */
+    public double getEarlyStopMargin() {
+        return earlyStopMargin;
+    }
+
     /**
      * The default context - normal operation with no time limit.
      */
@@ -138,5 +187,17 @@ public class QueryOptimiserContext
         public long getTimeLimit() {
             return -1;
         }
+
+        @Override
+        public void setParallelism(@SuppressWarnings("unused") int parallelism) {
+            throw new IllegalStateException("This is the default QueryOptimiserContext - it cannot"
+                    + " be altered");
+        }
+
+        @Override
+        public void setEarlyStopMargin(@SuppressWarnings("unused") double earlyStopMargin) {
+            throw new IllegalStateException("This is the default QueryOptimiserContext - it cannot"
+                    + " be altered");
+        }
     };
 }
@@ -0,0 +1,120 @@
+package org.intermine.sql.precompute;
+
+/*
+ * Copyright (C) 2002-2016 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Records which rows of each table have been inserted or deleted during a transaction, by the
+ * value of a key column. Every row inserted into or deleted from a table must be recorded, by the
+ * same key column, for the table to be bounded. A table that has been altered in some other way,
+ * or in which too many rows have been altered, is unbounded, and the precomputed tables that use
+ * it cannot be maintained incrementally.
+ *
+ * @author agent
+ */
+public class WriteDelta
+{
+    /** The maximum number of keys recorded for a table before it becomes unbounded */
+    public static final int MAX_KEYS = 10000;
+
+    protected Map<String, String> columns = new HashMap<String, String>();
+    protected Map<String, Set<Object>> keys = new HashMap<String, Set<Object>>();
+    protected Set<String> unbounded = new HashSet<String>();
+
+    /**
+     * Records that a row has been inserted into or deleted from a table.
+     *
+     * @param table the name of the table
+     * @param column the name of the key column
+     * @param key the value of the key column in the row
+     */
+    public void addKey(String table, String column, Object key) {
+        if (unbounded.contains(table)) {
+            return;
+        }
+        Set<Object> tableKeys = keys.get(table);
+        if (tableKeys == null) {
+            tableKeys = new HashSet<Object>();
+            keys.put(table, tableKeys);
+            columns.put(table, column);
+        } else if (!column.equals(columns.get(table))) {
+            addUnbounded(table);
+            return;
+        }
+        tableKeys.add(key);
+        if (tableKeys.size() > MAX_KEYS) {
+            addUnbounded(table);
+        }
+    }
+
+    /**
+     * Records that a table has been altered in a way that cannot be described by keys.
+     *
+     * @param table the name of the table
+     */
+    public void addUnbounded(String table) {
+        unbounded.add(table);
+        keys.remove(table);
+        columns.remove(table);
+    }
+
+    /**
+     * Returns whether the rows altered in a table are known.
+     *
+     * @param table the name of the table
+     * @return true if the table has only been altered by recorded keys
+     */
+    public boolean isBounded(String table) {
+        return keys.containsKey(table);
+    }
+
+    /**
+     * Returns the name of the key column recorded for a table.
+     *
+     * @param table the name of the table
+     * @return the name of the column, or null if the table is not bounded
+     */
+    public String getColumn(String table) {
+        return columns.get(table);
+    }
+
+    /**
+     * Returns the keys of the rows altered in a table.
+     *
+     * @param table the name of the table
+     * @return a Set of key values, or null if the table is not bounded
+     */
+    public Set<Object> getKeys(String table) {
+        return keys.get(table);
+    }
+
+    /**
+     * Returns whether nothing has been recorded.
+     *
+     * @return a boolean
+     */
+    public boolean isEmpty() {
+        return keys.isEmpty() && unbounded.isEmpty();
+    }
+
+    /**
+     * Forgets everything that has been recorded.
+     */
+    public void clear() {
+        columns.clear();
+        keys.clear();
+        unbounded.clear();
+    }
+}
@@ -29,12 +29,18 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import java.util.regex.Pattern;
+
 import org.intermine.util.ConsistentSet;
+import org.intermine.util.TinyLfuCacheMap;
 
+import antlr.ASTFactory;
+import antlr.CommonAST;
 import antlr.Token;
 import antlr.collections.AST;
 //import antlr.debug.misc.ASTFrame;
@@ -60,6 +66,18 @@ public class Query implements SQLStringable
     protected boolean distinct;
     protected List<Query> queriesInUnion;
 
+    /** The maximum number of query shapes to hold parse trees for */
+    protected static final int PARSE_CACHE_SIZE = 2000;
+    /** The parse trees of query shapes, which must not be altered */
+    protected static final TinyLfuCacheMap<String, AST> PARSE_CACHE
+        = new TinyLfuCacheMap<String, AST>("SQL parse cache", PARSE_CACHE_SIZE);
+    private static final AST UNMEMOISABLE = new CommonAST();
+    private static final ASTFactory AST_FACTORY = new ASTFactory();
+    private static final String PLACEHOLDER = "#constant";
+    private static final long PLACEHOLDER_NUMBER = 7700000000L;
+    private static final Pattern PLACEHOLDER_PATTERN
+        = Pattern.compile("e?'#constant\\d+'|-?77\\d{8}(\\.5(::real)?)?");
+
     private Map<String, AbstractTable> aliasToTable;
     private Map<String, AbstractTable> originalAliasToTable;
     // keep track of aliases defined in the select list as they may be used elsewhere
@@ -162,6 +180,26 @@ public class Query implements SQLStringable
 
         aliasToTable = new HashMap<String, AbstractTable>();
         originalAliasToTable = new HashMap<String, AbstractTable>();
+        AST ast = null;
+        if (treeParse) {
+            ast = parseShape(sql, timeOut);
+        }
+        if (ast == null) {
+            ast = parse(sql, treeParse, timeOut);
+        }
+        processSqlStatementAST(ast);
+    }
+
+    /**
+     * Parses a String into an AST, repeating the tree-parse step until the AST stops changing.
+     *
+     * @param sql a SQL SELECT String to parse
+     * @param treeParse true if a tree-parse step is required
+     * @param timeOut maximum time in milliseconds to spend parsing, can be null for no timeout
+     * @return an AST
+     * @throws IllegalArgumentException if the SQL String is invalid
+     */
+    private static AST parse(String sql, boolean treeParse, Long timeOut) {
         try {
             InputStream is = new ByteArrayInputStream(sql.getBytes());
 
@@ -190,8 +228,7 @@ public class Query implements SQLStringable
                     }
                 } while (!oldAst.equalsList(ast));
             }
-
-            processSqlStatementAST(ast);
+            return ast;
         } catch (antlr.RecognitionException e) {
             try {
                 InputStream is = new ByteArrayInputStream(sql.getBytes());
@@ -223,6 +260,136 @@ public class Query implements SQLStringable
         }
     }
 
+    /**
+     * Returns the tree-parsed AST of a String, taken from the parse tree cache if a query of the
+     * same shape has been parsed before. The shape of a query is its SQL with each constant
+     * replaced by a numbered placeholder of the same token type, so the parse tree of the shape
+     * has the same structure as that of the query, and the constants are put back into a copy of
+     * it. Shapes whose parse tree does not keep every placeholder intact are not memoised.
+     *
+     * @param sql a SQL SELECT String to parse
+     * @param timeOut maximum time in milliseconds to spend parsing, can be null for no timeout
+     * @return an AST, or null if the String must be parsed directly
+     */
+    private static AST parseShape(String sql, Long timeOut) {
+        Map<String, String> constants = new HashMap<String, String>();
+        String shape;
+        try {
+            shape = getShape(sql, constants);
+        } catch (antlr.TokenStreamException e) {
+            return null;
+        }
+        AST shapeAst = PARSE_CACHE.get(shape);
+        if (shapeAst == null) {
+            try {
+                shapeAst = parse(shape, true, timeOut);
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+            if (!substituteConstants(shapeAst, null)) {
+                shapeAst = UNMEMOISABLE;
+            }
+            PARSE_CACHE.put(shape, shapeAst);
+        }
+        if (shapeAst == UNMEMOISABLE) {
+            return null;
+        }
+        AST retval = AST_FACTORY.dupList(shapeAst);
+        substituteConstants(retval, constants);
+        return retval;
+    }
+
+    /**
+     * Returns a summary of the parse tree cache statistics, for log messages.
+     *
+     * @return a String
+     */
+    public static String getParseCacheStatistics() {
+        return PARSE_CACHE.getStatistics();
+    }
+
+    /**
+     * Lexes a String and returns its shape, with each constant replaced by a placeholder.
+     *
+     * @param sql a SQL String
+     * @param constants a Map into which to put the original text of each placeholder
+     * @return the shape, with the tokens separated by single spaces
+     * @throws antlr.TokenStreamException if the String cannot be lexed
+     */
+    protected static String getShape(String sql, Map<String, String> constants)
+        throws antlr.TokenStreamException {
+        SqlLexer lexer = new SqlLexer(new ByteArrayInputStream(sql.getBytes()));
+        StringBuilder retval = new StringBuilder();
+        Token token = lexer.nextToken();
+        while (token.getType() != Token.EOF_TYPE) {
+            if (retval.length() > 0) {
+                retval.append(' ');
+            }
+            String text = token.getText();
+            String placeholder = null;
+            int number = constants.size();
+            boolean negative = text.startsWith("-");
+            switch (token.getType()) {
+                case SqlTokenTypes.QUOTED_STRING:
+                    placeholder = "'" + PLACEHOLDER + number + "'";
+                    break;
+                case SqlTokenTypes.ESCAPED_STRING:
+                    placeholder = "e'" + PLACEHOLDER + number + "'";
+                    break;
+                case SqlTokenTypes.INTEGER:
+                    placeholder = (negative ? "-" : "") + (PLACEHOLDER_NUMBER + number);
+                    break;
+                case SqlTokenTypes.FLOAT:
+                    placeholder = (negative ? "-" : "") + (PLACEHOLDER_NUMBER + number) + ".5"
+                        + (text.toLowerCase().endsWith("::real") ? "::real" : "");
+                    break;
+                default:
+                    break;
+            }
+            if (placeholder == null) {
+                retval.append(text);
+            } else {
+                constants.put(placeholder, text);
+                retval.append(placeholder);
+            }
+            token = lexer.nextToken();
+        }
+        return retval.toString();
+    }
+
+    /**
+     * Replaces the placeholders in the constants of an AST with their original text, or checks
+     * that every constant in the AST is a placeholder.
+     *
+     * @param ast an AST, with its siblings
+     * @param constants a Map from placeholder to original text, or null to only check the AST
+     * @return false if a constant was found that is not a placeholder
+     */
+    private static boolean substituteConstants(AST ast, Map<String, String> constants) {
+        for (AST node = ast; node != null; node = node.getNextSibling()) {
+            switch (node.getType()) {
+                case SqlTokenTypes.QUOTED_STRING:
+                case SqlTokenTypes.ESCAPED_STRING:
+                case SqlTokenTypes.INTEGER:
+                case SqlTokenTypes.FLOAT:
+                    if (constants == null) {
+                        if (!PLACEHOLDER_PATTERN.matcher(node.getText()).matches()) {
+                            return false;
+                        }
+                    } else {
+                        node.setText(constants.get(node.getText()));
+                    }
+                    break;
+                default:
+                    break;
+            }
+            if (!substituteConstants(node.getFirstChild(), constants)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Gets the current distinct status of this query.
      *
@@ -465,10 +632,30 @@ public class Query implements SQLStringable
      * @return this Query in String form
      */
     public String getSQLStringForPrecomputedTable(String extraSelect) {
+        return getSQLStringForPrecomputedTable(extraSelect, null);
+    }
+
+    /**
+     * Convert this Query into a SQL String query, without regard to the other members of the
+     * UNION, with an optional extra field in the SELECT list and an optional extra constraint in
+     * the WHERE clause. This Query is not altered.
+     *
+     * @param extraSelect an extra String to put into the select list, or null
+     * @param extraWhere an extra constraint to AND onto the WHERE clause, or null
+     * @return this Query in String form
+     */
+    public String getSQLStringForPrecomputedTable(String extraSelect,
+            AbstractConstraint extraWhere) {
+        Set<AbstractConstraint> allWhere = where;
+        if (extraWhere != null) {
+            allWhere = new LinkedHashSet<AbstractConstraint>(where);
+            allWhere.add(extraWhere);
+        }
         return (explain ? "EXPLAIN " : "") + "SELECT " + (distinct ? "DISTINCT " : "")
-            + collectionToSQLString(select, Collections.singleton(extraSelect), ", ")
+            + collectionToSQLString(select, (extraSelect == null ? null
+                        : Collections.singleton(extraSelect)), ", ")
             + (from.isEmpty() ? "" : " FROM " + collectionToSQLString(from, ", "))
-            + (where.isEmpty() ? "" : " WHERE " + collectionToSQLString(where, " AND "))
+            + (allWhere.isEmpty() ? "" : " WHERE " + collectionToSQLString(allWhere, " AND "))
             + (groupBy.isEmpty() ? "" : " GROUP BY " + collectionToSQLString(groupBy, ", ")
                 + (having.isEmpty() ? "" : " HAVING " + collectionToSQLString(having, " AND ")))
             + (orderBy.isEmpty() ? "" : " ORDER BY " + collectionToSQLString(orderBy, ", "))
@@ -18,8 +18,16 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import org.apache.log4j.Logger;
+import org.intermine.sql.Database;
 
 /**
  * A class representing a collection of writes to an SQL database. This class is intended for the
@@ -30,6 +38,15 @@ import org.apache.log4j.Logger;
  * BatchWriters are database-specific, in that they use different tricks to speed up the write,
  * some of which depend on a certain database product.
  *
+ * By default, all the writes are performed by one background thread on the Connection passed in
+ * by the caller. A Batch can instead be given several Connections of its own with
+ * setParallelFlushers, in which case each table is always written by the same one of them, so the
+ * writes to each table stay in order, but different tables are written at the same time. The
+ * writes on those Connections are committed by every flush, so that the caller's Connection can
+ * see them, which means that they are not part of the caller's transaction, and cannot be rolled
+ * back by it. That mode is therefore only for bulk loads that would be started again from scratch
+ * if they failed.
+ *
  * @author Matthew Wakeling
  */
 public class Batch
@@ -50,6 +67,12 @@ public class Batch
     private boolean closed = false;
     private static final List<FlushJob> CLOSE_DOWN_COMMAND = new ArrayList<FlushJob>();
     private static int batchId = 0;
+    private final int id;
+
+    private List<ParallelFlusher> parallelFlushers = Collections.emptyList();
+    private Map<String, ParallelFlusher> tableFlushers = new HashMap<String, ParallelFlusher>();
+    private final Map<String, TableThroughput> throughput = new TreeMap<String, TableThroughput>();
+    private long timeAtLastThroughputMessage = System.currentTimeMillis();
 
     /**
      * Constructs an empty Batch, with no tables.
@@ -58,7 +81,7 @@ public class Batch
      */
     public Batch(BatchWriter batchWriter) {
         this.batchWriter = batchWriter;
-        int id = batchId++;
+        id = batchId++;
         BatchFlusher flusher = new BatchFlusher();
         Exception e = new Exception();
         e.fillInStackTrace();
@@ -222,6 +245,7 @@ public class Batch
         backgroundFlush(con, filter);
         List<FlushJob> empty = Collections.emptyList();
         putFlushJobs(empty);
+        commitParallelFlushers();
     }
 
     /**
@@ -269,6 +293,10 @@ public class Batch
         if (closed) {
             throw new SQLException("Batch is closed");
         }
+        if (!parallelFlushers.isEmpty()) {
+            parallelBackgroundFlush(con, filter, needBatchCommit);
+            return;
+        }
         //long start = System.currentTimeMillis();
         List<FlushJob> jobs = batchWriter.write(con, tables, filter);
         int oldBatchSize = batchSize;
@@ -314,6 +342,11 @@ public class Batch
             backgroundFlush(con, null);
         } catch (SQLException e) {
         }
+        try {
+            setParallelFlushers(null, 0);
+        } catch (SQLException e) {
+            LOG.error("Error closing parallel flushers for batch " + id, e);
+        }
         closed = true;
         putFlushJobs(CLOSE_DOWN_COMMAND);
     }
@@ -336,6 +369,9 @@ public class Batch
         batchSize = 0;
         lastCheckBatchSize = 0;
         waitForFreeConnection();
+        for (ParallelFlusher flusher : parallelFlushers) {
+            flusher.rollback();
+        }
         clearProblem();
     }
 
@@ -349,9 +385,196 @@ public class Batch
             throw new IllegalStateException("Batch is closed");
         }
         waitForFreeConnection();
+        for (ParallelFlusher flusher : parallelFlushers) {
+            try {
+                flusher.waitForFree();
+            } catch (SQLException e) {
+                reportProblem(e);
+            }
+        }
         this.batchWriter = batchWriter;
     }
 
+    /**
+     * Sets the number of Connections that the batch writes on at once. With a number above one,
+     * the batch takes that many Connections of its own from the Database, and writes different
+     * tables on each of them at the same time, committing them on every flush, as described
+     * above. With a number of one or less, the batch goes back to writing everything on the
+     * caller's Connection. Everything already written on the batch's own Connections is committed
+     * before they are given back.
+     *
+     * @param db the Database to take Connections from, or null if count is one or less
+     * @param count the number of Connections to write on at once
+     * @throws SQLException if a Connection cannot be obtained, or an error occurs while committing
+     */
+    public void setParallelFlushers(Database db, int count) throws SQLException {
+        if (closed) {
+            throw new IllegalStateException("Batch is closed");
+        }
+        waitForFreeConnection();
+        SQLException failure = null;
+        for (ParallelFlusher flusher : parallelFlushers) {
+            try {
+                flusher.close();
+            } catch (SQLException e) {
+                failure = (failure == null ? e : failure);
+            }
+        }
+        if (!parallelFlushers.isEmpty()) {
+            LOG.info(getThroughputReport());
+        }
+        parallelFlushers = Collections.emptyList();
+        tableFlushers = new HashMap<String, ParallelFlusher>();
+        if (failure != null) {
+            throw failure;
+        }
+        if (count > 1) {
+            List<ParallelFlusher> flushers = new ArrayList<ParallelFlusher>();
+            try {
+                for (int i = 0; i < count; i++) {
+                    Connection flusherCon = db.getConnection();
+                    flushers.add(new ParallelFlusher(flusherCon, i));
+                    flusherCon.setAutoCommit(false);
+                }
+            } catch (SQLException e) {
+                for (ParallelFlusher flusher : flushers) {
+                    flusher.close();
+                }
+                throw e;
+            }
+            parallelFlushers = flushers;
+            LOG.info("Batch " + id + " now writing on " + count + " connections");
+        }
+    }
+
+    /**
+     * Returns the number of Connections that the batch writes on at once.
+     *
+     * @return an int
+     */
+    public int getParallelFlusherCount() {
+        return parallelFlushers.isEmpty() ? 1 : parallelFlushers.size();
+    }
+
+    /**
+     * Returns a description of the amount of data written to each table while writing on several
+     * Connections, and how long it took.
+     *
+     * @return a String
+     */
+    public String getThroughputReport() {
+        StringBuilder retval = new StringBuilder("Batch " + id + " table throughput:");
+        synchronized (throughput) {
+            for (Map.Entry<String, TableThroughput> entry : throughput.entrySet()) {
+                retval.append("\n    ").append(entry.getKey()).append(": ")
+                    .append(entry.getValue());
+            }
+        }
+        return retval.toString();
+    }
+
+    /**
+     * Writes the tables on the batch's own Connections, each table always on the same one.
+     */
+    private void parallelBackgroundFlush(Connection con, Set<String> filter,
+            boolean needBatchCommit) throws SQLException {
+        Map<ParallelFlusher, List<TableJobs>> work =
+            new HashMap<ParallelFlusher, List<TableJobs>>();
+        for (Map.Entry<String, Table> tableEntry : tables.entrySet()) {
+            String name = tableEntry.getKey();
+            int size = tableEntry.getValue().getSize();
+            if (((filter == null) || filter.contains(name)) && (size > 0)) {
+                ParallelFlusher flusher = getParallelFlusher(name, size);
+                List<FlushJob> jobs = batchWriter.write(flusher.con, tables,
+                        Collections.singleton(name));
+                List<TableJobs> flusherWork = work.get(flusher);
+                if (flusherWork == null) {
+                    flusherWork = new ArrayList<TableJobs>();
+                    work.put(flusher, flusherWork);
+                }
+                flusherWork.add(new TableJobs(name, size, jobs));
+            }
+        }
+        batchSize = 0;
+        for (Table table : tables.values()) {
+            batchSize += table.getSize();
+        }
+        lastCheckBatchSize = batchSize;
+        SQLException failure = null;
+        for (ParallelFlusher flusher : parallelFlushers) {
+            List<TableJobs> flusherWork = work.get(flusher);
+            try {
+                flusher.submit(flusherWork == null ? new ArrayList<TableJobs>() : flusherWork,
+                        needBatchCommit);
+            } catch (SQLException e) {
+                failure = (failure == null ? e : failure);
+            }
+        }
+        if (needBatchCommit) {
+            List<FlushJob> jobs = new ArrayList<FlushJob>();
+            jobs.add(new FlushJobBatchCommit(con));
+            putFlushJobs(jobs);
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Returns the flusher that writes a table, picking the one with the least data so far for a
+     * table that has not been written before.
+     */
+    private ParallelFlusher getParallelFlusher(String name, int size) {
+        ParallelFlusher retval = tableFlushers.get(name);
+        if (retval == null) {
+            for (ParallelFlusher flusher : parallelFlushers) {
+                if ((retval == null) || (flusher.assigned < retval.assigned)) {
+                    retval = flusher;
+                }
+            }
+            tableFlushers.put(name, retval);
+        }
+        retval.assigned += size;
+        return retval;
+    }
+
+    /**
+     * Waits for the batch's own Connections to finish writing, and commits them.
+     */
+    private void commitParallelFlushers() throws SQLException {
+        SQLException failure = null;
+        for (ParallelFlusher flusher : parallelFlushers) {
+            try {
+                flusher.commit();
+            } catch (SQLException e) {
+                failure = (failure == null ? e : failure);
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Records the time taken to write some data to a table, and logs the throughput of all the
+     * tables every 100 seconds.
+     */
+    private void recordThroughput(String name, int size, long time) {
+        synchronized (throughput) {
+            TableThroughput tableThroughput = throughput.get(name);
+            if (tableThroughput == null) {
+                tableThroughput = new TableThroughput();
+                throughput.put(name, tableThroughput);
+            }
+            tableThroughput.add(size, time);
+            long now = System.currentTimeMillis();
+            if (now / 100000 > timeAtLastThroughputMessage / 100000) {
+                timeAtLastThroughputMessage = now;
+                LOG.info(getThroughputReport());
+            }
+        }
+    }
+
     /**
      * Returns a List of flush jobs (each as fully-processed as possible) when one becomes
      * available.
@@ -442,6 +665,180 @@ public class Batch
         problem = null;
     }
 
+    /**
+     * The jobs that write one flush of one table.
+     */
+    private static class TableJobs
+    {
+        private final String name;
+        private final int size;
+        private final List<FlushJob> jobs;
+
+        TableJobs(String name, int size, List<FlushJob> jobs) {
+            this.name = name;
+            this.size = size;
+            this.jobs = jobs;
+        }
+    }
+
+    /**
+     * The amount of data written to a table and the time it took.
+     */
+    private static class TableThroughput
+    {
+        private long size = 0;
+        private long time = 0;
+        private int flushes = 0;
+
+        void add(int addSize, long addTime) {
+            size += addSize;
+            time += addTime;
+            flushes++;
+        }
+
+        @Override
+        public String toString() {
+            return size + " bytes in " + flushes + " flushes, " + time + " ms ("
+                + (size / Math.max(1L, time)) + " kB/s)";
+        }
+    }
+
+    /**
+     * One of the batch's own Connections, with a thread that writes to it. Only one flush is
+     * queued at a time, so the caller waits for the previous flush to finish before queueing
+     * another, as with the single flusher.
+     */
+    private class ParallelFlusher
+    {
+        private final Connection con;
+        private final ExecutorService executor;
+        private Future<Object> pending = null;
+        private boolean uncommitted = false;
+        private long assigned = 0;
+
+        ParallelFlusher(Connection con, final int flusherNo) {
+            this.con = con;
+            executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r);
+                    thread.setDaemon(true);
+                    thread.setName("WriteBatch Flusher - " + id + "." + flusherNo);
+                    return thread;
+                }
+            });
+        }
+
+        /**
+         * Waits for the previous flush to finish, throwing any exception it threw.
+         */
+        void waitForFree() throws SQLException {
+            if (pending != null) {
+                long startTime = System.currentTimeMillis();
+                try {
+                    pending.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof SQLException) {
+                        throw (SQLException) e.getCause();
+                    }
+                    SQLException s = new SQLException("Caught a Throwable in the Batch Flusher");
+                    s.initCause(e.getCause());
+                    throw s;
+                } catch (InterruptedException e) {
+                    SQLException s = new SQLException("Interrupted waiting for Batch Flusher");
+                    s.initCause(e);
+                    throw s;
+                } finally {
+                    pending = null;
+                    long endTime = System.currentTimeMillis();
+                    if (endTime > startTime + 100) {
+                        LOG.info("Waited " + (endTime - startTime) + " ms for batch flusher");
+                    }
+                }
+            }
+        }
+
+        /**
+         * Queues the writes for some tables, after waiting for the previous flush. The writes go
+         * ahead even if the previous flush threw an exception, which is then thrown.
+         */
+        void submit(final List<TableJobs> work, final boolean needCommit) throws SQLException {
+            SQLException failure = null;
+            try {
+                waitForFree();
+            } catch (SQLException e) {
+                failure = e;
+            }
+            if (!work.isEmpty() || needCommit) {
+                uncommitted = true;
+                pending = executor.submit(new Callable<Object>() {
+                    public Object call() throws SQLException {
+                        for (TableJobs tableJobs : work) {
+                            long start = System.currentTimeMillis();
+                            for (FlushJob job : tableJobs.jobs) {
+                                job.flush();
+                            }
+                            recordThroughput(tableJobs.name, tableJobs.size,
+                                    System.currentTimeMillis() - start);
+                        }
+                        if (needCommit) {
+                            con.commit();
+                        }
+                        return null;
+                    }
+                });
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+
+        /**
+         * Waits for the previous flush, and commits everything written since the last commit.
+         */
+        void commit() throws SQLException {
+            waitForFree();
+            if (uncommitted) {
+                con.commit();
+                uncommitted = false;
+            }
+        }
+
+        /**
+         * Waits for the previous flush, ignoring any exception, and rolls back everything written
+         * since the last commit.
+         */
+        void rollback() {
+            try {
+                waitForFree();
+            } catch (SQLException e) {
+                // The writes are being thrown away anyway
+            }
+            try {
+                con.rollback();
+            } catch (SQLException e) {
+                LOG.warn("Could not roll back batch flusher connection", e);
+            }
+            uncommitted = false;
+        }
+
+        /**
+         * Commits everything written, stops the thread, and closes the Connection.
+         */
+        void close() throws SQLException {
+            try {
+                commit();
+            } finally {
+                executor.shutdownNow();
+                try {
+                    con.setAutoCommit(true);
+                    con.close();
+                } catch (SQLException e) {
+                    LOG.error("Could not release batch flusher connection " + con, e);
+                }
+            }
+        }
+    }
+
     private class BatchFlusher implements Runnable
     {
         public BatchFlusher() {
@@ -10,7 +10,6 @@ package org.intermine.sql.writebatch;
  *
  */
 
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.math.BigDecimal;
 import java.math.BigInteger;
@@ -19,8 +18,9 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
 
 import org.apache.log4j.Logger;
 import org.intermine.model.StringConstructor;
@@ -43,71 +43,71 @@ public class BatchWriterPostgresCopyImpl extends BatchWriterPreparedStatementImp
     /**
      * {@inheritDoc}
      */
-    @SuppressWarnings("unchecked")
     @Override
     protected int doInserts(String name, TableBatch table, List<FlushJob> batches)
         throws SQLException {
         String[] colNames = table.getColNames();
         if ((colNames != null) && (!table.getIdsToInsert().isEmpty())) {
-            try {
-                CopyManager copyManager = null;
-                if (con.isWrapperFor(PGConnection.class)) {
-                    copyManager = con.unwrap(PGConnection.class).getCopyAPI();
-                }
-                if (copyManager == null) {
-                    LOG.warn("Database with Connection " + con.getClass().getName()
-                            + " is incompatible with the PostgreSQL COPY command - falling"
-                            + " back to prepared statements");
-                    super.doInserts(name, table, batches);
-                } else {
-                    PostgresByteArrayOutputStream baos = new PostgresByteArrayOutputStream();
-                    PostgresDataOutputStream dos = new PostgresDataOutputStream(baos);
-                    dos.writeBytes("PGCOPY\n");
-                    dos.writeByte(255);
-                    dos.writeBytes("\r\n");
-                    dos.writeByte(0); // Signature done
-                    dos.writeInt(0); // Flags - we aren't supplying OIDS
-                    dos.writeInt(0); // Length of header extension
-                    for (Map.Entry<Object, Object> insertEntry : table.getIdsToInsert()
-                            .entrySet()) {
-                        Object inserts = insertEntry.getValue();
-                        if (inserts instanceof Object[]) {
-                            Object[] values = (Object[]) inserts;
-                            dos.writeShort(colNames.length);
-                            for (int i = 0; i < colNames.length; i++) {
-                                writeObject(dos, values[i]);
-                            }
-                        } else {
-                            for (Object[] values : ((List<Object[]>) inserts)) {
-                                dos.writeShort(colNames.length);
-                                for (int i = 0; i < colNames.length; i++) {
-                                    writeObject(dos, values[i]);
-                                }
-                            }
-                        }
-                    }
-                    StringBuffer sqlBuffer = new StringBuffer("COPY ").append(name).append(" (");
-                    for (int i = 0; i < colNames.length; i++) {
-                        if (i > 0) {
-                            sqlBuffer.append(", ");
-                        }
-                        sqlBuffer.append(colNames[i]);
+            CopyManager copyManager = null;
+            if (con.isWrapperFor(PGConnection.class)) {
+                copyManager = con.unwrap(PGConnection.class).getCopyAPI();
+            }
+            if (copyManager == null) {
+                LOG.warn("Database with Connection " + con.getClass().getName()
+                        + " is incompatible with the PostgreSQL COPY command - falling"
+                        + " back to prepared statements");
+                super.doInserts(name, table, batches);
+            } else {
+                StringBuffer sqlBuffer = new StringBuffer("COPY ").append(name).append(" (");
+                for (int i = 0; i < colNames.length; i++) {
+                    if (i > 0) {
+                        sqlBuffer.append(", ");
                     }
-                    sqlBuffer.append(") FROM STDIN BINARY");
-                    String sql = sqlBuffer.toString();
-                    dos.writeShort(-1);
-                    dos.flush();
-                    batches.add(new FlushJobPostgresCopyImpl(copyManager, sql,
-                                baos.getBuffer(), baos.size()));
+                    sqlBuffer.append(colNames[i]);
                 }
-            } catch (IOException e) {
-                throw new SQLException(e.toString());
+                sqlBuffer.append(") FROM STDIN BINARY");
+                String sql = sqlBuffer.toString();
+                // The rows are encoded by the flusher as they are sent. TableBatch.clear()
+                // replaces the map rather than emptying it, so these rows stay intact.
+                final int colCount = colNames.length;
+                final Collection<Object> inserts = table.getIdsToInsert().values();
+                batches.add(new FlushJobPostgresCopyImpl(copyManager, sql,
+                            new FlushJobPostgresCopyImpl.RowWriter() {
+                                public void writeRows(PostgresDataOutputStream dos)
+                                    throws IOException {
+                                    writeInserts(dos, colCount, inserts);
+                                }
+                            }));
             }
             return table.getIdsToInsert().size();
         }
         return 0;
     }
 
+    /**
+     * Writes rows of a TableBatch in the binary COPY format.
+     */
+    @SuppressWarnings("unchecked")
+    private static void writeInserts(PostgresDataOutputStream dos, int colCount,
+            Collection<Object> inserts) throws IOException {
+        for (Object insert : inserts) {
+            if (insert instanceof Object[]) {
+                Object[] values = (Object[]) insert;
+                dos.writeShort(colCount);
+                for (int i = 0; i < colCount; i++) {
+                    writeObject(dos, values[i]);
+                }
+            } else {
+                for (Object[] values : ((List<Object[]>) insert)) {
+                    dos.writeShort(colCount);
+                    for (int i = 0; i < colCount; i++) {
+                        writeObject(dos, values[i]);
+                    }
+                }
+            }
+        }
+    }
+
     // TODO: Add support for UUID.
     private static void writeObject(PostgresDataOutputStream dos, Object o) throws IOException {
         if (o == null) {
@@ -199,40 +199,32 @@ public class BatchWriterPostgresCopyImpl extends BatchWriterPreparedStatementImp
     protected int doIndirectionInserts(String name,
             IndirectionTableBatch table, List<FlushJob> batches) throws SQLException {
         if (!table.getRowsToInsert().isEmpty()) {
-            try {
-                CopyManager copyManager = null;
-                if (con.isWrapperFor(PGConnection.class)) {
-                    copyManager = con.unwrap(PGConnection.class).getCopyAPI();
-                }
-                if (copyManager == null) {
-                    LOG.warn("Database is incompatible with the PostgreSQL COPY command - falling"
-                            + " back to prepared statements");
-                    super.doIndirectionInserts(name, table, batches);
-                } else {
-                    PostgresByteArrayOutputStream baos = new PostgresByteArrayOutputStream();
-                    DataOutputStream dos = new DataOutputStream(baos);
-                    dos.writeBytes("PGCOPY\n");
-                    dos.writeByte(255);
-                    dos.writeBytes("\r\n");
-                    dos.writeByte(0); // Signature done
-                    dos.writeInt(0); // Flags - we aren't supplying OIDS
-                    dos.writeInt(0); // Length of header extension
-                    for (Row row : table.getRowsToInsert()) {
-                        dos.writeShort(2);
-                        dos.writeInt(4);
-                        dos.writeInt(row.getLeft());
-                        dos.writeInt(4);
-                        dos.writeInt(row.getRight());
-                    }
-                    String sql = "COPY " + name + " (" + table.getLeftColName() + ", "
-                        + table.getRightColName() + ") FROM STDIN BINARY";
-                    dos.writeShort(-1);
-                    dos.flush();
-                    batches.add(new FlushJobPostgresCopyImpl(copyManager, sql,
-                                baos.getBuffer(), baos.size()));
-                }
-            } catch (IOException e) {
-                throw new SQLException(e.toString());
+            CopyManager copyManager = null;
+            if (con.isWrapperFor(PGConnection.class)) {
+                copyManager = con.unwrap(PGConnection.class).getCopyAPI();
+            }
+            if (copyManager == null) {
+                LOG.warn("Database is incompatible with the PostgreSQL COPY command - falling"
+                        + " back to prepared statements");
+                super.doIndirectionInserts(name, table, batches);
+            } else {
+                String sql = "COPY " + name + " (" + table.getLeftColName() + ", "
+                    + table.getRightColName() + ") FROM STDIN BINARY";
+                // IndirectionTableBatch.clear() replaces the set rather than emptying it
+                final Set<Row> rows = table.getRowsToInsert();
+                batches.add(new FlushJobPostgresCopyImpl(copyManager, sql,
+                            new FlushJobPostgresCopyImpl.RowWriter() {
+                                public void writeRows(PostgresDataOutputStream dos)
+                                    throws IOException {
+                                    for (Row row : rows) {
+                                        dos.writeShort(2);
+                                        dos.writeInt(4);
+                                        dos.writeInt(row.getLeft());
+                                        dos.writeInt(4);
+                                        dos.writeInt(row.getRight());
+                                    }
+                                }
+                            }));
             }
         }
         return table.getRowsToInsert().size();
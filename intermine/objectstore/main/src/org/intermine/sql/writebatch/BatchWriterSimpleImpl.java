@@ -22,6 +22,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.log4j.Logger;
 import org.intermine.sql.DatabaseUtil;
@@ -387,7 +388,7 @@ public class BatchWriterSimpleImpl implements BatchWriter
      * They do not access any common instance variables, so they need no synchronisation.
      */
 
-    protected Map<String, Statistic> stats = new HashMap<String, Statistic>();
+    protected Map<String, Statistic> stats = new ConcurrentHashMap<String, Statistic>();
 
     /**
      * {@inheritDoc}
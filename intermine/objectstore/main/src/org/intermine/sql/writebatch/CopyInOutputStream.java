@@ -0,0 +1,140 @@
+package org.intermine.sql.writebatch;
+
+/*
+ * Copyright (C) 2002-2016 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.SQLException;
+
+import org.postgresql.copy.CopyIn;
+
+/**
+ * An OutputStream that sends the data of a PostgreSQL COPY command to the database as it is
+ * written, through a fixed-size buffer, instead of collecting all of it in memory first. Each
+ * thread reuses the same buffer for all its COPY commands.
+ *
+ * @author agent
+ */
+public class CopyInOutputStream extends OutputStream
+{
+    /** The size of the buffer */
+    public static final int BUFFER_SIZE = 65536;
+    private static final ThreadLocal<byte[]> BUFFERS = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[BUFFER_SIZE];
+        }
+    };
+
+    private final CopyIn copyIn;
+    private final byte[] buffer;
+    private int count = 0;
+    private long written = 0;
+
+    /**
+     * Constructs a stream that writes to a COPY command that has been started.
+     *
+     * @param copyIn the CopyIn of the COPY command
+     */
+    public CopyInOutputStream(CopyIn copyIn) {
+        this.copyIn = copyIn;
+        buffer = BUFFERS.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(int b) throws IOException {
+        if (count == buffer.length) {
+            drain();
+        }
+        buffer[count++] = (byte) b;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (len > buffer.length - count) {
+            drain();
+        }
+        if (len >= buffer.length) {
+            send(b, off, len);
+        } else {
+            System.arraycopy(b, off, buffer, count, len);
+            count += len;
+        }
+    }
+
+    /**
+     * Sends the data in the buffer to the database.
+     *
+     * @throws IOException if an error occurs sending the data
+     */
+    @Override
+    public void flush() throws IOException {
+        drain();
+    }
+
+    private void drain() throws IOException {
+        if (count > 0) {
+            send(buffer, 0, count);
+            count = 0;
+        }
+    }
+
+    private void send(byte[] b, int off, int len) throws IOException {
+        try {
+            copyIn.writeToCopy(b, off, len);
+            written += len;
+        } catch (SQLException e) {
+            throw new IOException("Error sending COPY data to the database", e);
+        }
+    }
+
+    /**
+     * Sends the rest of the data and finishes the COPY command.
+     *
+     * @return the number of rows copied
+     * @throws IOException if an error occurs sending the data
+     * @throws SQLException if the database reports an error
+     */
+    public long endCopy() throws IOException, SQLException {
+        drain();
+        return copyIn.endCopy();
+    }
+
+    /**
+     * Abandons the COPY command if it has not finished, discarding the buffer.
+     */
+    public void cancel() {
+        count = 0;
+        try {
+            if (copyIn.isActive()) {
+                copyIn.cancelCopy();
+            }
+        } catch (SQLException e) {
+            // The error that caused the cancel is more useful
+        }
+    }
+
+    /**
+     * Returns the number of bytes sent to the database so far.
+     *
+     * @return a long
+     */
+    public long getBytesWritten() {
+        return written;
+    }
+}
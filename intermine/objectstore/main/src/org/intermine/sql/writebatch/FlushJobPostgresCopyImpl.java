@@ -14,10 +14,13 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.sql.SQLException;
 
+import org.postgresql.copy.CopyIn;
 import org.postgresql.copy.CopyManager;
 
 /**
- * An implementation of the FlushJob interface that represents a batch created in a Statement.
+ * An implementation of the FlushJob interface that runs a PostgreSQL binary COPY command. The
+ * data is either a byte array prepared in advance, or rows that are encoded while they are sent
+ * to the database, through a CopyInOutputStream.
  *
  * @author Matthew Wakeling
  */
@@ -27,6 +30,7 @@ public class FlushJobPostgresCopyImpl implements FlushJob
     private String sql;
     private byte[] data;
     private int size;
+    private RowWriter rows;
 
     /**
      * Constructor for this class
@@ -43,10 +47,27 @@ public class FlushJobPostgresCopyImpl implements FlushJob
         this.size = size;
     }
 
+    /**
+     * Constructor for this class, for data that is encoded while it is sent to the database.
+     *
+     * @param copyManager the CopyManager to use
+     * @param sql the SQL String containing the COPY command
+     * @param rows a RowWriter that writes the rows of the COPY data
+     */
+    public FlushJobPostgresCopyImpl(CopyManager copyManager, String sql, RowWriter rows) {
+        this.copyManager = copyManager;
+        this.sql = sql;
+        this.rows = rows;
+    }
+
     /**
      * {@inheritDoc}
      */
     public void flush() throws SQLException {
+        if (rows != null) {
+            flushRows();
+            return;
+        }
         try {
             copyManager.copyIn(sql, new ByteArrayInputStream(data, 0, size));
             copyManager = null;
@@ -64,4 +85,56 @@ public class FlushJobPostgresCopyImpl implements FlushJob
             throw e2;
         }
     }
+
+    private void flushRows() throws SQLException {
+        CopyIn copyIn = copyManager.copyIn(sql);
+        CopyInOutputStream out = new CopyInOutputStream(copyIn);
+        boolean finished = false;
+        try {
+            PostgresDataOutputStream dos = new PostgresDataOutputStream(out);
+            dos.writeBytes("PGCOPY\n");
+            dos.writeByte(255);
+            dos.writeBytes("\r\n");
+            dos.writeByte(0); // Signature done
+            dos.writeInt(0); // Flags - we aren't supplying OIDS
+            dos.writeInt(0); // Length of header extension
+            rows.writeRows(dos);
+            dos.writeShort(-1);
+            dos.flush();
+            out.endCopy();
+            finished = true;
+            copyManager = null;
+            sql = null;
+            rows = null;
+        } catch (SQLException e) {
+            SQLException e2 = new SQLException("Error writing to database, running statement "
+                    + sql + ", data sent = " + out.getBytesWritten());
+            e2.initCause(e);
+            throw e2;
+        } catch (IOException e) {
+            SQLException e2 = new SQLException("Error writing to database, running statement "
+                    + sql + ", data sent = " + out.getBytesWritten());
+            e2.initCause(e);
+            throw e2;
+        } finally {
+            if (!finished) {
+                out.cancel();
+            }
+        }
+    }
+
+    /**
+     * Writes the rows of the data for a binary COPY command, which are sent to the database as
+     * they are written.
+     */
+    public interface RowWriter
+    {
+        /**
+         * Writes the rows, without the header or trailer of the COPY data.
+         *
+         * @param dos the stream to write the rows to
+         * @throws IOException if an error occurs sending the data
+         */
+        void writeRows(PostgresDataOutputStream dos) throws IOException;
+    }
 }
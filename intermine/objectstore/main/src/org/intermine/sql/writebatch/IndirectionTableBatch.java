@@ -123,11 +123,12 @@ public class IndirectionTableBatch implements Table
     }
 
     /**
-     * Clears the batch.
+     * Clears the batch. The sets of rows are replaced rather than emptied, so that FlushJobs made
+     * from them can still read them after the batch has moved on.
      */
     public void clear() {
-        rowsToInsert.clear();
-        rowsToDelete.clear();
+        rowsToInsert = new TreeSet<Row>();
+        rowsToDelete = new TreeSet<Row>();
         size = 0;
     }
 
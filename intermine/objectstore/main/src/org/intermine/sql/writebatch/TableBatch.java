@@ -183,14 +183,15 @@ public class TableBatch implements Table
     }
 
     /**
-     * Clears the batch.
+     * Clears the batch. The collections of rows are replaced rather than emptied, so that
+     * FlushJobs made from them can still read them after the batch has moved on.
      */
     public void clear() {
         if (idsToDelete != null) {
-            idsToDelete.clear();
+            idsToDelete = new TreeSet<Object>(NullFirstComparator.SINGLETON);
         }
         if (idsToInsert != null) {
-            idsToInsert.clear();
+            idsToInsert = new TreeMap<Object, Object>(NullFirstComparator.SINGLETON);
         }
         size = 0;
     }
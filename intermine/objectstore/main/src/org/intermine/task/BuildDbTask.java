@@ -12,6 +12,7 @@ package org.intermine.task;
 
 import static org.intermine.objectstore.intermine.ObjectStoreInterMineImpl.CLOBVAL_COLUMN;
 import static org.intermine.objectstore.intermine.ObjectStoreInterMineImpl.CLOB_TABLE_NAME;
+import static org.intermine.objectstore.intermine.ObjectStoreInterMineImpl.INT_BAG_TABLE_NAME;
 
 import java.io.BufferedReader;
 import java.io.File;
@@ -21,7 +22,10 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.sql.Connection;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.Set;
 
 import org.apache.log4j.Logger;
 import org.apache.tools.ant.BuildException;
@@ -30,6 +34,7 @@ import org.apache.tools.ant.Target;
 import org.apache.tools.ant.Task;
 import org.apache.torque.task.TorqueSQLExec;
 import org.apache.torque.task.TorqueSQLTask;
+import org.intermine.modelproduction.MetadataManager;
 import org.intermine.objectstore.intermine.ObjectStoreInterMineImpl;
 import org.intermine.sql.Database;
 import org.intermine.sql.DatabaseFactory;
@@ -38,6 +43,12 @@ import org.intermine.util.PropertiesUtil;
 
 /**
  * Generates and inserts SQL given database name, schema and temporary directory
+ * <p>
+ * If the property &lt;osName&gt;.unlogged is true, the class, indirection and clob tables are
+ * made UNLOGGED once they have been created, so that loading data into them does not write it
+ * all to the write-ahead log as well. Unlogged tables are emptied if the database crashes, and
+ * are not copied to replicas, so they should be made logged again with SetTablesLoggedTask
+ * once the build has finished.
  *
  * @author Mark Woodbridge
  */
@@ -51,6 +62,7 @@ public class BuildDbTask extends Task
     protected String schemaFile;
     private String os;
     private String model;
+    private boolean unlogged = false;
 
     /**
      * Sets the objectstore
@@ -61,6 +73,8 @@ public class BuildDbTask extends Task
         try {
             this.databaseAlias = PropertiesUtil.getProperties().getProperty(os + ".db");
             this.database = DatabaseFactory.getDatabase(databaseAlias);
+            this.unlogged = "true".equals(PropertiesUtil.getProperties()
+                    .getProperty(os + ".unlogged"));
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -251,6 +265,32 @@ public class BuildDbTask extends Task
             }
         }
 
+        if (unlogged) {
+            if (database.isVersionAtLeast("9.5")) {
+                c = null;
+                try {
+                    c = database.getConnection();
+                    c.setAutoCommit(true);
+                    // the tables are still empty, so this is cheap
+                    DatabaseUtil.setTablesLogged(c, getBulkTables(c), false);
+                } catch (SQLException e) {
+                    throw new BuildException("Failed to make tables unlogged - for database: "
+                            + databaseAlias, e);
+                } finally {
+                    if (c != null) {
+                        try {
+                            c.close();
+                        } catch (SQLException e) {
+                            // ignore
+                        }
+                    }
+                }
+            } else {
+                LOG.warn("Not making tables unlogged in database " + databaseAlias
+                        + " because PostgreSQL " + database.getVersion() + " is older than 9.5");
+            }
+        }
+
         tempFile.delete();
 
         //create bagvalues table in userprofile
@@ -273,6 +313,23 @@ public class BuildDbTask extends Task
             }
         }
     }
+
+    /**
+     * Returns the names of the tables that hold the data of a build, which are all the tables
+     * just created from the schema except the metadata and int bag tables.
+     */
+    private static Set<String> getBulkTables(Connection c) throws SQLException {
+        Set<String> tablenames = new HashSet<String>();
+        ResultSet res = c.getMetaData().getTables(null, null, "%", new String[] {"TABLE"});
+        while (res.next()) {
+            String tablename = res.getString(3).toLowerCase();
+            if (!(MetadataManager.METADATA_TABLE.equals(tablename)
+                        || INT_BAG_TABLE_NAME.equals(tablename))) {
+                tablenames.add(tablename);
+            }
+        }
+        return tablenames;
+    }
 }
 
 /**
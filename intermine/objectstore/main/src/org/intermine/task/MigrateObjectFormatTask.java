@@ -0,0 +1,209 @@
+package org.intermine.task;
+
+/*
+ * Copyright (C) 2002-2016 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.log4j.Logger;
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Task;
+import org.intermine.metadata.ClassDescriptor;
+import org.intermine.metadata.Model;
+import org.intermine.model.InterMineObject;
+import org.intermine.modelproduction.MetadataManager;
+import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.ObjectStoreFactory;
+import org.intermine.objectstore.intermine.CompactObjectFormat;
+import org.intermine.objectstore.intermine.DatabaseSchema;
+import org.intermine.objectstore.intermine.NotXmlParser;
+import org.intermine.objectstore.intermine.NotXmlRenderer;
+import org.intermine.objectstore.intermine.ObjectStoreInterMineImpl;
+import org.intermine.sql.DatabaseUtil;
+
+/**
+ * Rewrites the OBJECT column of every table in an ObjectStore into the given format, and records
+ * the new format in the metadata so that future writes use it. Rows already in the target format
+ * are left alone, so the task can be re-run after an interruption, and the ObjectStore can read
+ * the database throughout, as both formats are always accepted. Nothing should be writing to the
+ * ObjectStore while the task runs.
+ *
+ * @author agent
+ */
+public class MigrateObjectFormatTask extends Task
+{
+    private static final Logger LOG = Logger.getLogger(MigrateObjectFormatTask.class);
+
+    protected String osName;
+    protected String format;
+    protected int batchSize = 10000;
+
+    /**
+     * Sets the alias of the ObjectStore to migrate.
+     *
+     * @param osName the ObjectStore alias
+     */
+    public void setOsName(String osName) {
+        this.osName = osName;
+    }
+
+    /**
+     * Sets the format to convert to, which is "compact" or "notxml".
+     *
+     * @param format the name of the format
+     */
+    public void setFormat(String format) {
+        this.format = format;
+    }
+
+    /**
+     * Sets the number of rows to convert in each transaction.
+     *
+     * @param batchSize the number of rows
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void execute() {
+        if (osName == null) {
+            throw new BuildException("osName attribute is not set");
+        }
+        if (format == null) {
+            throw new BuildException("format attribute is not set");
+        }
+        boolean compact;
+        try {
+            compact = DatabaseSchema.isCompactObjectFormat(format);
+        } catch (IllegalArgumentException e) {
+            throw new BuildException(e.getMessage());
+        }
+        Connection c = null;
+        ObjectStoreInterMineImpl os = null;
+        try {
+            ObjectStore objectStore = ObjectStoreFactory.getObjectStore(osName);
+            if (!(objectStore instanceof ObjectStoreInterMineImpl)) {
+                throw new BuildException("Objectstore " + osName
+                        + " is not an ObjectStoreInterMineImpl");
+            }
+            os = (ObjectStoreInterMineImpl) objectStore;
+            c = os.getConnection();
+            for (String table : getObjectTables(os, c)) {
+                migrateTable(os, c, table, compact);
+            }
+            MetadataManager.store(os.getDatabase(), MetadataManager.OBJECT_FORMAT, format);
+        } catch (BuildException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new BuildException(e);
+        } finally {
+            if (c != null) {
+                os.releaseConnection(c);
+            }
+        }
+    }
+
+    /**
+     * Returns the names of the tables in the database that have an OBJECT column.
+     *
+     * @param os the ObjectStore
+     * @param c a Connection to the database
+     * @return a Set of table names
+     * @throws SQLException if something goes wrong
+     */
+    protected Set<String> getObjectTables(ObjectStoreInterMineImpl os, Connection c)
+        throws SQLException {
+        DatabaseSchema schema = os.getSchema();
+        Model model = os.getModel();
+        Set<String> retval = new TreeSet<String>();
+        for (ClassDescriptor cld : model.getClassDescriptors()) {
+            if ((schema.getTableMaster(cld) == cld)
+                    && InterMineObject.class.isAssignableFrom(cld.getType())) {
+                String table = DatabaseUtil.getTableName(cld).toLowerCase();
+                if ((!schema.getMissingTables().contains(table))
+                        && DatabaseUtil.columnExists(c, table, "object")) {
+                    retval.add(table);
+                }
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * Converts the OBJECT column of one table, in batches in order of id.
+     *
+     * @param os the ObjectStore
+     * @param c a Connection to the database
+     * @param table the name of the table
+     * @param compact true to convert to the compact format, false to convert to NotXml
+     * @throws Exception if something goes wrong
+     */
+    protected void migrateTable(ObjectStoreInterMineImpl os, Connection c, String table,
+            boolean compact) throws Exception {
+        long start = System.currentTimeMillis();
+        int rows = 0;
+        int converted = 0;
+        boolean autoCommit = c.getAutoCommit();
+        c.setAutoCommit(false);
+        try {
+            PreparedStatement select = c.prepareStatement("SELECT id, OBJECT FROM " + table
+                    + " WHERE id > ? ORDER BY id LIMIT " + batchSize);
+            PreparedStatement update = c.prepareStatement("UPDATE " + table
+                    + " SET OBJECT = ? WHERE id = ?");
+            int lastId = Integer.MIN_VALUE;
+            boolean done = false;
+            while (!done) {
+                select.setInt(1, lastId);
+                ResultSet r = select.executeQuery();
+                int batchRows = 0;
+                int batchConverted = 0;
+                while (r.next()) {
+                    lastId = r.getInt(1);
+                    String object = r.getString(2);
+                    batchRows++;
+                    if ((object != null) && (CompactObjectFormat.isCompact(object) != compact)) {
+                        InterMineObject o = NotXmlParser.parse(object, os);
+                        update.setString(1, compact ? CompactObjectFormat.render(o, os.getModel())
+                                : NotXmlRenderer.render(o).toString());
+                        update.setInt(2, lastId);
+                        update.addBatch();
+                        batchConverted++;
+                    }
+                }
+                r.close();
+                if (batchConverted > 0) {
+                    update.executeBatch();
+                }
+                c.commit();
+                rows += batchRows;
+                converted += batchConverted;
+                done = batchRows < batchSize;
+            }
+            select.close();
+            update.close();
+        } catch (Exception e) {
+            c.rollback();
+            throw e;
+        } finally {
+            c.setAutoCommit(autoCommit);
+        }
+        LOG.info("Converted " + converted + " of " + rows + " rows in table " + table + " to "
+                + format + " in " + (System.currentTimeMillis() - start) + " ms");
+    }
+}
@@ -0,0 +1,212 @@
+package org.intermine.task;
+
+/*
+ * Copyright (C) 2002-2016 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Task;
+import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.ObjectStoreFactory;
+import org.intermine.objectstore.intermine.ObjectStoreInterMineImpl;
+import org.intermine.objectstore.intermine.PrecomputeAdvisor;
+
+/**
+ * A Task that reads the execute log or log table of an ObjectStoreInterMineImpl, and creates the
+ * precomputed tables that a PrecomputeAdvisor expects to save the most time. If a second log is
+ * given, covering the time since the tables were created, the observed times are reported instead
+ * for the recommendations that are now precomputed, and no tables are created.
+ *
+ * @author agent
+ */
+public class PrecomputeAdvisorTask extends Task
+{
+    protected String alias;
+    protected File logFile;
+    protected File afterLogFile;
+    protected String logTable;
+    protected long since = 0;
+    protected long until = Long.MAX_VALUE;
+    protected long afterSince = -1;
+    protected int maxTables = 10;
+    protected long diskBudget = 1024;
+    protected boolean dryRun = false;
+
+    /**
+     * Set the ObjectStore alias.
+     *
+     * @param alias the ObjectStore alias
+     */
+    public void setAlias(String alias) {
+        this.alias = alias;
+    }
+
+    /**
+     * Set the execute log file to read.
+     *
+     * @param logFile the log file
+     */
+    public void setLogFile(File logFile) {
+        this.logFile = logFile;
+    }
+
+    /**
+     * Set the execute log file covering the time since the precomputed tables were created.
+     *
+     * @param afterLogFile the log file
+     */
+    public void setAfterLogFile(File afterLogFile) {
+        this.afterLogFile = afterLogFile;
+    }
+
+    /**
+     * Set the log table to read, instead of a log file.
+     *
+     * @param logTable the name of the log table
+     */
+    public void setLogTable(String logTable) {
+        this.logTable = logTable;
+    }
+
+    /**
+     * Set the time from which to read the log table.
+     *
+     * @param since a time in milliseconds
+     */
+    public void setSince(Long since) {
+        this.since = since.longValue();
+    }
+
+    /**
+     * Set the time until which to read the log table.
+     *
+     * @param until a time in milliseconds
+     */
+    public void setUntil(Long until) {
+        this.until = until.longValue();
+    }
+
+    /**
+     * Set the time the precomputed tables were created, to report the log table entries since.
+     *
+     * @param afterSince a time in milliseconds
+     */
+    public void setAfterSince(Long afterSince) {
+        this.afterSince = afterSince.longValue();
+    }
+
+    /**
+     * Set the maximum number of precomputed tables to create.
+     *
+     * @param maxTables the number of tables
+     */
+    public void setMaxTables(Integer maxTables) {
+        this.maxTables = maxTables.intValue();
+    }
+
+    /**
+     * Set the maximum total size of the precomputed tables to create.
+     *
+     * @param diskBudget a size in megabytes
+     */
+    public void setDiskBudget(Long diskBudget) {
+        this.diskBudget = diskBudget.longValue();
+    }
+
+    /**
+     * Set whether to only report the precomputed tables that would be created.
+     *
+     * @param dryRun true to not create any tables
+     */
+    public void setDryRun(Boolean dryRun) {
+        this.dryRun = dryRun.booleanValue();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void execute() {
+        if (alias == null) {
+            throw new BuildException("alias attribute is not set");
+        }
+        if ((logFile == null) == (logTable == null)) {
+            throw new BuildException("exactly one of logFile and logTable must be set");
+        }
+        ObjectStore os;
+        try {
+            os = ObjectStoreFactory.getObjectStore(alias);
+        } catch (Exception e) {
+            throw new BuildException("Exception while creating ObjectStore", e);
+        }
+        if (!(os instanceof ObjectStoreInterMineImpl)) {
+            throw new BuildException(alias + " isn't an ObjectStoreInterMineImpl");
+        }
+        ObjectStoreInterMineImpl osii = (ObjectStoreInterMineImpl) os;
+        PrecomputeAdvisor advisor = new PrecomputeAdvisor(osii);
+        try {
+            List<PrecomputeAdvisor.Recommendation> recommendations;
+            if (logFile != null) {
+                recommendations = advisor.advise(readLogFile(logFile));
+            } else {
+                recommendations = advisor.advise(readLogTable(osii, since, until));
+            }
+            if ((afterLogFile != null) || (afterSince != -1)) {
+                recommendations = advisor.created(recommendations);
+                if (afterLogFile != null) {
+                    advisor.observe(recommendations, readLogFile(afterLogFile));
+                } else {
+                    advisor.observe(recommendations, readLogTable(osii, afterSince,
+                                Long.MAX_VALUE));
+                }
+            } else {
+                recommendations = advisor.choose(recommendations, maxTables,
+                        diskBudget * 1024 * 1024);
+                if (!dryRun) {
+                    advisor.create(recommendations);
+                }
+            }
+            log(PrecomputeAdvisor.report(recommendations));
+        } catch (IOException e) {
+            throw new BuildException("Error reading execute log", e);
+        } catch (SQLException e) {
+            throw new BuildException("Error reading log table", e);
+        } catch (ObjectStoreException e) {
+            throw new BuildException("Error creating precomputed tables", e);
+        }
+    }
+
+    private static List<PrecomputeAdvisor.Entry> readLogFile(File file) throws IOException {
+        Reader reader = new FileReader(file);
+        try {
+            return PrecomputeAdvisor.readExecuteLog(reader);
+        } finally {
+            reader.close();
+        }
+    }
+
+    private List<PrecomputeAdvisor.Entry> readLogTable(ObjectStoreInterMineImpl os, long from,
+            long to) throws SQLException {
+        Connection c = os.getDatabase().getConnection();
+        try {
+            return PrecomputeAdvisor.readLogTable(c, logTable, from, to);
+        } finally {
+            c.close();
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package org.intermine.task;
+
+/*
+ * Copyright (C) 2002-2016 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Task;
+import org.intermine.sql.Database;
+import org.intermine.sql.DatabaseFactory;
+import org.intermine.sql.DatabaseUtil;
+import org.intermine.util.PropertiesUtil;
+
+/**
+ * Task to make the unlogged tables of a database built with &lt;osName&gt;.unlogged=true logged
+ * again, once the data has been loaded and indexed. Making a table logged writes it all to the
+ * write-ahead log, so if the database is only read by replicas that are built from it rather than
+ * streamed from it, the logged attribute can be set to false to leave the tables unlogged.
+ *
+ * @author agent
+ */
+public class SetTablesLoggedTask extends Task
+{
+    private static final Logger LOG = Logger.getLogger(SetTablesLoggedTask.class);
+
+    protected String database;
+    protected boolean logged = true;
+
+    /**
+     * Set the database alias
+     * @param osName the objectstore alias
+     */
+    public void setOsName(String osName) {
+        this.database = PropertiesUtil.getProperties().getProperty(osName + ".db");
+    }
+
+    /**
+     * Set false to leave the tables unlogged
+     * @param logged true to make the tables logged
+     */
+    public void setLogged(boolean logged) {
+        this.logged = logged;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void execute() {
+        if (database == null) {
+            throw new BuildException("database attribute is not set");
+        }
+        try {
+            setTablesLogged(DatabaseFactory.getDatabase(database), logged);
+        } catch (Exception e) {
+            throw new BuildException(e);
+        }
+    }
+
+    /**
+     * Makes all the unlogged tables of a database logged. If logged is false, the unlogged tables
+     * are only listed in the log.
+     *
+     * @param db the Database
+     * @param logged false to leave the tables unlogged
+     * @throws SQLException if an error occurs in the underlying database
+     */
+    public static void setTablesLogged(Database db, boolean logged) throws SQLException {
+        if (!db.isVersionAtLeast("9.5")) {
+            LOG.info("Not looking for unlogged tables because PostgreSQL " + db.getVersion()
+                    + " is older than 9.5");
+            return;
+        }
+        Connection c = db.getConnection();
+        try {
+            c.setAutoCommit(true);
+            Set<String> tablenames = DatabaseUtil.getUnloggedTables(c);
+            if (logged) {
+                DatabaseUtil.setTablesLogged(c, tablenames, true);
+            } else {
+                LOG.info("Leaving tables unlogged: " + tablenames);
+            }
+        } finally {
+            c.close();
+        }
+    }
+}
@@ -20,6 +20,7 @@ import org.apache.tools.ant.Task;
 import org.intermine.metadata.Model;
 import org.intermine.metadata.ModelFactory;
 import org.intermine.modelproduction.MetadataManager;
+import org.intermine.objectstore.intermine.DatabaseSchema;
 import org.intermine.sql.Database;
 import org.intermine.sql.DatabaseFactory;
 import org.intermine.util.PropertiesUtil;
@@ -94,6 +95,7 @@ public class StoreMetadataTask extends Task
             String missingTablesString = props.getProperty("missingTables");
             String truncatedClassesString = props.getProperty("truncatedClasses");
             String noNotXmlString = props.getProperty("noNotXml");
+            String objectFormatString = props.getProperty("objectFormat");
 
             boolean noNotXml = false;
             if ("true".equals(noNotXmlString) || (noNotXmlString == null)) {
@@ -105,6 +107,13 @@ public class StoreMetadataTask extends Task
                         + noNotXmlString);
             }
 
+            boolean compactObjects;
+            try {
+                compactObjects = DatabaseSchema.isCompactObjectFormat(objectFormatString);
+            } catch (IllegalArgumentException e) {
+                throw new BuildException(e.getMessage());
+            }
+
             MetadataManager.store(db, MetadataManager.OS_FORMAT_VERSION, "" + FORMAT_VERSION);
             if (truncatedClassesString != null) {
                 MetadataManager.store(db, MetadataManager.TRUNCATED_CLASSES,
@@ -114,6 +123,8 @@ public class StoreMetadataTask extends Task
                 MetadataManager.store(db, MetadataManager.MISSING_TABLES, missingTablesString);
             }
             MetadataManager.store(db, MetadataManager.NO_NOTXML, "" + noNotXml);
+            MetadataManager.store(db, MetadataManager.OBJECT_FORMAT, compactObjects
+                    ? DatabaseSchema.OBJECT_FORMAT_COMPACT : DatabaseSchema.OBJECT_FORMAT_NOTXML);
             MetadataManager.store(db, MetadataManager.SERIAL_NUMBER, Long.toString(
                     new Random().nextLong()));
         } catch (Exception e) {
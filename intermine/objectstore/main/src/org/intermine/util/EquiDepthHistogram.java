@@ -0,0 +1,375 @@
+package org.intermine.util;
+
+/*
+ * Copyright (C) 2002-2016 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * An equi-depth histogram of the values of a column, in which each bucket holds about the same
+ * number of rows, so that common values get narrow buckets. Each bucket records its lowest and
+ * highest values, the number of rows and the number of distinct values in it. Values are held as
+ * Strings, and are compared as numbers if the histogram is numeric.
+ * <p>
+ * Histograms are built from the distinct values of a column in ascending order with the number of
+ * rows for each, which is what a GROUP BY query returns. Two histograms can be merged into an
+ * approximate histogram of the union of their rows.
+ *
+ * @author agent
+ */
+public class EquiDepthHistogram
+{
+    /** The default number of buckets */
+    public static final int DEFAULT_BUCKETS = 20;
+
+    private final boolean numeric;
+    private final List<Bucket> buckets;
+
+    /**
+     * Constructs a histogram from its buckets.
+     *
+     * @param numeric true if the values are numbers
+     * @param buckets the buckets, in ascending order
+     */
+    public EquiDepthHistogram(boolean numeric, List<Bucket> buckets) {
+        this.numeric = numeric;
+        this.buckets = Collections.unmodifiableList(new ArrayList<Bucket>(buckets));
+    }
+
+    /**
+     * Returns whether the values are compared as numbers.
+     *
+     * @return a boolean
+     */
+    public boolean isNumeric() {
+        return numeric;
+    }
+
+    /**
+     * Returns the buckets, in ascending order.
+     *
+     * @return an unmodifiable List of Buckets
+     */
+    public List<Bucket> getBuckets() {
+        return buckets;
+    }
+
+    /**
+     * Returns the total number of rows in the histogram.
+     *
+     * @return a long
+     */
+    public long getCount() {
+        long retval = 0;
+        for (Bucket bucket : buckets) {
+            retval += bucket.getCount();
+        }
+        return retval;
+    }
+
+    /**
+     * Estimates the number of rows with the given value, assuming that the rows of the bucket the
+     * value falls in are spread evenly over the distinct values of the bucket.
+     *
+     * @param value the value
+     * @return an estimate of the number of rows
+     */
+    public double estimateCount(String value) {
+        for (Bucket bucket : buckets) {
+            if ((compare(value, bucket.getLower()) >= 0)
+                    && (compare(value, bucket.getUpper()) <= 0)) {
+                return ((double) bucket.getCount()) / bucket.getDistinct();
+            }
+        }
+        return 0.0;
+    }
+
+    /**
+     * Estimates the number of rows with values in a range, assuming that the rows of a bucket that
+     * is partly in the range are spread evenly over it.
+     *
+     * @param lower the lowest value in the range, or null for no lower limit
+     * @param upper the highest value in the range, or null for no upper limit
+     * @return an estimate of the number of rows
+     */
+    public double estimateCount(String lower, String upper) {
+        double retval = 0.0;
+        for (Bucket bucket : buckets) {
+            boolean belowLower = (lower != null) && (compare(bucket.getUpper(), lower) < 0);
+            boolean aboveUpper = (upper != null) && (compare(bucket.getLower(), upper) > 0);
+            if (!(belowLower || aboveUpper)) {
+                boolean containsLower = (lower != null) && (compare(bucket.getLower(), lower) < 0);
+                boolean containsUpper = (upper != null) && (compare(bucket.getUpper(), upper) > 0);
+                if (containsLower || containsUpper) {
+                    retval += bucket.getCount() * getFraction(bucket, lower, upper);
+                } else {
+                    retval += bucket.getCount();
+                }
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * Returns the fraction of a bucket that lies within a range, by interpolation for numbers, or
+     * as a half for Strings.
+     */
+    private double getFraction(Bucket bucket, String lower, String upper) {
+        if (!numeric) {
+            return 0.5;
+        }
+        double bucketLower = Double.parseDouble(bucket.getLower());
+        double bucketUpper = Double.parseDouble(bucket.getUpper());
+        if (bucketUpper <= bucketLower) {
+            return 1.0;
+        }
+        double from = (lower == null ? bucketLower
+                : Math.max(bucketLower, Double.parseDouble(lower)));
+        double to = (upper == null ? bucketUpper
+                : Math.min(bucketUpper, Double.parseDouble(upper)));
+        return Math.max(0.0, Math.min(1.0, (to - from) / (bucketUpper - bucketLower)));
+    }
+
+    /**
+     * Compares two values, as numbers if the histogram is numeric.
+     *
+     * @param a a value
+     * @param b another value
+     * @return a negative number, zero, or a positive number as a is less than, equal to, or greater
+     * than b
+     */
+    public int compare(String a, String b) {
+        if (numeric) {
+            return Double.compare(Double.parseDouble(a), Double.parseDouble(b));
+        }
+        return a.compareTo(b);
+    }
+
+    /**
+     * Merges this histogram with another, giving an approximate histogram of the union of their
+     * rows. The buckets of both are sorted and joined into new buckets of about equal depth. Where
+     * buckets overlap, the distinct counts are added, so they may be too high.
+     *
+     * @param other a histogram of values of the same type
+     * @param bucketCount the number of buckets to aim for
+     * @return a new EquiDepthHistogram
+     */
+    public EquiDepthHistogram merge(EquiDepthHistogram other, int bucketCount) {
+        List<Bucket> all = new ArrayList<Bucket>(buckets);
+        all.addAll(other.buckets);
+        Collections.sort(all, new Comparator<Bucket>() {
+            public int compare(Bucket a, Bucket b) {
+                int retval = EquiDepthHistogram.this.compare(a.getLower(), b.getLower());
+                return (retval != 0 ? retval
+                        : EquiDepthHistogram.this.compare(a.getUpper(), b.getUpper()));
+            }
+        });
+        long total = getCount() + other.getCount();
+        long depth = Math.max(1L, (total + bucketCount - 1) / bucketCount);
+        List<Bucket> merged = new ArrayList<Bucket>();
+        Bucket current = null;
+        for (Bucket bucket : all) {
+            if (current == null) {
+                current = bucket;
+            } else {
+                String upper = (compare(bucket.getUpper(), current.getUpper()) > 0
+                        ? bucket.getUpper() : current.getUpper());
+                current = new Bucket(current.getLower(), upper,
+                        current.getCount() + bucket.getCount(),
+                        current.getDistinct() + bucket.getDistinct());
+            }
+            if (current.getCount() >= depth) {
+                merged.add(current);
+                current = null;
+            }
+        }
+        if (current != null) {
+            merged.add(current);
+        }
+        return new EquiDepthHistogram(numeric, merged);
+    }
+
+    /**
+     * Returns the histogram as a List of Strings, which can be read back with valueOf. The first
+     * String is "N" for a numeric histogram or "S" otherwise, followed by the lowest value, the
+     * highest value, the number of rows and the number of distinct values of each bucket.
+     *
+     * @return a List of Strings
+     */
+    public List<String> toStrings() {
+        List<String> retval = new ArrayList<String>();
+        retval.add(numeric ? "N" : "S");
+        for (Bucket bucket : buckets) {
+            retval.add(bucket.getLower());
+            retval.add(bucket.getUpper());
+            retval.add(Long.toString(bucket.getCount()));
+            retval.add(Long.toString(bucket.getDistinct()));
+        }
+        return retval;
+    }
+
+    /**
+     * Reads a histogram written by toStrings.
+     *
+     * @param strings the List of Strings
+     * @return an EquiDepthHistogram
+     * @throws IllegalArgumentException if the Strings are not a histogram
+     */
+    public static EquiDepthHistogram valueOf(List<String> strings) {
+        if (strings.isEmpty() || ((strings.size() - 1) % 4 != 0)
+                || !("N".equals(strings.get(0)) || "S".equals(strings.get(0)))) {
+            throw new IllegalArgumentException("Not a histogram: " + strings);
+        }
+        List<Bucket> buckets = new ArrayList<Bucket>();
+        for (int i = 1; i < strings.size(); i += 4) {
+            buckets.add(new Bucket(strings.get(i), strings.get(i + 1),
+                        Long.parseLong(strings.get(i + 2)), Long.parseLong(strings.get(i + 3))));
+        }
+        return new EquiDepthHistogram("N".equals(strings.get(0)), buckets);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return toStrings().toString();
+    }
+
+    /**
+     * A bucket of an EquiDepthHistogram.
+     */
+    public static class Bucket
+    {
+        private final String lower;
+        private final String upper;
+        private final long count;
+        private final long distinct;
+
+        /**
+         * Constructs a Bucket.
+         *
+         * @param lower the lowest value in the bucket
+         * @param upper the highest value in the bucket
+         * @param count the number of rows in the bucket
+         * @param distinct the number of distinct values in the bucket
+         */
+        public Bucket(String lower, String upper, long count, long distinct) {
+            this.lower = lower;
+            this.upper = upper;
+            this.count = count;
+            this.distinct = distinct;
+        }
+
+        /**
+         * Returns the lowest value in the bucket.
+         *
+         * @return a String
+         */
+        public String getLower() {
+            return lower;
+        }
+
+        /**
+         * Returns the highest value in the bucket.
+         *
+         * @return a String
+         */
+        public String getUpper() {
+            return upper;
+        }
+
+        /**
+         * Returns the number of rows in the bucket.
+         *
+         * @return a long
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Returns the number of distinct values in the bucket.
+         *
+         * @return a long
+         */
+        public long getDistinct() {
+            return distinct;
+        }
+    }
+
+    /**
+     * Builds an EquiDepthHistogram from the distinct values of a column in ascending order, given
+     * the total number of rows in advance.
+     */
+    public static class Builder
+    {
+        private final boolean numeric;
+        private final long depth;
+        private final List<Bucket> buckets = new ArrayList<Bucket>();
+        private String lower = null;
+        private String upper = null;
+        private long count = 0;
+        private long distinct = 0;
+
+        /**
+         * Constructs a Builder.
+         *
+         * @param numeric true if the values are numbers
+         * @param total the total number of rows that will be added
+         * @param bucketCount the number of buckets to aim for
+         */
+        public Builder(boolean numeric, long total, int bucketCount) {
+            this.numeric = numeric;
+            depth = Math.max(1L, (total + bucketCount - 1) / bucketCount);
+        }
+
+        /**
+         * Adds a value, which must be greater than all the values added before.
+         *
+         * @param value the value
+         * @param rows the number of rows with the value
+         */
+        public void add(String value, long rows) {
+            if (lower == null) {
+                lower = value;
+            }
+            upper = value;
+            count += rows;
+            distinct++;
+            if (count >= depth) {
+                finishBucket();
+            }
+        }
+
+        private void finishBucket() {
+            if (lower != null) {
+                buckets.add(new Bucket(lower, upper, count, distinct));
+                lower = null;
+                upper = null;
+                count = 0;
+                distinct = 0;
+            }
+        }
+
+        /**
+         * Returns the histogram of the values added so far.
+         *
+         * @return an EquiDepthHistogram
+         */
+        public EquiDepthHistogram build() {
+            finishBucket();
+            return new EquiDepthHistogram(numeric, buckets);
+        }
+    }
+}
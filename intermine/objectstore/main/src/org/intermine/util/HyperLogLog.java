@@ -0,0 +1,197 @@
+package org.intermine.util;
+
+/*
+ * Copyright (C) 2002-2016 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+/**
+ * A HyperLogLog sketch, which estimates the number of distinct values offered to it in a fixed
+ * amount of space, with a standard error of about 1.04 / sqrt(2 ^ precision). The default
+ * precision of 11 uses 2048 registers, for an error of about two percent.
+ * <p>
+ * Two sketches with the same precision can be merged, giving the sketch of the union of their
+ * values, so sketches of parts of a set of values can be combined without reading the values
+ * again. A sketch can be written as a String of one character per register, and read back.
+ *
+ * @author agent
+ */
+public class HyperLogLog
+{
+    /** The default precision, which is the number of bits of each hash used to pick a register */
+    public static final int DEFAULT_PRECISION = 11;
+    private static final String DIGITS =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+
+    private final int precision;
+    private final byte[] registers;
+
+    /**
+     * Constructs an empty sketch with the default precision.
+     */
+    public HyperLogLog() {
+        this(DEFAULT_PRECISION);
+    }
+
+    /**
+     * Constructs an empty sketch.
+     *
+     * @param precision the number of bits of each hash used to pick a register, from 4 to 16
+     */
+    public HyperLogLog(int precision) {
+        if ((precision < 4) || (precision > 16)) {
+            throw new IllegalArgumentException("Precision must be from 4 to 16, not " + precision);
+        }
+        this.precision = precision;
+        registers = new byte[1 << precision];
+    }
+
+    /**
+     * Returns the precision of this sketch.
+     *
+     * @return an int
+     */
+    public int getPrecision() {
+        return precision;
+    }
+
+    /**
+     * Adds a value to the sketch. Values are compared by their String form, and nulls are ignored.
+     *
+     * @param value the value
+     */
+    public void offer(Object value) {
+        if (value != null) {
+            offerHash(hash(value.toString()));
+        }
+    }
+
+    /**
+     * Adds the hash of a value to the sketch. The hash must be spread evenly over all 64 bits.
+     *
+     * @param hash the hash
+     */
+    public void offerHash(long hash) {
+        int index = (int) (hash >>> (64 - precision));
+        // The guard bit stops the rank exceeding 65 - precision, which fits in six bits
+        long rest = (hash << precision) | (1L << (precision - 1));
+        byte rank = (byte) (Long.numberOfLeadingZeros(rest) + 1);
+        if (rank > registers[index]) {
+            registers[index] = rank;
+        }
+    }
+
+    /**
+     * Returns the estimated number of distinct values offered to this sketch.
+     *
+     * @return a long
+     */
+    public long cardinality() {
+        int m = registers.length;
+        double sum = 0.0;
+        int zeros = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+        double alpha;
+        if (m == 16) {
+            alpha = 0.673;
+        } else if (m == 32) {
+            alpha = 0.697;
+        } else if (m == 64) {
+            alpha = 0.709;
+        } else {
+            alpha = 0.7213 / (1.0 + 1.079 / m);
+        }
+        double estimate = alpha * m * m / sum;
+        if ((estimate <= 2.5 * m) && (zeros > 0)) {
+            // Linear counting is more accurate for small cardinalities
+            estimate = m * Math.log((double) m / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    /**
+     * Adds all the values of another sketch to this one.
+     *
+     * @param other a sketch with the same precision
+     */
+    public void merge(HyperLogLog other) {
+        if (other.precision != precision) {
+            throw new IllegalArgumentException("Cannot merge a sketch with precision "
+                    + other.precision + " into one with precision " + precision);
+        }
+        for (int i = 0; i < registers.length; i++) {
+            if (other.registers[i] > registers[i]) {
+                registers[i] = other.registers[i];
+            }
+        }
+    }
+
+    /**
+     * Returns the registers of this sketch as a String of base64 digits, which can be read back
+     * with valueOf.
+     *
+     * @return a String
+     */
+    @Override
+    public String toString() {
+        StringBuilder retval = new StringBuilder(registers.length);
+        for (byte register : registers) {
+            retval.append(DIGITS.charAt(register));
+        }
+        return retval.toString();
+    }
+
+    /**
+     * Reads a sketch written by toString.
+     *
+     * @param registers the String
+     * @return a HyperLogLog
+     * @throws IllegalArgumentException if the String is not a sketch
+     */
+    public static HyperLogLog valueOf(String registers) {
+        int precision = Integer.numberOfTrailingZeros(registers.length());
+        if ((registers.length() != 1 << precision) || (precision < 4) || (precision > 16)) {
+            throw new IllegalArgumentException("Not a HyperLogLog sketch: " + registers);
+        }
+        HyperLogLog retval = new HyperLogLog(precision);
+        for (int i = 0; i < registers.length(); i++) {
+            int register = DIGITS.indexOf(registers.charAt(i));
+            if (register == -1) {
+                throw new IllegalArgumentException("Not a HyperLogLog sketch: " + registers);
+            }
+            retval.registers[i] = (byte) register;
+        }
+        return retval;
+    }
+
+    /**
+     * Returns a 64-bit hash of a String, spread evenly over all the bits.
+     *
+     * @param value the String
+     * @return a long
+     */
+    public static long hash(String value) {
+        // FNV-1a, followed by the MurmurHash3 finaliser to spread the bits
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            h ^= value.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,168 @@
+package org.intermine.util;
+
+/*
+ * Copyright (C) 2002-2016 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A thread-safe histogram of non-negative long values such as times, which records values in
+ * constant time and space, and can report percentiles to within about three percent.
+ * <p>
+ * Values are counted in log-linear buckets, in the same way as an HDR histogram with two
+ * significant figures. Values below 64 each have their own bucket, and each power of two above
+ * that is split into 32 equal buckets, so every value from zero to Long.MAX_VALUE can be recorded
+ * in fewer than two thousand counters. Recording does not take any lock, and reading while values
+ * are being recorded gives a consistent enough answer for monitoring.
+ *
+ * @author agent
+ */
+public class LatencyHistogram
+{
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR = SUB_BUCKETS * 2;
+    private static final int BUCKETS = LINEAR + (63 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a value. Negative values are recorded as zero.
+     *
+     * @param value the value
+     */
+    public void record(long value) {
+        long v = Math.max(0L, value);
+        counts.incrementAndGet(getIndex(v));
+        count.incrementAndGet();
+        total.addAndGet(v);
+        long oldMax = max.get();
+        while ((v > oldMax) && (!max.compareAndSet(oldMax, v))) {
+            oldMax = max.get();
+        }
+    }
+
+    /**
+     * Returns the number of values recorded.
+     *
+     * @return a long
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Returns the sum of the values recorded.
+     *
+     * @return a long
+     */
+    public long getTotal() {
+        return total.get();
+    }
+
+    /**
+     * Returns the mean of the values recorded.
+     *
+     * @return a double, or zero if no values have been recorded
+     */
+    public double getMean() {
+        long c = count.get();
+        return (c == 0 ? 0.0 : ((double) total.get()) / c);
+    }
+
+    /**
+     * Returns the largest value recorded.
+     *
+     * @return a long, or zero if no values have been recorded
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Returns the value below which a given percentage of the recorded values fall. The answer is
+     * the highest value that shares a bucket with the true percentile, but no more than the largest
+     * value recorded.
+     *
+     * @param percentile a percentage between 0 and 100
+     * @return a long, or zero if no values have been recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        long c = count.get();
+        if (c == 0) {
+            return 0L;
+        }
+        long target = Math.max(1L, (long) Math.ceil(Math.min(100.0, percentile) * c / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(getHighestValue(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Forgets all the values recorded.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0L);
+        }
+        count.set(0L);
+        total.set(0L);
+        max.set(0L);
+    }
+
+    /**
+     * Returns the bucket that counts a value.
+     *
+     * @param value a non-negative value
+     * @return the index of the bucket
+     */
+    protected static int getIndex(long value) {
+        if (value < LINEAR) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return LINEAR + (shift - 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+    }
+
+    /**
+     * Returns the highest value counted by a bucket.
+     *
+     * @param index the index of the bucket
+     * @return a value
+     */
+    protected static long getHighestValue(int index) {
+        if (index < LINEAR) {
+            return index;
+        }
+        int shift = (index - LINEAR) / SUB_BUCKETS + 1;
+        long sub = (index - LINEAR) % SUB_BUCKETS + SUB_BUCKETS;
+        long highest = ((sub + 1) << shift) - 1;
+        return (highest < 0 ? Long.MAX_VALUE : highest);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "count " + getCount() + ", mean " + Math.round(getMean()) + ", 50% "
+            + getValueAtPercentile(50.0) + ", 95% " + getValueAtPercentile(95.0) + ", 99% "
+            + getValueAtPercentile(99.0) + ", max " + getMax();
+    }
+}
@@ -0,0 +1,695 @@
+package org.intermine.util;
+
+/*
+ * Copyright (C) 2002-2016 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A thread-safe Map implementation designed for caches, which holds its values strongly up to a
+ * maximum total weight, and chooses entries to evict with the W-TinyLFU policy.
+ * <p>
+ * Lookups do not take any lock. The entries are held in a ConcurrentHashMap, and reads are
+ * recorded in lossy striped buffers that are replayed against the eviction policy in batches.
+ * Writes are queued and replayed under a single eviction lock, which is only held for the time
+ * needed to update the policy, so the total weight is never over the maximum for longer than one
+ * write.
+ * <p>
+ * The policy admits new entries into a small LRU window, which holds one percent of the weight.
+ * Entries that fall out of the window compete with the least recently used entry of the main
+ * segmented LRU area, and whichever has been used less often recently, as estimated by a
+ * count-min sketch of access frequencies that is halved periodically, is evicted. An entry that
+ * is used again while in the probation segment of the main area is promoted to the protected
+ * segment. This keeps frequently used entries in the cache through bursts of one-off lookups,
+ * which plain LRU and SoftReference-based caches do not.
+ * <p>
+ * Null values are permitted, and are distinguished from missing entries by containsKey(). Null
+ * keys are not permitted.
+ *
+ * @param <K> the type of keys maintained by this map
+ * @param <V> the type of mapped values
+ * @author agent
+ */
+public class TinyLfuCacheMap<K, V> extends AbstractMap<K, V>
+{
+    /**
+     * Calculates the weight of an entry in the cache.
+     *
+     * @param <K> the type of keys
+     * @param <V> the type of values
+     */
+    public interface Weigher<K, V>
+    {
+        /**
+         * Returns the weight of an entry. This must not change while the entry is in the cache.
+         *
+         * @param key the key
+         * @param value the value, which may be null
+         * @return a weight, zero or more
+         */
+        int weigh(K key, V value);
+    }
+
+    private static final Object NULL_VALUE = new Object();
+    private static final int READ_BUFFER_SIZE = 16;
+    private static final int STRIPES = stripes();
+    private static final byte NONE = 0;
+    private static final byte WINDOW = 1;
+    private static final byte PROBATION = 2;
+    private static final byte PROTECTED = 3;
+    private static final int ADD = 0;
+    private static final int REMOVE = 1;
+
+    private final String name;
+    private final long maximumWeight;
+    private final long windowMaximum;
+    private final long protectedMaximum;
+    private final Weigher<? super K, ? super V> weigher;
+    private final ConcurrentHashMap<K, Node<K>> data = new ConcurrentHashMap<K, Node<K>>();
+    private final ConcurrentLinkedQueue<WriteTask<K>> writeBuffer
+        = new ConcurrentLinkedQueue<WriteTask<K>>();
+    private final AtomicReferenceArray<Node<K>> readBuffer
+        = new AtomicReferenceArray<Node<K>>(STRIPES * READ_BUFFER_SIZE);
+    private final AtomicIntegerArray readCounts = new AtomicIntegerArray(STRIPES);
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    // The following are only accessed while holding the evictionLock
+    private final FrequencySketch sketch;
+    private final Node<K> window = new Node<K>(null, null, 0);
+    private final Node<K> probation = new Node<K>(null, null, 0);
+    private final Node<K> protectedSegment = new Node<K>(null, null, 0);
+    private long windowWeight = 0;
+    private long protectedWeight = 0;
+    private long totalWeight = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Constructs a new, empty TinyLfuCacheMap that holds up to the given number of entries.
+     *
+     * @param name the name of the cache - printed out in log messages
+     * @param maximumSize the maximum number of entries
+     */
+    public TinyLfuCacheMap(String name, long maximumSize) {
+        this(name, maximumSize, null);
+    }
+
+    /**
+     * Constructs a new, empty TinyLfuCacheMap that holds entries up to the given total weight.
+     *
+     * @param name the name of the cache - printed out in log messages
+     * @param maximumWeight the maximum total weight of the entries
+     * @param weigher a Weigher to calculate the weight of each entry, or null to give every entry
+     * a weight of one
+     */
+    public TinyLfuCacheMap(String name, long maximumWeight,
+            Weigher<? super K, ? super V> weigher) {
+        if (maximumWeight < 0) {
+            throw new IllegalArgumentException("Maximum weight cannot be negative: "
+                    + maximumWeight);
+        }
+        this.name = name;
+        this.maximumWeight = maximumWeight;
+        this.windowMaximum = Math.max(1, maximumWeight / 100);
+        this.protectedMaximum = (maximumWeight - windowMaximum) * 4 / 5;
+        this.weigher = weigher;
+        this.sketch = new FrequencySketch(weigher == null ? maximumWeight
+                : Math.min(maximumWeight, 1 << 20));
+        initList(window);
+        initList(probation);
+        initList(protectedSegment);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        Node<K> node = data.get(key);
+        if (node == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        recordRead(node);
+        Object value = node.value;
+        return value == NULL_VALUE ? null : (V) value;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean containsKey(Object key) {
+        return data.containsKey(key);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public V put(K key, V value) {
+        Node<K> node = newNode(key, value);
+        Node<K> old = data.put(key, node);
+        if (old != null) {
+            writeBuffer.add(new WriteTask<K>(REMOVE, old));
+        }
+        writeBuffer.add(new WriteTask<K>(ADD, node));
+        drain();
+        return unwrap(old);
+    }
+
+    /**
+     * If the given key is not already present in the cache, associates it with the given value.
+     *
+     * @param key the key
+     * @param value the value
+     * @return the value previously associated with the key, or null if there was no mapping for
+     * the key or the key was mapped to null
+     */
+    public V putIfAbsent(K key, V value) {
+        Node<K> node = newNode(key, value);
+        Node<K> old = data.putIfAbsent(key, node);
+        if (old == null) {
+            writeBuffer.add(new WriteTask<K>(ADD, node));
+            drain();
+        } else {
+            recordRead(old);
+        }
+        return unwrap(old);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public V remove(Object key) {
+        Node<K> old = data.remove(key);
+        if (old != null) {
+            writeBuffer.add(new WriteTask<K>(REMOVE, old));
+            drain();
+        }
+        return unwrap(old);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void clear() {
+        evictionLock.lock();
+        try {
+            data.clear();
+            writeBuffer.clear();
+            for (int i = 0; i < readBuffer.length(); i++) {
+                readBuffer.set(i, null);
+            }
+            for (int i = 0; i < STRIPES; i++) {
+                readCounts.set(i, 0);
+            }
+            clearList(window);
+            clearList(probation);
+            clearList(protectedSegment);
+            windowWeight = 0;
+            protectedWeight = 0;
+            totalWeight = 0;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int size() {
+        return data.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        return new AbstractSet<Map.Entry<K, V>>() {
+            @Override
+            public Iterator<Map.Entry<K, V>> iterator() {
+                final Iterator<Map.Entry<K, Node<K>>> iter = data.entrySet().iterator();
+                return new Iterator<Map.Entry<K, V>>() {
+                    private K lastKey = null;
+
+                    public boolean hasNext() {
+                        return iter.hasNext();
+                    }
+
+                    public Map.Entry<K, V> next() {
+                        Map.Entry<K, Node<K>> entry = iter.next();
+                        lastKey = entry.getKey();
+                        return new SimpleImmutableEntry<K, V>(entry.getKey(),
+                                TinyLfuCacheMap.this.<V>unwrap(entry.getValue()));
+                    }
+
+                    public void remove() {
+                        if (lastKey == null) {
+                            throw new IllegalStateException();
+                        }
+                        TinyLfuCacheMap.this.remove(lastKey);
+                        lastKey = null;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return data.size();
+            }
+        };
+    }
+
+    /**
+     * Returns the number of lookups that found an entry.
+     *
+     * @return a long
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of lookups that did not find an entry.
+     *
+     * @return a long
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of entries that have been evicted to keep within the maximum weight.
+     * This does not include entries that were removed or replaced explicitly.
+     *
+     * @return a long
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * Returns the total weight of the entries in the cache.
+     *
+     * @return a long
+     */
+    public long getWeightedSize() {
+        evictionLock.lock();
+        try {
+            drainBuffers();
+            return totalWeight;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the maximum total weight of the entries in the cache.
+     *
+     * @return a long
+     */
+    public long getMaximumWeight() {
+        return maximumWeight;
+    }
+
+    /**
+     * Returns a summary of the cache statistics, for log messages.
+     *
+     * @return a String
+     */
+    public String getStatistics() {
+        long hitCount = hits.get();
+        long missCount = misses.get();
+        long lookups = hitCount + missCount;
+        return name + ": " + size() + " entries, " + hitCount + " hits, " + missCount
+            + " misses (hit rate " + (lookups == 0 ? 0 : (hitCount * 100 / lookups)) + "%), "
+            + evictions.get() + " evictions";
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return getStatistics();
+    }
+
+    private Node<K> newNode(K key, V value) {
+        if (key == null) {
+            throw new NullPointerException("Null keys are not permitted in " + name);
+        }
+        int weight = weigher == null ? 1 : weigher.weigh(key, value);
+        if (weight < 0) {
+            throw new IllegalArgumentException("Negative weight " + weight + " for key " + key);
+        }
+        return new Node<K>(key, value == null ? NULL_VALUE : value, weight);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T unwrap(Node<K> node) {
+        if ((node == null) || (node.value == NULL_VALUE)) {
+            return null;
+        }
+        return (T) node.value;
+    }
+
+    /**
+     * Records a read of the given entry in the read buffer of the current thread's stripe. If the
+     * buffer is full, the read is dropped, as the policy only needs an approximate history.
+     *
+     * @param node the entry that was read
+     */
+    private void recordRead(Node<K> node) {
+        int stripe = ((int) Thread.currentThread().getId()) & (STRIPES - 1);
+        int index = readCounts.getAndIncrement(stripe);
+        if (index < READ_BUFFER_SIZE) {
+            readBuffer.lazySet(stripe * READ_BUFFER_SIZE + index, node);
+        }
+        if ((index >= READ_BUFFER_SIZE - 1) && evictionLock.tryLock()) {
+            try {
+                drainBuffers();
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Replays the buffered writes and reads against the eviction policy. This blocks until the
+     * eviction lock is available, so that the cache is within its maximum weight when a write
+     * returns.
+     */
+    private void drain() {
+        evictionLock.lock();
+        try {
+            drainBuffers();
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private void drainBuffers() {
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            int count = Math.min(readCounts.get(stripe), READ_BUFFER_SIZE);
+            if (count > 0) {
+                for (int i = 0; i < count; i++) {
+                    Node<K> node = readBuffer.getAndSet(stripe * READ_BUFFER_SIZE + i, null);
+                    if (node != null) {
+                        onRead(node);
+                    }
+                }
+                readCounts.set(stripe, 0);
+            }
+        }
+        WriteTask<K> task = writeBuffer.poll();
+        while (task != null) {
+            if (task.type == ADD) {
+                onAdd(task.node);
+            } else {
+                onRemove(task.node);
+            }
+            task = writeBuffer.poll();
+        }
+        evict();
+    }
+
+    private void onRead(Node<K> node) {
+        if (node.queue == NONE) {
+            return;
+        }
+        sketch.increment(node.key.hashCode());
+        if (node.queue == WINDOW) {
+            moveToTail(window, node);
+        } else if (node.queue == PROBATION) {
+            unlink(node);
+            node.queue = PROTECTED;
+            protectedWeight += node.weight;
+            linkTail(protectedSegment, node);
+            while ((protectedWeight > protectedMaximum) && (protectedSegment.next != node)) {
+                Node<K> demoted = protectedSegment.next;
+                unlink(demoted);
+                protectedWeight -= demoted.weight;
+                demoted.queue = PROBATION;
+                linkTail(probation, demoted);
+            }
+        } else {
+            moveToTail(protectedSegment, node);
+        }
+    }
+
+    private void onAdd(Node<K> node) {
+        if (node.removed) {
+            return;
+        }
+        sketch.increment(node.key.hashCode());
+        node.queue = WINDOW;
+        linkTail(window, node);
+        windowWeight += node.weight;
+        totalWeight += node.weight;
+    }
+
+    private void onRemove(Node<K> node) {
+        node.removed = true;
+        if (node.queue != NONE) {
+            discard(node);
+        }
+    }
+
+    /**
+     * Moves entries from the window into the main area, and evicts entries until the total
+     * weight is within the maximum.
+     */
+    private void evict() {
+        while ((windowWeight > windowMaximum) && (window.next != window)) {
+            Node<K> node = window.next;
+            unlink(node);
+            windowWeight -= node.weight;
+            node.queue = PROBATION;
+            linkTail(probation, node);
+        }
+        while (totalWeight > maximumWeight) {
+            Node<K> victim;
+            if (probation.next != probation) {
+                // The candidate is the entry most recently admitted from the window, and the
+                // victim is the least recently used entry of the probation segment
+                victim = probation.next;
+                Node<K> candidate = probation.prev;
+                if ((candidate != victim) && (sketch.frequency(candidate.key.hashCode())
+                            <= sketch.frequency(victim.key.hashCode()))) {
+                    victim = candidate;
+                }
+            } else if (protectedSegment.next != protectedSegment) {
+                victim = protectedSegment.next;
+            } else if (window.next != window) {
+                victim = window.next;
+            } else {
+                break;
+            }
+            if (data.remove(victim.key, victim)) {
+                evictions.incrementAndGet();
+            }
+            victim.removed = true;
+            discard(victim);
+        }
+    }
+
+    private void discard(Node<K> node) {
+        unlink(node);
+        if (node.queue == WINDOW) {
+            windowWeight -= node.weight;
+        } else if (node.queue == PROTECTED) {
+            protectedWeight -= node.weight;
+        }
+        totalWeight -= node.weight;
+        node.queue = NONE;
+    }
+
+    private static <K> void initList(Node<K> head) {
+        head.next = head;
+        head.prev = head;
+    }
+
+    private static <K> void clearList(Node<K> head) {
+        for (Node<K> node = head.next; node != head; node = node.next) {
+            node.queue = NONE;
+        }
+        initList(head);
+    }
+
+    private static <K> void linkTail(Node<K> head, Node<K> node) {
+        node.prev = head.prev;
+        node.next = head;
+        head.prev.next = node;
+        head.prev = node;
+    }
+
+    private static <K> void unlink(Node<K> node) {
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+        node.prev = null;
+        node.next = null;
+    }
+
+    private static <K> void moveToTail(Node<K> head, Node<K> node) {
+        unlink(node);
+        linkTail(head, node);
+    }
+
+    private static int stripes() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        int retval = 1;
+        while ((retval < 4 * processors) && (retval < 64)) {
+            retval <<= 1;
+        }
+        return retval;
+    }
+
+    /**
+     * An entry in the cache. The links and queue are only accessed while holding the eviction
+     * lock.
+     *
+     * @param <K> the type of the key
+     */
+    private static final class Node<K>
+    {
+        private final K key;
+        private final Object value;
+        private final int weight;
+        private volatile boolean removed = false;
+        private byte queue = NONE;
+        private Node<K> prev;
+        private Node<K> next;
+
+        Node(K key, Object value, int weight) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * A write that has not yet been replayed against the eviction policy.
+     *
+     * @param <K> the type of the key
+     */
+    private static final class WriteTask<K>
+    {
+        private final int type;
+        private final Node<K> node;
+
+        WriteTask(int type, Node<K> node) {
+            this.type = type;
+            this.node = node;
+        }
+    }
+
+    /**
+     * A count-min sketch of 4-bit counters, which estimates how often each key has been used
+     * recently. All counters are halved once the number of increments reaches ten times the
+     * capacity, so that old history fades away.
+     */
+    private static final class FrequencySketch
+    {
+        private static final long[] SEED = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L,
+            0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+        private static final long RESET_MASK = 0x7777777777777777L;
+        private static final long ONE_MASK = 0x1111111111111111L;
+
+        private final long[] table;
+        private final int tableMask;
+        private final int sampleSize;
+        private int size = 0;
+
+        FrequencySketch(long capacity) {
+            int maximum = (int) Math.min(Math.max(capacity, 16), 1 << 24);
+            int length = 1;
+            while (length < maximum) {
+                length <<= 1;
+            }
+            table = new long[length];
+            tableMask = length - 1;
+            sampleSize = 10 * maximum;
+        }
+
+        int frequency(int hashCode) {
+            int hash = spread(hashCode);
+            int start = (hash & 3) << 2;
+            int retval = Integer.MAX_VALUE;
+            for (int i = 0; i < 4; i++) {
+                int index = indexOf(hash, i);
+                int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+                retval = Math.min(retval, count);
+            }
+            return retval;
+        }
+
+        void increment(int hashCode) {
+            int hash = spread(hashCode);
+            int start = (hash & 3) << 2;
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                added |= incrementAt(indexOf(hash, i), start + i);
+            }
+            if (added && (++size >= sampleSize)) {
+                reset();
+            }
+        }
+
+        private boolean incrementAt(int index, int counter) {
+            int offset = counter << 2;
+            long mask = 0xfL << offset;
+            if ((table[index] & mask) != mask) {
+                table[index] += 1L << offset;
+                return true;
+            }
+            return false;
+        }
+
+        private void reset() {
+            int odd = 0;
+            for (int i = 0; i < table.length; i++) {
+                odd += Long.bitCount(table[i] & ONE_MASK);
+                table[i] = (table[i] >>> 1) & RESET_MASK;
+            }
+            size = (size >>> 1) - (odd >>> 2);
+        }
+
+        private int indexOf(int hash, int i) {
+            long retval = (hash + SEED[i]) * SEED[i];
+            retval += retval >>> 32;
+            return ((int) retval) & tableMask;
+        }
+
+        private static int spread(int x) {
+            int retval = ((x >>> 16) ^ x) * 0x45d9f3b;
+            retval = ((retval >>> 16) ^ retval) * 0x45d9f3b;
+            return (retval >>> 16) ^ retval;
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package org.intermine.model.testmodel;
+
+import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.intermine.NotXmlReader;
+import org.intermine.objectstore.intermine.NotXmlRenderer;
+import org.intermine.model.StringConstructor;
+import org.intermine.metadata.TypeUtil;
+import org.intermine.util.DynamicUtil;
+
+public class Address implements org.intermine.model.testmodel.Thing
+{
+    // Attr: org.intermine.model.testmodel.Address.address
+    protected java.lang.String address;
+    public java.lang.String getAddress() { return address; }
+    public void setAddress(final java.lang.String address) { this.address = address; }
+
+    // Attr: org.intermine.model.InterMineObject.id
+    protected java.lang.Integer id;
+    public java.lang.Integer getId() { return id; }
+    public void setId(final java.lang.Integer id) { this.id = id; }
+
+    @Override public boolean equals(Object o) { return (o instanceof Address && id != null) ? id.equals(((Address)o).getId()) : this == o; }
+    @Override public int hashCode() { return (id != null) ? id.hashCode() : super.hashCode(); }
+    @Override public String toString() { return "Address [address=" + (address == null ? "null" : "\"" + address + "\"") + ", id=" + id + "]"; }
+    public Object getFieldValue(final String fieldName) throws IllegalAccessException {
+        if ("address".equals(fieldName)) {
+            return address;
+        }
+        if ("id".equals(fieldName)) {
+            return id;
+        }
+        if (!org.intermine.model.testmodel.Address.class.equals(getClass())) {
+            return TypeUtil.getFieldValue(this, fieldName);
+        }
+        throw new IllegalArgumentException("Unknown field " + fieldName);
+    }
+    public Object getFieldProxy(final String fieldName) throws IllegalAccessException {
+        if ("address".equals(fieldName)) {
+            return address;
+        }
+        if ("id".equals(fieldName)) {
+            return id;
+        }
+        if (!org.intermine.model.testmodel.Address.class.equals(getClass())) {
+            return TypeUtil.getFieldProxy(this, fieldName);
+        }
+        throw new IllegalArgumentException("Unknown field " + fieldName);
+    }
+    public void setFieldValue(final String fieldName, final Object value) {
+        if ("address".equals(fieldName)) {
+            address = (java.lang.String) value;
+        } else if ("id".equals(fieldName)) {
+            id = (java.lang.Integer) value;
+        } else {
+            if (!org.intermine.model.testmodel.Address.class.equals(getClass())) {
+                DynamicUtil.setFieldValue(this, fieldName, value);
+                return;
+            }
+            throw new IllegalArgumentException("Unknown field " + fieldName);
+        }
+    }
+    public Class<?> getFieldType(final String fieldName) {
+        if ("address".equals(fieldName)) {
+            return java.lang.String.class;
+        }
+        if ("id".equals(fieldName)) {
+            return java.lang.Integer.class;
+        }
+        if (!org.intermine.model.testmodel.Address.class.equals(getClass())) {
+            return TypeUtil.getFieldType(org.intermine.model.testmodel.Address.class, fieldName);
+        }
+        throw new IllegalArgumentException("Unknown field " + fieldName);
+    }
+    public StringConstructor getoBJECT() {
+        if (!org.intermine.model.testmodel.Address.class.equals(getClass())) {
+            return NotXmlRenderer.render(this);
+        }
+        StringConstructor sb = new StringConstructor();
+        sb.append("$_^org.intermine.model.testmodel.Address");
+        if (address != null) {
+            sb.append("$_^aaddress$_^");
+            String string = address;
+            while (string != null) {
+                int delimPosition = string.indexOf("$_^");
+                if (delimPosition == -1) {
+                    sb.append(string);
+                    string = null;
+                } else {
+                    sb.append(string.substring(0, delimPosition + 3));
+                    sb.append("d");
+                    string = string.substring(delimPosition + 3);
+                }
+            }
+        }
+        if (id != null) {
+            sb.append("$_^aid$_^").append(id);
+        }
+        return sb;
+    }
+    public void setoBJECT(String notXml, ObjectStore os) {
+        NotXmlReader reader = new NotXmlReader(notXml);
+        reader.nextField();
+        setoBJECT(reader, os);
+    }
+    public void setoBJECT(final String[] notXml, final ObjectStore os) {
+        if (!org.intermine.model.testmodel.Address.class.equals(getClass())) {
+            throw new IllegalStateException("Class " + getClass().getName() + " does not match code (org.intermine.model.testmodel.Address)");
+        }
+        for (int i = 2; i < notXml.length;) {
+            int startI = i;
+            if ((i < notXml.length) && "aaddress".equals(notXml[i])) {
+                i++;
+                StringBuilder string = null;
+                while ((i + 1 < notXml.length) && (notXml[i + 1].charAt(0) == 'd')) {
+                    if (string == null) string = new StringBuilder(notXml[i]);
+                    i++;
+                    string.append("$_^").append(notXml[i].substring(1));
+                }
+                address = string == null ? notXml[i] : string.toString();
+                i++;
+            }
+            if ((i < notXml.length) && "aid".equals(notXml[i])) {
+                i++;
+                id = Integer.valueOf(notXml[i]);
+                i++;
+            }
+            if (startI == i) {
+                throw new IllegalArgumentException("Unknown field " + notXml[i]);
+            }
+        }
+    }
+    public void setoBJECT(final NotXmlReader notXml, final ObjectStore os) {
+        if (!org.intermine.model.testmodel.Address.class.equals(getClass())) {
+            throw new IllegalStateException("Class " + getClass().getName() + " does not match code (org.intermine.model.testmodel.Address)");
+        }
+        while (notXml.hasField()) {
+            int startI = notXml.getPosition();
+            if (notXml.isAttribute("address")) {
+                address = notXml.readString();
+            }
+            if (notXml.isAttribute("id")) {
+                id = Integer.valueOf(notXml.readInt());
+            }
+            if (startI == notXml.getPosition()) {
+                throw new IllegalArgumentException("Unknown field " + notXml.getFieldName());
+            }
+        }
+    }
+    public void addCollectionElement(final String fieldName, final org.intermine.model.InterMineObject element) {
+        {
+            if (!org.intermine.model.testmodel.Address.class.equals(getClass())) {
+                TypeUtil.addCollectionElement(this, fieldName, element);
+                return;
+            }
+            throw new IllegalArgumentException("Unknown collection " + fieldName);
+        }
+    }
+    public Class<?> getElementType(final String fieldName) {
+        if (!org.intermine.model.testmodel.Address.class.equals(getClass())) {
+            return TypeUtil.getElementType(org.intermine.model.testmodel.Address.class, fieldName);
+        }
+        throw new IllegalArgumentException("Unknown field " + fieldName);
+    }
+}
@@ -0,0 +1,213 @@
+package org.intermine.model.testmodel;
+
+import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.intermine.NotXmlReader;
+import org.intermine.objectstore.intermine.NotXmlRenderer;
+import org.intermine.objectstore.proxy.ProxyCollection;
+import org.intermine.model.StringConstructor;
+import org.intermine.metadata.TypeUtil;
+import org.intermine.util.DynamicUtil;
+
+public class Bank implements org.intermine.model.InterMineObject
+{
+    // Attr: org.intermine.model.testmodel.Bank.name
+    protected java.lang.String name;
+    public java.lang.String getName() { return name; }
+    public void setName(final java.lang.String name) { this.name = name; }
+
+    // Col: org.intermine.model.testmodel.Bank.debtors
+    protected java.util.Set<org.intermine.model.testmodel.Broke> debtors = new java.util.HashSet<org.intermine.model.testmodel.Broke>();
+    public java.util.Set<org.intermine.model.testmodel.Broke> getDebtors() { return debtors; }
+    public void setDebtors(final java.util.Set<org.intermine.model.testmodel.Broke> debtors) { this.debtors = debtors; }
+    public void addDebtors(final org.intermine.model.testmodel.Broke arg) { debtors.add(arg); }
+
+    // Col: org.intermine.model.testmodel.Bank.corporateCustomers
+    protected java.util.Set<org.intermine.model.testmodel.Company> corporateCustomers = new java.util.HashSet<org.intermine.model.testmodel.Company>();
+    public java.util.Set<org.intermine.model.testmodel.Company> getCorporateCustomers() { return corporateCustomers; }
+    public void setCorporateCustomers(final java.util.Set<org.intermine.model.testmodel.Company> corporateCustomers) { this.corporateCustomers = corporateCustomers; }
+    public void addCorporateCustomers(final org.intermine.model.testmodel.Company arg) { corporateCustomers.add(arg); }
+
+    // Attr: org.intermine.model.InterMineObject.id
+    protected java.lang.Integer id;
+    public java.lang.Integer getId() { return id; }
+    public void setId(final java.lang.Integer id) { this.id = id; }
+
+    @Override public boolean equals(Object o) { return (o instanceof Bank && id != null) ? id.equals(((Bank)o).getId()) : this == o; }
+    @Override public int hashCode() { return (id != null) ? id.hashCode() : super.hashCode(); }
+    @Override public String toString() { return "Bank [id=" + id + ", name=" + (name == null ? "null" : "\"" + name + "\"") + "]"; }
+    public Object getFieldValue(final String fieldName) throws IllegalAccessException {
+        if ("name".equals(fieldName)) {
+            return name;
+        }
+        if ("debtors".equals(fieldName)) {
+            return debtors;
+        }
+        if ("corporateCustomers".equals(fieldName)) {
+            return corporateCustomers;
+        }
+        if ("id".equals(fieldName)) {
+            return id;
+        }
+        if (!org.intermine.model.testmodel.Bank.class.equals(getClass())) {
+            return TypeUtil.getFieldValue(this, fieldName);
+        }
+        throw new IllegalArgumentException("Unknown field " + fieldName);
+    }
+    public Object getFieldProxy(final String fieldName) throws IllegalAccessException {
+        if ("name".equals(fieldName)) {
+            return name;
+        }
+        if ("debtors".equals(fieldName)) {
+            return debtors;
+        }
+        if ("corporateCustomers".equals(fieldName)) {
+            return corporateCustomers;
+        }
+        if ("id".equals(fieldName)) {
+            return id;
+        }
+        if (!org.intermine.model.testmodel.Bank.class.equals(getClass())) {
+            return TypeUtil.getFieldProxy(this, fieldName);
+        }
+        throw new IllegalArgumentException("Unknown field " + fieldName);
+    }
+    public void setFieldValue(final String fieldName, final Object value) {
+        if ("name".equals(fieldName)) {
+            name = (java.lang.String) value;
+        } else if ("debtors".equals(fieldName)) {
+            debtors = (java.util.Set) value;
+        } else if ("corporateCustomers".equals(fieldName)) {
+            corporateCustomers = (java.util.Set) value;
+        } else if ("id".equals(fieldName)) {
+            id = (java.lang.Integer) value;
+        } else {
+            if (!org.intermine.model.testmodel.Bank.class.equals(getClass())) {
+                DynamicUtil.setFieldValue(this, fieldName, value);
+                return;
+            }
+            throw new IllegalArgumentException("Unknown field " + fieldName);
+        }
+    }
+    public Class<?> getFieldType(final String fieldName) {
+        if ("name".equals(fieldName)) {
+            return java.lang.String.class;
+        }
+        if ("debtors".equals(fieldName)) {
+            return java.util.Set.class;
+        }
+        if ("corporateCustomers".equals(fieldName)) {
+            return java.util.Set.class;
+        }
+        if ("id".equals(fieldName)) {
+            return java.lang.Integer.class;
+        }
+        if (!org.intermine.model.testmodel.Bank.class.equals(getClass())) {
+            return TypeUtil.getFieldType(org.intermine.model.testmodel.Bank.class, fieldName);
+        }
+        throw new IllegalArgumentException("Unknown field " + fieldName);
+    }
+    public StringConstructor getoBJECT() {
+        if (!org.intermine.model.testmodel.Bank.class.equals(getClass())) {
+            return NotXmlRenderer.render(this);
+        }
+        StringConstructor sb = new StringConstructor();
+        sb.append("$_^org.intermine.model.testmodel.Bank");
+        if (name != null) {
+            sb.append("$_^aname$_^");
+            String string = name;
+            while (string != null) {
+                int delimPosition = string.indexOf("$_^");
+                if (delimPosition == -1) {
+                    sb.append(string);
+                    string = null;
+                } else {
+                    sb.append(string.substring(0, delimPosition + 3));
+                    sb.append("d");
+                    string = string.substring(delimPosition + 3);
+                }
+            }
+        }
+        if (id != null) {
+            sb.append("$_^aid$_^").append(id);
+        }
+        return sb;
+    }
+    public void setoBJECT(String notXml, ObjectStore os) {
+        NotXmlReader reader = new NotXmlReader(notXml);
+        reader.nextField();
+        setoBJECT(reader, os);
+    }
+    public void setoBJECT(final String[] notXml, final ObjectStore os) {
+        if (!org.intermine.model.testmodel.Bank.class.equals(getClass())) {
+            throw new IllegalStateException("Class " + getClass().getName() + " does not match code (org.intermine.model.testmodel.Bank)");
+        }
+        for (int i = 2; i < notXml.length;) {
+            int startI = i;
+            if ((i < notXml.length) && "aname".equals(notXml[i])) {
+                i++;
+                StringBuilder string = null;
+                while ((i + 1 < notXml.length) && (notXml[i + 1].charAt(0) == 'd')) {
+                    if (string == null) string = new StringBuilder(notXml[i]);
+                    i++;
+                    string.append("$_^").append(notXml[i].substring(1));
+                }
+                name = string == null ? notXml[i] : string.toString();
+                i++;
+            }
+            if ((i < notXml.length) && "aid".equals(notXml[i])) {
+                i++;
+                id = Integer.valueOf(notXml[i]);
+                i++;
+            }
+            if (startI == i) {
+                throw new IllegalArgumentException("Unknown field " + notXml[i]);
+            }
+        }
+        debtors = new ProxyCollection<org.intermine.model.testmodel.Broke>(os, this, "debtors", org.intermine.model.testmodel.Broke.class);
+        corporateCustomers = new ProxyCollection<org.intermine.model.testmodel.Company>(os, this, "corporateCustomers", org.intermine.model.testmodel.Company.class);
+    }
+    public void setoBJECT(final NotXmlReader notXml, final ObjectStore os) {
+        if (!org.intermine.model.testmodel.Bank.class.equals(getClass())) {
+            throw new IllegalStateException("Class " + getClass().getName() + " does not match code (org.intermine.model.testmodel.Bank)");
+        }
+        while (notXml.hasField()) {
+            int startI = notXml.getPosition();
+            if (notXml.isAttribute("name")) {
+                name = notXml.readString();
+            }
+            if (notXml.isAttribute("id")) {
+                id = Integer.valueOf(notXml.readInt());
+            }
+            if (startI == notXml.getPosition()) {
+                throw new IllegalArgumentException("Unknown field " + notXml.getFieldName());
+            }
+        }
+        debtors = new ProxyCollection<org.intermine.model.testmodel.Broke>(os, this, "debtors", org.intermine.model.testmodel.Broke.class);
+        corporateCustomers = new ProxyCollection<org.intermine.model.testmodel.Company>(os, this, "corporateCustomers", org.intermine.model.testmodel.Company.class);
+    }
+    public void addCollectionElement(final String fieldName, final org.intermine.model.InterMineObject element) {
+        if ("debtors".equals(fieldName)) {
+            debtors.add((org.intermine.model.testmodel.Broke) element);
+        } else if ("corporateCustomers".equals(fieldName)) {
+            corporateCustomers.add((org.intermine.model.testmodel.Company) element);
+        } else {
+            if (!org.intermine.model.testmodel.Bank.class.equals(getClass())) {
+                TypeUtil.addCollectionElement(this, fieldName, element);
+                return;
+            }
+            throw new IllegalArgumentException("Unknown collection " + fieldName);
+        }
+    }
+    public Class<?> getElementType(final String fieldName) {
+        if ("debtors".equals(fieldName)) {
+            return org.intermine.model.testmodel.Broke.class;
+        }
+        if ("corporateCustomers".equals(fieldName)) {
+            return org.intermine.model.testmodel.Company.class;
+        }
+        if (!org.intermine.model.testmodel.Bank.class.equals(getClass())) {
+            return TypeUtil.getElementType(org.intermine.model.testmodel.Bank.class, fieldName);
+        }
+        throw new IllegalArgumentException("Unknown field " + fieldName);
+    }
+}
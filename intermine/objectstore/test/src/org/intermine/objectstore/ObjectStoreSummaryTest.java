@@ -13,12 +13,15 @@ package org.intermine.objectstore;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 
 import junit.framework.Test;
 
+import org.intermine.metadata.ClassDescriptor;
+import org.intermine.metadata.Model;
 import org.intermine.model.testmodel.CEO;
 import org.intermine.model.testmodel.Employee;
 import org.intermine.model.testmodel.Manager;
@@ -153,4 +156,69 @@ public class ObjectStoreSummaryTest extends StoreDataTestCase
         assertEquals(10, oss.maxValues);
         assertEquals(10, ossFromProps.maxValues);
     }
+
+    public void testParallelMatchesSerial() throws Exception {
+        ObjectStore os = ObjectStoreFactory.getObjectStore("os.unittest");
+        Properties config = new Properties();
+        config.put("summary.threads", "1");
+        ObjectStoreSummary serial = new ObjectStoreSummary(os, config);
+        config.put("summary.threads", "8");
+        ObjectStoreSummary parallel = new ObjectStoreSummary(os, config);
+        assertEquals(serial.toProperties(), parallel.toProperties());
+    }
+
+    public void testIncremental() throws Exception {
+        ObjectStore os = ObjectStoreFactory.getObjectStore("os.unittest");
+        Properties config = new Properties();
+        ObjectStoreSummary full = new ObjectStoreSummary(os, config);
+        ObjectStoreSummary previous = new ObjectStoreSummary(full.toProperties());
+        ObjectStoreSummary incremental = new ObjectStoreSummary(os, config, previous);
+        assertEquals(full.toProperties(), incremental.toProperties());
+    }
+
+    public void testSketches() throws Exception {
+        ObjectStore os = ObjectStoreFactory.getObjectStore("os.unittest");
+        Properties config = new Properties();
+        ObjectStoreSummary exact = new ObjectStoreSummary(os, config);
+        config.put("max.field.values", "1");
+        config.put("summary.sketches", "true");
+        ObjectStoreSummary oss = new ObjectStoreSummary(os, config);
+
+        String employee = "org.intermine.model.testmodel.Employee";
+        AttributeSketch sketch = oss.getAttributeSketch(employee, "name");
+        assertNotNull(sketch);
+        assertNull(oss.getFieldValues(employee, "name"));
+        assertEquals(exact.getDistinctCount(employee, "name"),
+                oss.getDistinctCount(employee, "name"));
+        assertEquals(exact.getClassCount(employee), sketch.getHistogram().getCount()
+                + sketch.getNullCount());
+        assertEquals(-1, oss.getDistinctCount(employee, "id"));
+
+        ObjectStoreSummary ossFromProps = new ObjectStoreSummary(oss.toProperties());
+        assertEquals(oss.toProperties(), ossFromProps.toProperties());
+        assertEquals(sketch.toStrings(),
+                ossFromProps.getAttributeSketch(employee, "name").toStrings());
+    }
+
+    public void testGetLevels() throws Exception {
+        Model model = Model.getInstanceByName("testmodel");
+        List<List<ClassDescriptor>> topDown = ObjectStoreSummary.getLevels(model, true);
+        List<List<ClassDescriptor>> bottomUp = ObjectStoreSummary.getLevels(model, false);
+        ClassDescriptor employee = model.getClassDescriptorByName(Employee.class.getName());
+        ClassDescriptor manager = model.getClassDescriptorByName(Manager.class.getName());
+        ClassDescriptor ceo = model.getClassDescriptorByName(CEO.class.getName());
+        assertTrue(levelOf(topDown, employee) < levelOf(topDown, manager));
+        assertTrue(levelOf(topDown, manager) < levelOf(topDown, ceo));
+        assertTrue(levelOf(bottomUp, ceo) < levelOf(bottomUp, manager));
+        assertTrue(levelOf(bottomUp, manager) < levelOf(bottomUp, employee));
+    }
+
+    private static int levelOf(List<List<ClassDescriptor>> levels, ClassDescriptor cld) {
+        for (int i = 0; i < levels.size(); i++) {
+            if (levels.get(i).contains(cld)) {
+                return i;
+            }
+        }
+        return -1;
+    }
 }
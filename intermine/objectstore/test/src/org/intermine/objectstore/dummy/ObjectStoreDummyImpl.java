@@ -37,6 +37,7 @@ public class ObjectStoreDummyImpl extends ObjectStoreAbstractImpl
     private int executeTime = 10;
     private int executeCalls = 0;
     private int poisonRowNo = -1;
+    private boolean streaming = false;
     private Map objects = new HashMap();
 
     /**
@@ -129,6 +130,28 @@ public class ObjectStoreDummyImpl extends ObjectStoreAbstractImpl
         return results;
     }
 
+    /**
+     * Sets whether executeCursor() streams the rows, rather than returning null like a store that
+     * cannot stream.
+     *
+     * @param streaming true to stream rows through executeCursor()
+     */
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public ResultsCursor executeCursor(Query q, int fetchSize, boolean optimise,
+            Map<Object, Integer> sequence) throws ObjectStoreException {
+        if (!streaming) {
+            return super.executeCursor(q, fetchSize, optimise, sequence);
+        }
+        return new IteratorResultsCursor(execute(q, 0, resultsSize, optimise, false, sequence)
+                .iterator());
+    }
+
     /**
      * @see ObjectStore#cacheObjectById
      */
@@ -13,6 +13,8 @@ package org.intermine.objectstore.dummy;
 import junit.framework.*;
 
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 import org.intermine.model.testmodel.*;
 import org.intermine.objectstore.ObjectStore;
@@ -182,4 +184,28 @@ public class ObjectStoreDummyImplTest extends OneTimeTestCase
         Query q = new Query();
         assertEquals(objectStore.count(q, ObjectStore.SEQUENCE_IGNORE), 12);
     }
+
+    public void testAsync() throws Exception {
+        ObjectStoreDummyImpl objectStore = new ObjectStoreDummyImpl();
+        objectStore.setResultsSize(12);
+        Query q = new Query();
+        Future<List<ResultsRow<Object>>> rows = objectStore.executeAsync(q, 0, 5, true, true,
+                ObjectStore.SEQUENCE_IGNORE);
+        Future<Integer> count = objectStore.countAsync(q, ObjectStore.SEQUENCE_IGNORE);
+        assertEquals(5, rows.get().size());
+        assertEquals(new Integer(12), count.get());
+
+        // A task submitted from inside another task runs straight away
+        final ObjectStoreDummyImpl inner = objectStore;
+        Future<Integer> nested = objectStore.submit(new Callable<Integer>() {
+            public Integer call() throws Exception {
+                return inner.submit(new Callable<Integer>() {
+                    public Integer call() {
+                        return new Integer(7);
+                    }
+                }).get();
+            }
+        });
+        assertEquals(new Integer(7), nested.get());
+    }
 }
@@ -11,7 +11,9 @@ import org.intermine.objectstore.query.ObjectStoreBag;
 import org.intermine.objectstore.query.Query;
 import org.intermine.objectstore.query.QueryClass;
 import org.intermine.objectstore.query.Results;
+import org.intermine.objectstore.query.ResultsCursor;
 import org.intermine.objectstore.query.ResultsInfo;
+import org.intermine.objectstore.query.ResultsRow;
 import org.intermine.objectstore.query.SingletonResults;
 
 import java.util.Collection;
@@ -20,6 +22,8 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 /*
  * Copyright (C) 2002-2016 FlyMine
@@ -146,6 +150,24 @@ public class ObjectStoreWriterDummyImpl implements ObjectStoreWriter
         throw new UnsupportedOperationException();
     }
 
+    public ResultsCursor executeCursor(Query q, int fetchSize, boolean optimise,
+            Map<Object, Integer> sequence) throws ObjectStoreException {
+        throw new UnsupportedOperationException();
+    }
+
+    public Future<List<ResultsRow<Object>>> executeAsync(Query q, int start, int limit,
+            boolean optimise, boolean explain, Map<Object, Integer> sequence) {
+        throw new UnsupportedOperationException();
+    }
+
+    public Future<Integer> countAsync(Query q, Map<Object, Integer> sequence) {
+        throw new UnsupportedOperationException();
+    }
+
+    public <V> Future<V> submit(Callable<V> task) {
+        throw new UnsupportedOperationException();
+    }
+
     public InterMineObject getObjectById(Integer id) throws ObjectStoreException {
         return (InterMineObject) storedObjects.get(id);
     }
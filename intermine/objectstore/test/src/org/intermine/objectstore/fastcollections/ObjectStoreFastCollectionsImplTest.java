@@ -27,6 +27,7 @@ import org.intermine.objectstore.proxy.ProxyCollection;
 import org.intermine.objectstore.query.Query;
 import org.intermine.objectstore.query.QueryClass;
 import org.intermine.objectstore.query.Results;
+import org.intermine.objectstore.query.ResultsCursor;
 import org.intermine.objectstore.query.ResultsRow;
 
 public class ObjectStoreFastCollectionsImplTest extends ObjectStoreAbstractImplTestCase
@@ -102,4 +103,24 @@ public class ObjectStoreFastCollectionsImplTest extends ObjectStoreAbstractImplT
         matColl = ((ProxyCollection) coll).getMaterialisedCollection();
         assertNotNull("Expected collection to be materialised", matColl);
     }
+
+    public void testStreamingIterator() throws Exception {
+        os.flushObjectById();
+        ((ObjectStoreFastCollectionsImpl) os).setFetchFields(true, Collections.EMPTY_SET);
+        QueryClass c1 = new QueryClass(Company.class);
+        Query q1 = new Query();
+        q1.addFrom(c1);
+        q1.addToSelect(c1);
+        Results r = os.execute(q1, 1000, true, true, true);
+        ResultsCursor cursor = r.streamingIterator(2);
+        int count = 0;
+        while (cursor.hasNext()) {
+            Company c = (Company) ((ResultsRow) cursor.next()).get(0);
+            Collection coll = c.getContractors();
+            assertTrue("Expected " + coll.getClass() + " to be a ProxyCollection object", coll instanceof ProxyCollection);
+            assertTrue("Expected materialised collection to be a HashSet", ((ProxyCollection) coll).getMaterialisedCollection() instanceof HashSet);
+            count++;
+        }
+        assertEquals(r.size(), count);
+    }
 }
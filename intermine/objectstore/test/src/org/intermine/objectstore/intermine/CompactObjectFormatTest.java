@@ -0,0 +1,142 @@
+package org.intermine.objectstore.intermine;
+
+/*
+ * Copyright (C) 2002-2016 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.intermine.metadata.Model;
+import org.intermine.model.InterMineObject;
+import org.intermine.model.testmodel.Broke;
+import org.intermine.model.testmodel.Company;
+import org.intermine.model.testmodel.Department;
+import org.intermine.model.testmodel.Employee;
+import org.intermine.model.testmodel.Types;
+import org.intermine.objectstore.proxy.ProxyReference;
+import org.intermine.util.DynamicUtil;
+
+public class CompactObjectFormatTest extends TestCase
+{
+    private Model model;
+
+    public void setUp() throws Exception {
+        model = Model.getInstanceByName("testmodel");
+    }
+
+    public void testRoundTrip() throws Exception {
+        Employee e = new Employee();
+        e.setId(new Integer(1234));
+        e.setName("Employee " + NotXmlParser.DELIM + " \u00e9\u4e2d #@_");
+        e.setAge(-42);
+        e.setFullTime(true);
+        e.proxyDepartment(new ProxyReference(null, new Integer(5678), Department.class));
+        String compact = CompactObjectFormat.render(e, model);
+        assertTrue(CompactObjectFormat.isCompact(compact));
+        assertFalse(CompactObjectFormat.isCompact(NotXmlRenderer.render(e).toString()));
+        assertTrue(compact.length() < NotXmlRenderer.render(e).length());
+
+        Employee parsed = (Employee) CompactObjectFormat.parse(compact, model, null);
+        assertEquals(new Integer(1234), parsed.getId());
+        assertEquals(e.getName(), parsed.getName());
+        assertEquals(-42, parsed.getAge());
+        assertTrue(parsed.getFullTime());
+        assertEquals(new Integer(5678), ((ProxyReference) parsed.proxGetDepartment()).getId());
+        assertNull(parsed.proxGetAddress());
+    }
+
+    public void testTypes() throws Exception {
+        Types t = new Types();
+        t.setId(new Integer(Integer.MIN_VALUE));
+        t.setName("");
+        t.setBooleanType(true);
+        t.setFloatType(-1.5f);
+        t.setDoubleType(Math.PI);
+        t.setShortType(Short.MIN_VALUE);
+        t.setIntType(Integer.MAX_VALUE);
+        t.setLongType(Long.MIN_VALUE);
+        t.setBooleanObjType(Boolean.FALSE);
+        t.setFloatObjType(new Float(Float.NaN));
+        t.setDoubleObjType(new Double(Double.NEGATIVE_INFINITY));
+        t.setShortObjType(new Short((short) 7));
+        t.setIntObjType(new Integer(0));
+        t.setLongObjType(new Long(Long.MAX_VALUE));
+        t.setBigDecimalObjType(new BigDecimal("-12345678901234567890.0987654321"));
+        t.setDateObjType(new Date(-1000L));
+        String compact = CompactObjectFormat.render(t, model);
+
+        Types parsed = (Types) CompactObjectFormat.parse(compact, model, null);
+        assertEquals(t.getId(), parsed.getId());
+        assertEquals("", parsed.getName());
+        assertTrue(parsed.getBooleanType());
+        assertEquals(-1.5f, parsed.getFloatType(), 0.0f);
+        assertEquals(Math.PI, parsed.getDoubleType(), 0.0);
+        assertEquals(Short.MIN_VALUE, parsed.getShortType());
+        assertEquals(Integer.MAX_VALUE, parsed.getIntType());
+        assertEquals(Long.MIN_VALUE, parsed.getLongType());
+        assertEquals(Boolean.FALSE, parsed.getBooleanObjType());
+        assertTrue(parsed.getFloatObjType().isNaN());
+        assertEquals(new Double(Double.NEGATIVE_INFINITY), parsed.getDoubleObjType());
+        assertEquals(new Short((short) 7), parsed.getShortObjType());
+        assertEquals(new Integer(0), parsed.getIntObjType());
+        assertEquals(new Long(Long.MAX_VALUE), parsed.getLongObjType());
+        assertEquals(t.getBigDecimalObjType(), parsed.getBigDecimalObjType());
+        assertEquals(new Date(-1000L), parsed.getDateObjType());
+        assertNull(parsed.getStringObjType());
+    }
+
+    public void testDynamicObjects() throws Exception {
+        Company c = DynamicUtil.simpleCreateObject(Company.class);
+        c.setId(new Integer(17));
+        c.setName("CompanyA");
+        c.setVatNumber(100);
+        Company parsed = (Company) CompactObjectFormat.parse(CompactObjectFormat.render(c,
+                    model), model, null);
+        assertEquals(new Integer(17), parsed.getId());
+        assertEquals("CompanyA", parsed.getName());
+        assertEquals(100, parsed.getVatNumber());
+
+        // An object of more than one class is written with its class names
+        Set<Class<?>> classes = new HashSet<Class<?>>();
+        classes.add(Company.class);
+        classes.add(Broke.class);
+        InterMineObject o = (InterMineObject) DynamicUtil.createObject(classes);
+        o.setId(new Integer(18));
+        ((Broke) o).setDebt(-5);
+        String compact = CompactObjectFormat.render(o, model);
+        assertTrue(compact, compact.indexOf(Broke.class.getName()) != -1);
+        InterMineObject parsedObject = CompactObjectFormat.parse(compact, model, null);
+        assertTrue(parsedObject instanceof Company);
+        assertEquals(-5, ((Broke) parsedObject).getDebt());
+    }
+
+    public void testInvalid() throws Exception {
+        try {
+            CompactObjectFormat.parse(NotXmlRenderer.render(new Employee()).toString(), model,
+                    null);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        Employee e = new Employee();
+        e.setName("Flibble");
+        String compact = CompactObjectFormat.render(e, model);
+        try {
+            CompactObjectFormat.parse(compact.substring(0, compact.length() - 2), model, null);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e2) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package org.intermine.objectstore.intermine;
+
+/*
+ * Copyright (C) 2002-2016 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.intermine.metadata.Model;
+import org.intermine.model.InterMineObject;
+import org.intermine.model.testmodel.Address;
+import org.intermine.model.testmodel.Department;
+import org.intermine.model.testmodel.Employee;
+import org.intermine.model.testmodel.Types;
+import org.intermine.objectstore.proxy.ProxyReference;
+import org.intermine.util.DynamicUtil;
+
+/**
+ * Measures the throughput and allocation rate of NotXml parsing, comparing the single-pass
+ * NotXmlReader path used by NotXmlParser.parse() against the previous approach of splitting the
+ * NotXml with a regular expression and decoding the resulting String array, and against the
+ * CompactObjectFormat.
+ *
+ * Run with the objectstore test classpath:
+ * <pre>
+ * java org.intermine.objectstore.intermine.NotXmlParserBenchmark [objects] [rounds]
+ * </pre>
+ * The results are printed as objects per second and bytes allocated per object, as measured by
+ * the HotSpot per-thread allocation counter.
+ *
+ * @author agent
+ */
+public final class NotXmlParserBenchmark
+{
+    private NotXmlParserBenchmark() {
+    }
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args optionally the number of objects in the data set and the number of rounds
+     * @throws Exception if something goes wrong
+     */
+    public static void main(String[] args) throws Exception {
+        int objects = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        Model model = Model.getInstanceByName("testmodel");
+        List<String> data = createData(objects);
+        List<String> compactData = new ArrayList<String>(objects);
+        long notXmlSize = 0;
+        long compactSize = 0;
+        for (String notXml : data) {
+            String compact = CompactObjectFormat.render(NotXmlParser.parse(notXml, null), model);
+            compactData.add(compact);
+            notXmlSize += notXml.length();
+            compactSize += compact.length();
+        }
+        System.out.println("NotXml: " + notXmlSize + " chars, compact: " + compactSize + " chars");
+        // Warm up all paths before measuring
+        for (int i = 0; i < 3; i++) {
+            runSplit(data);
+            runReader(data);
+            runCompact(compactData, model);
+        }
+        for (int i = 0; i < rounds; i++) {
+            report("split", data.size(), runSplit(data));
+            report("reader", data.size(), runReader(data));
+            report("compact", data.size(), runCompact(compactData, model));
+        }
+    }
+
+    /**
+     * Creates NotXml for a mixture of testmodel objects.
+     *
+     * @param objects the number of objects to create
+     * @return a List of NotXml Strings
+     */
+    private static List<String> createData(int objects) {
+        List<String> retval = new ArrayList<String>(objects);
+        for (int i = 0; i < objects; i++) {
+            InterMineObject o;
+            switch (i % 4) {
+                case 0:
+                    Employee e = new Employee();
+                    e.setName("Employee " + i);
+                    e.setAge(20 + (i % 40));
+                    e.setFullTime((i % 2) == 0);
+                    e.proxyDepartment(new ProxyReference(null, new Integer(i + 1),
+                                Department.class));
+                    o = e;
+                    break;
+                case 1:
+                    Department d = new Department();
+                    d.setName("Department $_^ " + i);
+                    o = d;
+                    break;
+                case 2:
+                    Address a = new Address();
+                    a.setAddress(i + " Long Road, Somewhere, Some County, Some Country");
+                    o = a;
+                    break;
+                default:
+                    Types t = new Types();
+                    t.setName("Types " + i);
+                    t.setIntType(i);
+                    t.setLongType(i * 1000000L);
+                    t.setDoubleType(i / 7.0);
+                    t.setIntObjType(new Integer(-i));
+                    t.setDateObjType(new Date(i * 1000L));
+                    o = t;
+                    break;
+            }
+            o.setId(new Integer(i));
+            retval.add(NotXmlRenderer.render(o).toString());
+        }
+        return retval;
+    }
+
+    /**
+     * Parses the data by splitting it into an array first.
+     *
+     * @param data the NotXml
+     * @return the time taken in nanoseconds and the bytes allocated
+     * @throws Exception if something goes wrong
+     */
+    private static long[] runSplit(List<String> data) throws Exception {
+        // The class cache used by the previous parser
+        Map<String, Class<? extends InterMineObject>> classCache = Collections.synchronizedMap(
+                new HashMap<String, Class<? extends InterMineObject>>());
+        long bytes = allocatedBytes();
+        long start = System.nanoTime();
+        int count = 0;
+        for (String notXml : data) {
+            String[] a = NotXmlParser.SPLITTER.split(notXml);
+            Class<? extends InterMineObject> clazz = classCache.get(a[1]);
+            if (clazz == null) {
+                clazz = Class.forName(a[1]).asSubclass(InterMineObject.class);
+                classCache.put(a[1], clazz);
+            }
+            InterMineObject o = DynamicUtil.createObject(clazz);
+            o.setoBJECT(a, null);
+            count += o.getId().intValue() & 1;
+        }
+        return new long[] {System.nanoTime() - start, allocatedBytes() - bytes, count};
+    }
+
+    /**
+     * Parses the data with NotXmlParser.
+     *
+     * @param data the NotXml
+     * @return the time taken in nanoseconds and the bytes allocated
+     * @throws Exception if something goes wrong
+     */
+    private static long[] runReader(List<String> data) throws Exception {
+        long bytes = allocatedBytes();
+        long start = System.nanoTime();
+        int count = 0;
+        for (String notXml : data) {
+            InterMineObject o = NotXmlParser.parse(notXml, null);
+            count += o.getId().intValue() & 1;
+        }
+        return new long[] {System.nanoTime() - start, allocatedBytes() - bytes, count};
+    }
+
+    /**
+     * Parses the data with CompactObjectFormat.
+     *
+     * @param data the objects in the compact format
+     * @param model the Model
+     * @return the time taken in nanoseconds and the bytes allocated
+     * @throws Exception if something goes wrong
+     */
+    private static long[] runCompact(List<String> data, Model model) throws Exception {
+        long bytes = allocatedBytes();
+        long start = System.nanoTime();
+        int count = 0;
+        for (String compact : data) {
+            InterMineObject o = CompactObjectFormat.parse(compact, model, null);
+            count += o.getId().intValue() & 1;
+        }
+        return new long[] {System.nanoTime() - start, allocatedBytes() - bytes, count};
+    }
+
+    private static void report(String name, int objects, long[] result) {
+        System.out.println(name + ": " + (objects * 1000000000L / Math.max(1, result[0]))
+                + " objects/sec, " + (result[1] / objects) + " bytes/object");
+    }
+
+    /**
+     * Returns the number of bytes allocated by the current thread so far, or 0 if the JVM does
+     * not support measuring it.
+     *
+     * @return a number of bytes
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread
+                    .currentThread().getId());
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,116 @@
+package org.intermine.objectstore.intermine;
+
+/*
+ * Copyright (C) 2002-2016 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Date;
+
+import junit.framework.TestCase;
+
+import org.intermine.model.testmodel.Department;
+import org.intermine.model.testmodel.Employee;
+import org.intermine.model.testmodel.Types;
+import org.intermine.objectstore.proxy.ProxyReference;
+
+public class NotXmlReaderTest extends TestCase
+{
+    private static final String D = NotXmlParser.DELIM;
+
+    public void testRead() throws Exception {
+        NotXmlReader reader = new NotXmlReader(D + "org.intermine.model.testmodel.Employee"
+                + D + "aage" + D + "-42" + D + "rdepartment" + D + "5678" + D + "afullTime" + D
+                + "TRUE" + D + "aname" + D + "Flibble");
+        assertEquals("org.intermine.model.testmodel.Employee", reader.getClassNames());
+        assertTrue(reader.classNamesEqual("org.intermine.model.testmodel.Employee"));
+        assertFalse(reader.classNamesEqual("org.intermine.model.testmodel.Employe"));
+        assertTrue(reader.nextField());
+        assertTrue(reader.isAttribute("age"));
+        assertFalse(reader.isAttribute("ag"));
+        assertFalse(reader.isReference("age"));
+        assertEquals(-42, reader.readInt());
+        assertTrue(reader.isReference("department"));
+        assertEquals('r', reader.getFieldType());
+        assertEquals("department", reader.getFieldName());
+        assertEquals(5678L, reader.readLong());
+        assertTrue(reader.readBoolean());
+        assertTrue(reader.isAttribute("name"));
+        assertEquals("Flibble", reader.readString());
+        assertFalse(reader.hasField());
+        assertFalse(reader.nextField());
+    }
+
+    public void testSkipAndEncodedDelims() throws Exception {
+        NotXmlReader reader = new NotXmlReader(D + "org.intermine.model.testmodel.Employee"
+                + D + "aname" + D + "A" + D + "d B" + D + "d" + D + "aage" + D + "3"
+                + D + "aend" + D + "x" + D + "d" + D + "aid" + D);
+        reader.nextField();
+        assertEquals("A" + D + " B" + D, reader.readString());
+        // Skipping the value of a field must also skip the encoded delimiters
+        reader.nextField();
+        assertTrue(reader.isAttribute("end"));
+        reader.nextField();
+        assertTrue(reader.isAttribute("id"));
+        assertEquals("", reader.readString());
+        assertFalse(reader.hasField());
+    }
+
+    public void testNumberFormat() throws Exception {
+        String[] bad = new String[] {"", "-", "12a", "99999999999999999999", "2147483648"};
+        for (int i = 0; i < bad.length; i++) {
+            NotXmlReader reader = new NotXmlReader(D + D + "aage" + D + bad[i]);
+            reader.nextField();
+            try {
+                reader.readInt();
+                fail("Expected NumberFormatException for " + bad[i]);
+            } catch (NumberFormatException e) {
+                // expected
+            }
+        }
+        NotXmlReader reader = new NotXmlReader(D + D + "along" + D + Long.MIN_VALUE + D + "aint"
+                + D + Integer.MAX_VALUE);
+        reader.nextField();
+        assertEquals(Long.MIN_VALUE, reader.readLong());
+        assertEquals(Integer.MAX_VALUE, reader.readInt());
+    }
+
+    public void testRoundTrip() throws Exception {
+        Employee e = new Employee();
+        e.setId(new Integer(2874));
+        e.setAge(-17);
+        e.setName("Flibble $_^ Wotsit $_^");
+        e.proxyDepartment(new ProxyReference(null, new Integer(5678), Department.class));
+        String notXml = NotXmlRenderer.render(e).toString();
+
+        Employee reparsed = new Employee();
+        reparsed.setoBJECT(notXml, null);
+        assertEquals(e.getId(), reparsed.getId());
+        assertEquals(e.getAge(), reparsed.getAge());
+        assertEquals(e.getName(), reparsed.getName());
+        assertEquals(new Integer(5678), ((ProxyReference) reparsed.proxGetDepartment()).getId());
+
+        Types t = new Types();
+        t.setId(new Integer(1));
+        t.setLongType(Long.MAX_VALUE);
+        t.setShortObjType(new Short((short) -3));
+        t.setDoubleType(1.5);
+        t.setBooleanObjType(Boolean.TRUE);
+        t.setDateObjType(new Date(123456789L));
+        t.setBigDecimalObjType(new java.math.BigDecimal("1.25"));
+        notXml = NotXmlRenderer.render(t).toString();
+        Types t2 = new Types();
+        t2.setoBJECT(notXml, null);
+        assertEquals(t.getLongType(), t2.getLongType());
+        assertEquals(t.getShortObjType(), t2.getShortObjType());
+        assertEquals(t.getDoubleType(), t2.getDoubleType(), 0.0);
+        assertEquals(t.getBooleanObjType(), t2.getBooleanObjType());
+        assertEquals(t.getDateObjType(), t2.getDateObjType());
+        assertEquals(t.getBigDecimalObjType(), t2.getBigDecimalObjType());
+    }
+}
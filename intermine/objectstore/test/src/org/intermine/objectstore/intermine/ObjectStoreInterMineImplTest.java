@@ -16,6 +16,7 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.ConcurrentModificationException;
 import java.util.HashMap;
@@ -38,10 +39,14 @@ import org.intermine.model.testmodel.Employee;
 import org.intermine.model.testmodel.Manager;
 import org.intermine.model.testmodel.Types;
 import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.ObjectStoreAbstractImpl;
 import org.intermine.objectstore.ObjectStoreAbstractImplTestCase;
 import org.intermine.objectstore.ObjectStoreException;
 import org.intermine.objectstore.ObjectStoreFactory;
 import org.intermine.objectstore.ObjectStoreQueriesTestCase;
+import org.intermine.objectstore.proxy.CollectionPrefetcher;
+import org.intermine.objectstore.proxy.ProxyCollection;
+import org.intermine.objectstore.proxy.ProxyReference;
 import org.intermine.objectstore.query.BagConstraint;
 import org.intermine.objectstore.query.ClassConstraint;
 import org.intermine.objectstore.query.ConstraintSet;
@@ -54,6 +59,7 @@ import org.intermine.objectstore.query.QueryCollectionReference;
 import org.intermine.objectstore.query.QueryField;
 import org.intermine.objectstore.query.QueryValue;
 import org.intermine.objectstore.query.Results;
+import org.intermine.objectstore.query.ResultsCursor;
 import org.intermine.objectstore.query.ResultsRow;
 import org.intermine.objectstore.query.SimpleConstraint;
 import org.intermine.objectstore.query.SingletonResults;
@@ -963,4 +969,192 @@ public class ObjectStoreInterMineImplTest extends ObjectStoreAbstractImplTestCas
         Results r3 = os.execute(q, 102, false, false, false);
         assertTrue(r3.isSingleBatch());
     }
+
+    public void testStreamingIterator() throws Exception {
+        Query q = new Query();
+        QueryClass qc = new QueryClass(Employee.class);
+        q.addFrom(qc);
+        q.addToSelect(qc);
+        SingletonResults r1 = os.executeSingleton(q, 1000, true, true, true);
+        List<Object> expected = new ArrayList<Object>(r1);
+        // Use a fetch size smaller than the results, so that the cursor has to be read in parts
+        ResultsCursor cursor = r1.streamingIterator(2);
+        List<Object> got = new ArrayList<Object>();
+        while (cursor.hasNext()) {
+            got.add(cursor.next());
+        }
+        assertEquals(expected, got);
+    }
+
+    public void testStreamingIteratorClose() throws Exception {
+        Query q = new Query();
+        QueryClass qc = new QueryClass(Employee.class);
+        q.addFrom(qc);
+        q.addToSelect(qc);
+        Results r1 = os.execute(q, 1000, true, true, true);
+        ResultsCursor cursor = r1.streamingIterator(1);
+        assertTrue(cursor.hasNext());
+        assertTrue(cursor.next() instanceof ResultsRow);
+        cursor.close();
+        assertFalse(cursor.hasNext());
+        // Closing twice must be harmless
+        cursor.close();
+    }
+
+    public void testGetObjectsByIds() throws Exception {
+        Employee e1 = (Employee) data.get("EmployeeA1");
+        Employee e2 = (Employee) data.get("EmployeeB1");
+        os.flushObjectById();
+        List<Integer> ids = Arrays.asList(e2.getId(), new Integer(-1), e1.getId(), e2.getId());
+        List<InterMineObject> objects = os.getObjectsByIds(ids);
+        // In the order asked for, without duplicates or missing objects
+        assertEquals(Arrays.asList(e2, e1), objects);
+        // The objects are now in the cache, so the same instances come back
+        assertSame(objects.get(0), os.getObjectById(e2.getId()));
+        assertSame(objects.get(1), os.getObjectById(e1.getId()));
+
+        // Fetched one id at a time, the result is the same
+        os.flushObjectById();
+        ObjectStoreAbstractImpl osai = (ObjectStoreAbstractImpl) os;
+        osai.setGetObjectsChunkSize(1);
+        try {
+            assertEquals(Arrays.asList(e2, e1), os.getObjectsByIds(ids));
+        } finally {
+            osai.setGetObjectsChunkSize(ObjectStoreAbstractImpl.DEFAULT_GET_OBJECTS_CHUNK_SIZE);
+        }
+    }
+
+    public void testProxyReferencePrefetch() throws Exception {
+        os.flushObjectById();
+        Employee e1 = (Employee) os.getObjectById(((Employee) data.get("EmployeeA1")).getId());
+        Object proxy = e1.proxGetDepartment();
+        assertTrue(proxy instanceof ProxyReference);
+        ProxyReference.prefetch(Collections.singleton(e1));
+        InterMineObject department = os.getObjectById(((ProxyReference) proxy).getId());
+        assertSame(department, ((ProxyReference) proxy).getObject());
+        assertEquals(data.get("DepartmentA1"), department);
+    }
+
+    public void testCollectionPrefetcher() throws Exception {
+        Query q = new Query();
+        QueryClass qc = new QueryClass(Department.class);
+        q.addFrom(qc);
+        q.addToSelect(qc);
+        List<InterMineObject> departments = new ArrayList<InterMineObject>();
+        for (Object o : os.executeSingleton(q, 1000, false, false, false)) {
+            departments.add((InterMineObject) o);
+        }
+        Map<Integer, Collection<Object>> fetched = new CollectionPrefetcher(os)
+            .prefetch(departments, "employees");
+        assertEquals(departments.size(), fetched.size());
+        for (InterMineObject o : departments) {
+            Department department = (Department) o;
+            Collection<?> employees = ((ProxyCollection<?>) (Collection<?>) department
+                    .getEmployees()).getMaterialisedCollection();
+            assertSame(fetched.get(department.getId()), employees);
+            Set<Object> expected = new HashSet<Object>();
+            for (Object employee : data.values()) {
+                if ((employee instanceof Employee) && department.equals(((Employee) employee)
+                            .getDepartment())) {
+                    expected.add(employee);
+                }
+            }
+            assertEquals(expected, employees);
+        }
+        // Already materialised collections are left alone
+        assertTrue(new CollectionPrefetcher(os).prefetch(departments, "employees").isEmpty());
+    }
+
+    public void testSharedResultsCache() throws Exception {
+        ObjectStoreInterMineImpl osii = (ObjectStoreInterMineImpl) os;
+        // The cache is switched off by default
+        assertNull(osii.getSharedResultsCache());
+        osii.setSharedResultsCacheSize(100000);
+        SharedResultsCache cache = osii.getSharedResultsCache();
+        cache.setMinimumTime(0);
+        Employee nullEmployee = new Employee();
+        nullEmployee.setAge(26);
+        nullEmployee.setName("Shared cache employee");
+        try {
+            Query q = new Query();
+            QueryClass qc = new QueryClass(Employee.class);
+            q.addFrom(qc);
+            q.addToSelect(qc);
+            q.setConstraint(new SimpleConstraint(new QueryField(qc, "name"), ConstraintOp.EQUALS,
+                        new QueryValue("Shared cache employee")));
+            assertEquals(0, os.execute(q, 0, 10, false, false, ObjectStore.SEQUENCE_IGNORE)
+                    .size());
+            long hits = cache.getShapeStatistics().get(q.getIqlQuery().getShape()).getHits();
+            assertEquals(0, os.execute(q, 0, 10, false, false, ObjectStore.SEQUENCE_IGNORE)
+                    .size());
+            assertEquals(hits + 1, cache.getShapeStatistics().get(q.getIqlQuery().getShape())
+                    .getHits());
+            // Storing an Employee invalidates the cached batch
+            storeDataWriter.store(nullEmployee);
+            assertEquals(1, os.execute(q, 0, 10, false, false, ObjectStore.SEQUENCE_IGNORE)
+                    .size());
+        } finally {
+            osii.setSharedResultsCacheSize(SharedResultsCache.DEFAULT_MAXIMUM_CELLS);
+            if (nullEmployee.getId() != null) {
+                storeDataWriter.delete(nullEmployee);
+            }
+        }
+    }
+
+    public void testParameterisedQueries() throws Exception {
+        ObjectStoreInterMineImpl osii = (ObjectStoreInterMineImpl) os;
+        boolean oldDisableResultsCache = osii.getDisableResultsCache();
+        osii.setDisableResultsCache(true);
+        try {
+            List<List<ResultsRow<Object>>> expected = new ArrayList<List<ResultsRow<Object>>>();
+            for (int age = 20; age <= 60; age += 20) {
+                expected.add(os.execute(employeesOlderThan(age), 0, 100, true, false,
+                            ObjectStore.SEQUENCE_IGNORE));
+            }
+            osii.setParameterisedQueries(true, 10);
+            for (int age = 20; age <= 60; age += 20) {
+                assertEquals(expected.get(age / 20 - 1), os.execute(employeesOlderThan(age), 0,
+                            100, true, false, ObjectStore.SEQUENCE_IGNORE));
+            }
+        } finally {
+            osii.setParameterisedQueries(false, 0);
+            osii.setDisableResultsCache(oldDisableResultsCache);
+        }
+    }
+
+    public void testBagArrays() throws Exception {
+        ObjectStoreInterMineImpl osii = (ObjectStoreInterMineImpl) os;
+        boolean oldDisableResultsCache = osii.getDisableResultsCache();
+        osii.setDisableResultsCache(true);
+        try {
+            Query q = new Query();
+            QueryClass qc = new QueryClass(Employee.class);
+            q.addFrom(qc);
+            q.addToSelect(qc);
+            q.setConstraint(new BagConstraint(new QueryField(qc, "name"), ConstraintOp.IN,
+                        Arrays.asList(new String[] {"EmployeeA1", "EmployeeA2", "EmployeeB1"})));
+            List<ResultsRow<Object>> expected = os.execute(q, 0, 100, true, false,
+                    ObjectStore.SEQUENCE_IGNORE);
+            assertEquals(3, expected.size());
+            osii.setParameterisedQueries(true, 10);
+            osii.setMaxBagArraySize(1000);
+            assertEquals(expected, os.execute(q, 0, 100, true, false,
+                        ObjectStore.SEQUENCE_IGNORE));
+        } finally {
+            osii.setMaxBagArraySize(0);
+            osii.setParameterisedQueries(false, 0);
+            osii.setDisableResultsCache(oldDisableResultsCache);
+        }
+    }
+
+    private static Query employeesOlderThan(int age) {
+        Query q = new Query();
+        QueryClass qc = new QueryClass(Employee.class);
+        q.addFrom(qc);
+        q.addToSelect(qc);
+        q.addToOrderBy(qc);
+        q.setConstraint(new SimpleConstraint(new QueryField(qc, "age"), ConstraintOp.GREATER_THAN,
+                    new QueryValue(new Integer(age))));
+        return q;
+    }
 }
@@ -0,0 +1,121 @@
+package org.intermine.objectstore.intermine;
+
+/*
+ * Copyright (C) 2002-2016 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.intermine.metadata.ConstraintOp;
+import org.intermine.objectstore.query.BagConstraint;
+import org.intermine.objectstore.query.QueryValue;
+import org.intermine.objectstore.query.SimpleConstraint;
+
+public class ParameterisedSqlTest extends TestCase
+{
+    public void testMarkersInTextOrder() throws Exception {
+        List<Object> values = new ArrayList<Object>();
+        values.add("Hello");
+        values.add(new Integer(5));
+        String marked = "SELECT a1_.name AS a2_ FROM Employee AS a1_ WHERE a1_.age > "
+            + ParameterisedSql.getMarker(1) + " AND a1_.name = " + ParameterisedSql.getMarker(0);
+        ParameterisedSql psql = new ParameterisedSql(marked, values);
+        assertEquals("SELECT a1_.name AS a2_ FROM Employee AS a1_ WHERE a1_.age > ? AND"
+                + " a1_.name = ?", psql.getShape());
+        assertEquals("SELECT a1_.name AS a2_ FROM Employee AS a1_ WHERE a1_.age > 5 AND"
+                + " a1_.name = 'Hello'", psql.getSql());
+        assertEquals(Arrays.asList(new Object[] {new Integer(5), "Hello"}), psql.getParameters());
+    }
+
+    public void testMarkersInLiterals() throws Exception {
+        List<Object> values = new ArrayList<Object>();
+        values.add("it's");
+        String marked = "SELECT 'what?0?' AS a1_, E'\\'?0?' AS a2_, \"odd?0?\" AS a3_ WHERE a1_ = "
+            + ParameterisedSql.getMarker(0);
+        ParameterisedSql psql = new ParameterisedSql(marked, values);
+        assertEquals("SELECT 'what?0?' AS a1_, E'\\'?0?' AS a2_, \"odd?0?\" AS a3_ WHERE a1_ = ?",
+                psql.getShape());
+        assertEquals("SELECT 'what?0?' AS a1_, E'\\'?0?' AS a2_, \"odd?0?\" AS a3_ WHERE a1_ ="
+                + " 'it''s'", psql.getSql());
+        assertEquals(1, psql.getParameters().size());
+    }
+
+    public void testNoParameters() throws Exception {
+        ParameterisedSql psql = new ParameterisedSql("SELECT 1 AS a1_",
+                new ArrayList<Object>());
+        assertEquals("SELECT 1 AS a1_", psql.getShape());
+        assertEquals("SELECT 1 AS a1_", psql.getSql());
+        assertTrue(psql.getParameters().isEmpty());
+    }
+
+    public void testBindingInConstraint() throws Exception {
+        SimpleConstraint con = new SimpleConstraint(new QueryValue(new Date(1046275720000L)),
+                ConstraintOp.LESS_THAN, new QueryValue(new Date(1046275730000L)));
+        SqlGenerator.State state = new SqlGenerator.State();
+        List<Object> values = new ArrayList<Object>();
+        state.setParameters(values);
+        StringBuffer buffer = state.getWhereBuffer();
+        SqlGenerator.simpleConstraintToString(state, buffer, con, null);
+        assertEquals("1046275720000 < 1046275730000", buffer.toString());
+
+        state.setBinding(true);
+        buffer.setLength(0);
+        SqlGenerator.simpleConstraintToString(state, buffer, con, null);
+        ParameterisedSql psql = new ParameterisedSql(buffer.toString(), values);
+        assertEquals("? < ?", psql.getShape());
+        assertEquals("1046275720000 < 1046275730000", psql.getSql());
+        assertEquals(Arrays.asList(new Object[] {new Long(1046275720000L),
+                    new Long(1046275730000L)}),
+                psql.getParameters());
+    }
+
+    public void testBagArray() throws Exception {
+        BagConstraint con = new BagConstraint(new QueryValue(new Integer(5)), ConstraintOp.NOT_IN,
+                Arrays.asList(new Integer[] {new Integer(3), new Integer(1), new Integer(2)}));
+        SqlGenerator.State state = new SqlGenerator.State();
+        List<Object> values = new ArrayList<Object>();
+        state.setParameters(values);
+        state.setBinding(true);
+        StringBuffer buffer = state.getWhereBuffer();
+        SqlGenerator.bagConstraintToString(state, buffer, con, null, null,
+                SqlGenerator.SAFENESS_SAFE);
+        ParameterisedSql psql = new ParameterisedSql(buffer.toString(), values);
+        assertEquals("(NOT (? IN (1, 2, 3)))", psql.getShape());
+        assertFalse(psql.hasArrays());
+
+        state.setBagArrays(true);
+        values.clear();
+        buffer.setLength(0);
+        SqlGenerator.bagConstraintToString(state, buffer, con, null, null,
+                SqlGenerator.SAFENESS_SAFE);
+        psql = new ParameterisedSql(buffer.toString(), values);
+        assertEquals("(NOT (? = ANY(?::int4[])))", psql.getShape());
+        assertEquals("(NOT (5 = ANY(ARRAY[1, 2, 3]::int4[])))", psql.getSql());
+        assertTrue(psql.hasArrays());
+        ParameterisedSql.ArrayValue array = (ParameterisedSql.ArrayValue) psql.getParameters()
+            .get(1);
+        assertEquals("int4", array.getTypeName());
+        assertEquals(Arrays.asList(new Object[] {new Integer(1), new Integer(2), new Integer(3)}),
+                Arrays.asList(array.getElements()));
+    }
+
+    public void testHasConstants() throws Exception {
+        assertFalse(ParameterisedSql.hasConstants("SELECT a1_.id AS a1_id FROM Employee AS a1_"
+                    + " WHERE a1_.departmentId = a2_.id"));
+        assertTrue(ParameterisedSql.hasConstants("SELECT a1_.id AS a1_id FROM Employee AS a1_"
+                    + " WHERE a1_.age > 40"));
+        assertTrue(ParameterisedSql.hasConstants("SELECT a1_.id AS a1_id FROM Employee AS a1_"
+                    + " WHERE a1_.name = 'Fred'"));
+    }
+}
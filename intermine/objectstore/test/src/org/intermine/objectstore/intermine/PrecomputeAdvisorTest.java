@@ -0,0 +1,153 @@
+package org.intermine.objectstore.intermine;
+
+/*
+ * Copyright (C) 2002-2016 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.intermine.objectstore.query.Query;
+
+public class PrecomputeAdvisorTest extends TestCase
+{
+    private static final String DEPT_COMPANY = "SELECT a1_, a2_ FROM Company AS a1_, Department AS"
+        + " a2_ WHERE a1_.departments CONTAINS a2_";
+    private static final String DEPT_COMPANY_NAME = "SELECT a1_.name AS a3_, a2_ FROM Department"
+        + " AS a2_, Company AS a1_ WHERE a1_.departments CONTAINS a2_ AND a1_.name = 'Fred'";
+    private static final String COMPANY_ADDRESS = "SELECT a1_ FROM Company AS a1_, Address AS a2_,"
+        + " Department AS a3_ WHERE a1_.address CONTAINS a2_ AND a1_.departments CONTAINS a3_";
+    private static final String EMPLOYEE_BAG = "SELECT a1_ FROM Employee AS a1_, Department AS a2_"
+        + " WHERE a1_.department CONTAINS a2_ AND a2_.name IN ? 1: [Sales, Warehouse]";
+    private static final String NO_JOIN = "SELECT a1_ FROM Employee AS a1_";
+
+    private PrecomputeAdvisor advisor;
+
+    public void setUp() {
+        advisor = new PrecomputeAdvisor(null, "org.intermine.model.testmodel") {
+            @Override
+            protected boolean isPrecomputed(Query q) {
+                return false;
+            }
+
+            @Override
+            protected long estimateSize(Query q) {
+                return 1000L * q.getFrom().size() * q.getFrom().size();
+            }
+        };
+    }
+
+    public void testReadExecuteLog() throws Exception {
+        String log = "EXECUTE\toptimise: 3\testimated: 120\texecute: 150\tpermitted: 200\tconvert: 4\t"
+            + DEPT_COMPANY + "\tSELECT 1\n"
+            + "Some other line\n"
+            + "EXECUTE\toptimise: x\testimated: 1\texecute: 1\tpermitted: 1\tconvert: 1\tq\tsql\n";
+        List<PrecomputeAdvisor.Entry> entries = PrecomputeAdvisor.readExecuteLog(
+                new StringReader(log));
+        assertEquals(1, entries.size());
+        PrecomputeAdvisor.Entry entry = entries.get(0);
+        assertEquals(3, entry.getOptimise());
+        assertEquals(120, entry.getEstimated());
+        assertEquals(150, entry.getExecute());
+        assertEquals(4, entry.getConvert());
+        assertEquals(DEPT_COMPANY, entry.getIql());
+        assertEquals("SELECT 1", entry.getSql());
+    }
+
+    public void testJoinShape() throws Exception {
+        List<PrecomputeAdvisor.Entry> entries = new ArrayList<PrecomputeAdvisor.Entry>();
+        entries.add(entry(DEPT_COMPANY, 100));
+        entries.add(entry(DEPT_COMPANY_NAME, 300));
+        entries.add(entry(COMPANY_ADDRESS, 900));
+        entries.add(entry(EMPLOYEE_BAG, 40));
+        entries.add(entry(NO_JOIN, 5000));
+        entries.add(entry("SELECT nonsense", 5000));
+        List<PrecomputeAdvisor.Recommendation> recs = advisor.advise(entries);
+        assertEquals(3, recs.size());
+
+        // 900ms over 3 classes saves 600ms
+        assertEquals(3, recs.get(0).getQuery().getFrom().size());
+        assertEquals(600, recs.get(0).getPredictedSaving());
+
+        // 400ms over 2 classes saves 200ms, and the queries differ only outside the join
+        PrecomputeAdvisor.Recommendation rec = recs.get(1);
+        assertEquals("[org.intermine.model.testmodel.Company.departments CONTAINS"
+                + " org.intermine.model.testmodel.Department]", rec.getShape());
+        assertEquals(2, rec.getCount());
+        assertEquals(400, rec.getTotalTime());
+        assertEquals(100, rec.getPredictedMeanTime());
+        assertEquals("SELECT a1_, a2_ FROM org.intermine.model.testmodel.Company AS a1_,"
+                + " org.intermine.model.testmodel.Department AS a2_ WHERE a1_.departments"
+                + " CONTAINS a2_", rec.getQuery().toString());
+
+        assertEquals("[org.intermine.model.testmodel.Employee.department CONTAINS"
+                + " org.intermine.model.testmodel.Department]", recs.get(2).getShape());
+    }
+
+    public void testChooseWithinBudget() throws Exception {
+        List<PrecomputeAdvisor.Entry> entries = new ArrayList<PrecomputeAdvisor.Entry>();
+        entries.add(entry(COMPANY_ADDRESS, 900));
+        entries.add(entry(DEPT_COMPANY, 400));
+        entries.add(entry(EMPLOYEE_BAG, 40));
+        List<PrecomputeAdvisor.Recommendation> recs = advisor.advise(entries);
+
+        // The three class table does not fit in the budget, so the next two are chosen
+        List<PrecomputeAdvisor.Recommendation> chosen = advisor.choose(recs, 10, 8000);
+        assertEquals(2, chosen.size());
+        assertSame(recs.get(1), chosen.get(0));
+        assertSame(recs.get(2), chosen.get(1));
+        assertEquals(4000, chosen.get(0).getEstimatedSize());
+
+        chosen = advisor.choose(recs, 1, 10000);
+        assertEquals(1, chosen.size());
+        assertSame(recs.get(0), chosen.get(0));
+    }
+
+    public void testObserve() throws Exception {
+        List<PrecomputeAdvisor.Entry> entries = new ArrayList<PrecomputeAdvisor.Entry>();
+        entries.add(entry(DEPT_COMPANY, 400));
+        List<PrecomputeAdvisor.Recommendation> recs = advisor.advise(entries);
+        assertEquals(-1, recs.get(0).getObservedMeanTime());
+
+        entries.clear();
+        entries.add(entry(DEPT_COMPANY, 150));
+        entries.add(entry(DEPT_COMPANY_NAME, 50));
+        entries.add(entry(EMPLOYEE_BAG, 1000));
+        advisor.observe(recs, entries);
+        assertEquals(100, recs.get(0).getObservedMeanTime());
+        assertTrue(PrecomputeAdvisor.report(recs).contains("predicted 200 ms, observed 100 ms over"
+                    + " 2 queries"));
+    }
+
+    public void testCreated() throws Exception {
+        List<PrecomputeAdvisor.Entry> entries = new ArrayList<PrecomputeAdvisor.Entry>();
+        entries.add(entry(COMPANY_ADDRESS, 900));
+        entries.add(entry(DEPT_COMPANY, 400));
+        entries.add(entry(EMPLOYEE_BAG, 40));
+        PrecomputeAdvisor createdAdvisor = new PrecomputeAdvisor(null,
+                "org.intermine.model.testmodel") {
+            @Override
+            protected boolean isPrecomputed(Query q) {
+                return q.getFrom().size() == 2;
+            }
+        };
+        List<PrecomputeAdvisor.Recommendation> recs = createdAdvisor.advise(entries);
+        List<PrecomputeAdvisor.Recommendation> created = createdAdvisor.created(recs);
+        assertEquals(2, created.size());
+        assertSame(recs.get(1), created.get(0));
+        assertSame(recs.get(2), created.get(1));
+    }
+
+    private static PrecomputeAdvisor.Entry entry(String iql, long execute) {
+        return new PrecomputeAdvisor.Entry(0, 0, 0, execute, 0, iql, "");
+    }
+}
@@ -0,0 +1,118 @@
+package org.intermine.objectstore.intermine;
+
+/*
+ * Copyright (C) 2002-2016 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.intermine.objectstore.dummy.ObjectStoreDummyImpl;
+import org.intermine.objectstore.query.ResultsRow;
+import org.intermine.objectstore.query.iql.IqlQuery;
+
+public class SharedResultsCacheTest extends TestCase
+{
+    private static final String IQL = "SELECT a1_ FROM org.intermine.model.testmodel.Employee AS"
+        + " a1_ WHERE a1_.name = 'EmployeeA1'";
+
+    private ObjectStoreDummyImpl os;
+    private SharedResultsCache cache;
+
+    public void setUp() throws Exception {
+        os = new ObjectStoreDummyImpl();
+        cache = new SharedResultsCache(os, 1000);
+        cache.setMinimumTime(10);
+    }
+
+    public void testGetShape() throws Exception {
+        assertEquals("SELECT a1_ FROM org.intermine.model.testmodel.Employee AS a1_ WHERE"
+                + " a1_.name = ? AND a1_.age > ?", SharedResultsCache.getShape("SELECT a1_ FROM"
+                    + " org.intermine.model.testmodel.Employee AS a1_ WHERE a1_.name = 'it''s'"
+                    + " AND a1_.age > -40"));
+        assertEquals(SharedResultsCache.getShape(IQL), SharedResultsCache.getShape(
+                    IQL.replace("EmployeeA1", "EmployeeB2")));
+    }
+
+    public void testAdmission() throws Exception {
+        Map<Object, Integer> sequence = os.getSequence(Collections.<Object>singleton("employee"));
+        assertNull(cache.get(IQL, 0, 10));
+        cache.offer(IQL, 0, 10, sequence, rows(3), 1);
+        assertNull(cache.get(IQL, 0, 10));
+        cache.offer(IQL, 0, 10, sequence, rows(3), 100);
+        assertEquals(3, cache.get(IQL, 0, 10).size());
+        assertNull(cache.get(IQL, 10, 10));
+
+        SharedResultsCache.ShapeStatistics stats = cache.getShapeStatistics().get(
+                SharedResultsCache.getShape(IQL));
+        assertEquals(1, stats.getHits());
+        assertEquals(3, stats.getMisses());
+        assertEquals(1, stats.getAdmitted());
+        assertEquals(1, stats.getRejected());
+        assertEquals(100, stats.getTimeSaved());
+    }
+
+    public void testSequenceChange() throws Exception {
+        Set<Object> tables = Collections.<Object>singleton("employee");
+        cache.offer(IQL, 0, 10, os.getSequence(tables), rows(3), 100);
+        assertNotNull(cache.get(IQL, 0, 10));
+        os.changeSequence(tables);
+        assertNull(cache.get(IQL, 0, 10));
+        assertEquals(0, cache.size());
+    }
+
+    public void testInvalidate() throws Exception {
+        cache.offer(IQL, 0, 10, os.getSequence(Collections.<Object>singleton("employee")),
+                rows(3), 100);
+        cache.offer("SELECT 1", 0, 10, os.getSequence(Collections.<Object>singleton("company")),
+                rows(3), 100);
+        cache.invalidate(Collections.<Object>singleton("employee"));
+        assertNull(cache.get(IQL, 0, 10));
+        assertNotNull(cache.get("SELECT 1", 0, 10));
+    }
+
+    public void testQueryKey() throws Exception {
+        String bagIql = "SELECT a1_ FROM org.intermine.model.testmodel.Employee AS a1_ WHERE"
+            + " a1_.id IN ?";
+        List<Integer> bag = new ArrayList<Integer>();
+        for (int i = 0; i < 10000; i++) {
+            bag.add(new Integer(i));
+        }
+        String key = SharedResultsCache.getQueryKey(new IqlQuery(bagIql, null,
+                    Collections.singletonList(bag)));
+        assertTrue(key.startsWith(bagIql));
+        assertTrue(key.length() < bagIql.length() + 50);
+        assertEquals(key, SharedResultsCache.getQueryKey(new IqlQuery(bagIql, null,
+                        Collections.singletonList(new ArrayList<Integer>(bag)))));
+        bag.set(5000, new Integer(-1));
+        assertFalse(key.equals(SharedResultsCache.getQueryKey(new IqlQuery(bagIql, null,
+                            Collections.singletonList(bag)))));
+        assertFalse(SharedResultsCache.getQueryKey(new IqlQuery(bagIql, null,
+                        Collections.singletonList(Arrays.asList(1, 2)))).equals(
+                    SharedResultsCache.getQueryKey(new IqlQuery(bagIql, null,
+                            Collections.singletonList(Arrays.asList(12))))));
+        assertEquals(IQL, SharedResultsCache.getQueryKey(new IqlQuery(IQL, null)));
+    }
+
+    private static List<ResultsRow<Object>> rows(int count) {
+        List<ResultsRow<Object>> retval = new ArrayList<ResultsRow<Object>>();
+        for (int i = 0; i < count; i++) {
+            ResultsRow<Object> row = new ResultsRow<Object>();
+            row.add(new Integer(i));
+            retval.add(row);
+        }
+        return retval;
+    }
+}
@@ -0,0 +1,101 @@
+package org.intermine.objectstore.intermine;
+
+/*
+ * Copyright (C) 2002-2016 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.intermine.objectstore.query.iql.IqlQuery;
+
+public class SlowQueryLogTest extends TestCase
+{
+    public SlowQueryLogTest(String arg) {
+        super(arg);
+    }
+
+    public void testSampled() throws Exception {
+        SlowQueryLog log = new SlowQueryLog(null);
+        log.setThreshold(100);
+        assertFalse(log.isSampled(99));
+        assertTrue(log.isSampled(100));
+        log.setSampleRate(0.0);
+        assertFalse(log.isSampled(100));
+    }
+
+    public void testSlowestPerShape() throws Exception {
+        SlowQueryLog log = new SlowQueryLog(null);
+        log.setPerShape(2);
+        assertTrue(log.add(entry("SELECT a1_ FROM Employee AS a1_ WHERE a1_.age > 10", 300), null));
+        assertTrue(log.add(entry("SELECT a1_ FROM Employee AS a1_ WHERE a1_.age > 20", 100), null));
+        assertTrue(log.add(entry("SELECT a1_ FROM Employee AS a1_ WHERE a1_.age > 30", 200), null));
+        assertFalse(log.add(entry("SELECT a1_ FROM Employee AS a1_ WHERE a1_.age > 40", 50), null));
+        assertTrue(log.add(entry("SELECT a1_ FROM Company AS a1_", 150), null));
+
+        List<SlowQueryLog.Entry> entries = log.getEntries();
+        assertEquals(3, entries.size());
+        assertEquals(300, entries.get(0).getTotalTime());
+        assertEquals(200, entries.get(1).getTotalTime());
+        assertEquals(150, entries.get(2).getTotalTime());
+        assertEquals(entries.get(0).getShape(), entries.get(1).getShape());
+        assertEquals("SELECT a1_ FROM Employee AS a1_ WHERE a1_.age > ?",
+                entries.get(0).getShape());
+
+        Map<String, Object> map = entries.get(0).toMap();
+        assertEquals(new Long(300), map.get("totalTime"));
+        assertEquals("SELECT a1_ FROM Employee AS a1_ WHERE a1_.age > 10", map.get("iql"));
+        assertNull(map.get("explain"));
+
+        log.clear();
+        assertTrue(log.getEntries().isEmpty());
+    }
+
+    public void testMaximumShapesAndAge() throws Exception {
+        SlowQueryLog log = new SlowQueryLog(null);
+        log.setMaximumShapes(2);
+        log.add(entry("SELECT a1_ FROM Employee AS a1_", 100), null);
+        log.add(entry("SELECT a1_ FROM Company AS a1_", 200), null);
+        log.add(entry("SELECT a1_ FROM Department AS a1_", 300), null);
+        List<SlowQueryLog.Entry> entries = log.getEntries();
+        assertEquals(2, entries.size());
+        assertEquals(300, entries.get(0).getTotalTime());
+        assertEquals(200, entries.get(1).getTotalTime());
+
+        log.setMaximumAge(-1);
+        assertTrue(log.getEntries().isEmpty());
+    }
+
+    public void testTruncatedBag() throws Exception {
+        List<Integer> bag = new ArrayList<Integer>();
+        for (int i = 0; i < 1000; i++) {
+            bag.add(new Integer(i));
+        }
+        IqlQuery iql = new IqlQuery("SELECT a1_ FROM Employee AS a1_ WHERE a1_.age IN ?",
+                "org.intermine.model.testmodel", Collections.singletonList(bag));
+        SlowQueryLog.Entry entry = new SlowQueryLog.Entry(iql.getShape(),
+                iql.toStringTruncateParameters(SlowQueryLog.BAG_ELEMENTS), "generated",
+                "optimised", Collections.singletonList(new Integer(1000)),
+                new LinkedHashMap<String, Long>(), 0, 1000, 10);
+        assertEquals("SELECT a1_ FROM Employee AS a1_ WHERE a1_.age IN ?", entry.getShape());
+        assertTrue(((String) entry.toMap().get("iql")).endsWith("(showing 20 of 1000)"));
+    }
+
+    private static SlowQueryLog.Entry entry(String iql, long time) {
+        Map<String, Long> timings = new LinkedHashMap<String, Long>();
+        timings.put("execute", new Long(time));
+        return new SlowQueryLog.Entry(iql, "generated", "optimised",
+                Collections.<Integer>emptyList(), timings, 0, 1000, 10);
+    }
+}
@@ -13,6 +13,7 @@ package org.intermine.objectstore.intermine;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.sql.Connection;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -20,6 +21,7 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -48,6 +50,7 @@ import org.intermine.objectstore.query.QueryExpression;
 import org.intermine.objectstore.query.QueryField;
 import org.intermine.objectstore.query.QueryFunction;
 import org.intermine.objectstore.query.QueryValue;
+import org.intermine.objectstore.query.ResultsRow;
 import org.intermine.objectstore.query.SimpleConstraint;
 import org.intermine.sql.Database;
 import org.intermine.sql.DatabaseFactory;
@@ -893,6 +896,51 @@ public class SqlGeneratorTest extends SetupDataTestCase
         assertEquals("SELECT DISTINCT a1_.name AS a2_ FROM " + getRegisterOffset3() + " " + getRegisterOffset4() + " a1_.name < 'flibble' ORDER BY a1_.name DESC OFFSET 5", SqlGenerator.generate(q, 10, Integer.MAX_VALUE, schema, db, Collections.EMPTY_MAP));
     }
 
+    public void testRegisterKeyset() throws Exception {
+        DatabaseSchema schema = getSchema();
+        Query q = new Query();
+        QueryClass qc = new QueryClass(Employee.class);
+        q.addFrom(qc);
+        q.addToSelect(new QueryField(qc, "age"));
+        q.addToSelect(new QueryField(qc, "id"));
+        List<ResultsRow<Object>> rows = new ArrayList<ResultsRow<Object>>();
+        rows.add(new ResultsRow<Object>(Arrays.asList(new Object[] {new Integer(20), new Integer(1)})));
+        rows.add(new ResultsRow<Object>(Arrays.asList(new Object[] {new Integer(20), new Integer(2)})));
+        rows.add(new ResultsRow<Object>(Arrays.asList(new Object[] {new Integer(21), new Integer(3)})));
+        assertTrue(SqlGenerator.registerKeyset(q, 0, schema, rows));
+        assertEquals("SELECT DISTINCT a1_.age AS a2_, a1_.id AS a3_ FROM " + getRegisterOffset3() + " ORDER BY a1_.age, a1_.id OFFSET 1", SqlGenerator.generate(q, 1, Integer.MAX_VALUE, schema, db, Collections.EMPTY_MAP));
+        assertEquals("SELECT DISTINCT a1_.age AS a2_, a1_.id AS a3_ FROM " + getRegisterOffset3() + " " + getRegisterOffset4() + " a1_.age >= 20 AND (a1_.age > 20 OR a1_.id > 2) ORDER BY a1_.age, a1_.id OFFSET 8", SqlGenerator.generate(q, 10, Integer.MAX_VALUE, schema, db, Collections.EMPTY_MAP));
+        // A later boundary is used for a later batch, even with ties on the first column
+        rows.clear();
+        rows.add(new ResultsRow<Object>(Arrays.asList(new Object[] {new Integer(21), new Integer(7)})));
+        rows.add(new ResultsRow<Object>(Arrays.asList(new Object[] {new Integer(21), new Integer(8)})));
+        assertTrue(SqlGenerator.registerKeyset(q, 2000000, schema, rows));
+        assertEquals("SELECT DISTINCT a1_.age AS a2_, a1_.id AS a3_ FROM " + getRegisterOffset3() + " " + getRegisterOffset4() + " a1_.age >= 21 AND (a1_.age > 21 OR a1_.id > 7) ORDER BY a1_.age, a1_.id LIMIT 10 OFFSET 1", SqlGenerator.generate(q, 2000002, 10, schema, db, Collections.EMPTY_MAP));
+        assertEquals("SELECT DISTINCT a1_.age AS a2_, a1_.id AS a3_ FROM " + getRegisterOffset3() + " " + getRegisterOffset4() + " a1_.age >= 20 AND (a1_.age > 20 OR a1_.id > 2) ORDER BY a1_.age, a1_.id OFFSET 8", SqlGenerator.generate(q, 10, Integer.MAX_VALUE, schema, db, Collections.EMPTY_MAP));
+    }
+
+    public void testRegisterKeyset2() throws Exception {
+        DatabaseSchema schema = getSchema();
+        Query q = new Query();
+        QueryClass qc = new QueryClass(Employee.class);
+        q.addFrom(qc);
+        QueryField age = new QueryField(qc, "age");
+        q.addToSelect(age);
+        q.addToSelect(new QueryField(qc, "name"));
+        q.addToOrderBy(new OrderDescending(age));
+        List<ResultsRow<Object>> rows = new ArrayList<ResultsRow<Object>>();
+        rows.add(new ResultsRow<Object>(Arrays.asList(new Object[] {new Integer(30), "b"})));
+        rows.add(new ResultsRow<Object>(Arrays.asList(new Object[] {new Integer(30), "c"})));
+        rows.add(new ResultsRow<Object>(Arrays.asList(new Object[] {new Integer(29), "a"})));
+        assertTrue(SqlGenerator.registerKeyset(q, 0, schema, rows));
+        assertEquals("SELECT DISTINCT a1_.age AS a2_, a1_.name AS a3_ FROM " + getRegisterOffset3() + " " + getRegisterOffset4() + " a1_.age <= 30 AND (a1_.age < 30 OR (a1_.name > 'c' OR a1_.name IS NULL)) ORDER BY a1_.age DESC, a1_.name OFFSET 3", SqlGenerator.generate(q, 5, Integer.MAX_VALUE, schema, db, Collections.EMPTY_MAP));
+        // A boundary on a NULL value cannot be registered
+        rows.clear();
+        rows.add(new ResultsRow<Object>(Arrays.asList(new Object[] {new Integer(20), "z"})));
+        rows.add(new ResultsRow<Object>(Arrays.asList(new Object[] {new Integer(20), null})));
+        assertFalse(SqlGenerator.registerKeyset(q, 100, schema, rows));
+    }
+
     public void testForPrecomp() throws Exception {
         DatabaseSchema schema = getSchema();
         Query q = (Query) queries.get("SelectSimpleObject");
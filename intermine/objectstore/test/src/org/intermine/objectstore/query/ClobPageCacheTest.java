@@ -0,0 +1,65 @@
+package org.intermine.objectstore.query;
+
+/*
+ * Copyright (C) 2002-2016 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import junit.framework.TestCase;
+
+public class ClobPageCacheTest extends TestCase
+{
+    private ClobPageCache cache = ClobPageCache.getInstance();
+
+    public ClobPageCacheTest(String arg) {
+        super(arg);
+    }
+
+    public void setUp() throws Exception {
+        cache.setMaximumChars(ClobPageCache.DEFAULT_MAXIMUM_CHARS);
+    }
+
+    public void tearDown() throws Exception {
+        cache.setMaximumChars(ClobPageCache.DEFAULT_MAXIMUM_CHARS);
+    }
+
+    public void testPages() throws Exception {
+        Clob clob = new Clob(42);
+        Integer sequence = new Integer(7);
+        assertNull(cache.getPage(null, clob, 0, sequence));
+        cache.putPage(null, clob, 0, sequence, "Monkey");
+        cache.putPage(null, clob, 1, sequence, "Lots of monkeys");
+        assertEquals("Monkey", cache.getPage(null, clob, 0, sequence));
+        assertEquals("Lots of monkeys", cache.getPage(null, new Clob(42), 1, sequence));
+        assertNull(cache.getPage(null, new Clob(43), 0, sequence));
+        assertNull(cache.getPage(null, clob, 0, new Integer(8)));
+        assertEquals(2, cache.size());
+
+        cache.clear();
+        assertNull(cache.getPage(null, clob, 0, sequence));
+    }
+
+    public void testLength() throws Exception {
+        Clob clob = new Clob(42);
+        Integer sequence = new Integer(7);
+        assertEquals(-1, cache.getLength(null, clob, sequence));
+        cache.putPage(null, clob, 0, sequence, "Monkey");
+        cache.putLength(null, clob, sequence, 6);
+        assertEquals(6, cache.getLength(null, clob, sequence));
+        assertEquals(-1, cache.getLength(null, clob, new Integer(8)));
+        assertEquals("Monkey", cache.getPage(null, clob, 0, sequence));
+    }
+
+    public void testDisabled() throws Exception {
+        cache.setMaximumChars(0);
+        Clob clob = new Clob(42);
+        Integer sequence = new Integer(7);
+        cache.putPage(null, clob, 0, sequence, "Monkey");
+        assertNull(cache.getPage(null, clob, 0, sequence));
+    }
+}
@@ -0,0 +1,94 @@
+package org.intermine.objectstore.query;
+
+/*
+ * Copyright (C) 2002-2016 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class ColumnarResultsTest extends TestCase
+{
+    public ColumnarResultsTest(String arg) {
+        super(arg);
+    }
+
+    public void testColumns() throws Exception {
+        ColumnarResults.IntColumn ints = new ColumnarResults.IntColumn();
+        ColumnarResults.LongColumn longs = new ColumnarResults.LongColumn();
+        ColumnarResults.DoubleColumn doubles = new ColumnarResults.DoubleColumn();
+        ColumnarResults.StringColumn strings = new ColumnarResults.StringColumn();
+        ColumnarResults.ObjectColumn objects = new ColumnarResults.ObjectColumn();
+        for (int i = 0; i < 100; i++) {
+            if (i % 10 == 3) {
+                ints.addNull();
+                longs.addNull();
+                doubles.addNull();
+                strings.add(null);
+                objects.addNull();
+            } else {
+                ints.add(i);
+                longs.add(i * 10000000000L);
+                doubles.add(i / 2.0);
+                strings.add("Value " + (i % 4));
+                objects.add(new BigDecimal(i));
+            }
+        }
+        ColumnarResults results = new ColumnarResults(Arrays.<ColumnarResults.Column>asList(ints,
+                    longs, doubles, strings, objects));
+        assertEquals(100, results.size());
+        assertEquals(5, results.getColumnCount());
+        assertSame(strings, results.getColumn(3));
+
+        assertEquals(42, ints.getInt(42));
+        assertEquals(420000000000L, longs.getLong(42));
+        assertEquals(21.0, doubles.getDouble(42), 0.0);
+        assertEquals("Value 2", strings.getString(42));
+        assertEquals(Arrays.asList("Value 0", "Value 1", "Value 2", "Value 3"),
+                strings.getDictionary());
+        assertEquals(2, strings.getCode(42));
+        assertTrue(ints.isNull(43));
+        assertTrue(strings.isNull(43));
+        assertEquals(-1, strings.getCode(43));
+        assertFalse(doubles.isNull(42));
+
+        List<Object> expected = new ArrayList<Object>();
+        expected.add(new Integer(42));
+        expected.add(new Long(420000000000L));
+        expected.add(new Double(21.0));
+        expected.add("Value 2");
+        expected.add(new BigDecimal(42));
+        assertEquals(expected, results.get(42));
+        assertEquals(Arrays.asList(null, null, null, null, null), results.get(43));
+        assertEquals(10, results.subList(10, 20).size());
+
+        try {
+            results.get(100);
+            fail("Expected IndexOutOfBoundsException");
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+    }
+
+    public void testDifferentSizes() throws Exception {
+        ColumnarResults.IntColumn ints = new ColumnarResults.IntColumn();
+        ints.add(1);
+        ColumnarResults.StringColumn strings = new ColumnarResults.StringColumn();
+        try {
+            new ColumnarResults(Arrays.<ColumnarResults.Column>asList(ints, strings));
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -90,6 +90,20 @@ public class ResultsTest extends TestCase
         }
     }
 
+    public void testStreamingIteratorFallsBack() throws Exception {
+        Query q = new Query();
+        q.addFrom(new QueryClass(Department.class));
+        Results res = os.execute(q, 5, true, true, true);
+        // The dummy ObjectStore cannot stream, so this uses the batched iterator
+        ResultsCursor cursor = res.streamingIterator(3);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(cursor.hasNext());
+            assertEquals("" + i, ((ResultsRow) cursor.next()).get(0));
+        }
+        assertFalse(cursor.hasNext());
+        cursor.close();
+    }
+
     public void testGetFromTwoBatches() throws Exception {
         Query q = new Query();
         q.addFrom(new QueryClass(Department.class));
@@ -102,6 +116,34 @@ public class ResultsTest extends TestCase
         assertEquals("3", (String) row.get(0));
     }
 
+    public void testAdaptivePrefetch() throws Exception {
+        os.setResultsSize(200);
+        Query q = new Query();
+        q.addFrom(new QueryClass(Department.class));
+        Results res = os.execute(q, 5, true, true, true);
+        long requests = PrefetchManager.getRequestCount();
+
+        // Paging through a few rows does not prefetch anything
+        res.range(0, 4);
+        assertEquals(0, res.prefetchDepth);
+
+        // Reading sequentially switches prefetching on
+        int count = 0;
+        for (Object row : res) {
+            assertNotNull(row);
+            count++;
+        }
+        assertEquals(200, count);
+        assertTrue(res.prefetchDepth >= 1);
+        assertTrue(res.prefetchDepth <= PrefetchManager.getMaxDepth());
+        assertTrue(PrefetchManager.getRequestCount() > requests);
+
+        // And jumping about switches it off again
+        res.get(17);
+        assertEquals(0, res.prefetchDepth);
+        assertEquals(-1, res.prefetchedTo);
+    }
+
     public void testInvalidRange() throws Exception {
         Query q = new Query();
         q.addFrom(new QueryClass(Department.class));
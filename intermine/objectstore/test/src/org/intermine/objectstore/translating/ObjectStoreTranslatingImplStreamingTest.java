@@ -0,0 +1,100 @@
+package org.intermine.objectstore.translating;
+
+/*
+ * Copyright (C) 2002-2016 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Collections;
+
+import junit.framework.TestCase;
+
+import org.intermine.metadata.Model;
+import org.intermine.model.InterMineObject;
+import org.intermine.model.testmodel.Bank;
+import org.intermine.model.testmodel.Company;
+import org.intermine.objectstore.dummy.ObjectStoreDummyImpl;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.QueryClass;
+import org.intermine.objectstore.query.Results;
+import org.intermine.objectstore.query.ResultsCursor;
+import org.intermine.objectstore.query.ResultsRow;
+import org.intermine.util.DynamicUtil;
+
+public class ObjectStoreTranslatingImplStreamingTest extends TestCase
+{
+    private ObjectStoreDummyImpl dummy;
+    private ObjectStoreTranslatingImpl os;
+    private Query q;
+
+    public ObjectStoreTranslatingImplStreamingTest(String arg) {
+        super(arg);
+    }
+
+    public void setUp() throws Exception {
+        dummy = new ObjectStoreDummyImpl();
+        dummy.setResultsSize(10);
+        for (int i = 0; i < 10; i++) {
+            Company company = (Company) DynamicUtil.createObject(Collections.singleton(
+                        Company.class));
+            company.setId(new Integer(i));
+            company.setName("Company" + i);
+            ResultsRow row = new ResultsRow();
+            row.add(company);
+            dummy.addRow(row);
+        }
+        os = new ObjectStoreTranslatingImpl(Model.getInstanceByName("testmodel"), dummy,
+                new ObjectStoreTranslatingImplTest.CompanyTranslator());
+        q = new Query();
+        QueryClass qc = new QueryClass(InterMineObject.class);
+        q.addFrom(qc);
+        q.addToSelect(qc);
+    }
+
+    public void testStreamingIterator() throws Exception {
+        dummy.setStreaming(true);
+        Results res = os.execute(q, 3, true, true, true);
+        // A fetch size that does not divide the results, so that the last batch is partial
+        ResultsCursor cursor = res.streamingIterator(3);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(cursor.hasNext());
+            Bank bank = (Bank) ((ResultsRow) cursor.next()).get(0);
+            assertEquals("Company" + i, bank.getName());
+        }
+        assertFalse(cursor.hasNext());
+        cursor.close();
+        // The whole query was read through one cursor, not once per batch
+        assertEquals(1, dummy.getExecuteCalls());
+    }
+
+    public void testStreamingIteratorClose() throws Exception {
+        dummy.setStreaming(true);
+        Results res = os.execute(q, 3, true, true, true);
+        ResultsCursor cursor = res.streamingIterator(3);
+        assertTrue(cursor.hasNext());
+        assertEquals("Company0", ((Bank) ((ResultsRow) cursor.next()).get(0)).getName());
+        cursor.close();
+        assertFalse(cursor.hasNext());
+        // Closing twice must be harmless
+        cursor.close();
+    }
+
+    public void testStreamingIteratorFallsBack() throws Exception {
+        // The wrapped ObjectStore cannot stream, so this uses the batched iterator
+        Results res = os.execute(q, 3, true, true, true);
+        ResultsCursor cursor = res.streamingIterator(3);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(cursor.hasNext());
+            Bank bank = (Bank) ((ResultsRow) cursor.next()).get(0);
+            assertEquals("Company" + i, bank.getName());
+        }
+        assertFalse(cursor.hasNext());
+        cursor.close();
+        assertEquals(4, dummy.getExecuteCalls());
+    }
+}
@@ -0,0 +1,69 @@
+package org.intermine.sql;
+
+/*
+ * Copyright (C) 2002-2016 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.TestCase;
+
+import org.intermine.objectstore.query.iql.IqlQuery;
+
+public class QueryMetricsTest extends TestCase
+{
+    public QueryMetricsTest(String arg1) {
+        super(arg1);
+    }
+
+    public void testWithCallerType() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Callable<String> getCallerType = new Callable<String>() {
+                public String call() {
+                    return QueryMetrics.getCallerType();
+                }
+            };
+            String previous = QueryMetrics.setCallerType(QueryMetrics.WEBAPP);
+            Callable<String> wrapped;
+            try {
+                assertEquals(QueryMetrics.BUILD, executor.submit(getCallerType).get());
+                wrapped = QueryMetrics.withCallerType(getCallerType);
+            } finally {
+                QueryMetrics.setCallerType(previous);
+            }
+            assertEquals(QueryMetrics.WEBAPP, executor.submit(wrapped).get());
+            // The pool thread goes back to its own caller type afterwards
+            assertEquals(QueryMetrics.BUILD, executor.submit(getCallerType).get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public void testShapes() throws Exception {
+        QueryMetrics metrics = QueryMetrics.getInstance();
+        metrics.reset();
+        String fast = IqlQuery.getShape("SELECT a1_ FROM Employee AS a1_ WHERE a1_.age = 20");
+        String slow = IqlQuery.getShape("SELECT a1_ FROM Company AS a1_ WHERE a1_.name = 'x'");
+        assertEquals(fast, IqlQuery.getShape("SELECT a1_ FROM Employee AS a1_ WHERE a1_.age = 3"));
+        QueryMetrics.recordShape(fast, 5);
+        QueryMetrics.recordShape(fast, 7);
+        QueryMetrics.recordShape(slow, 100);
+        assertEquals(2, metrics.getShapeHistogram(fast).getCount());
+        Map<String, Map<String, Object>> snapshot = metrics.getShapeSnapshot(1);
+        assertEquals(1, snapshot.size());
+        assertEquals(new Long(100), snapshot.get(slow).get("total"));
+        assertEquals(2, metrics.getShapeSnapshot(10).size());
+        metrics.reset();
+        assertNull(metrics.getShapeHistogram(fast));
+    }
+}
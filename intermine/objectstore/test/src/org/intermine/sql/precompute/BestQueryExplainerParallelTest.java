@@ -0,0 +1,99 @@
+package org.intermine.sql.precompute;
+
+/*
+ * Copyright (C) 2002-2016 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.sql.SQLException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import junit.framework.TestCase;
+
+import org.intermine.sql.query.ExplainResult;
+import org.intermine.sql.query.Query;
+
+public class BestQueryExplainerParallelTest extends TestCase
+{
+    private Query q1, q2, q3;
+
+    public void setUp() {
+        // Dummy explains take 300ms for each table and constraint
+        q1 = new Query("SELECT mytable.a FROM mytable WHERE mytable.a = 1");
+        q2 = new Query("SELECT t1.a FROM mytable AS t1, mytable AS t2 WHERE t1.a = 1 AND t2.b = 1");
+        q3 = new Query("SELECT t1.a FROM mytable AS t1, mytable AS t2, mytable AS t3 WHERE t1.a = 1"
+                + " AND t2.b = 1 AND t3.c = 1");
+    }
+
+    public void testReturnBest() throws Exception {
+        BestQueryExplainerParallel bq = new BestQueryExplainerParallel(null, null, -1, 2, 0.0);
+        bq.add(q3);
+        bq.add(q2);
+        bq.add(q1);
+        assertSame(q1, bq.getBestQuery());
+        assertEquals(600, bq.getBestExplainResult().getTime());
+
+        bq = new BestQueryExplainerParallel(null, null, -1, 2, 0.0);
+        bq.add(q1);
+        bq.add(q3);
+        bq.add(q2);
+        assertSame(q1, bq.getBestQuery());
+    }
+
+    public void testEarlyStop() throws Exception {
+        BestQueryExplainerParallel bq = new BestQueryExplainerParallel(null, null, -1, 1, 0.4);
+        bq.add(q2);
+        bq.add(q1);
+        assertSame(q1, bq.getBestQuery());
+        try {
+            bq.add(q3);
+            fail("Expected: BestQueryException");
+        } catch (BestQueryException e) {
+        }
+
+        // 1200ms is not 40% better than 1800ms, so the search goes on
+        bq = new BestQueryExplainerParallel(null, null, -1, 1, 0.4);
+        bq.add(q3);
+        bq.add(q2);
+        assertSame(q2, bq.getBestQuery());
+        bq.add(q3);
+    }
+
+    public void testTimeLimit() throws Exception {
+        // The time limit is far off, so that the adds never reach it, and the stub decides when
+        // the time is up, so that the test does not depend on how fast the machine is
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch cancelled = new CountDownLatch(1);
+        final AtomicBoolean timeUp = new AtomicBoolean(false);
+        BestQueryExplainerParallel bq = new BestQueryExplainerParallel(null, null, 60000, 2, 0.0) {
+            @Override
+            protected ExplainResult getParallelExplainResult(String sql) throws SQLException {
+                running.countDown();
+                try {
+                    new CountDownLatch(1).await();
+                } catch (InterruptedException e) {
+                    cancelled.countDown();
+                }
+                return super.getParallelExplainResult(sql);
+            }
+
+            @Override
+            protected long getRemainingTime() {
+                return timeUp.get() ? 0 : super.getRemainingTime();
+            }
+        };
+        bq.add(q2);
+        bq.add(q1);
+        assertTrue(running.await(60, TimeUnit.SECONDS));
+        timeUp.set(true);
+        assertSame(q2, bq.getBestQuery());
+        assertTrue(cancelled.await(60, TimeUnit.SECONDS));
+    }
+}
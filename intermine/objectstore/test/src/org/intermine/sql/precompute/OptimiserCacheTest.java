@@ -28,4 +28,24 @@ public class OptimiserCacheTest extends TestCase
         assertNull(cache.lookup("original1", 10));
         assertNull(cache.lookup("somethingelse", 1000));
     }
+
+    public void testExplainAndReplace() throws Exception {
+        OptimiserCache cache = new OptimiserCache();
+        cache.addCacheLine("EXPLAIN original1", "optimised1_1", 1000);
+        assertEquals("optimised1_1", cache.lookup("original1", 1000));
+        assertEquals("EXPLAIN optimised1_1",
+                cache.lookup("explain original1", 1000));
+        cache.addCacheLine("original1", "optimised1_2", 1000);
+        assertEquals("optimised1_2", cache.lookup("original1", 1000));
+        cache.flush();
+        assertNull(cache.lookup("original1", 1000));
+    }
+
+    public void testBounded() throws Exception {
+        OptimiserCache cache = new OptimiserCache();
+        for (int i = 0; i < OptimiserCache.MAX_LINESETS * 3; i++) {
+            cache.addCacheLine("original" + i, "optimised" + i, 1000);
+        }
+        assertTrue(cache.cacheLines.size() <= OptimiserCache.MAX_LINESETS);
+    }
 }
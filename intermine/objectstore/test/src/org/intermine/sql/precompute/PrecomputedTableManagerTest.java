@@ -13,8 +13,10 @@ package org.intermine.sql.precompute;
 import junit.framework.TestCase;
 
 import java.sql.Connection;
+import java.sql.ResultSet;
 import java.sql.Statement;
 import java.sql.SQLException;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Set;
@@ -296,4 +298,49 @@ public class PrecomputedTableManagerTest extends TestCase
             con.close();
         }
     }
+
+    public void testMaintain() throws Exception {
+        synchronized (pt1) {
+            Query q = new Query("SELECT t1.col1 AS t1col1, t2.col1 AS t2col1 FROM tabletest AS t1,"
+                    + " tabletest AS t2 WHERE t1.col1 = t2.col2");
+            Connection con = database.getConnection();
+            PrecomputedTableManager ptm = new PrecomputedTableManager(database);
+            try {
+                createTable();
+                PrecomputedTable pt = new PrecomputedTable(q, q.getSQLString(), "precomp4",
+                        "test", con);
+                ptm.add(pt);
+                con.setAutoCommit(false);
+                Statement stmt = con.createStatement();
+                stmt.execute("DELETE FROM tabletest WHERE col1 = 50");
+                stmt.execute("INSERT INTO tabletest VALUES (100, 1)");
+                WriteDelta delta = new WriteDelta();
+                delta.addKey("tabletest", "col1", new Integer(50));
+                delta.addKey("tabletest", "col1", new Integer(100));
+                Set<PrecomputedTable> maintained = ptm.maintain(con,
+                        Collections.singleton("tabletest"), delta);
+                assertEquals(Collections.singleton(pt), maintained);
+                ResultSet r = stmt.executeQuery("SELECT COUNT(*) FROM ((SELECT * FROM precomp4"
+                        + " EXCEPT " + q.getSQLString() + ") UNION ALL (" + q.getSQLString()
+                        + " EXCEPT SELECT * FROM precomp4)) AS diff");
+                r.next();
+                assertEquals(0, r.getInt(1));
+                r = stmt.executeQuery("SELECT COUNT(*) FROM precomp4");
+                r.next();
+                assertEquals(98, r.getInt(1));
+                con.rollback();
+                con.setAutoCommit(true);
+
+                delta.addUnbounded("tabletest");
+                assertTrue(ptm.maintain(con, Collections.singleton("tabletest"), delta)
+                        .isEmpty());
+                ptm.delete(pt);
+            } catch (SQLException e) {
+                throw (SQLException) Util.verboseException(e);
+            } finally {
+                con.close();
+                deleteTable();
+            }
+        }
+    }
 }
@@ -0,0 +1,102 @@
+package org.intermine.sql.precompute;
+
+/*
+ * Copyright (C) 2002-2016 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.intermine.sql.query.ConstraintSet;
+import org.intermine.sql.query.Query;
+
+public class WriteDeltaTest extends TestCase
+{
+    private static final Set<String> EMPLOYEE = Collections.singleton("employee");
+
+    public void testBounded() throws Exception {
+        WriteDelta delta = new WriteDelta();
+        assertTrue(delta.isEmpty());
+        delta.addKey("employee", "id", new Integer(5));
+        delta.addKey("employee", "id", new Integer(6));
+        assertTrue(delta.isBounded("employee"));
+        assertEquals("id", delta.getColumn("employee"));
+        assertEquals(2, delta.getKeys("employee").size());
+
+        // A second key column makes the table unbounded, and it stays unbounded
+        delta.addKey("employee", "departmentid", new Integer(7));
+        assertFalse(delta.isBounded("employee"));
+        delta.addKey("employee", "id", new Integer(8));
+        assertFalse(delta.isBounded("employee"));
+        assertNull(delta.getKeys("employee"));
+        assertFalse(delta.isEmpty());
+
+        delta.clear();
+        assertTrue(delta.isEmpty());
+        for (int i = 0; i <= WriteDelta.MAX_KEYS; i++) {
+            delta.addKey("employee", "id", new Integer(i));
+        }
+        assertFalse(delta.isBounded("employee"));
+    }
+
+    public void testDeltaRestriction() throws Exception {
+        Query q = new Query("SELECT e.id AS eid, d.id AS did, e.name AS ename FROM employee AS e,"
+                + " department AS d WHERE e.departmentid = d.id");
+        PrecomputedTable pt = new PrecomputedTable(q, q.getSQLString(), "precomp1", "test", null);
+        WriteDelta delta = new WriteDelta();
+        delta.addKey("employee", "id", new Integer(5));
+        ConstraintSet ptRestriction = new ConstraintSet();
+        ConstraintSet restriction = PrecomputedTableManager.getDeltaRestriction(pt, EMPLOYEE,
+                delta, ptRestriction);
+        assertEquals("e.id IN (5)", restriction.getSQLString());
+        assertEquals("precomp1.eid IN (5)", ptRestriction.getSQLString());
+        assertEquals("SELECT e.id AS eid, d.id AS did, e.name AS ename FROM employee AS e,"
+                + " department AS d WHERE e.departmentid = d.id AND e.id IN (5)",
+                pt.getSQLString(restriction));
+
+        Set<String> both = new HashSet<String>(EMPLOYEE);
+        both.add("department");
+        delta.addKey("department", "id", new Integer(3));
+        restriction = PrecomputedTableManager.getDeltaRestriction(pt, both, delta,
+                new ConstraintSet());
+        assertEquals(2, restriction.getConstraints().size());
+
+        // The key column of the altered table must be in the precomputed table
+        delta.clear();
+        delta.addKey("employee", "departmentid", new Integer(3));
+        assertNull(PrecomputedTableManager.getDeltaRestriction(pt, EMPLOYEE, delta,
+                    new ConstraintSet()));
+
+        // The altered table must be bounded
+        delta.clear();
+        delta.addUnbounded("employee");
+        assertNull(PrecomputedTableManager.getDeltaRestriction(pt, EMPLOYEE, delta,
+                    new ConstraintSet()));
+    }
+
+    public void testUnsupportedShapes() throws Exception {
+        WriteDelta delta = new WriteDelta();
+        delta.addKey("employee", "id", new Integer(5));
+        String[] queries = new String[] {
+            "SELECT e.id AS eid, COUNT(*) AS c FROM employee AS e GROUP BY e.id",
+            "SELECT e.id AS eid FROM employee AS e LIMIT 10",
+            "SELECT e.id AS eid FROM employee AS e WHERE e.id IN (SELECT d.id AS x FROM"
+                + " department AS d)",
+            "SELECT e.id AS eid FROM employee AS e UNION SELECT d.id AS eid FROM department AS d"};
+        for (String sql : queries) {
+            Query q = new Query(sql);
+            PrecomputedTable pt = new PrecomputedTable(q, sql, "precomp1", "test", null);
+            assertNull(sql, PrecomputedTableManager.getDeltaRestriction(pt, EMPLOYEE, delta,
+                        new ConstraintSet()));
+        }
+    }
+}
@@ -1256,6 +1256,8 @@ public class QueryTest extends TestCase
     public void testTimeout() throws Exception {
         // this a just a query with many elements that will take some time to parse, doesn't actullay matter what it is
         String sql = "SELECT DISTINCT a1_.id AS a1_id, a2_.id AS a2_id, a3_.id AS a3_id, a2_.intermine_start AS orderbyfield0, a1_.briefDescription AS orderbyfield1, a1_.description AS orderbyfield2, a1_.id AS orderbyfield3, a2_.intermine_end AS orderbyfield4, a3_.shortName AS orderbyfield5 FROM Gene AS a1_, Location AS a2_, Organism AS a3_, Chromosome AS a4_ WHERE a1_.chromosomeLocationId = a2_.id AND a1_.organismId = a3_.id AND ((a2_.locatedOnId = a4_.id AND a4_.primaryIdentifier = 'MAL1' AND (a2_.featureId = a2_.featureId AND a2_.intermine_start > 1 AND a2_.intermine_end < 10001)) OR (a2_.locatedOnId = a4_.id AND a4_.primaryIdentifier = 'MAL1' AND (a2_.featureId = a2_.featureId AND a2_.intermine_start > 150001 AND a2_.intermine_end < 160001))) ORDER BY a2_.intermine_start, a1_.briefDescription, a1_.description, a1_.id, a2_.intermine_end, a3_.shortName, a2_.id, a3_.id LIMIT 5000";
+        // a query whose shape has been parsed before is not parsed again, so cannot time out
+        Query.PARSE_CACHE.clear();
         try {
             // set query parse timeout of 1ms, will throw timeout exception
             Query q = new Query(sql, new Long(1));
@@ -1263,4 +1265,25 @@ public class QueryTest extends TestCase
         } catch (QueryParseTimeoutException e) {
         }
     }
+
+    public void testParseCache() throws Exception {
+        Query.PARSE_CACHE.clear();
+        // The statistics are shared with every other test, so only their change is checked
+        long hits = Query.PARSE_CACHE.getHitCount();
+        long misses = Query.PARSE_CACHE.getMissCount();
+        Query q = new Query("SELECT t.a FROM tab AS t WHERE t.a IN (1, 2, 3) AND t.b = 'It''s' AND t.c > -4 AND t.d < 1.5::real ORDER BY t.a LIMIT 100 OFFSET 20");
+        assertEquals("SELECT t.a FROM tab AS t WHERE t.a IN (1, 2, 3) AND t.b = 'It''s' AND -4 < t.c AND t.d < 1.5::real ORDER BY t.a LIMIT 100 OFFSET 20", q.getSQLString());
+        assertEquals(1, Query.PARSE_CACHE.size());
+        q = new Query("SELECT t.a FROM tab AS t WHERE t.a IN (7, 8, 9) AND t.b = 'Hello' AND t.c > -40 AND t.d < 2.75::real ORDER BY t.a LIMIT 10 OFFSET 30");
+        assertEquals("SELECT t.a FROM tab AS t WHERE t.a IN (7, 8, 9) AND t.b = 'Hello' AND -40 < t.c AND t.d < 2.75::real ORDER BY t.a LIMIT 10 OFFSET 30", q.getSQLString());
+        assertEquals(1, Query.PARSE_CACHE.size());
+        assertEquals(hits + 1, Query.PARSE_CACHE.getHitCount());
+        assertEquals(misses + 1, Query.PARSE_CACHE.getMissCount());
+
+        Map<String, String> constants1 = new HashMap<String, String>();
+        Map<String, String> constants2 = new HashMap<String, String>();
+        assertEquals(Query.getShape("SELECT t.a FROM tab AS t WHERE t.b = 'x' AND t.c = 2", constants1),
+                Query.getShape("SELECT  t.a  FROM tab AS t WHERE t.b = 'yy' AND t.c = 30", constants2));
+        assertEquals(new HashSet<String>(Arrays.asList("'x'", "2")), new HashSet<String>(constants1.values()));
+    }
 }
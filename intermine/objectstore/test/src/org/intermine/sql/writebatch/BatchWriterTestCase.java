@@ -900,8 +900,12 @@ public abstract class BatchWriterTestCase extends TestCase
     }
 */
     private Set getGot(Connection con) throws SQLException {
+        return getGot(con, "table1");
+    }
+
+    private Set getGot(Connection con, String table) throws SQLException {
         Statement s = con.createStatement();
-        ResultSet r = s.executeQuery("SELECT a, b FROM table1");
+        ResultSet r = s.executeQuery("SELECT a, b FROM " + table);
         Set set = new HashSet();
         while (r.next()) {
             set.add(new Row(r.getInt(1), r.getInt(2)));
@@ -909,6 +913,91 @@ public abstract class BatchWriterTestCase extends TestCase
         return set;
     }
 
+    public void testParallelFlushers() throws Exception {
+        Database db = DatabaseFactory.getDatabase("db.unittest");
+        Connection con = db.getConnection();
+        con.setAutoCommit(false);
+        try {
+            Statement s = con.createStatement();
+            try {
+                s.execute("DROP TABLE table1");
+            } catch (SQLException e) {
+                con.rollback();
+            }
+            try {
+                s.execute("DROP TABLE table2");
+            } catch (SQLException e) {
+                con.rollback();
+            }
+            s.addBatch("CREATE TABLE table1(col1 int, col2 int)");
+            s.addBatch("CREATE TABLE table2(a int, b int)");
+            s.addBatch("INSERT INTO table1 VALUES (1, 101)");
+            s.executeBatch();
+            con.commit();
+            s = null;
+            BatchWriter writer = getWriter();
+            Batch batch = new Batch(writer);
+            batch.setParallelFlushers(db, 3);
+            assertEquals(3, batch.getParallelFlusherCount());
+            String colNames[] = new String[] {"col1", "col2"};
+            batch.addRow(con, "table1", new Integer(2), colNames, new Object[] {new Integer(2), new Integer(102)});
+            batch.addRow(con, "table2", "a", "b", 1, 2);
+            batch.addRow(con, "table2", "a", "b", 1, 3);
+            batch.flush(con);
+            Set expected = new HashSet();
+            expected.add(new Row(1, 2));
+            expected.add(new Row(1, 3));
+            assertEquals(expected, getGot(con, "table2"));
+
+            batch.deleteRow(con, "table1", "col1", new Integer(1));
+            batch.addRow(con, "table1", new Integer(3), colNames, new Object[] {new Integer(3), new Integer(103)});
+            batch.deleteRow(con, "table2", "a", "b", 1, 2);
+            batch.backgroundFlush(con, null);
+            batch.deleteRow(con, "table1", "col1", new Integer(3));
+            batch.flush(con);
+            expected.remove(new Row(1, 2));
+            assertEquals(expected, getGot(con, "table2"));
+            s = con.createStatement();
+            ResultSet r = s.executeQuery("SELECT col1, col2 FROM table1");
+            Map got = new TreeMap();
+            while (r.next()) {
+                got.put(r.getObject(1), r.getObject(2));
+            }
+            Map expectedRows = new TreeMap();
+            expectedRows.put(new Integer(2), new Integer(102));
+            assertEquals(expectedRows, got);
+            assertTrue(batch.getThroughputReport().contains("table1"));
+
+            batch.addRow(con, "table2", "a", "b", 1, 4);
+            batch.clear();
+            batch.close(con);
+            con.commit();
+            assertEquals(expected, getGot(con, "table2"));
+        } catch (SQLException e) {
+            StringWriter sw = new StringWriter();
+            PrintWriter pw = new PrintWriter(sw);
+            while (e != null) {
+                e.printStackTrace(pw);
+                e = e.getNextException();
+            }
+            pw.flush();
+            throw new Exception(sw.toString());
+        } finally {
+            try {
+                Statement s = con.createStatement();
+                s.execute("DROP TABLE table1");
+                s.execute("DROP TABLE table2");
+                con.commit();
+                con.close();
+            } catch (Exception e) {
+            }
+            try {
+                con.close();
+            } catch (Exception e) {
+            }
+        }
+    }
+
     public abstract BatchWriter getWriter();
     public int getThreshold() {
         return Integer.MAX_VALUE;
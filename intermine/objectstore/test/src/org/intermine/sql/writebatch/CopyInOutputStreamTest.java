@@ -0,0 +1,121 @@
+package org.intermine.sql.writebatch;
+
+/*
+ * Copyright (C) 2002-2016 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+
+import java.io.ByteArrayOutputStream;
+import java.sql.SQLException;
+
+import junit.framework.TestCase;
+
+import org.postgresql.copy.CopyIn;
+
+public class CopyInOutputStreamTest extends TestCase
+{
+    public CopyInOutputStreamTest(String arg) {
+        super(arg);
+    }
+
+    public void testBuffering() throws Exception {
+        MockCopyIn copyIn = new MockCopyIn();
+        CopyInOutputStream out = new CopyInOutputStream(copyIn);
+        out.write(1);
+        out.write(new byte[] {2, 3, 4}, 1, 2);
+        assertEquals(0, copyIn.data.size());
+        assertEquals(0, copyIn.writes);
+        out.flush();
+        assertEquals(1, copyIn.writes);
+        assertEquals(3L, out.getBytesWritten());
+
+        byte[] big = new byte[CopyInOutputStream.BUFFER_SIZE * 2 + 7];
+        for (int i = 0; i < big.length; i++) {
+            big[i] = (byte) i;
+        }
+        out.write(5);
+        out.write(big, 0, big.length);
+        assertEquals(3, copyIn.writes);
+        for (int i = 0; i < CopyInOutputStream.BUFFER_SIZE + 10; i++) {
+            out.write(i);
+        }
+        assertEquals(4, copyIn.writes);
+        assertEquals(42L, out.endCopy());
+        assertEquals(5, copyIn.writes);
+        assertFalse(copyIn.isActive());
+
+        byte[] got = copyIn.data.toByteArray();
+        assertEquals(4 + big.length + CopyInOutputStream.BUFFER_SIZE + 10, got.length);
+        assertEquals(1, got[0]);
+        assertEquals(3, got[1]);
+        assertEquals(4, got[2]);
+        assertEquals(5, got[3]);
+        for (int i = 0; i < big.length; i++) {
+            assertEquals(big[i], got[4 + i]);
+        }
+        assertEquals((byte) 9, got[got.length - 1]);
+    }
+
+    public void testCancel() throws Exception {
+        MockCopyIn copyIn = new MockCopyIn();
+        CopyInOutputStream out = new CopyInOutputStream(copyIn);
+        out.write(1);
+        out.cancel();
+        assertTrue(copyIn.cancelled);
+        assertFalse(copyIn.isActive());
+        assertEquals(0, copyIn.data.size());
+    }
+
+    private static class MockCopyIn implements CopyIn
+    {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        int writes = 0;
+        boolean active = true;
+        boolean cancelled = false;
+
+        public void writeToCopy(byte[] buf, int off, int siz) throws SQLException {
+            assertTrue(active);
+            data.write(buf, off, siz);
+            writes++;
+        }
+
+        public void flushCopy() {
+        }
+
+        public long endCopy() {
+            active = false;
+            return 42L;
+        }
+
+        public int getFieldCount() {
+            return 0;
+        }
+
+        public int getFormat() {
+            return 1;
+        }
+
+        public int getFieldFormat(int field) {
+            return 1;
+        }
+
+        public boolean isActive() {
+            return active;
+        }
+
+        public void cancelCopy() {
+            active = false;
+            cancelled = true;
+        }
+
+        public long getHandledRowCount() {
+            return 0L;
+        }
+    }
+}
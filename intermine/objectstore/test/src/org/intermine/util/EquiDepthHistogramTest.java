@@ -0,0 +1,94 @@
+package org.intermine.util;
+
+/*
+ * Copyright (C) 2002-2016 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class EquiDepthHistogramTest extends TestCase
+{
+    public EquiDepthHistogramTest(String arg1) {
+        super(arg1);
+    }
+
+    private EquiDepthHistogram build(int from, int to, int buckets) {
+        EquiDepthHistogram.Builder builder = new EquiDepthHistogram.Builder(true, to - from,
+                buckets);
+        for (int i = from; i < to; i++) {
+            builder.add(Integer.toString(i), 1);
+        }
+        return builder.build();
+    }
+
+    public void testBuild() throws Exception {
+        EquiDepthHistogram histogram = build(0, 100, 10);
+        assertEquals(10, histogram.getBuckets().size());
+        assertEquals(100L, histogram.getCount());
+        EquiDepthHistogram.Bucket bucket = histogram.getBuckets().get(2);
+        assertEquals("20", bucket.getLower());
+        assertEquals("29", bucket.getUpper());
+        assertEquals(10L, bucket.getCount());
+        assertEquals(10L, bucket.getDistinct());
+    }
+
+    public void testSkewed() throws Exception {
+        EquiDepthHistogram.Builder builder = new EquiDepthHistogram.Builder(false, 100, 4);
+        builder.add("a", 90);
+        builder.add("b", 5);
+        builder.add("c", 5);
+        EquiDepthHistogram histogram = builder.build();
+        assertEquals(2, histogram.getBuckets().size());
+        assertEquals(90.0, histogram.estimateCount("a"), 0.001);
+        assertEquals(5.0, histogram.estimateCount("c"), 0.001);
+        assertEquals(0.0, histogram.estimateCount("d"), 0.001);
+    }
+
+    public void testEstimateRange() throws Exception {
+        EquiDepthHistogram histogram = build(0, 100, 10);
+        assertEquals(100.0, histogram.estimateCount(null, null), 0.001);
+        assertEquals(30.0, histogram.estimateCount("30", "59"), 0.001);
+        assertEquals(50.0, histogram.estimateCount("50", null), 0.001);
+        assertEquals(15.0, histogram.estimateCount("5", "19"), 1.0);
+        assertEquals(0.0, histogram.estimateCount("200", null), 0.001);
+    }
+
+    public void testNumericOrder() throws Exception {
+        EquiDepthHistogram histogram = build(5, 15, 1);
+        assertEquals("5", histogram.getBuckets().get(0).getLower());
+        assertEquals("14", histogram.getBuckets().get(0).getUpper());
+        assertTrue(histogram.compare("9", "10") < 0);
+    }
+
+    public void testMerge() throws Exception {
+        EquiDepthHistogram merged = build(0, 50, 5).merge(build(50, 100, 5), 5);
+        assertEquals(100L, merged.getCount());
+        assertEquals(5, merged.getBuckets().size());
+        assertEquals("0", merged.getBuckets().get(0).getLower());
+        assertEquals("99", merged.getBuckets().get(4).getUpper());
+        assertEquals(40.0, merged.estimateCount("20", "59"), 0.001);
+    }
+
+    public void testToStrings() throws Exception {
+        EquiDepthHistogram histogram = build(0, 10, 2);
+        assertEquals(Arrays.asList("N", "0", "4", "5", "5", "5", "9", "5", "5"),
+                histogram.toStrings());
+        EquiDepthHistogram read = EquiDepthHistogram.valueOf(histogram.toStrings());
+        assertTrue(read.isNumeric());
+        assertEquals(histogram.toStrings(), read.toStrings());
+        try {
+            EquiDepthHistogram.valueOf(Arrays.asList("N", "0"));
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
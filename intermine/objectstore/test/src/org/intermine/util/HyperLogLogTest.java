@@ -0,0 +1,82 @@
+package org.intermine.util;
+
+/*
+ * Copyright (C) 2002-2016 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import junit.framework.TestCase;
+
+public class HyperLogLogTest extends TestCase
+{
+    public HyperLogLogTest(String arg1) {
+        super(arg1);
+    }
+
+    public void testEmpty() throws Exception {
+        assertEquals(0L, new HyperLogLog().cardinality());
+    }
+
+    public void testSmall() throws Exception {
+        HyperLogLog hll = new HyperLogLog();
+        for (int i = 0; i < 100; i++) {
+            hll.offer("value" + (i % 10));
+        }
+        hll.offer(null);
+        assertEquals(10L, hll.cardinality());
+    }
+
+    public void testLarge() throws Exception {
+        HyperLogLog hll = new HyperLogLog();
+        for (int i = 0; i < 100000; i++) {
+            hll.offer(new Integer(i));
+            hll.offer(new Integer(i));
+        }
+        long estimate = hll.cardinality();
+        assertTrue("Estimate " + estimate, Math.abs(estimate - 100000) < 8000);
+    }
+
+    public void testMerge() throws Exception {
+        HyperLogLog a = new HyperLogLog();
+        HyperLogLog b = new HyperLogLog();
+        HyperLogLog all = new HyperLogLog();
+        for (int i = 0; i < 20000; i++) {
+            a.offer(new Integer(i));
+            b.offer(new Integer(i + 10000));
+            all.offer(new Integer(i));
+            all.offer(new Integer(i + 10000));
+        }
+        a.merge(b);
+        assertEquals(all.cardinality(), a.cardinality());
+        assertEquals(all.toString(), a.toString());
+        try {
+            a.merge(new HyperLogLog(10));
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testToString() throws Exception {
+        HyperLogLog hll = new HyperLogLog(4);
+        for (int i = 0; i < 1000; i++) {
+            hll.offer("value" + i);
+        }
+        assertEquals(16, hll.toString().length());
+        HyperLogLog read = HyperLogLog.valueOf(hll.toString());
+        assertEquals(4, read.getPrecision());
+        assertEquals(hll.toString(), read.toString());
+        assertEquals(hll.cardinality(), read.cardinality());
+        try {
+            HyperLogLog.valueOf("ABC");
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
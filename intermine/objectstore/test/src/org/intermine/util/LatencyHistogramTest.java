@@ -0,0 +1,77 @@
+package org.intermine.util;
+
+/*
+ * Copyright (C) 2002-2016 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import junit.framework.TestCase;
+
+public class LatencyHistogramTest extends TestCase
+{
+    public LatencyHistogramTest(String arg1) {
+        super(arg1);
+    }
+
+    public void testBuckets() throws Exception {
+        assertEquals(0, LatencyHistogram.getIndex(0L));
+        assertEquals(63, LatencyHistogram.getIndex(63L));
+        assertEquals(64, LatencyHistogram.getIndex(64L));
+        assertEquals(64, LatencyHistogram.getIndex(65L));
+        assertEquals(65, LatencyHistogram.getIndex(66L));
+        assertEquals(95, LatencyHistogram.getIndex(127L));
+        assertEquals(96, LatencyHistogram.getIndex(128L));
+        int previous = -1;
+        for (long v = 0; v < 100000; v++) {
+            int index = LatencyHistogram.getIndex(v);
+            assertTrue(index >= previous);
+            assertTrue(v <= LatencyHistogram.getHighestValue(index));
+            if (index > 0) {
+                assertTrue(v > LatencyHistogram.getHighestValue(index - 1));
+            }
+            previous = index;
+        }
+        int last = LatencyHistogram.getIndex(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.getHighestValue(last));
+    }
+
+    public void testPercentiles() throws Exception {
+        LatencyHistogram h = new LatencyHistogram();
+        assertEquals(0L, h.getValueAtPercentile(99.0));
+        for (long v = 1; v <= 1000; v++) {
+            h.record(v);
+        }
+        assertEquals(1000L, h.getCount());
+        assertEquals(500500L, h.getTotal());
+        assertEquals(500.5, h.getMean(), 0.0001);
+        assertEquals(1000L, h.getMax());
+        assertEquals(1L, h.getValueAtPercentile(0.0));
+        assertWithin(500L, h.getValueAtPercentile(50.0));
+        assertWithin(990L, h.getValueAtPercentile(99.0));
+        assertEquals(1000L, h.getValueAtPercentile(100.0));
+    }
+
+    public void testReset() throws Exception {
+        LatencyHistogram h = new LatencyHistogram();
+        h.record(-5L);
+        h.record(12345L);
+        assertEquals(2L, h.getCount());
+        assertEquals(0L, h.getValueAtPercentile(50.0));
+        assertEquals(12345L, h.getMax());
+        h.reset();
+        assertEquals(0L, h.getCount());
+        assertEquals(0L, h.getMax());
+        assertEquals(0.0, h.getMean(), 0.0);
+        assertEquals(0L, h.getValueAtPercentile(50.0));
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue("Expected about " + expected + " but was " + actual,
+                (actual >= expected) && (actual <= expected + expected / 32));
+    }
+}
@@ -0,0 +1,159 @@
+package org.intermine.util;
+
+/*
+ * Copyright (C) 2002-2016 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class TinyLfuCacheMapTest extends TestCase
+{
+    public TinyLfuCacheMapTest(String arg1) {
+        super(arg1);
+    }
+
+    public void testNullValues() throws Exception {
+        TinyLfuCacheMap<Integer, Integer> cm = new TinyLfuCacheMap<Integer, Integer>("test", 100);
+
+        cm.put(new Integer(5), new Integer(40));
+        cm.put(new Integer(763), new Integer(67));
+        cm.put(new Integer(2), null);
+
+        assertEquals(new Integer(40), cm.get(new Integer(5)));
+        assertEquals(new Integer(67), cm.get(new Integer(763)));
+        assertNull(cm.get(new Integer(2)));
+        assertTrue(cm.containsKey(new Integer(2)));
+        assertFalse(cm.containsKey(new Integer(3)));
+        assertEquals(3, cm.size());
+        assertEquals(3, cm.getHitCount());
+
+        assertNull(cm.remove(new Integer(3)));
+        assertEquals(new Integer(40), cm.remove(new Integer(5)));
+        assertFalse(cm.containsKey(new Integer(5)));
+        assertNull(cm.remove(new Integer(2)));
+        assertFalse(cm.containsKey(new Integer(2)));
+        assertNull(cm.get(new Integer(2)));
+        assertEquals(1, cm.getMissCount());
+
+        assertEquals(new Integer(67), cm.putIfAbsent(new Integer(763), new Integer(1)));
+        assertEquals(new Integer(67), cm.get(new Integer(763)));
+        assertEquals(new Integer(67), cm.put(new Integer(763), new Integer(68)));
+        assertEquals(new Integer(68), cm.get(new Integer(763)));
+        assertEquals(1, cm.getWeightedSize());
+
+        cm.clear();
+        assertEquals(0, cm.size());
+        assertEquals(0, cm.getWeightedSize());
+        assertTrue(cm.isEmpty());
+    }
+
+    public void testBounded() throws Exception {
+        TinyLfuCacheMap<Integer, String> cm = new TinyLfuCacheMap<Integer, String>("test", 100);
+        for (int i = 0; i < 10000; i++) {
+            cm.put(new Integer(i), "Value " + i);
+            assertTrue(cm.size() <= 100);
+        }
+        assertEquals(100, cm.size());
+        assertEquals(100, cm.getWeightedSize());
+        assertEquals(9900, cm.getEvictionCount());
+    }
+
+    public void testFrequentEntriesSurviveScan() throws Exception {
+        TinyLfuCacheMap<Integer, String> cm = new TinyLfuCacheMap<Integer, String>("test", 100);
+        // A working set of 50 entries that is used often
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 50; i++) {
+                if (cm.get(new Integer(i)) == null) {
+                    cm.put(new Integer(i), "Hot " + i);
+                }
+            }
+        }
+        // A scan of entries that are only used once, as when exporting a large result set
+        for (int i = 1000; i < 11000; i++) {
+            cm.put(new Integer(i), "Cold " + i);
+        }
+        int present = 0;
+        for (int i = 0; i < 50; i++) {
+            if (cm.containsKey(new Integer(i))) {
+                present++;
+            }
+        }
+        assertTrue("Only " + present + " of the working set survived", present >= 45);
+    }
+
+    public void testWeigher() throws Exception {
+        TinyLfuCacheMap<Integer, List<Object>> cm = new TinyLfuCacheMap<Integer, List<Object>>(
+                "test", 1000, new TinyLfuCacheMap.Weigher<Integer, List<Object>>() {
+                    public int weigh(Integer key, List<Object> value) {
+                        return value.size();
+                    }
+                });
+        for (int i = 0; i < 100; i++) {
+            List<Object> batch = new ArrayList<Object>();
+            for (int o = 0; o < 100; o++) {
+                batch.add(new Integer(o));
+            }
+            cm.put(new Integer(i), batch);
+            assertTrue(cm.getWeightedSize() <= 1000);
+        }
+        assertEquals(10, cm.size());
+        // An entry that is heavier than the whole cache is not kept
+        List<Object> huge = new ArrayList<Object>();
+        for (int o = 0; o < 1001; o++) {
+            huge.add(new Integer(o));
+        }
+        cm.put(new Integer(-1), huge);
+        assertFalse(cm.containsKey(new Integer(-1)));
+    }
+
+    public void testConcurrent() throws Exception {
+        final TinyLfuCacheMap<Integer, Integer> cm = new TinyLfuCacheMap<Integer, Integer>("test",
+                500);
+        final Throwable[] failure = new Throwable[1];
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            final int seed = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        java.util.Random rand = new java.util.Random(seed);
+                        for (int i = 0; i < 50000; i++) {
+                            Integer key = new Integer(rand.nextInt(2000));
+                            Integer value = cm.get(key);
+                            if ((value != null) && (!value.equals(key))) {
+                                throw new IllegalStateException("Wrong value " + value
+                                        + " for key " + key);
+                            }
+                            if (value == null) {
+                                cm.put(key, key);
+                            } else if (rand.nextInt(100) == 0) {
+                                cm.remove(key);
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failure[0] = e;
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (int t = 0; t < threads.length; t++) {
+            threads[t].join();
+        }
+        if (failure[0] != null) {
+            throw new Exception(failure[0]);
+        }
+        assertTrue(cm.size() <= 500);
+        assertEquals(cm.size(), cm.getWeightedSize());
+    }
+}
@@ -0,0 +1,67 @@
+package org.intermine.web.filters;
+
+/*
+ * Copyright (C) 2002-2016 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.IOException;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+
+import org.intermine.sql.QueryMetrics;
+
+/**
+ * A Filter that tags the queries run while handling a request with the type of caller, so that
+ * the query metrics of the web services are kept apart from those of the webapp.
+ *
+ * @author agent
+ */
+public class QueryMetricsFilter implements Filter
+{
+    private static final String SERVICE_PATH = "/service";
+
+    /**
+     * Do the filtering.
+     * {@inheritDoc}
+     */
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+        throws IOException, ServletException {
+        String path = ((HttpServletRequest) request).getServletPath();
+        String previous = QueryMetrics.setCallerType((path != null)
+                && path.startsWith(SERVICE_PATH) ? QueryMetrics.WEBSERVICE : QueryMetrics.WEBAPP);
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            QueryMetrics.setCallerType(previous);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void init(FilterConfig config) throws ServletException {
+        // Nothing to do
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void destroy() {
+        // Nothing to do
+    }
+}
@@ -50,7 +50,7 @@ public abstract class HttpExporterBase
         executor = im.getPathQueryExecutor(profile);
         executor.setBatchSize(BATCH_SIZE);
         try {
-            return executor.execute(pathQuery);
+            return executor.executeStreaming(pathQuery);
         } catch (ObjectStoreException e) {
             throw new RuntimeException(e);
         }
@@ -111,6 +111,7 @@ public abstract class StandardHttpExporter extends HttpExporterBase implements T
         } finally {
             if (iter != null) {
                 iter.releaseGoFaster();
+                iter.close();
             }
         }
         if (exporter.getWrittenResultsCount() == 0) {
@@ -107,14 +107,17 @@ public class InlineResultsTable
         this.model = model;
         this.size = size;
 
-        Iterator<?> resultsIter;
+        List<?> shownResults;
         if (getSize() == -1) {
-            resultsIter = resultsAsList.iterator();
+            shownResults = resultsAsList;
         } else {
-            resultsIter = resultsAsList.subList(0, getSize()).iterator();
+            shownResults = resultsAsList.subList(0, getSize());
         }
+        // fetch the proxied row objects in one go rather than one query per row
+        ProxyReference.prefetch(shownResults);
 
         // loop through each row object
+        Iterator<?> resultsIter = shownResults.iterator();
         while (resultsIter.hasNext()) {
             Object o = resultsIter.next();
             if (o instanceof ProxyReference) {
@@ -123,6 +126,8 @@ public class InlineResultsTable
             }
             rowObjects.add(o);
         }
+        // and the objects they reference, which the columns are likely to show
+        ProxyReference.prefetch(rowObjects);
         long took = System.currentTimeMillis() - startTime;
         LOG.info("TIME - InlineResultsTable constructor took: " + took + "ms.");
     }
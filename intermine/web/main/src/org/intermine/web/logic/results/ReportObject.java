@@ -13,6 +13,7 @@ package org.intermine.web.logic.results;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
@@ -817,6 +818,9 @@ public class ReportObject
             im.getObjectStoreSummary()
                 .getNullReferencesAndCollections(getClassDescriptor().getName());
 
+        // fetch all the referenced objects in one go rather than one query per reference
+        ProxyReference.prefetch(Collections.singleton(object));
+
         Set<String> replacedFields = getReplacedFieldExprs();
         for (FieldDescriptor fd : getClassDescriptor().getAllFieldDescriptors()) {
             // only continue if we have not included this object in an inline list
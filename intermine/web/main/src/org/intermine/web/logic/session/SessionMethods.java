@@ -20,6 +20,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import javax.servlet.ServletContext;
 import javax.servlet.http.HttpServletRequest;
@@ -45,7 +49,6 @@ import org.intermine.model.InterMineObject;
 import org.intermine.objectstore.ObjectStore;
 import org.intermine.objectstore.ObjectStoreException;
 import org.intermine.objectstore.ObjectStoreQueryDurationException;
-import org.intermine.objectstore.intermine.ObjectStoreInterMineImpl;
 import org.intermine.objectstore.query.Query;
 import org.intermine.objectstore.query.ResultsInfo;
 import org.intermine.pathquery.PathException;
@@ -133,29 +136,13 @@ public final class SessionMethods
         final InterMineAPI im = getInterMineAPI(session);
         final ObjectStore os = im.getObjectStore();
 
-        final ObjectStoreInterMineImpl ios;
-        if (os instanceof ObjectStoreInterMineImpl) {
-            ios = (ObjectStoreInterMineImpl) os;
-        } else {
-            ios = null;
-        }
         Map<String, QueryMonitor> queries = getRunningQueries(session);
         QueryMonitor monitor = queries.get(qid);
-        // A reference to this runnable is used as a token for registering
-        // a cancelling the running query
 
         RunQueryThread runnable = new RunQueryThread() {
             @Override
             public void run () {
                 try {
-
-                    // Register request id for query on this thread
-                    // We do this before setting r
-                    if (ios != null) {
-                        LOG.debug("Registering request id " + this);
-                        ios.registerRequestId(this);
-                    }
-
                     // call this so that if an exception occurs we notice now rather than in the
                     // JSP code
                     try {
@@ -186,28 +173,22 @@ public final class SessionMethods
                     recordError(sw.toString(), session);
                     LOG.error("Exception", err);
                     error = true;
-                } finally {
-                    try {
-                        LOG.debug("Deregistering request id " + this);
-                        ((ObjectStoreInterMineImpl) os).deregisterRequestId(this);
-                    } catch (ObjectStoreException e1) {
-                        LOG.error("Exception", e1);
-                        error = true;
-                    }
                 }
             }
         };
-        Thread thread = null;
-        thread = new Thread(runnable);
-        thread.start();
-
-        while (thread.isAlive()) {
-            Thread.sleep(1000);
-            if (monitor != null) {
-                boolean cancelled = monitor.shouldCancelQuery();
-                if (cancelled && ios != null) {
+        // The action runs on the ObjectStore's query thread pool, and cancelling the Future
+        // cancels the query it is running
+        Future<Object> future = os.submit(Executors.callable(runnable));
+
+        boolean running = true;
+        while (running) {
+            try {
+                future.get(1, TimeUnit.SECONDS);
+                running = false;
+            } catch (TimeoutException e) {
+                if ((monitor != null) && monitor.shouldCancelQuery()) {
                     LOG.debug("Cancelling request " + runnable);
-                    ios.cancelRequest(runnable);
+                    future.cancel(true);
                     monitor.queryCancelled();
                     return false;
                 }
@@ -0,0 +1,60 @@
+package org.intermine.webservice.server;
+
+/*
+ * Copyright (C) 2002-2016 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.intermine.api.InterMineAPI;
+import org.intermine.sql.QueryMetrics;
+import org.intermine.webservice.server.core.JSONService;
+import org.intermine.webservice.server.exceptions.ServiceForbiddenException;
+
+/**
+ * Serves the query latency histograms of this webapp, by caller type and query phase, and for the
+ * query shapes that have taken the most time, to the administrator. Times are in milliseconds.
+ * The service is read-only - the histograms can only be reset through JMX.
+ *
+ * @author agent
+ */
+public class QueryMetricsService extends JSONService
+{
+    private static final String DENIAL_MSG = "Only the administrator may read the query metrics.";
+    private static final int SHAPES = 50;
+
+    /**
+     * Constructor
+     * @param im The InterMine API object.
+     */
+    public QueryMetricsService(InterMineAPI im) {
+        super(im);
+    }
+
+    @Override
+    protected void validateState() {
+        if (!isAuthenticated() || !getPermission().getProfile().isSuperuser()) {
+            throw new ServiceForbiddenException(DENIAL_MSG);
+        }
+    }
+
+    @Override
+    protected String getResultsKey() {
+        return "metrics";
+    }
+
+    @Override
+    protected void execute() throws Exception {
+        Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+        metrics.put("callerTypes", QueryMetrics.getInstance().getSnapshot());
+        metrics.put("shapes", QueryMetrics.getInstance().getShapeSnapshot(SHAPES));
+        addResultItem(metrics, false);
+    }
+}
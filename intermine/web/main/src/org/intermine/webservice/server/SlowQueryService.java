@@ -0,0 +1,76 @@
+package org.intermine.webservice.server;
+
+/*
+ * Copyright (C) 2002-2016 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.intermine.api.InterMineAPI;
+import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.intermine.ObjectStoreInterMineImpl;
+import org.intermine.objectstore.intermine.SlowQueryLog;
+import org.intermine.webservice.server.core.JSONService;
+import org.intermine.webservice.server.exceptions.ServiceForbiddenException;
+
+/**
+ * Serves the slowest recent queries run by the production ObjectStore to the administrator,
+ * slowest first, with their IQL, SQL, bag sizes, timings and plans where they have been
+ * explained.
+ *
+ * @author agent
+ */
+public class SlowQueryService extends JSONService
+{
+    private static final String DENIAL_MSG = "Only the administrator may read the slow queries.";
+
+    /**
+     * Constructor
+     * @param im The InterMine API object.
+     */
+    public SlowQueryService(InterMineAPI im) {
+        super(im);
+    }
+
+    @Override
+    protected void validateState() {
+        if (!isAuthenticated() || !getPermission().getProfile().isSuperuser()) {
+            throw new ServiceForbiddenException(DENIAL_MSG);
+        }
+    }
+
+    @Override
+    protected String getResultsKey() {
+        return "queries";
+    }
+
+    @Override
+    protected boolean lazyList() {
+        return true;
+    }
+
+    @Override
+    protected void execute() throws Exception {
+        List<SlowQueryLog.Entry> entries = Collections.emptyList();
+        ObjectStore os = im.getObjectStore();
+        if (os instanceof ObjectStoreInterMineImpl) {
+            SlowQueryLog slowQueryLog = ((ObjectStoreInterMineImpl) os).getSlowQueryLog();
+            if (slowQueryLog != null) {
+                entries = slowQueryLog.getEntries();
+            }
+        }
+        Iterator<SlowQueryLog.Entry> iter = entries.iterator();
+        while (iter.hasNext()) {
+            SlowQueryLog.Entry entry = iter.next();
+            addResultItem(entry.toMap(), iter.hasNext());
+        }
+    }
+}
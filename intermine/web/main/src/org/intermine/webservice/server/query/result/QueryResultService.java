@@ -304,7 +304,7 @@ public class QueryResultService extends AbstractQueryService
     }
 
     private void runResults(PathQuery pq,  int firstResult, int maxResults) {
-        final boolean canGoFaster;
+        final boolean streaming;
         final Iterator<List<ResultElement>> it;
         final String summaryPath = getOptionalParameter("summaryPath");
         if (isNotBlank(summaryPath)) {
@@ -323,17 +323,23 @@ public class QueryResultService extends AbstractQueryService
                     attributes.put("filteredCount", r.size());
                 }
                 it = new FilteringResultIterator(r, firstResult, maxResults, filterTerm);
-                canGoFaster = false;
+                streaming = false;
             } catch (ObjectStoreQueryDurationException e) {
                 throw new ServiceException("Query would take too long to run");
             } catch (ObjectStoreException e) {
                 throw new ServiceException("Problem getting summary.", e);
             }
         } else {
-            canGoFaster = maxResults > (BATCH_SIZE * 2);
+            // Large reads are streamed through a single database cursor, rather than running
+            // the query again for every batch.
+            streaming = maxResults > (BATCH_SIZE * 2);
             executor.setBatchSize(BATCH_SIZE);
             try {
-                it = executor.execute(pq, firstResult, maxResults);
+                if (streaming) {
+                    it = executor.executeStreaming(pq, firstResult, maxResults);
+                } else {
+                    it = executor.execute(pq, firstResult, maxResults);
+                }
             } catch (ObjectStoreQueryDurationException e) {
                 throw new ServiceException("Query would take too long to run");
             } catch (ObjectStoreException e) {
@@ -342,17 +348,13 @@ public class QueryResultService extends AbstractQueryService
         }
 
         ResultProcessor processor = makeResultProcessor();
-        if (it.hasNext()) { // Prime the batch fetching pumps
-            try {
-                if (canGoFaster) {
-                    // Going faster means writing to the DB. Don't do this if it is pointless.
-                    ((ExportResultsIterator) it).goFaster();
-                }
+        try {
+            if (it.hasNext()) {
                 processor.write(it, output);
-            } finally {
-                if (canGoFaster) {
-                    ((ExportResultsIterator) it).releaseGoFaster();
-                }
+            }
+        } finally {
+            if (streaming) {
+                ((ExportResultsIterator) it).close();
             }
         }
     }